@@ -159,6 +159,8 @@ public class Account implements BaseAccount {
     private boolean subscribedFoldersOnly;
     private int maximumPolledMessageAge;
     private int maximumAutoDownloadMessageSize;
+    private int maximumLocalStorageSize;
+    private int imapConnectionPoolSize;
     // Tracks if we have sent a notification for this account for
     // current set of fetched messages
     private boolean ringNotified;
@@ -852,6 +854,29 @@ public class Account implements BaseAccount {
         this.maximumAutoDownloadMessageSize = maximumAutoDownloadMessageSize;
     }
 
+    /**
+     * Returns the maximum size in MiB of message bodies and attachments kept on the device, or {@code 0} if there's no
+     * limit.
+     */
+    public synchronized int getMaximumLocalStorageSize() {
+        return maximumLocalStorageSize;
+    }
+
+    public synchronized void setMaximumLocalStorageSize(int maximumLocalStorageSize) {
+        this.maximumLocalStorageSize = maximumLocalStorageSize;
+    }
+
+    /**
+     * Returns the maximum number of idle IMAP connections that are kept open for reuse.
+     */
+    public synchronized int getImapConnectionPoolSize() {
+        return imapConnectionPoolSize;
+    }
+
+    public synchronized void setImapConnectionPoolSize(int imapConnectionPoolSize) {
+        this.imapConnectionPoolSize = imapConnectionPoolSize;
+    }
+
     public Date getEarliestPollDate() {
         int age = getMaximumPolledMessageAge();
         if (age >= 0) {
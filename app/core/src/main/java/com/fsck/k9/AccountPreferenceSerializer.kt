@@ -96,6 +96,10 @@ class AccountPreferenceSerializer(
             isSubscribedFoldersOnly = storage.getBoolean("$accountUuid.subscribedFoldersOnly", false)
             maximumPolledMessageAge = storage.getInt("$accountUuid.maximumPolledMessageAge", -1)
             maximumAutoDownloadMessageSize = storage.getInt("$accountUuid.maximumAutoDownloadMessageSize", 32768)
+            maximumLocalStorageSize = storage.getInt("$accountUuid.maximumLocalStorageSize", 0)
+            imapConnectionPoolSize = storage.getInt(
+                "$accountUuid.imapConnectionPoolSize", DEFAULT_IMAP_CONNECTION_POOL_SIZE
+            )
             messageFormat = getEnumStringPref<MessageFormat>(storage, "$accountUuid.messageFormat", DEFAULT_MESSAGE_FORMAT)
             val messageFormatAuto = storage.getBoolean("$accountUuid.messageFormatAuto", DEFAULT_MESSAGE_FORMAT_AUTO)
             if (messageFormatAuto && messageFormat == MessageFormat.TEXT) {
@@ -284,6 +288,8 @@ class AccountPreferenceSerializer(
             editor.putBoolean("$accountUuid.subscribedFoldersOnly", isSubscribedFoldersOnly)
             editor.putInt("$accountUuid.maximumPolledMessageAge", maximumPolledMessageAge)
             editor.putInt("$accountUuid.maximumAutoDownloadMessageSize", maximumAutoDownloadMessageSize)
+            editor.putInt("$accountUuid.maximumLocalStorageSize", maximumLocalStorageSize)
+            editor.putInt("$accountUuid.imapConnectionPoolSize", imapConnectionPoolSize)
             val messageFormatAuto = if (MessageFormat.AUTO == messageFormat) {
                 // saving MessageFormat.AUTO as is to the database will cause downgrades to crash on
                 // startup, so we save as MessageFormat.TEXT instead with a separate flag for auto.
@@ -403,6 +409,8 @@ class AccountPreferenceSerializer(
         editor.remove("$accountUuid.subscribedFoldersOnly")
         editor.remove("$accountUuid.maximumPolledMessageAge")
         editor.remove("$accountUuid.maximumAutoDownloadMessageSize")
+        editor.remove("$accountUuid.maximumLocalStorageSize")
+        editor.remove("$accountUuid.imapConnectionPoolSize")
         editor.remove("$accountUuid.messageFormatAuto")
         editor.remove("$accountUuid.quoteStyle")
         editor.remove("$accountUuid.quotePrefix")
@@ -566,6 +574,8 @@ class AccountPreferenceSerializer(
             isSubscribedFoldersOnly = false
             maximumPolledMessageAge = -1
             maximumAutoDownloadMessageSize = 32768
+            maximumLocalStorageSize = 0
+            imapConnectionPoolSize = DEFAULT_IMAP_CONNECTION_POOL_SIZE
             messageFormat = DEFAULT_MESSAGE_FORMAT
             isMessageFormatAuto = DEFAULT_MESSAGE_FORMAT_AUTO
             isMessageReadReceipt = DEFAULT_MESSAGE_READ_RECEIPT
@@ -639,5 +649,6 @@ class AccountPreferenceSerializer(
         const val DEFAULT_REPLY_AFTER_QUOTE = false
         const val DEFAULT_STRIP_SIGNATURE = true
         const val DEFAULT_REMOTE_SEARCH_NUM_RESULTS = 25
+        const val DEFAULT_IMAP_CONNECTION_POOL_SIZE = 3
     }
 }
@@ -76,6 +76,8 @@ object Core : EarlyInit {
 
         if (enabled) {
             jobManager.scheduleAllMailJobs()
+        } else {
+            jobManager.stopPushers()
         }
     }
 
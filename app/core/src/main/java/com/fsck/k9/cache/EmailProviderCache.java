@@ -1,5 +1,6 @@
 package com.fsck.k9.cache;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -7,9 +8,13 @@ import java.util.Map;
 import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
+import androidx.annotation.VisibleForTesting;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 
+import com.fsck.k9.DI;
 import com.fsck.k9.mailstore.LocalMessage;
+import com.fsck.k9.mailstore.MessageChangeFeed;
+import com.fsck.k9.mailstore.MessageChanges;
 import com.fsck.k9.provider.EmailProvider;
 
 /**
@@ -18,19 +23,14 @@ import com.fsck.k9.provider.EmailProvider;
 public class EmailProviderCache {
     public static final String ACTION_CACHE_UPDATED = "EmailProviderCache.ACTION_CACHE_UPDATED";
 
-    private static Context sContext;
     private static Map<String, EmailProviderCache> sInstances =
             new HashMap<>();
 
     public static synchronized EmailProviderCache getCache(String accountUuid, Context context) {
-
-        if (sContext == null) {
-            sContext = context.getApplicationContext();
-        }
-
         EmailProviderCache instance = sInstances.get(accountUuid);
         if (instance == null) {
-            instance = new EmailProviderCache(accountUuid);
+            MessageChangeFeed messageChangeFeed = DI.get(MessageChangeFeed.class);
+            instance = new EmailProviderCache(context.getApplicationContext(), accountUuid, messageChangeFeed);
             sInstances.put(accountUuid, instance);
         }
 
@@ -38,14 +38,19 @@ public class EmailProviderCache {
     }
 
 
+    private final Context context;
     private String mAccountUuid;
+    private final MessageChangeFeed messageChangeFeed;
     private final Map<Long, Map<String, String>> mMessageCache = new HashMap<>();
     private final Map<Long, Map<String, String>> mThreadCache = new HashMap<>();
     private final Map<Long, Long> mHiddenMessageCache = new HashMap<>();
 
 
-    private EmailProviderCache(String accountUuid) {
+    @VisibleForTesting
+    EmailProviderCache(Context context, String accountUuid, MessageChangeFeed messageChangeFeed) {
+        this.context = context;
         mAccountUuid = accountUuid;
+        this.messageChangeFeed = messageChangeFeed;
     }
 
     public String getValueForMessage(Long messageId, String columnName) {
@@ -74,7 +79,7 @@ public class EmailProviderCache {
             }
         }
 
-        notifyChange();
+        notifyChange(MessageChanges.updated(mAccountUuid, messageIds));
     }
 
     public void setValueForThreads(List<Long> threadRootIds, String columnName, String value) {
@@ -89,7 +94,8 @@ public class EmailProviderCache {
             }
         }
 
-        notifyChange();
+        // We don't know the IDs of the messages in the affected threads
+        notifyChange(MessageChanges.unknown(mAccountUuid));
     }
 
     public void removeValueForMessages(List<Long> messageIds, String columnName) {
@@ -121,14 +127,16 @@ public class EmailProviderCache {
     }
 
     public void hideMessages(List<LocalMessage> messages) {
+        List<Long> messageIds = new ArrayList<>(messages.size());
         synchronized (mHiddenMessageCache) {
             for (LocalMessage message : messages) {
                 long messageId = message.getDatabaseId();
                 mHiddenMessageCache.put(messageId, message.getFolder().getDatabaseId());
+                messageIds.add(messageId);
             }
         }
 
-        notifyChange();
+        notifyChange(MessageChanges.deleted(mAccountUuid, messageIds));
     }
 
     public boolean isMessageHidden(Long messageId, long folderId) {
@@ -162,12 +170,16 @@ public class EmailProviderCache {
      * {@link LocalBroadcastManager} to send a {@link #ACTION_CACHE_UPDATED} broadcast. This way
      * {@code MessageListFragment} can update the view without reloading the cursor.
      * </p>
+     * <p>
+     * The message list itself listens to {@link MessageChangeFeed} and only reloads the affected messages.
+     * </p>
      */
-    private void notifyChange() {
-        LocalBroadcastManager.getInstance(sContext).sendBroadcast(new Intent(ACTION_CACHE_UPDATED));
+    private void notifyChange(MessageChanges changes) {
+        LocalBroadcastManager.getInstance(context).sendBroadcast(new Intent(ACTION_CACHE_UPDATED));
+        messageChangeFeed.notifyMessagesChanged(changes);
 
         Uri uri = Uri.withAppendedPath(EmailProvider.CONTENT_URI, "account/" + mAccountUuid +
                 "/messages");
-        sContext.getContentResolver().notifyChange(uri, null);
+        context.getContentResolver().notifyChange(uri, null);
     }
 }
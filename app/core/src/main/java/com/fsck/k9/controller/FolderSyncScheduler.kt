@@ -0,0 +1,119 @@
+package com.fsck.k9.controller
+
+import java.util.LinkedList
+import java.util.concurrent.Executor
+import timber.log.Timber
+
+/**
+ * Runs folder synchronizations concurrently.
+ *
+ * At most [maxConcurrentSyncs] synchronizations run at the same time, and at most [maxConcurrentSyncsPerAccount] of
+ * them for the same account. Synchronizations of the same folder never run concurrently; they are run in the order
+ * they were scheduled.
+ *
+ * [listener] is notified once no synchronization of an account is running or waiting anymore.
+ */
+internal class FolderSyncScheduler(
+    private val executor: Executor,
+    private val maxConcurrentSyncs: Int,
+    private val maxConcurrentSyncsPerAccount: Int,
+    private val listener: Listener
+) {
+    private val pendingSyncs = LinkedList<FolderSync>()
+    private val runningFolders = mutableSetOf<FolderKey>()
+    private val runningSyncsPerAccount = mutableMapOf<String, Int>()
+    private var runningSyncs = 0
+
+    fun schedule(accountUuid: String, folderId: Long, runnable: Runnable) {
+        val folderSync = FolderSync(FolderKey(accountUuid, folderId), runnable)
+        synchronized(this) {
+            pendingSyncs.add(folderSync)
+        }
+
+        startPendingSyncs()
+    }
+
+    private fun startPendingSyncs() {
+        val syncsToStart = synchronized(this) { takeStartableSyncs() }
+
+        for (folderSync in syncsToStart) {
+            executor.execute { runFolderSync(folderSync) }
+        }
+    }
+
+    private fun takeStartableSyncs(): List<FolderSync> {
+        val syncsToStart = mutableListOf<FolderSync>()
+
+        // Iterate in the order the syncs were scheduled. A sync is only skipped if its folder is already being
+        // synchronized or the account limit has been reached. In both cases all later syncs for the same folder are
+        // skipped as well. So syncs of the same folder are always started in order.
+        val iterator = pendingSyncs.iterator()
+        while (iterator.hasNext() && runningSyncs < maxConcurrentSyncs) {
+            val folderSync = iterator.next()
+            val folderKey = folderSync.folderKey
+            val accountSyncs = runningSyncsPerAccount[folderKey.accountUuid] ?: 0
+
+            if (folderKey in runningFolders || accountSyncs >= maxConcurrentSyncsPerAccount) continue
+
+            iterator.remove()
+            runningFolders.add(folderKey)
+            runningSyncsPerAccount[folderKey.accountUuid] = accountSyncs + 1
+            runningSyncs++
+
+            syncsToStart.add(folderSync)
+        }
+
+        return syncsToStart
+    }
+
+    private fun runFolderSync(folderSync: FolderSync) {
+        try {
+            folderSync.runnable.run()
+        } catch (e: Exception) {
+            Timber.e(e, "Error synchronizing folder %s", folderSync.folderKey)
+        } finally {
+            synchronized(this) {
+                val folderKey = folderSync.folderKey
+                runningFolders.remove(folderKey)
+
+                val accountSyncs = runningSyncsPerAccount.getValue(folderKey.accountUuid) - 1
+                if (accountSyncs == 0) {
+                    runningSyncsPerAccount.remove(folderKey.accountUuid)
+                } else {
+                    runningSyncsPerAccount[folderKey.accountUuid] = accountSyncs
+                }
+
+                runningSyncs--
+
+                if (accountSyncs == 0 && pendingSyncs.none { it.folderKey.accountUuid == folderKey.accountUuid }) {
+                    // Called while holding the lock, so a sync scheduled for the account in the meantime can't start
+                    // before the listener is done.
+                    notifyAccountSyncsFinished(folderKey.accountUuid)
+                }
+            }
+
+            startPendingSyncs()
+        }
+    }
+
+    private fun notifyAccountSyncsFinished(accountUuid: String) {
+        try {
+            listener.onAccountSyncsFinished(accountUuid)
+        } catch (e: Exception) {
+            Timber.e(e, "Error notifying listener about finished syncs of account %s", accountUuid)
+        }
+    }
+
+    interface Listener {
+        /**
+         * Called when the last running synchronization of an account has finished and none are waiting.
+         *
+         * This is called while the scheduler's lock is held. Implementations must return quickly.
+         */
+        fun onAccountSyncsFinished(accountUuid: String)
+    }
+
+    private data class FolderKey(val accountUuid: String, val folderId: Long)
+
+    private class FolderSync(val folderKey: FolderKey, val runnable: Runnable)
+}
@@ -4,6 +4,7 @@ import android.content.Context
 import com.fsck.k9.CoreResourceProvider
 import com.fsck.k9.Preferences
 import com.fsck.k9.backend.BackendManager
+import com.fsck.k9.controller.push.PushController
 import com.fsck.k9.mailstore.LocalStoreProvider
 import com.fsck.k9.notification.NotificationController
 import com.fsck.k9.notification.NotificationStrategy
@@ -25,4 +26,5 @@ val controllerModule = module {
         )
     }
     single<UnreadMessageCountProvider> { DefaultUnreadMessageCountProvider(get(), get(), get(), get()) }
+    single { PushController(get(), get(), get(), get()) }
 }
@@ -113,6 +113,9 @@ public class MessagingController {
 
     public static final Set<Flag> SYNC_FLAGS = EnumSet.of(Flag.SEEN, Flag.FLAGGED, Flag.ANSWERED, Flag.FORWARDED);
 
+    private static final int MAX_CONCURRENT_FOLDER_SYNCS = 4;
+    private static final int MAX_CONCURRENT_FOLDER_SYNCS_PER_ACCOUNT = 2;
+
 
     private final Context context;
     private final NotificationController notificationController;
@@ -126,6 +129,10 @@ public class MessagingController {
     private final BlockingQueue<Command> queuedCommands = new PriorityBlockingQueue<>();
     private final Set<MessagingListener> listeners = new CopyOnWriteArraySet<>();
     private final ExecutorService threadPool = Executors.newCachedThreadPool();
+    private final ExecutorService folderSyncThreadPool = Executors.newFixedThreadPool(MAX_CONCURRENT_FOLDER_SYNCS);
+    private final FolderSyncScheduler folderSyncScheduler = new FolderSyncScheduler(folderSyncThreadPool,
+            MAX_CONCURRENT_FOLDER_SYNCS, MAX_CONCURRENT_FOLDER_SYNCS_PER_ACCOUNT, this::onAccountSyncsFinished);
+    private final Map<String, Object> pendingCommandsLocks = new HashMap<>();
     private final MemorizingMessagingListener memorizingMessagingListener = new MemorizingMessagingListener();
     private final UnreadMessageCountProvider unreadMessageCountProvider;
     private final CoreResourceProvider resourceProvider;
@@ -195,6 +202,7 @@ public class MessagingController {
         stopped = true;
         controllerThread.interrupt();
         controllerThread.join(1000L);
+        folderSyncThreadPool.shutdownNow();
     }
 
     private void runInBackground() {
@@ -587,13 +595,23 @@ public class MessagingController {
 
     /**
      * Start background synchronization of the specified folder.
+     * <p>
+     * Folders are synchronized by {@link FolderSyncScheduler}, concurrently with other folders but never concurrently
+     * with another synchronization of the same folder.
      */
     public void synchronizeMailbox(Account account, long folderId, MessagingListener listener) {
-        putBackground("synchronizeMailbox", listener, () ->
+        scheduleFolderSync(account, folderId, () ->
                 synchronizeMailboxSynchronous(account, folderId, listener)
         );
     }
 
+    private void scheduleFolderSync(Account account, long folderId, Runnable runnable) {
+        folderSyncScheduler.schedule(account.getUuid(), folderId, () -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            runnable.run();
+        });
+    }
+
     /**
      * Start foreground synchronization of the specified folder. This is generally only called
      * by synchronizeMailbox.
@@ -640,7 +658,9 @@ public class MessagingController {
             String rootMessage = getRootCauseMessage(commandException);
             Timber.e("Root cause failure in %s:%s was '%s'", account.getDescription(), folderServerId, rootMessage);
             updateFolderStatus(account, folderServerId, rootMessage);
-            listener.synchronizeMailboxFailed(account, folderId, rootMessage);
+            if (listener != null) {
+                listener.synchronizeMailboxFailed(account, folderId, rootMessage);
+            }
         }
     }
 
@@ -700,6 +720,26 @@ public class MessagingController {
     }
 
     public void processPendingCommandsSynchronous(Account account) throws MessagingException {
+        // Folders are synchronized concurrently. Make sure pending commands are only processed by one thread at a time
+        // so they are executed exactly once and in order.
+        synchronized (getPendingCommandsLock(account)) {
+            processPendingCommandsLocked(account);
+        }
+    }
+
+    private Object getPendingCommandsLock(Account account) {
+        synchronized (pendingCommandsLocks) {
+            Object lock = pendingCommandsLocks.get(account.getUuid());
+            if (lock == null) {
+                lock = new Object();
+                pendingCommandsLocks.put(account.getUuid(), lock);
+            }
+
+            return lock;
+        }
+    }
+
+    private void processPendingCommandsLocked(Account account) throws MessagingException {
         LocalStore localStore = localStoreProvider.getInstance(account);
         List<PendingCommand> commands = localStore.getPendingCommands();
 
@@ -1048,12 +1088,18 @@ public class MessagingController {
         threadPool.execute(new Runnable() {
             @Override
             public void run() {
-                setFlagSynchronous(account, messageIds, flag, newState, false);
+                setFlagSynchronous(account, messageIds, flag, newState);
             }
         });
     }
 
-    public void setFlagForThreads(final Account account, final List<Long> threadRootIds,
+    /**
+     * Set or remove a flag for the messages of a set of threads in a specific folder.
+     * <p>
+     * Threads can span multiple folders. Messages of these threads in other folders are not changed.
+     * </p>
+     */
+    public void setFlagForThreads(final Account account, final long folderId, final List<Long> threadRootIds,
             final Flag flag, final boolean newState) {
 
         setFlagForThreadsInCache(account, threadRootIds, flag, newState);
@@ -1061,13 +1107,28 @@ public class MessagingController {
         threadPool.execute(new Runnable() {
             @Override
             public void run() {
-                setFlagSynchronous(account, threadRootIds, flag, newState, true);
+                setFlagForThreadsSynchronous(account, folderId, threadRootIds, flag, newState);
             }
         });
     }
 
-    private void setFlagSynchronous(final Account account, final List<Long> ids,
-            final Flag flag, final boolean newState, final boolean threadedList) {
+    private void setFlagForThreadsSynchronous(final Account account, final long folderId,
+            final List<Long> threadRootIds, final Flag flag, final boolean newState) {
+
+        try {
+            LocalStore localStore = localStoreProvider.getInstance(account);
+            List<Long> messageIds = localStore.getMessageIdsInThreads(folderId, threadRootIds);
+
+            setFlagSynchronous(account, messageIds, flag, newState);
+        } catch (MessagingException e) {
+            Timber.e(e, "Couldn't get messages in threads");
+        } finally {
+            removeFlagForThreadsFromCache(account, threadRootIds, flag);
+        }
+    }
+
+    private void setFlagSynchronous(final Account account, final List<Long> messageIds,
+            final Flag flag, final boolean newState) {
 
         LocalStore localStore;
         try {
@@ -1080,13 +1141,8 @@ public class MessagingController {
         // Update affected messages in the database. This should be as fast as possible so the UI
         // can be updated with the new state.
         try {
-            if (threadedList) {
-                localStore.setFlagForThreads(ids, flag, newState);
-                removeFlagForThreadsFromCache(account, ids, flag);
-            } else {
-                localStore.setFlag(ids, flag, newState);
-                removeFlagFromCache(account, ids, flag);
-            }
+            localStore.setFlag(messageIds, flag, newState);
+            removeFlagFromCache(account, messageIds, flag);
         } catch (MessagingException e) {
             Timber.e(e, "Couldn't set flags in local database");
         }
@@ -1094,7 +1150,7 @@ public class MessagingController {
         // Read folder ID and UID of messages from the database
         Map<Long, List<String>> folderMap;
         try {
-            folderMap = localStore.getFolderIdsAndUids(ids, threadedList);
+            folderMap = localStore.getFolderIdsAndUids(messageIds);
         } catch (MessagingException e) {
             Timber.e(e, "Couldn't get folder name and UID of messages");
             return;
@@ -1201,6 +1257,19 @@ public class MessagingController {
         );
     }
 
+    /**
+     * Downloads a message that the user is likely to open soon.
+     * <p>
+     * This uses background priority so commands triggered by the user are run first.
+     * </p>
+     */
+    public void prefetchMessageRemote(Account account, long folderId, String uid, boolean downloadComplete,
+            MessagingListener listener) {
+        putBackground("prefetchMessageRemote", listener, () ->
+            loadMessageRemoteSynchronous(account, folderId, uid, listener, !downloadComplete)
+        );
+    }
+
     private void loadMessageRemoteSynchronous(Account account, long folderId, String uid,
             MessagingListener listener, boolean loadPartialFromSearch) {
         try {
@@ -1241,6 +1310,7 @@ public class MessagingController {
                 if (!loadPartialFromSearch) {
                     message.setFlag(Flag.X_DOWNLOADED_FULL, true);
                 }
+                message.setFlag(Flag.X_BODY_EVICTED, false);
             }
 
             // now that we have the full message, refresh the headers
@@ -1271,6 +1341,7 @@ public class MessagingController {
         fp.add(FetchProfile.Item.BODY);
         localFolder.fetch(Collections.singletonList(message), fp, null);
 
+        localStore.updateLastAccess(message.getDatabaseId());
         notificationController.removeNewMailNotification(account, message.makeMessageReference());
         markMessageAsReadOnView(account, message);
 
@@ -1488,89 +1559,95 @@ public class MessagingController {
 
             Backend backend = getBackend(account);
 
-            for (LocalMessage message : localMessages) {
-                if (message.isSet(Flag.DELETED)) {
-                    //FIXME: When uploading a message to the remote Sent folder the move code creates a placeholder
-                    // message in the Outbox. This code gets rid of these messages. It'd be preferable if the
-                    // placeholder message was never created, though.
-                    message.destroy();
-                    continue;
-                }
-                try {
-                    long messageId = message.getDatabaseId();
-                    OutboxState outboxState = outboxStateRepository.getOutboxState(messageId);
-
-                    if (outboxState.getSendState() != SendState.READY) {
-                        Timber.v("Skipping sending message " + message.getUid());
-                        notificationController.showSendFailedNotification(account,
-                                new MessagingException(message.getSubject()));
+            // Send all messages over one connection to the outgoing server
+            backend.beginSendSession();
+            try {
+                for (LocalMessage message : localMessages) {
+                    if (message.isSet(Flag.DELETED)) {
+                        //FIXME: When uploading a message to the remote Sent folder the move code creates a placeholder
+                        // message in the Outbox. This code gets rid of these messages. It'd be preferable if the
+                        // placeholder message was never created, though.
+                        message.destroy();
                         continue;
                     }
-
-                    Timber.i("Send count for message %s is %d", message.getUid(),
-                            outboxState.getNumberOfSendAttempts());
-
-                    localFolder.fetch(Collections.singletonList(message), fp, null);
                     try {
-                        if (message.getHeader(K9.IDENTITY_HEADER).length > 0 || message.isSet(Flag.DRAFT)) {
-                            Timber.v("The user has set the Outbox and Drafts folder to the same thing. " +
-                                    "This message appears to be a draft, so K-9 will not send it");
+                        long messageId = message.getDatabaseId();
+                        OutboxState outboxState = outboxStateRepository.getOutboxState(messageId);
+
+                        if (outboxState.getSendState() != SendState.READY) {
+                            Timber.v("Skipping sending message " + message.getUid());
+                            notificationController.showSendFailedNotification(account,
+                                    new MessagingException(message.getSubject()));
                             continue;
                         }
 
-                        outboxStateRepository.incrementSendAttempts(messageId);
-                        message.setFlag(Flag.X_SEND_IN_PROGRESS, true);
+                        Timber.i("Send count for message %s is %d", message.getUid(),
+                                outboxState.getNumberOfSendAttempts());
 
-                        Timber.i("Sending message with UID %s", message.getUid());
-                        backend.sendMessage(message);
+                        localFolder.fetch(Collections.singletonList(message), fp, null);
+                        try {
+                            if (message.getHeader(K9.IDENTITY_HEADER).length > 0 || message.isSet(Flag.DRAFT)) {
+                                Timber.v("The user has set the Outbox and Drafts folder to the same thing. " +
+                                        "This message appears to be a draft, so K-9 will not send it");
+                                continue;
+                            }
 
-                        message.setFlag(Flag.X_SEND_IN_PROGRESS, false);
-                        message.setFlag(Flag.SEEN, true);
-                        progress++;
-                        for (MessagingListener l : getListeners()) {
-                            l.synchronizeMailboxProgress(account, outboxFolderId, progress, todo);
-                        }
-                        moveOrDeleteSentMessage(account, localStore, localFolder, message);
+                            outboxStateRepository.incrementSendAttempts(messageId);
+                            message.setFlag(Flag.X_SEND_IN_PROGRESS, true);
 
-                        outboxStateRepository.removeOutboxState(messageId);
-                    } catch (AuthenticationFailedException e) {
-                        outboxStateRepository.decrementSendAttempts(messageId);
-                        lastFailure = e;
-                        wasPermanentFailure = false;
+                            Timber.i("Sending message with UID %s", message.getUid());
+                            backend.sendMessage(message);
 
-                        handleAuthenticationFailure(account, false);
-                        handleSendFailure(account, localFolder, message, e);
-                    } catch (CertificateValidationException e) {
-                        outboxStateRepository.decrementSendAttempts(messageId);
-                        lastFailure = e;
-                        wasPermanentFailure = false;
+                            message.setFlag(Flag.X_SEND_IN_PROGRESS, false);
+                            message.setFlag(Flag.SEEN, true);
+                            progress++;
+                            for (MessagingListener l : getListeners()) {
+                                l.synchronizeMailboxProgress(account, outboxFolderId, progress, todo);
+                            }
+                            moveOrDeleteSentMessage(account, localStore, localFolder, message);
+
+                            outboxStateRepository.removeOutboxState(messageId);
+                        } catch (AuthenticationFailedException e) {
+                            outboxStateRepository.decrementSendAttempts(messageId);
+                            lastFailure = e;
+                            wasPermanentFailure = false;
+
+                            handleAuthenticationFailure(account, false);
+                            handleSendFailure(account, localFolder, message, e);
+                        } catch (CertificateValidationException e) {
+                            outboxStateRepository.decrementSendAttempts(messageId);
+                            lastFailure = e;
+                            wasPermanentFailure = false;
+
+                            notifyUserIfCertificateProblem(account, e, false);
+                            handleSendFailure(account, localFolder, message, e);
+                        } catch (MessagingException e) {
+                            lastFailure = e;
+                            wasPermanentFailure = e.isPermanentFailure();
+
+                            if (wasPermanentFailure) {
+                                String errorMessage = e.getMessage();
+                                outboxStateRepository.setSendAttemptError(messageId, errorMessage);
+                            } else if (outboxState.getNumberOfSendAttempts() + 1 >= MAX_SEND_ATTEMPTS) {
+                                outboxStateRepository.setSendAttemptsExceeded(messageId);
+                            }
 
-                        notifyUserIfCertificateProblem(account, e, false);
-                        handleSendFailure(account, localFolder, message, e);
-                    } catch (MessagingException e) {
-                        lastFailure = e;
-                        wasPermanentFailure = e.isPermanentFailure();
+                            handleSendFailure(account, localFolder, message, e);
+                        } catch (Exception e) {
+                            lastFailure = e;
+                            wasPermanentFailure = true;
 
-                        if (wasPermanentFailure) {
-                            String errorMessage = e.getMessage();
-                            outboxStateRepository.setSendAttemptError(messageId, errorMessage);
-                        } else if (outboxState.getNumberOfSendAttempts() + 1 >= MAX_SEND_ATTEMPTS) {
-                            outboxStateRepository.setSendAttemptsExceeded(messageId);
+                            handleSendFailure(account, localFolder, message, e);
                         }
-
-                        handleSendFailure(account, localFolder, message, e);
                     } catch (Exception e) {
                         lastFailure = e;
-                        wasPermanentFailure = true;
-
-                        handleSendFailure(account, localFolder, message, e);
+                        wasPermanentFailure = false;
+                        Timber.e(e, "Failed to fetch message for sending");
+                        notifySynchronizeMailboxFailed(account, localFolder, e);
                     }
-                } catch (Exception e) {
-                    lastFailure = e;
-                    wasPermanentFailure = false;
-                    Timber.e(e, "Failed to fetch message for sending");
-                    notifySynchronizeMailboxFailed(account, localFolder, e);
                 }
+            } finally {
+                backend.endSendSession();
             }
 
             if (lastFailure != null) {
@@ -1707,18 +1784,24 @@ public class MessagingController {
         actOnMessageGroup(srcAccount, srcFolderId, messageReferences, (account, messageFolder, messages) -> {
             suppressMessages(account, messages);
 
-            putBackground("moveMessagesInThread", null, () -> {
-                try {
-                    List<LocalMessage> messagesInThreads = collectMessagesInThreads(account, messages);
-                    moveOrCopyMessageSynchronous(account, srcFolderId, messagesInThreads, destFolderId,
-                            MoveOrCopyFlavor.MOVE);
-                } catch (MessagingException e) {
-                    Timber.e(e, "Exception while moving messages");
-                }
-            });
+            putBackground("moveMessagesInThread", null, () ->
+                    moveMessagesInThreadSynchronous(account, srcFolderId, messages, destFolderId)
+            );
         });
     }
 
+    @VisibleForTesting
+    void moveMessagesInThreadSynchronous(Account account, long srcFolderId, List<LocalMessage> messages,
+            long destFolderId) {
+        try {
+            List<LocalMessage> messagesInThreads = collectMessagesInThreads(account, srcFolderId, messages);
+            moveOrCopyMessageSynchronous(account, srcFolderId, messagesInThreads, destFolderId,
+                    MoveOrCopyFlavor.MOVE);
+        } catch (MessagingException e) {
+            Timber.e(e, "Exception while moving messages");
+        }
+    }
+
     public void moveMessage(Account account, long srcFolderId, MessageReference message, long destFolderId) {
         moveMessages(account, srcFolderId, Collections.singletonList(message), destFolderId);
     }
@@ -1737,7 +1820,8 @@ public class MessagingController {
         actOnMessageGroup(srcAccount, srcFolderId, messageReferences, (account, messageFolder, messages) -> {
             putBackground("copyMessagesInThread", null, () -> {
                 try {
-                    List<LocalMessage> messagesInThreads = collectMessagesInThreads(account, messages);
+                    List<LocalMessage> messagesInThreads =
+                            collectMessagesInThreads(account, srcFolderId, messages);
                     moveOrCopyMessageSynchronous(account, srcFolderId, messagesInThreads, destFolderId,
                             MoveOrCopyFlavor.COPY);
                 } catch (MessagingException e) {
@@ -1829,8 +1913,6 @@ public class MessagingController {
                     if (unreadCountAffected) {
                         // If this move operation changes the unread count, notify the listeners
                         // that the unread count changed in both the source and destination folder.
-                        int unreadMessageCountSrc = localSrcFolder.getUnreadMessageCount();
-                        int unreadMessageCountDest = localDestFolder.getUnreadMessageCount();
                         for (MessagingListener l : getListeners()) {
                             l.folderStatusChanged(account, srcFolderId);
                             l.folderStatusChanged(account, destFolderId);
@@ -1890,14 +1972,21 @@ public class MessagingController {
 
     private void deleteThreadsSynchronous(Account account, long folderId, List<LocalMessage> messages) {
         try {
-            List<LocalMessage> messagesToDelete = collectMessagesInThreads(account, messages);
+            List<LocalMessage> messagesToDelete = collectMessagesInThreads(account, folderId, messages);
             deleteMessagesSynchronous(account, folderId, messagesToDelete);
         } catch (MessagingException e) {
             Timber.e(e, "Something went wrong while deleting threads");
         }
     }
 
-    private List<LocalMessage> collectMessagesInThreads(Account account, List<LocalMessage> messages)
+    /**
+     * Collect the messages of the threads the given messages belong to.
+     * <p>
+     * Only messages in {@code folderId} are returned. Threads can span multiple folders, but callers queue a single
+     * pending command for {@code folderId} with the UIDs of the returned messages.
+     * </p>
+     */
+    private List<LocalMessage> collectMessagesInThreads(Account account, long folderId, List<LocalMessage> messages)
             throws MessagingException {
 
         LocalStore localStore = localStoreProvider.getInstance(account);
@@ -1907,7 +1996,7 @@ public class MessagingController {
             long rootId = localMessage.getRootId();
             long threadId = (rootId == -1) ? localMessage.getThreadId() : rootId;
 
-            List<LocalMessage> messagesInThread = localStore.getMessagesInThread(threadId);
+            List<LocalMessage> messagesInThread = localStore.getMessagesInThread(threadId, folderId);
 
             messagesInThreads.addAll(messagesInThread);
         }
@@ -2267,6 +2356,26 @@ public class MessagingController {
             @Override
             public void run() {
 
+                // Finalize once the folder synchronizations started by all accounts have finished
+                PendingSyncs pendingSyncs = new PendingSyncs(() ->
+                        putBackground("finalize sync", null, new Runnable() {
+                                    @Override
+                                    public void run() {
+
+                                        Timber.i("Finished mail sync");
+
+                                        if (wakeLock != null) {
+                                            wakeLock.release();
+                                        }
+                                        for (MessagingListener l : getListeners(listener)) {
+                                            l.checkMailFinished(context, account);
+                                        }
+
+                                    }
+                                }
+                        )
+                );
+
                 try {
                     Timber.i("Starting mail check");
 
@@ -2279,28 +2388,14 @@ public class MessagingController {
                     }
 
                     for (final Account account : accounts) {
-                        checkMailForAccount(context, account, ignoreLastCheckedTime, listener);
+                        checkMailForAccount(context, account, ignoreLastCheckedTime, listener, pendingSyncs);
                     }
 
                 } catch (Exception e) {
                     Timber.e(e, "Unable to synchronize mail");
+                } finally {
+                    pendingSyncs.release();
                 }
-                putBackground("finalize sync", null, new Runnable() {
-                            @Override
-                            public void run() {
-
-                                Timber.i("Finished mail sync");
-
-                                if (wakeLock != null) {
-                                    wakeLock.release();
-                                }
-                                for (MessagingListener l : getListeners(listener)) {
-                                    l.checkMailFinished(context, account);
-                                }
-
-                            }
-                        }
-                );
             }
         });
     }
@@ -2308,12 +2403,29 @@ public class MessagingController {
 
     private void checkMailForAccount(final Context context, final Account account,
             final boolean ignoreLastCheckedTime,
-            final MessagingListener listener) {
+            final MessagingListener listener, final PendingSyncs checkMailPendingSyncs) {
         if (!account.isAvailable(context)) {
             Timber.i("Skipping synchronizing unavailable account %s", account.getDescription());
             return;
         }
 
+        checkMailPendingSyncs.acquire();
+        PendingSyncs accountPendingSyncs = new PendingSyncs(() -> {
+            putBackground("clear notification flag for " + account.getDescription(), null, new Runnable() {
+                        @Override
+                        public void run() {
+                            Timber.v("Clearing notification flag for %s", account.getDescription());
+
+                            account.setRingNotified(false);
+                            if (getUnreadMessageCount(account) == 0) {
+                                notificationController.clearNewMailNotifications(account);
+                            }
+                        }
+                    }
+            );
+            checkMailPendingSyncs.release();
+        });
+
         Timber.i("Synchronizing account %s", account.getDescription());
 
         account.setRingNotified(false);
@@ -2354,32 +2466,26 @@ public class MessagingController {
 
                     continue;
                 }
-                synchronizeFolder(account, folder, ignoreLastCheckedTime, listener);
+                synchronizeFolder(account, folder, ignoreLastCheckedTime, listener, accountPendingSyncs);
             }
         } catch (MessagingException e) {
             Timber.e(e, "Unable to synchronize account %s", account.getName());
         } finally {
-            putBackground("clear notification flag for " + account.getDescription(), null, new Runnable() {
-                        @Override
-                        public void run() {
-                            Timber.v("Clearing notification flag for %s", account.getDescription());
-
-                            account.setRingNotified(false);
-                            if (getUnreadMessageCount(account) == 0) {
-                                notificationController.clearNewMailNotifications(account);
-                            }
-                        }
-                    }
-            );
+            accountPendingSyncs.release();
         }
 
 
     }
 
     private void synchronizeFolder(Account account, LocalFolder folder, boolean ignoreLastCheckedTime,
-            MessagingListener listener) {
-        putBackground("sync" + folder.getServerId(), null, () -> {
-            synchronizeFolderInBackground(account, folder, ignoreLastCheckedTime, listener);
+            MessagingListener listener, PendingSyncs pendingSyncs) {
+        pendingSyncs.acquire();
+        scheduleFolderSync(account, folder.getDatabaseId(), () -> {
+            try {
+                synchronizeFolderInBackground(account, folder, ignoreLastCheckedTime, listener);
+            } finally {
+                pendingSyncs.release();
+            }
         });
     }
 
@@ -2404,16 +2510,14 @@ public class MessagingController {
             }
         }
 
+        // Other folders of the account might still be synchronized. The notification is cleared once all of them are
+        // done, see onAccountSyncsFinished().
         try {
             showFetchingMailNotificationIfNecessary(account, folder);
-            try {
-                synchronizeMailboxSynchronous(account, folder.getDatabaseId(), listener);
+            synchronizeMailboxSynchronous(account, folder.getDatabaseId(), listener);
 
-                long now = System.currentTimeMillis();
-                folder.setLastChecked(now);
-            } finally {
-                clearFetchingMailNotificationIfNecessary(account);
-            }
+            long now = System.currentTimeMillis();
+            folder.setLastChecked(now);
         } catch (Exception e) {
             Timber.e(e, "Exception while processing folder %s:%s", account.getDescription(), folder.getServerId());
         }
@@ -2431,6 +2535,13 @@ public class MessagingController {
         }
     }
 
+    private void onAccountSyncsFinished(String accountUuid) {
+        Account account = preferences.getAccount(accountUuid);
+        if (account != null) {
+            clearFetchingMailNotificationIfNecessary(account);
+        }
+    }
+
 
     public void compact(final Account account, final MessagingListener ml) {
         putBackground("compact:" + account.getDescription(), ml, new Runnable() {
@@ -2565,6 +2676,31 @@ public class MessagingController {
         return id;
     }
 
+    /**
+     * Counts folder synchronizations that are still running and invokes a callback once all of them have finished.
+     * <p>
+     * The count starts at one so the callback can't be invoked while synchronizations are still being scheduled. The
+     * creator has to call {@link #release()} when done scheduling.
+     */
+    private static class PendingSyncs {
+        private final AtomicInteger count = new AtomicInteger(1);
+        private final Runnable onFinished;
+
+        PendingSyncs(Runnable onFinished) {
+            this.onFinished = onFinished;
+        }
+
+        void acquire() {
+            count.incrementAndGet();
+        }
+
+        void release() {
+            if (count.decrementAndGet() == 0) {
+                onFinished.run();
+            }
+        }
+    }
+
     private static AtomicInteger sequencing = new AtomicInteger(0);
 
     private static class Command implements Comparable<Command> {
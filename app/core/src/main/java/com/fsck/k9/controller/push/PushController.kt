@@ -0,0 +1,190 @@
+package com.fsck.k9.controller.push
+
+import com.fsck.k9.Account
+import com.fsck.k9.Account.FolderMode
+import com.fsck.k9.Preferences
+import com.fsck.k9.backend.BackendManager
+import com.fsck.k9.backend.api.Backend
+import com.fsck.k9.backend.api.BackendPusher
+import com.fsck.k9.backend.api.BackendPusherCallback
+import com.fsck.k9.controller.MessagingController
+import com.fsck.k9.mailstore.LocalFolder
+import com.fsck.k9.mailstore.LocalStoreProvider
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import java.util.concurrent.FutureTask
+import timber.log.Timber
+
+/**
+ * Starts and stops [BackendPusher]s so that every push-enabled account has its push folders monitored.
+ *
+ * A push event triggers a sync of the affected folder via [MessagingController.synchronizeMailbox].
+ */
+class PushController internal constructor(
+    private val preferences: Preferences,
+    private val backendManager: BackendManager,
+    private val localStoreProvider: LocalStoreProvider,
+    private val messagingController: MessagingController,
+    private val executor: Executor
+) {
+    constructor(
+        preferences: Preferences,
+        backendManager: BackendManager,
+        localStoreProvider: LocalStoreProvider,
+        messagingController: MessagingController
+    ) : this(preferences, backendManager, localStoreProvider, messagingController, Executors.newSingleThreadExecutor())
+
+    private val lock = Any()
+    private val pushers = mutableMapOf<String, AccountPusher>()
+
+    fun updatePushers() {
+        executor.execute {
+            try {
+                updatePushersSynchronous()
+            } catch (e: Exception) {
+                Timber.e(e, "Error updating pushers")
+            }
+        }
+    }
+
+    /**
+     * Stops the pusher of an account and waits until [BackendPusher.stop] has returned, e.g. before the account is
+     * removed.
+     */
+    fun stopPusherAndWait(account: Account) {
+        val stopTask = FutureTask<Unit> {
+            val accountPusher = synchronized(lock) {
+                pushers.remove(account.uuid)
+            }
+
+            accountPusher?.pusher?.stop()
+        }
+        executor.execute(stopTask)
+
+        try {
+            stopTask.get()
+        } catch (e: ExecutionException) {
+            Timber.e(e.cause, "Error stopping pusher of account %s", account.description)
+        }
+    }
+
+    /**
+     * Stops the pushers of all accounts, e.g. when push is disabled globally.
+     */
+    fun stopAll() {
+        executor.execute {
+            val accountPushers = synchronized(lock) {
+                pushers.values.toList().also { pushers.clear() }
+            }
+
+            for (accountPusher in accountPushers) {
+                accountPusher.pusher.stop()
+            }
+        }
+    }
+
+    private fun updatePushersSynchronous() {
+        val pushAccounts = preferences.availableAccounts.filter { account -> isPushEnabled(account) }
+        val pushAccountUuids = pushAccounts.map { it.uuid }.toSet()
+
+        val stopPushers = mutableListOf<BackendPusher>()
+        synchronized(lock) {
+            val removedAccountUuids = pushers.keys - pushAccountUuids
+            for (accountUuid in removedAccountUuids) {
+                pushers.remove(accountUuid)?.let { stopPushers.add(it.pusher) }
+            }
+        }
+
+        for (pusher in stopPushers) {
+            pusher.stop()
+        }
+
+        for (account in pushAccounts) {
+            updateAccountPusher(account)
+        }
+    }
+
+    private fun isPushEnabled(account: Account): Boolean {
+        if (account.folderPushMode == FolderMode.NONE || account.maxPushFolders <= 0) {
+            return false
+        }
+
+        return try {
+            backendManager.getBackend(account).isPushCapable
+        } catch (e: Exception) {
+            Timber.w(e, "Error getting backend for %s", account.description)
+            false
+        }
+    }
+
+    private fun updateAccountPusher(account: Account) {
+        val backend = backendManager.getBackend(account)
+
+        var staleAccountPusher: AccountPusher? = null
+        val accountPusher = synchronized(lock) {
+            val existingAccountPusher = pushers[account.uuid]
+            if (existingAccountPusher != null && existingAccountPusher.backend === backend) {
+                existingAccountPusher
+            } else {
+                // Server settings changed and a new backend instance was created
+                staleAccountPusher = existingAccountPusher
+                createAccountPusher(account, backend).also { pushers[account.uuid] = it }
+            }
+        }
+
+        staleAccountPusher?.pusher?.stop()
+
+        val folderServerIds = getPushFolderServerIds(account)
+        Timber.v("Pushing %d folder(s) of account %s", folderServerIds.size, account.description)
+        accountPusher.pusher.updateFolders(folderServerIds)
+    }
+
+    private fun createAccountPusher(account: Account, backend: Backend): AccountPusher {
+        val callback = object : BackendPusherCallback {
+            override fun onPushEvent(folderServerId: String) {
+                syncFolder(account, folderServerId)
+            }
+
+            override fun onPushError(exception: Exception) {
+                Timber.w(exception, "Push error for account %s", account.description)
+            }
+
+            override fun onPushNotSupported() {
+                Timber.i("Server for account %s doesn't support push", account.description)
+            }
+        }
+
+        val pusher = backend.createPusher(callback)
+        pusher.start()
+
+        return AccountPusher(backend, pusher)
+    }
+
+    private fun getPushFolderServerIds(account: Account): List<String> {
+        val displayMode = account.folderDisplayMode
+        val pushMode = account.folderPushMode
+
+        val localStore = localStoreProvider.getInstance(account)
+        return localStore.getPersonalNamespaces(false)
+            .asSequence()
+            .onEach { folder -> folder.open() }
+            .filterNot { folder -> folder.isLocalOnly }
+            .filterNot { folder -> LocalFolder.isModeMismatch(displayMode, folder.displayClass) }
+            .filterNot { folder -> LocalFolder.isModeMismatch(pushMode, folder.pushClass) }
+            .map { folder -> folder.serverId }
+            .take(account.maxPushFolders)
+            .toList()
+    }
+
+    private fun syncFolder(account: Account, folderServerId: String) {
+        try {
+            val folderId = localStoreProvider.getInstance(account).getFolderId(folderServerId)
+            messagingController.synchronizeMailbox(account, folderId, null)
+        } catch (e: Exception) {
+            Timber.e(e, "Error triggering sync of %s:%s after push event", account.description, folderServerId)
+        }
+    }
+
+    private class AccountPusher(val backend: Backend, val pusher: BackendPusher)
+}
@@ -0,0 +1,63 @@
+package com.fsck.k9.job
+
+import android.content.Context
+import androidx.work.Worker
+import androidx.work.WorkerParameters
+import com.fsck.k9.Account
+import com.fsck.k9.Preferences
+import com.fsck.k9.mail.MessagingException
+import com.fsck.k9.mailstore.LocalStoreProvider
+import timber.log.Timber
+
+/**
+ * Removes the bodies of the least recently used messages of accounts that exceed their local storage limit.
+ *
+ * Evicted messages keep their headers and preview. The complete message is downloaded again when it is opened.
+ */
+class BodyCacheEvictionWorker(
+    private val preferences: Preferences,
+    private val localStoreProvider: LocalStoreProvider,
+    context: Context,
+    parameters: WorkerParameters
+) : Worker(context, parameters) {
+
+    override fun doWork(): Result {
+        var success = true
+        for (account in preferences.availableAccounts) {
+            if (isStopped) break
+
+            try {
+                evictBodies(account)
+            } catch (e: Exception) {
+                Timber.e(e, "Error evicting message bodies of account %s", account.description)
+                success = false
+            }
+        }
+
+        return if (success) Result.success() else Result.retry()
+    }
+
+    @Throws(MessagingException::class)
+    private fun evictBodies(account: Account) {
+        val maximumLocalStorageSize = account.maximumLocalStorageSize
+        // POP3 servers might have deleted messages that were already downloaded
+        if (maximumLocalStorageSize <= 0 || account.isPop3()) return
+
+        val maxBodyCacheSize = maximumLocalStorageSize * BYTES_PER_MEBIBYTE
+        val localStore = localStoreProvider.getInstance(account)
+
+        var bytesToFree = localStore.bodyCacheSize - maxBodyCacheSize
+        while (bytesToFree > 0 && !isStopped) {
+            val freedBytes = localStore.evictNextBodyBatch(bytesToFree)
+            if (freedBytes == 0L) break
+
+            bytesToFree -= freedBytes
+        }
+    }
+
+    private fun Account.isPop3() = storeUri.startsWith("pop3")
+
+    companion object {
+        private const val BYTES_PER_MEBIBYTE = 1024L * 1024L
+    }
+}
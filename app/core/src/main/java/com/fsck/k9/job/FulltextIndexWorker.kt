@@ -0,0 +1,63 @@
+package com.fsck.k9.job
+
+import android.content.Context
+import androidx.work.Worker
+import androidx.work.WorkerParameters
+import androidx.work.workDataOf
+import com.fsck.k9.Account
+import com.fsck.k9.Preferences
+import com.fsck.k9.mail.MessagingException
+import com.fsck.k9.mailstore.LocalStoreProvider
+import timber.log.Timber
+
+/**
+ * Adds the text of newly saved messages to the full-text index of all accounts.
+ *
+ * The work is done in small batches. Which messages still need to be indexed is stored in the database, so the work
+ * can be resumed when the worker is stopped. The number of messages left is reported via [setProgressAsync].
+ */
+class FulltextIndexWorker(
+    private val preferences: Preferences,
+    private val localStoreProvider: LocalStoreProvider,
+    context: Context,
+    parameters: WorkerParameters
+) : Worker(context, parameters) {
+
+    override fun doWork(): Result {
+        var success = true
+        for (account in preferences.availableAccounts) {
+            if (isStopped) break
+
+            try {
+                indexAccount(account)
+            } catch (e: Exception) {
+                // Continue with the other accounts
+                Timber.e(e, "Error updating full-text index of account %s", account.description)
+                success = false
+            }
+        }
+
+        return if (success) Result.success() else Result.retry()
+    }
+
+    @Throws(MessagingException::class)
+    private fun indexAccount(account: Account) {
+        val localStore = localStoreProvider.getInstance(account)
+
+        var hasMoreWork = true
+        while (hasMoreWork && !isStopped) {
+            hasMoreWork = localStore.indexNextFulltextBatch()
+
+            val progress = workDataOf(
+                PROGRESS_ACCOUNT_UUID to account.uuid,
+                PROGRESS_PENDING to localStore.pendingFulltextIndexCount
+            )
+            setProgressAsync(progress)
+        }
+    }
+
+    companion object {
+        const val PROGRESS_ACCOUNT_UUID = "accountUuid"
+        const val PROGRESS_PENDING = "pending"
+    }
+}
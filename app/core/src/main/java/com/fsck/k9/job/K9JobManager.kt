@@ -1,18 +1,32 @@
 package com.fsck.k9.job
 
+import androidx.work.Constraints
+import androidx.work.ExistingPeriodicWorkPolicy
+import androidx.work.ExistingWorkPolicy
+import androidx.work.OneTimeWorkRequestBuilder
+import androidx.work.PeriodicWorkRequestBuilder
 import androidx.work.WorkManager
+import androidx.work.workDataOf
 import com.fsck.k9.Account
+import com.fsck.k9.K9
 import com.fsck.k9.Preferences
+import com.fsck.k9.controller.push.PushController
+import java.util.concurrent.TimeUnit
 import timber.log.Timber
 
 class K9JobManager(
     private val workManager: WorkManager,
     private val preferences: Preferences,
-    private val mailSyncWorkerManager: MailSyncWorkerManager
+    private val mailSyncWorkerManager: MailSyncWorkerManager,
+    private val pushController: PushController
 ) {
     fun scheduleAllMailJobs() {
         Timber.v("scheduling all jobs")
         scheduleMailSync()
+        schedulePusherRefresh()
+        scheduleThreadMerge()
+        scheduleFulltextIndexing()
+        scheduleBodyCacheEviction()
     }
 
     fun scheduleMailSync(account: Account) {
@@ -21,7 +35,19 @@ class K9JobManager(
     }
 
     fun schedulePusherRefresh() {
-        // Push is temporarily disabled. See GH-4253
+        if (K9.backgroundOps == K9.BACKGROUND_OPS.NEVER) {
+            pushController.stopAll()
+        } else {
+            pushController.updatePushers()
+        }
+    }
+
+    fun stopPushers() {
+        pushController.stopAll()
+    }
+
+    fun stopPusherAndWait(account: Account) {
+        pushController.stopPusherAndWait(account)
     }
 
     private fun scheduleMailSync() {
@@ -32,8 +58,62 @@ class K9JobManager(
         }
     }
 
+    private fun scheduleThreadMerge() {
+        preferences.availableAccounts?.forEach { account ->
+            val data = workDataOf(ThreadMergeWorker.EXTRA_ACCOUNT_UUID to account.uuid)
+            val threadMergeRequest = OneTimeWorkRequestBuilder<ThreadMergeWorker>()
+                .setInputData(data)
+                .build()
+
+            // Keep a worker that is still pending. It will pick up where a previous run left off.
+            val uniqueWorkName = "$THREAD_MERGE_TAG:${account.uuid}"
+            workManager.enqueueUniqueWork(uniqueWorkName, ExistingWorkPolicy.KEEP, threadMergeRequest)
+        }
+    }
+
+    private fun scheduleFulltextIndexing() {
+        // Extracting the text of messages is expensive. Only do it while the device is charging.
+        val constraints = Constraints.Builder()
+            .setRequiresCharging(true)
+            .build()
+
+        val fulltextIndexRequest = PeriodicWorkRequestBuilder<FulltextIndexWorker>(
+            FULLTEXT_INDEX_INTERVAL_HOURS, TimeUnit.HOURS
+        )
+            .setConstraints(constraints)
+            .build()
+
+        workManager.enqueueUniquePeriodicWork(FULLTEXT_INDEX_TAG, ExistingPeriodicWorkPolicy.KEEP, fulltextIndexRequest)
+    }
+
+    private fun scheduleBodyCacheEviction() {
+        val constraints = Constraints.Builder()
+            .setRequiresBatteryNotLow(true)
+            .build()
+
+        val bodyCacheEvictionRequest = PeriodicWorkRequestBuilder<BodyCacheEvictionWorker>(
+            BODY_CACHE_EVICTION_INTERVAL_HOURS, TimeUnit.HOURS
+        )
+            .setConstraints(constraints)
+            .build()
+
+        workManager.enqueueUniquePeriodicWork(
+            BODY_CACHE_EVICTION_TAG,
+            ExistingPeriodicWorkPolicy.KEEP,
+            bodyCacheEvictionRequest
+        )
+    }
+
     private fun cancelAllMailSyncJobs() {
         Timber.v("canceling mail sync job")
         workManager.cancelAllWorkByTag(MailSyncWorkerManager.MAIL_SYNC_TAG)
     }
+
+    companion object {
+        private const val THREAD_MERGE_TAG = "ThreadMerge"
+        private const val FULLTEXT_INDEX_TAG = "FulltextIndex"
+        private const val FULLTEXT_INDEX_INTERVAL_HOURS = 1L
+        private const val BODY_CACHE_EVICTION_TAG = "BodyCacheEviction"
+        private const val BODY_CACHE_EVICTION_INTERVAL_HOURS = 6L
+    }
 }
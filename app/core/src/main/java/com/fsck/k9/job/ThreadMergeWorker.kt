@@ -0,0 +1,51 @@
+package com.fsck.k9.job
+
+import android.content.Context
+import androidx.work.Worker
+import androidx.work.WorkerParameters
+import com.fsck.k9.Preferences
+import com.fsck.k9.mail.MessagingException
+import com.fsck.k9.mailstore.LocalStoreProvider
+import timber.log.Timber
+
+/**
+ * Connects message threads of an account that were created when threads were still limited to a single folder.
+ *
+ * The work is done in small batches and can be resumed when the worker is stopped.
+ */
+class ThreadMergeWorker(
+    private val preferences: Preferences,
+    private val localStoreProvider: LocalStoreProvider,
+    context: Context,
+    parameters: WorkerParameters
+) : Worker(context, parameters) {
+
+    override fun doWork(): Result {
+        val accountUuid = inputData.getString(EXTRA_ACCOUNT_UUID)
+        requireNotNull(accountUuid)
+
+        val account = preferences.getAccount(accountUuid)
+        if (account == null) {
+            Timber.e("Account %s not found. Can't merge message threads.", accountUuid)
+            return Result.failure()
+        }
+
+        return try {
+            val localStore = localStoreProvider.getInstance(account)
+
+            var hasMoreWork = true
+            while (hasMoreWork && !isStopped) {
+                hasMoreWork = localStore.mergeThreadsAcrossFolders()
+            }
+
+            Result.success()
+        } catch (e: MessagingException) {
+            Timber.e(e, "Error merging message threads of account %s", accountUuid)
+            Result.retry()
+        }
+    }
+
+    companion object {
+        const val EXTRA_ACCOUNT_UUID = "accountUuid"
+    }
+}
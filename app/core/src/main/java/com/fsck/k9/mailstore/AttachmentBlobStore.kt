@@ -0,0 +1,226 @@
+package com.fsck.k9.mailstore
+
+import android.content.ContentValues
+import android.database.sqlite.SQLiteDatabase
+import com.fsck.k9.helper.FileHelper
+import com.fsck.k9.mail.filter.Hex
+import java.io.File
+import java.io.IOException
+import java.io.InputStream
+import java.security.DigestInputStream
+import java.security.MessageDigest
+import org.apache.james.mime4j.codec.Base64InputStream
+import org.apache.james.mime4j.codec.QuotedPrintableInputStream
+import org.apache.james.mime4j.util.MimeUtil
+import timber.log.Timber
+
+/**
+ * Stores the data of message parts that are too large to be kept in the database.
+ *
+ * Message parts with the same content share one file. The `attachment_blobs` table maps the SHA-256 hash of the file
+ * to that file and `message_parts.blob_id` references it. Triggers on `message_parts` keep
+ * `attachment_blobs.ref_count` up to date, including when the `delete_message` trigger removes the parts of a
+ * message. [deleteUnreferencedBlobs] removes blobs that are no longer used. Their files must only be deleted with
+ * [deleteBlobFiles] once that change has been committed. Files that were moved into the store by a transaction that
+ * was rolled back are removed by [deleteOrphanedBlobFiles].
+ *
+ * The files contain the data as it is encoded in the message. The hash covers these encoded bytes, not the decoded
+ * content. Otherwise two copies of an attachment that only differ in e.g. base64 line length would share the bytes of
+ * the first copy, and signed parts (S/MIME, PGP/MIME) have to be written out exactly as they were received.
+ */
+class AttachmentBlobStore(private val attachmentDirectory: File) {
+    fun getBlobFile(blobId: Long): File {
+        return File(attachmentDirectory, BLOB_FILE_PREFIX + blobId)
+    }
+
+    /**
+     * Returns the file containing the data of a message part stored on disk.
+     *
+     * Message parts whose file couldn't be moved into the store when upgrading the database don't have a blob. They
+     * still use the file named after the message part ID.
+     */
+    fun getMessagePartFile(messagePartId: Long, blobId: Long?): File {
+        return if (blobId != null) getBlobFile(blobId) else File(attachmentDirectory, messagePartId.toString())
+    }
+
+    /**
+     * Returns the blob stored in [file] if it belongs to this store, e.g. when a message part is copied to another
+     * folder.
+     */
+    fun findBlob(db: SQLiteDatabase, file: File, encoding: String): AttachmentBlob? {
+        if (file.parentFile != attachmentDirectory || !file.name.startsWith(BLOB_FILE_PREFIX)) return null
+        val blobId = file.name.substring(BLOB_FILE_PREFIX.length).toLongOrNull() ?: return null
+
+        return db.query(
+            "attachment_blobs",
+            arrayOf("decoded_size"),
+            "id = ? AND encoding = ?",
+            arrayOf(blobId.toString(), encoding),
+            null,
+            null,
+            null
+        ).use { cursor ->
+            if (cursor.moveToFirst()) AttachmentBlob(blobId, cursor.getLong(0)) else null
+        }
+    }
+
+    /**
+     * Adds the (transfer encoded) data in [file] to the store.
+     *
+     * [file] is moved into the store. If the store already contains a blob with the same content, [file] is deleted
+     * and the existing blob is returned.
+     */
+    @Throws(IOException::class)
+    fun storeBlob(db: SQLiteDatabase, file: File, encoding: String): AttachmentBlob {
+        val (hash, decodedSize) = computeContentHash(file, encoding)
+
+        val existingBlobId = db.query(
+            "attachment_blobs",
+            arrayOf("id"),
+            "hash = ? AND encoding = ?",
+            arrayOf(hash, encoding),
+            null,
+            null,
+            null
+        ).use { cursor ->
+            if (cursor.moveToFirst()) cursor.getLong(0) else null
+        }
+
+        if (existingBlobId != null) {
+            val blobFile = getBlobFile(existingBlobId)
+            if (blobFile.exists()) {
+                if (!file.delete()) {
+                    Timber.w("Couldn't delete duplicate of blob %d: %s", existingBlobId, file.absolutePath)
+                }
+            } else {
+                FileHelper.renameOrMoveByCopying(file, blobFile)
+            }
+
+            return AttachmentBlob(existingBlobId, decodedSize)
+        }
+
+        val values = ContentValues().apply {
+            put("hash", hash)
+            put("encoding", encoding)
+            put("decoded_size", decodedSize)
+            put("ref_count", 0)
+        }
+        val blobId = db.insertOrThrow("attachment_blobs", null, values)
+        FileHelper.renameOrMoveByCopying(file, getBlobFile(blobId))
+
+        return AttachmentBlob(blobId, decodedSize)
+    }
+
+    /**
+     * Deletes the rows of blobs that are no longer referenced by any message part.
+     *
+     * @return The IDs of the deleted blobs. Pass them to [deleteBlobFiles] after the transaction has been committed.
+     */
+    fun deleteUnreferencedBlobs(db: SQLiteDatabase): List<Long> {
+        val blobIds = db.query("attachment_blobs", arrayOf("id"), "ref_count <= 0", null, null, null, null)
+            .use { cursor ->
+                val blobIds = mutableListOf<Long>()
+                while (cursor.moveToNext()) {
+                    blobIds.add(cursor.getLong(0))
+                }
+                blobIds
+            }
+
+        return blobIds.filter { blobId ->
+            // Only delete the blob if it didn't get referenced again in the meantime
+            db.delete("attachment_blobs", "id = ? AND ref_count <= 0", arrayOf(blobId.toString())) > 0
+        }
+    }
+
+    /**
+     * Deletes blob files that don't have a row in `attachment_blobs`, e.g. because the transaction that stored them was
+     * rolled back. Files named after a message part ID are deleted once no message part stored on disk without a blob
+     * uses them anymore.
+     *
+     * Must be called inside a write transaction so no other transaction can be in the middle of storing a blob.
+     */
+    fun deleteOrphanedBlobFiles(db: SQLiteDatabase) {
+        val files = attachmentDirectory.listFiles() ?: return
+        if (files.isEmpty()) return
+
+        val blobIds = queryIds(db, "SELECT id FROM attachment_blobs")
+        val messagePartIds = queryIds(db, MESSAGE_PARTS_WITHOUT_BLOB_QUERY)
+
+        for (file in files) {
+            val isOrphaned = if (file.name.startsWith(BLOB_FILE_PREFIX)) {
+                val blobId = file.name.substring(BLOB_FILE_PREFIX.length).toLongOrNull()
+                blobId != null && blobId !in blobIds
+            } else {
+                val messagePartId = file.name.toLongOrNull()
+                messagePartId != null && messagePartId !in messagePartIds
+            }
+
+            if (isOrphaned && !file.delete()) {
+                Timber.d("Couldn't delete orphaned blob file: %s", file.absolutePath)
+            }
+        }
+    }
+
+    fun deleteBlobFiles(blobIds: List<Long>) {
+        for (blobId in blobIds) {
+            val file = getBlobFile(blobId)
+            if (file.exists() && !file.delete()) {
+                Timber.d("Couldn't delete blob file: %s", file.absolutePath)
+            }
+        }
+    }
+
+    private fun queryIds(db: SQLiteDatabase, query: String): Set<Long> {
+        return db.rawQuery(query, null).use { cursor ->
+            val ids = mutableSetOf<Long>()
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0))
+            }
+            ids
+        }
+    }
+
+    private fun computeContentHash(file: File, encoding: String): ContentHash {
+        val messageDigest = MessageDigest.getInstance(HASH_ALGORITHM)
+        var decodedSize = 0L
+
+        // Hash the encoded bytes while decoding them to get the decoded size
+        DigestInputStream(file.inputStream(), messageDigest).use { rawInputStream ->
+            val inputStream = getDecodingInputStream(rawInputStream, encoding)
+            val buffer = ByteArray(BUFFER_SIZE)
+            while (true) {
+                val count = inputStream.read(buffer)
+                if (count == -1) break
+
+                decodedSize += count
+            }
+
+            // The decoder might stop before the end of the file, e.g. at base64 padding
+            do {
+                val count = rawInputStream.read(buffer)
+            } while (count != -1)
+        }
+
+        return ContentHash(Hex.encodeHex(messageDigest.digest()), decodedSize)
+    }
+
+    private fun getDecodingInputStream(rawInputStream: InputStream, encoding: String): InputStream {
+        return when (encoding) {
+            MimeUtil.ENC_BASE64 -> Base64InputStream(rawInputStream)
+            MimeUtil.ENC_QUOTED_PRINTABLE -> QuotedPrintableInputStream(rawInputStream)
+            else -> rawInputStream
+        }
+    }
+
+    private data class ContentHash(val hash: String, val decodedSize: Long)
+
+    companion object {
+        private const val BLOB_FILE_PREFIX = "blob_"
+        private const val MESSAGE_PARTS_WITHOUT_BLOB_QUERY =
+            "SELECT id FROM message_parts WHERE data_location = ${LocalFolder.DataLocation.ON_DISK} AND blob_id IS NULL"
+        private const val HASH_ALGORITHM = "SHA-256"
+        private const val BUFFER_SIZE = 8192
+    }
+}
+
+class AttachmentBlob(val id: Long, val decodedSize: Long)
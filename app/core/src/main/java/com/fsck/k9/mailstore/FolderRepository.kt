@@ -223,11 +223,7 @@ class FolderRepository(
 
     private fun getDisplayFolders(db: SQLiteDatabase, displayMode: FolderMode): List<DisplayFolder> {
         val queryBuilder = StringBuilder("""
-            SELECT f.id, f.name, f.top_group, f.local_only, (
-                SELECT COUNT(m.id) 
-                FROM messages m 
-                WHERE m.folder_id = f.id AND m.empty = 0 AND m.deleted = 0 AND m.read = 0
-            )
+            SELECT f.id, f.name, f.top_group, f.local_only, f.unread_count
             FROM folders f
             """.trimIndent()
         )
@@ -1,6 +1,7 @@
 package com.fsck.k9.mailstore
 
 import android.content.ContentValues
+import android.database.Cursor
 import android.database.sqlite.SQLiteDatabase
 import androidx.core.database.getLongOrNull
 import androidx.core.database.getStringOrNull
@@ -132,18 +133,10 @@ class K9BackendFolder(
     }
 
     override fun getMessageFlags(messageServerId: String): Set<Flag> {
-        fun String?.extractFlags(): MutableSet<Flag> {
-            return if (this == null || this.isBlank()) {
-                mutableSetOf()
-            } else {
-                this.split(',').map { Flag.valueOf(it) }.toMutableSet()
-            }
-        }
-
         return database.execute(false) { db ->
             val cursor = db.query(
                     "messages",
-                    arrayOf("deleted", "read", "flagged", "answered", "forwarded", "flags"),
+                    FLAGS_PROJECTION,
                     "folder_id = ? AND uid = ?",
                     arrayOf(databaseId, messageServerId),
                     null, null, null)
@@ -153,23 +146,64 @@ class K9BackendFolder(
                     throw IllegalStateException("Couldn't read flags for $folderServerId:$messageServerId")
                 }
 
-                val deleted = cursor.getInt(0) == 1
-                val read = cursor.getInt(1) == 1
-                val flagged = cursor.getInt(2) == 1
-                val answered = cursor.getInt(3) == 1
-                val forwarded = cursor.getInt(4) == 1
-                val flagsColumnValue = cursor.getString(5)
-
-                val flags = flagsColumnValue.extractFlags().apply {
-                    if (deleted) add(Flag.DELETED)
-                    if (read) add(Flag.SEEN)
-                    if (flagged) add(Flag.FLAGGED)
-                    if (answered) add(Flag.ANSWERED)
-                    if (forwarded) add(Flag.FORWARDED)
-                }
+                cursor.getFlags()
+            }
+        }
+    }
+
+    override fun getMessageFlags(messageServerIds: Collection<String>): Map<String, Set<Flag>> {
+        if (messageServerIds.isEmpty()) return emptyMap()
+
+        return database.execute(false) { db ->
+            val result = HashMap<String, Set<Flag>>(messageServerIds.size)
+            val projection = arrayOf("uid") + FLAGS_PROJECTION
+
+            for (messageServerIdsChunk in messageServerIds.chunked(LocalStore.UID_CHECK_BATCH_SIZE)) {
+                val placeholders = messageServerIdsChunk.joinToString(separator = ",") { "?" }
+                val selectionArgs = arrayOf(databaseId) + messageServerIdsChunk
 
-                flags
+                val cursor = db.query(
+                    "messages",
+                    projection,
+                    "folder_id = ? AND uid IN ($placeholders)",
+                    selectionArgs,
+                    null, null, null
+                )
+
+                cursor.use {
+                    while (cursor.moveToNext()) {
+                        val messageServerId = cursor.getString(0)
+                        result[messageServerId] = cursor.getFlags(columnOffset = 1)
+                    }
+                }
             }
+
+            result
+        }
+    }
+
+    private fun Cursor.getFlags(columnOffset: Int = 0): Set<Flag> {
+        val deleted = getInt(columnOffset) == 1
+        val read = getInt(columnOffset + 1) == 1
+        val flagged = getInt(columnOffset + 2) == 1
+        val answered = getInt(columnOffset + 3) == 1
+        val forwarded = getInt(columnOffset + 4) == 1
+        val flagsColumnValue = getString(columnOffset + 5)
+
+        return flagsColumnValue.extractFlags().apply {
+            if (deleted) add(Flag.DELETED)
+            if (read) add(Flag.SEEN)
+            if (flagged) add(Flag.FLAGGED)
+            if (answered) add(Flag.ANSWERED)
+            if (forwarded) add(Flag.FORWARDED)
+        }
+    }
+
+    private fun String?.extractFlags(): MutableSet<Flag> {
+        return if (this == null || this.isBlank()) {
+            mutableSetOf()
+        } else {
+            this.split(',').map { Flag.valueOf(it) }.toMutableSet()
         }
     }
 
@@ -207,17 +241,46 @@ class K9BackendFolder(
             }
         }
 
-        localStore.notifyChange()
+        notifyMessageUpdated(messageServerId)
+    }
+
+    private fun notifyMessageUpdated(messageServerId: String) {
+        val messageId = database.execute(false) { db ->
+            db.query(
+                "messages",
+                arrayOf("id"),
+                "folder_id = ? AND uid = ?",
+                arrayOf(databaseId, messageServerId),
+                null, null, null
+            ).use { cursor ->
+                if (cursor.moveToFirst()) cursor.getLong(0) else null
+            }
+        }
+
+        if (messageId != null) {
+            localStore.notifyChange(MessageChanges.updated(account.uuid, listOf(messageId)))
+        } else {
+            localStore.notifyChange()
+        }
     }
 
     // TODO: Move implementation from LocalFolder to this class
     override fun saveCompleteMessage(message: Message) {
-        requireMessageServerId(message)
+        saveCompleteMessages(listOf(message))
+    }
 
-        localFolder.appendMessages(listOf(message))
+    // TODO: Move implementation from LocalFolder to this class
+    override fun saveCompleteMessages(messages: List<Message>) {
+        if (messages.isEmpty()) return
 
-        val localMessage = localFolder.getMessage(message.uid)
-        localMessage.setFlag(Flag.X_DOWNLOADED_FULL, true)
+        for (message in messages) {
+            requireMessageServerId(message)
+
+            // Set the flag before saving so it's written as part of the same transaction
+            message.setFlag(Flag.X_DOWNLOADED_FULL, true)
+        }
+
+        localFolder.appendMessages(messages)
     }
 
     // TODO: Move implementation from LocalFolder to this class
@@ -392,4 +455,8 @@ class K9BackendFolder(
             error("Message requires a server ID to be set")
         }
     }
+
+    companion object {
+        private val FLAGS_PROJECTION = arrayOf("deleted", "read", "flagged", "answered", "forwarded", "flags")
+    }
 }
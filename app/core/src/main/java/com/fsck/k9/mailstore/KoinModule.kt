@@ -1,12 +1,22 @@
 package com.fsck.k9.mailstore
 
+import android.content.Context
+import java.io.File
 import org.koin.dsl.module
 
 val mailStoreModule = module {
     single { FolderRepositoryManager(get()) }
-    single { MessageViewInfoExtractorFactory(get(), get(), get()) }
+    single { MessageViewInfoExtractorFactory(get(), get(), get(), get()) }
+    single {
+        MessageRenderCache(
+            directory = File(get<Context>().cacheDir, "rendered_html"),
+            maxSize = 20L * 1024 * 1024,
+            clock = get()
+        )
+    }
     single { StorageManager.getInstance(get()) }
     single { SearchStatusManager() }
+    single { MessageChangeFeed() }
     single { SpecialFolderSelectionStrategy() }
     single { K9BackendStorageFactory(get(), get(), get(), get()) }
     factory { SpecialLocalFoldersCreator(preferences = get(), localStoreProvider = get()) }
@@ -13,7 +13,6 @@ import com.fsck.k9.K9;
 import com.fsck.k9.controller.MessageReference;
 import com.fsck.k9.crypto.EncryptionExtractor;
 import com.fsck.k9.crypto.EncryptionResult;
-import com.fsck.k9.helper.FileHelper;
 import com.fsck.k9.helper.Utility;
 import com.fsck.k9.mail.Address;
 import com.fsck.k9.mail.Body;
@@ -30,6 +29,7 @@ import com.fsck.k9.mail.MessagingException;
 import com.fsck.k9.mail.Multipart;
 import com.fsck.k9.mail.Part;
 import com.fsck.k9.mail.filter.CountingOutputStream;
+import com.fsck.k9.mail.filter.DecodedSizeCountingOutputStream;
 import com.fsck.k9.mail.internet.BinaryTempFileBody;
 import com.fsck.k9.mail.internet.MimeHeader;
 import com.fsck.k9.mail.internet.MimeMessage;
@@ -41,7 +41,6 @@ import com.fsck.k9.mailstore.LockableDatabase.DbCallback;
 import com.fsck.k9.mailstore.LockableDatabase.WrappedException;
 import com.fsck.k9.message.extractors.AttachmentCounter;
 import com.fsck.k9.message.extractors.AttachmentInfoExtractor;
-import com.fsck.k9.message.extractors.MessageFulltextCreator;
 import com.fsck.k9.message.extractors.MessagePreviewCreator;
 import com.fsck.k9.message.extractors.PreviewResult;
 import com.fsck.k9.message.extractors.PreviewResult.PreviewType;
@@ -54,12 +53,12 @@ import org.apache.james.mime4j.util.MimeUtil;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -330,17 +329,7 @@ public class LocalFolder {
                     } catch (MessagingException e) {
                         throw new WrappedException(e);
                     }
-                    Cursor cursor = null;
-                    try {
-                        cursor = db.rawQuery(
-                                "SELECT COUNT(id) FROM messages " +
-                                "WHERE empty = 0 AND deleted = 0 and folder_id = ?",
-                                new String[] { Long.toString(databaseId) });
-                        cursor.moveToFirst();
-                        return cursor.getInt(0);   //messagecount
-                    } finally {
-                        Utility.closeQuietly(cursor);
-                    }
+                    return getFolderCount(db, "total_count");
                 }
             });
         } catch (WrappedException e) {
@@ -357,20 +346,7 @@ public class LocalFolder {
             return this.localStore.getDatabase().execute(false, new DbCallback<Integer>() {
                 @Override
                 public Integer doDbWork(final SQLiteDatabase db) throws WrappedException {
-                    int unreadMessageCount = 0;
-                    Cursor cursor = db.query("messages", new String[] { "COUNT(id)" },
-                            "folder_id = ? AND empty = 0 AND deleted = 0 AND read=0",
-                            new String[] { Long.toString(databaseId) }, null, null, null);
-
-                    try {
-                        if (cursor.moveToFirst()) {
-                            unreadMessageCount = cursor.getInt(0);
-                        }
-                    } finally {
-                        cursor.close();
-                    }
-
-                    return unreadMessageCount;
+                    return getFolderCount(db, "unread_count");
                 }
             });
         } catch (WrappedException e) {
@@ -378,6 +354,19 @@ public class LocalFolder {
         }
     }
 
+    /**
+     * Reads one of the message counts that are maintained by database triggers in the {@code folders} table.
+     */
+    private int getFolderCount(SQLiteDatabase db, String columnName) {
+        Cursor cursor = db.query("folders", new String[] { columnName }, "id = ?",
+                new String[] { Long.toString(databaseId) }, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
     public void setLastChecked(final long lastChecked) throws MessagingException {
         try {
             open();
@@ -577,6 +566,7 @@ public class LocalFolder {
                 "boundary",             // 13
                 "content_id",           // 14
                 "server_extra",         // 15
+                "blob_id",              // 16
         };
         Cursor cursor = db.query("message_parts", columns, "root = ?",
                 new String[] { String.valueOf(message.getMessagePartId()) }, null, null, "seq");
@@ -650,7 +640,9 @@ public class LocalFolder {
         } else if (dataLocation == DataLocation.ON_DISK) {
             String encoding = cursor.getString(7);
 
-            File file = localStore.getAttachmentFile(Long.toString(id));
+            Long blobId = cursor.isNull(16) ? null : cursor.getLong(16);
+
+            File file = localStore.getAttachmentBlobStore().getMessagePartFile(id, blobId);
             if (file.exists()) {
                 Body body = new FileBackedBody(file, encoding);
                 part.setBody(body);
@@ -862,7 +854,8 @@ public class LocalFolder {
                             uidMap.put(oldUID, newUid);
 
                             // Message threading in the target folder
-                            ThreadInfo threadInfo = destFolder.doMessageThreading(db, message);
+                            ThreadInfo threadInfo = localStore.getMessageThreader()
+                                    .doMessageThreading(db, destFolder.getDatabaseId(), message);
 
                             /*
                              * "Move" the message into the new folder
@@ -947,7 +940,11 @@ public class LocalFolder {
                 }
             });
 
-            this.localStore.notifyChange();
+            List<Long> messageIds = new ArrayList<>(msgs.size());
+            for (LocalMessage message : msgs) {
+                messageIds.add(message.getDatabaseId());
+            }
+            this.localStore.notifyMessagesUpdated(messageIds);
 
             return uidMap;
         } catch (WrappedException e) {
@@ -991,39 +988,6 @@ public class LocalFolder {
         }
     }
 
-    private ThreadInfo getThreadInfo(SQLiteDatabase db, String messageId, boolean onlyEmpty) {
-        if (messageId == null) {
-            return null;
-        }
-
-        String sql = "SELECT t.id, t.message_id, t.root, t.parent " +
-                "FROM messages m " +
-                "LEFT JOIN threads t ON (t.message_id = m.id) " +
-                "WHERE m.folder_id = ? AND m.message_id = ? " +
-                ((onlyEmpty) ? "AND m.empty = 1 " : "") +
-                "ORDER BY m.id LIMIT 1";
-        String[] selectionArgs = { Long.toString(databaseId), messageId };
-        Cursor cursor = db.rawQuery(sql, selectionArgs);
-
-        if (cursor != null) {
-            try {
-                if (cursor.getCount() > 0) {
-                    cursor.moveToFirst();
-                    long threadId = cursor.getLong(0);
-                    long msgId = cursor.getLong(1);
-                    long rootId = (cursor.isNull(2)) ? -1 : cursor.getLong(2);
-                    long parentId = (cursor.isNull(3)) ? -1 : cursor.getLong(3);
-
-                    return new ThreadInfo(threadId, msgId, messageId, rootId, parentId);
-                }
-            } finally {
-                cursor.close();
-            }
-        }
-
-        return null;
-    }
-
     /**
      * The method differs slightly from the contract; If an incoming message already has a uid
      * assigned and it matches the uid of an existing message then this message will replace
@@ -1041,12 +1005,14 @@ public class LocalFolder {
         open();
         try {
             final Map<String, String> uidMap = new HashMap<>();
+            final Set<Long> insertedMessageIds = new HashSet<>();
+            final Set<Long> updatedMessageIds = new HashSet<>();
             this.localStore.getDatabase().execute(true, new DbCallback<Void>() {
                 @Override
                 public Void doDbWork(final SQLiteDatabase db) throws WrappedException, UnavailableStorageException {
                     try {
                         for (Message message : messages) {
-                            saveMessage(db, message, copy, uidMap);
+                            saveMessage(db, message, copy, uidMap, insertedMessageIds, updatedMessageIds);
                         }
                     } catch (MessagingException e) {
                         throw new WrappedException(e);
@@ -1055,7 +1021,12 @@ public class LocalFolder {
                 }
             });
 
-            this.localStore.notifyChange();
+            if (!updatedMessageIds.isEmpty()) {
+                localStore.deleteUnreferencedAttachmentBlobs();
+            }
+
+            this.localStore.notifyChange(new MessageChanges(getAccountUuid(), insertedMessageIds, updatedMessageIds,
+                    Collections.<Long>emptySet(), true));
 
             return uidMap;
         } catch (WrappedException e) {
@@ -1063,8 +1034,8 @@ public class LocalFolder {
         }
     }
 
-    private void saveMessage(SQLiteDatabase db, Message message, boolean copy, Map<String, String> uidMap)
-            throws MessagingException {
+    private void saveMessage(SQLiteDatabase db, Message message, boolean copy, Map<String, String> uidMap,
+            Set<Long> insertedMessageIds, Set<Long> updatedMessageIds) throws MessagingException {
         if (!(message instanceof MimeMessage)) {
             throw new Error("LocalStore can only store Messages that extend MimeMessage");
         }
@@ -1091,8 +1062,9 @@ public class LocalFolder {
             if (oldMessage != null) {
                 oldMessageId = oldMessage.getDatabaseId();
 
+                // The new version might reuse blobs of the old one. appendMessages() removes unused blobs afterwards.
                 long oldRootMessagePartId = oldMessage.getMessagePartId();
-                deleteMessagePartsAndDataFromDisk(oldRootMessagePartId);
+                deleteMessageParts(oldMessageId, oldRootMessagePartId);
             }
         }
 
@@ -1100,9 +1072,11 @@ public class LocalFolder {
         long parentId = -1;
         long msgId;
 
+        // Reusing an empty placeholder message from the thread structure makes the message show up for the first time
+        boolean isNewMessage = oldMessageId == -1;
         if (oldMessageId == -1) {
             // This is a new message. Do the message threading.
-            ThreadInfo threadInfo = doMessageThreading(db, message);
+            ThreadInfo threadInfo = localStore.getMessageThreader().doMessageThreading(db, databaseId, message);
             oldMessageId = threadInfo.msgId;
             rootId = threadInfo.rootId;
             parentId = threadInfo.parentId;
@@ -1113,6 +1087,7 @@ public class LocalFolder {
             PreviewResult previewResult;
             int attachmentCount;
             String fulltext;
+            boolean fulltextIndexed;
             ContentValues extraContentValues;
 
             EncryptionResult encryptionResult = encryptionExtractor.extractEncryption(message);
@@ -1121,16 +1096,20 @@ public class LocalFolder {
                 previewResult = encryptionResult.getPreviewResult();
                 attachmentCount = encryptionResult.getAttachmentCount();
                 fulltext = encryptionResult.getTextForSearchIndex();
+                fulltextIndexed = true;
                 extraContentValues = encryptionResult.getExtraContentValues();
             } else {
                 MessagePreviewCreator previewCreator = localStore.getMessagePreviewCreator();
-                MessageFulltextCreator fulltextCreator = localStore.getMessageFulltextCreator();
                 AttachmentCounter attachmentCounter = localStore.getAttachmentCounter();
 
                 encryptionType = null;
                 previewResult = previewCreator.createPreview(message);
                 attachmentCount = attachmentCounter.getAttachmentCount(message);
-                fulltext = fulltextCreator.createFulltext(message);
+
+                // The message text is added to the full-text index in the background.
+                // See LocalStore.indexNextFulltextBatch()
+                fulltext = null;
+                fulltextIndexed = false;
                 extraContentValues = null;
             }
 
@@ -1141,6 +1120,7 @@ public class LocalFolder {
 
             ContentValues cv = new ContentValues();
             cv.put("message_part_id", rootMessagePartId);
+            cv.put("body_stamp", LocalStore.createBodyStamp());
             cv.put("uid", uid);
             cv.put("subject", message.getSubject());
             cv.put("sender_list", Address.pack(message.getFrom()));
@@ -1163,6 +1143,7 @@ public class LocalFolder {
             cv.put("mime_type", message.getMimeType());
             cv.put("empty", 0);
             cv.put("encryption_type", encryptionType);
+            cv.put("fulltext_indexed", fulltextIndexed ? 1 : 0);
 
             cv.put("preview_type", databasePreviewType.getDatabaseValue());
             if (previewResult.isPreviewTextAvailable()) {
@@ -1200,11 +1181,19 @@ public class LocalFolder {
                 db.update("messages", cv, "id = ?", new String[] { Long.toString(oldMessageId) });
             }
 
-            if (fulltext != null) {
-                cv.clear();
-                cv.put("docid", msgId);
-                cv.put("fulltext", fulltext);
-                db.replace("messages_fulltext", null, cv);
+            cv.clear();
+            cv.put("docid", msgId);
+            cv.put("subject", message.getSubject());
+            cv.put("sender", getAddressSearchText(message.getFrom()));
+            cv.put("recipients", getAddressSearchText(message.getRecipients(RecipientType.TO),
+                    message.getRecipients(RecipientType.CC), message.getRecipients(RecipientType.BCC)));
+            cv.put("fulltext", fulltext);
+            db.replace("messages_fulltext", null, cv);
+
+            if (isNewMessage) {
+                insertedMessageIds.add(msgId);
+            } else {
+                updatedMessageIds.add(msgId);
             }
         } catch (Exception e) {
             throw new MessagingException("Error appending message: " + message.getSubject(), e);
@@ -1245,11 +1234,6 @@ public class LocalFolder {
         return updateOrInsertMessagePart(db, cv, part, INVALID_MESSAGE_PART_ID);
     }
 
-    private void moveTemporaryFile(File tempFile, String messagePartId) throws IOException {
-        File destinationFile = localStore.getAttachmentFile(messagePartId);
-        FileHelper.renameOrMoveByCopying(tempFile, destinationFile);
-    }
-
     private long updateOrInsertMessagePart(SQLiteDatabase db, ContentValues cv, Part part, long existingMessagePartId)
             throws IOException, MessagingException {
         byte[] headerBytes = getHeaderBytes(part);
@@ -1257,8 +1241,8 @@ public class LocalFolder {
         cv.put("mime_type", part.getMimeType());
         cv.put("header", headerBytes);
         cv.put("type", MessagePartType.UNKNOWN);
+        cv.putNull("blob_id");
 
-        File file = null;
         Body body = part.getBody();
         if (body instanceof Multipart) {
             multipartToContentValues(cv, (Multipart) body);
@@ -1267,7 +1251,7 @@ public class LocalFolder {
         } else if (body instanceof Message) {
             messageMarkerToContentValues(cv);
         } else {
-            file = leafPartToContentValues(cv, part, body);
+            leafPartToContentValues(db, cv, part, body);
         }
 
         long messagePartId;
@@ -1278,10 +1262,6 @@ public class LocalFolder {
             messagePartId = db.insertOrThrow("message_parts", null, cv);
         }
 
-        if (file != null) {
-            moveTemporaryFile(file, Long.toString(messagePartId));
-        }
-
         return messagePartId;
     }
 
@@ -1307,7 +1287,7 @@ public class LocalFolder {
         cv.put("data_location", DataLocation.CHILD_PART_CONTAINS_DATA);
     }
 
-    private File leafPartToContentValues(ContentValues cv, Part part, Body body)
+    private void leafPartToContentValues(SQLiteDatabase db, ContentValues cv, Part part, Body body)
             throws MessagingException, IOException {
         AttachmentViewInfo attachment = attachmentInfoExtractor.extractAttachmentInfoForDatabase(part);
         cv.put("display_name", attachment.displayName);
@@ -1321,29 +1301,49 @@ public class LocalFolder {
         SizeAware sizeAwareBody = (SizeAware) body;
         long fileSize = sizeAwareBody.getSize();
 
-        File file = null;
         int dataLocation;
         if (fileSize > MAX_BODY_SIZE_FOR_DATABASE) {
             dataLocation = DataLocation.ON_DISK;
 
-            file = writeBodyToDiskIfNecessary(part);
-
-            long size = decodeAndCountBytes(file, encoding, fileSize);
-            cv.put("decoded_body_size", size);
+            AttachmentBlob blob = saveBodyAsBlob(db, part, encoding);
+            cv.put("blob_id", blob.getId());
+            cv.put("decoded_body_size", blob.getDecodedSize());
         } else {
             dataLocation = DataLocation.IN_DATABASE;
 
             byte[] bodyData = getBodyBytes(body);
             cv.put("data", bodyData);
 
-            long size = decodeAndCountBytes(bodyData, encoding, bodyData.length);
+            long size = getPrecalculatedDecodedSize(body);
+            if (size == DecodedSizeCountingOutputStream.UNKNOWN_SIZE) {
+                size = decodeAndCountBytes(bodyData, encoding, bodyData.length);
+            }
             cv.put("decoded_body_size", size);
         }
         cv.put("data_location", dataLocation);
         cv.put("encoding", encoding);
         cv.put("content_id", part.getContentId());
+    }
 
-        return file;
+    /**
+     * Adds the body of {@code part} to the attachment blob store. Bodies that are already part of the store, e.g. when
+     * copying a message, are not written again.
+     */
+    private AttachmentBlob saveBodyAsBlob(SQLiteDatabase db, Part part, String encoding)
+            throws MessagingException, IOException {
+        AttachmentBlobStore attachmentBlobStore = localStore.getAttachmentBlobStore();
+
+        Body body = part.getBody();
+        if (body instanceof FileBackedBody) {
+            File file = ((FileBackedBody) body).getFile();
+            AttachmentBlob blob = attachmentBlobStore.findBlob(db, file, encoding);
+            if (blob != null) {
+                return blob;
+            }
+        }
+
+        File file = writeBodyToDiskIfNecessary(part);
+        return attachmentBlobStore.storeBlob(db, file, encoding);
     }
 
     private File writeBodyToDiskIfNecessary(Part part) throws MessagingException, IOException {
@@ -1367,21 +1367,22 @@ public class LocalFolder {
         return file;
     }
 
+    /**
+     * Returns the decoded size calculated while the body was downloaded, so the body doesn't need to be read again.
+     */
+    private long getPrecalculatedDecodedSize(Body body) {
+        if (body instanceof BinaryTempFileBody) {
+            return ((BinaryTempFileBody) body).getDecodedSize();
+        }
+
+        return DecodedSizeCountingOutputStream.UNKNOWN_SIZE;
+    }
+
     private long decodeAndCountBytes(byte[] bodyData, String encoding, long fallbackValue) {
         ByteArrayInputStream rawInputStream = new ByteArrayInputStream(bodyData);
         return decodeAndCountBytes(rawInputStream, encoding, fallbackValue);
     }
 
-    private long decodeAndCountBytes(File file, String encoding, long fallbackValue)
-            throws IOException {
-        InputStream inputStream = new FileInputStream(file);
-        try {
-            return decodeAndCountBytes(inputStream, encoding, fallbackValue);
-        } finally {
-            inputStream.close();
-        }
-    }
-
     private long decodeAndCountBytes(InputStream rawInputStream, String encoding, long fallbackValue) {
         InputStream decodingInputStream = localStore.getDecodingInputStream(rawInputStream, encoding);
         try {
@@ -1448,7 +1449,7 @@ public class LocalFolder {
     public void addPartToMessage(final LocalMessage message, final Part part) throws MessagingException {
         open();
 
-        localStore.getDatabase().execute(false, new DbCallback<Void>() {
+        localStore.getDatabase().execute(true, new DbCallback<Void>() {
             @Override
             public Void doDbWork(final SQLiteDatabase db) throws WrappedException, UnavailableStorageException {
                 long messagePartId;
@@ -1472,11 +1473,17 @@ public class LocalFolder {
                     Timber.e(e, "Error writing message part");
                 }
 
+                ContentValues messageValues = new ContentValues();
+                messageValues.put("body_stamp", LocalStore.createBodyStamp());
+                db.update("messages", messageValues, "id = ?",
+                        new String[] { Long.toString(message.getDatabaseId()) });
+                localStore.removeRenderedMessages(Collections.singletonList(message.getDatabaseId()));
+
                 return null;
             }
         });
 
-        localStore.notifyChange();
+        localStore.notifyMessagesUpdated(Collections.singletonList(message.getDatabaseId()));
     }
 
     /**
@@ -1497,7 +1504,7 @@ public class LocalFolder {
         });
 
         //TODO: remove this once the UI code exclusively uses the database id
-        this.localStore.notifyChange();
+        this.localStore.notifyMessagesUpdated(Collections.singletonList(message.getDatabaseId()));
     }
 
     public void setFlags(final List<LocalMessage> messages, final Set<Flag> flags, final boolean value)
@@ -1545,18 +1552,7 @@ public class LocalFolder {
                 @Override
                 public Void doDbWork(final SQLiteDatabase db) throws WrappedException {
                     try {
-                        Cursor cursor = db.query("messages", new String[] { "message_part_id" },
-                                "folder_id = ? AND empty = 0",
-                                folderIdArg, null, null, null);
-                        try {
-                            while (cursor.moveToNext()) {
-                                long messagePartId = cursor.getLong(0);
-                                deleteMessageDataFromDisk(messagePartId);
-                            }
-                        } finally {
-                            cursor.close();
-                        }
-
+                        removeRenderedMessages(db);
                         db.execSQL("DELETE FROM threads WHERE message_id IN " +
                                 "(SELECT id FROM messages WHERE folder_id = ?)", folderIdArg);
                         db.execSQL("DELETE FROM messages WHERE folder_id = ?", folderIdArg);
@@ -1573,12 +1569,28 @@ public class LocalFolder {
             throw(MessagingException) e.getCause();
         }
 
+        localStore.deleteUnreferencedAttachmentBlobs();
         this.localStore.notifyChange();
 
         setLastChecked(0);
         setVisibleLimit(getAccount().getDisplayCount());
     }
 
+    private void removeRenderedMessages(SQLiteDatabase db) {
+        List<Long> messageIds = new ArrayList<>();
+        Cursor cursor = db.query("messages", new String[] { "id" }, "folder_id = ?",
+                new String[] { Long.toString(databaseId) }, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                messageIds.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        localStore.removeRenderedMessages(messageIds);
+    }
+
     public void destroyLocalOnlyMessages() throws MessagingException {
         destroyMessages("uid LIKE '" + K9.LOCAL_UID_PREFIX + "%'");
     }
@@ -1620,13 +1632,10 @@ public class LocalFolder {
                     try {
                         // We need to open the folder first to make sure we've got its id
                         open();
-                        List<LocalMessage> messages = getMessages(null);
-                        for (LocalMessage message : messages) {
-                            deleteMessageDataFromDisk(message.getMessagePartId());
-                        }
                     } catch (MessagingException e) {
                         throw new WrappedException(e);
                     }
+                    removeRenderedMessages(db);
                     db.execSQL("DELETE FROM folders WHERE id = ?", new Object[]
                                { Long.toString(databaseId), });
                     return null;
@@ -1635,6 +1644,8 @@ public class LocalFolder {
         } catch (WrappedException e) {
             throw(MessagingException) e.getCause();
         }
+
+        localStore.deleteUnreferencedAttachmentBlobs();
     }
 
     @Override
@@ -1663,7 +1674,7 @@ public class LocalFolder {
                 public Void doDbWork(final SQLiteDatabase db) throws WrappedException,
                         UnavailableStorageException {
                     try {
-                        deleteMessagePartsAndDataFromDisk(messagePartId);
+                        deleteMessagePartsAndDataFromDisk(messageId, messagePartId);
 
                         deleteFulltextIndexEntry(db, messageId);
 
@@ -1677,7 +1688,10 @@ public class LocalFolder {
                             cv.put("message_id", messageIdHeader);
                             cv.put("empty", 1);
 
-                            db.replace("messages", null, cv);
+                            // Delete the row explicitly instead of using REPLACE. REPLACE doesn't run the delete
+                            // triggers that keep the message counts of the folder up to date.
+                            db.delete("messages", "id = ?", new String[] { Long.toString(messageId) });
+                            db.insert("messages", null, cv);
 
                             // Nothing else to do
                             return null;
@@ -1718,7 +1732,7 @@ public class LocalFolder {
             throw (MessagingException) e.getCause();
         }
 
-        localStore.notifyChange();
+        localStore.notifyMessagesDeleted(Collections.singletonList(messageId));
     }
 
     /**
@@ -1792,6 +1806,32 @@ public class LocalFolder {
         db.delete("threads", "message_id = ?", idArg);
     }
 
+    /**
+     * Returns the addresses and names of all supplied addresses as text for the full-text index.
+     */
+    private static String getAddressSearchText(Address[]... addressLists) {
+        StringBuilder sb = new StringBuilder();
+        for (Address[] addresses : addressLists) {
+            if (addresses == null) {
+                continue;
+            }
+
+            for (Address address : addresses) {
+                if (sb.length() > 0) {
+                    sb.append(' ');
+                }
+                sb.append(address.getAddress());
+
+                String personal = address.getPersonal();
+                if (personal != null) {
+                    sb.append(' ').append(personal);
+                }
+            }
+        }
+
+        return sb.toString();
+    }
+
     void deleteFulltextIndexEntry(SQLiteDatabase db, long messageId) {
         String[] idArg = { Long.toString(messageId) };
         db.delete("messages_fulltext", "docid = ?", idArg);
@@ -1801,12 +1841,12 @@ public class LocalFolder {
         db.execSQL("INSERT INTO messages_fulltext(messages_fulltext) VALUES('optimize')");
     }
 
-    void deleteMessagePartsAndDataFromDisk(final long rootMessagePartId) throws MessagingException {
-        deleteMessageDataFromDisk(rootMessagePartId);
-        deleteMessageParts(rootMessagePartId);
+    void deleteMessagePartsAndDataFromDisk(long messageId, long rootMessagePartId) throws MessagingException {
+        deleteMessageParts(messageId, rootMessagePartId);
+        localStore.deleteUnreferencedAttachmentBlobs();
     }
 
-    private void deleteMessageParts(final long rootMessagePartId) throws MessagingException {
+    private void deleteMessageParts(long messageId, final long rootMessagePartId) throws MessagingException {
         localStore.getDatabase().execute(false, new DbCallback<Void>() {
             @Override
             public Void doDbWork(final SQLiteDatabase db) throws WrappedException, UnavailableStorageException {
@@ -1814,35 +1854,9 @@ public class LocalFolder {
                 return null;
             }
         });
-    }
 
-    private void deleteMessageDataFromDisk(final long rootMessagePartId) throws MessagingException {
-        localStore.getDatabase().execute(false, new DbCallback<Void>() {
-            @Override
-            public Void doDbWork(final SQLiteDatabase db) throws WrappedException, UnavailableStorageException {
-                deleteMessagePartsFromDisk(db, rootMessagePartId);
-                return null;
-            }
-        });
-    }
-
-    private void deleteMessagePartsFromDisk(SQLiteDatabase db, long rootMessagePartId) {
-        Cursor cursor = db.query("message_parts", new String[] { "id" },
-                "root = ? AND data_location = " + DataLocation.ON_DISK,
-                new String[] { Long.toString(rootMessagePartId) }, null, null, null);
-        try {
-            while (cursor.moveToNext()) {
-                String messagePartId = cursor.getString(0);
-                File file = localStore.getAttachmentFile(messagePartId);
-                if (file.exists()) {
-                    if (!file.delete() && K9.isDebugLoggingEnabled()) {
-                        Timber.d("Couldn't delete message part file: %s", file.getAbsolutePath());
-                    }
-                }
-            }
-        } finally {
-            cursor.close();
-        }
+        // The ID of the message might be reused by SQLite, so don't keep the rendered HTML around
+        localStore.removeRenderedMessages(Collections.singletonList(messageId));
     }
 
     public boolean isInTopGroup() {
@@ -1854,108 +1868,6 @@ public class LocalFolder {
         updateFolderColumn("top_group", isInTopGroup ? 1 : 0);
     }
 
-    private ThreadInfo doMessageThreading(SQLiteDatabase db, Message message) {
-        long rootId = -1;
-        long parentId = -1;
-
-        String messageId = message.getMessageId();
-
-        // If there's already an empty message in the database, update that
-        ThreadInfo msgThreadInfo = getThreadInfo(db, messageId, true);
-
-        // Get the message IDs from the "References" header line
-        String[] referencesArray = message.getHeader("References");
-        List<String> messageIds = null;
-        if (referencesArray.length > 0) {
-            messageIds = Utility.extractMessageIds(referencesArray[0]);
-        }
-
-        // Append the first message ID from the "In-Reply-To" header line
-        String[] inReplyToArray = message.getHeader("In-Reply-To");
-        String inReplyTo;
-        if (inReplyToArray.length > 0) {
-            inReplyTo = Utility.extractMessageId(inReplyToArray[0]);
-            if (inReplyTo != null) {
-                if (messageIds == null) {
-                    messageIds = new ArrayList<>(1);
-                    messageIds.add(inReplyTo);
-                } else if (!messageIds.contains(inReplyTo)) {
-                    messageIds.add(inReplyTo);
-                }
-            }
-        }
-
-        if (messageIds == null) {
-            // This is not a reply, nothing to do for us.
-            return (msgThreadInfo != null) ?
-                    msgThreadInfo : new ThreadInfo(-1, -1, messageId, -1, -1);
-        }
-
-        for (String reference : messageIds) {
-            ThreadInfo threadInfo = getThreadInfo(db, reference, false);
-
-            if (threadInfo == null) {
-                // Create placeholder message in 'messages' table
-                ContentValues cv = new ContentValues();
-                cv.put("message_id", reference);
-                cv.put("folder_id", databaseId);
-                cv.put("empty", 1);
-
-                long newMsgId = db.insert("messages", null, cv);
-
-                // Create entry in 'threads' table
-                cv.clear();
-                cv.put("message_id", newMsgId);
-                if (rootId != -1) {
-                    cv.put("root", rootId);
-                }
-                if (parentId != -1) {
-                    cv.put("parent", parentId);
-                }
-
-                parentId = db.insert("threads", null, cv);
-                if (rootId == -1) {
-                    rootId = parentId;
-                }
-            } else {
-                if (rootId != -1 && threadInfo.rootId == -1 && rootId != threadInfo.threadId) {
-                    // We found an existing root container that is not
-                    // the root of our current path (References).
-                    // Connect it to the current parent.
-
-                    // Let all children know who's the new root
-                    ContentValues cv = new ContentValues();
-                    cv.put("root", rootId);
-                    db.update("threads", cv, "root = ?",
-                            new String[] { Long.toString(threadInfo.threadId) });
-
-                    // Connect the message to the current parent
-                    cv.put("parent", parentId);
-                    db.update("threads", cv, "id = ?",
-                            new String[] { Long.toString(threadInfo.threadId) });
-                } else {
-                    rootId = (threadInfo.rootId == -1) ?
-                            threadInfo.threadId : threadInfo.rootId;
-                }
-                parentId = threadInfo.threadId;
-            }
-        }
-
-        //TODO: set in-reply-to "link" even if one already exists
-
-        long threadId;
-        long msgId;
-        if (msgThreadInfo != null) {
-            threadId = msgThreadInfo.threadId;
-            msgId = msgThreadInfo.msgId;
-        } else {
-            threadId = -1;
-            msgId = -1;
-        }
-
-        return new ThreadInfo(threadId, msgId, messageId, rootId, parentId);
-    }
-
     public List<String> extractNewMessages(final List<String> messageServerIds)
             throws MessagingException {
 
@@ -4,21 +4,25 @@ package com.fsck.k9.mailstore;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Objects;
 
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 
 import com.fsck.k9.Account;
 import com.fsck.k9.K9;
 import com.fsck.k9.controller.MessageReference;
 import com.fsck.k9.mail.Address;
+import com.fsck.k9.mail.Body;
 import com.fsck.k9.mail.Flag;
 import com.fsck.k9.mail.MessagingException;
 import com.fsck.k9.mail.MimeType;
+import com.fsck.k9.mail.Multipart;
 import com.fsck.k9.mail.internet.AddressHeaderBuilder;
 import com.fsck.k9.mail.internet.MimeMessage;
 import com.fsck.k9.mail.message.MessageHeaderParser;
@@ -35,6 +39,7 @@ public class LocalMessage extends MimeMessage {
     private long rootId;
     private long threadId;
     private long messagePartId;
+    private String bodyStamp;
     private MessageReference messageReference;
     private int attachmentCount;
     private String subject;
@@ -120,6 +125,7 @@ public class LocalMessage extends MimeMessage {
         setFlagInternal(Flag.FORWARDED, forwarded);
 
         setMessagePartId(cursor.getLong(LocalStore.MSG_INDEX_MESSAGE_PART_ID));
+        bodyStamp = cursor.getString(LocalStore.MSG_INDEX_BODY_STAMP);
         MimeType mimeType = MimeType.parseOrNull(cursor.getString(LocalStore.MSG_INDEX_MIME_TYPE));
         this.mimeType = mimeType != null ? mimeType.toString() : DEFAULT_MIME_TYPE;
 
@@ -142,6 +148,15 @@ public class LocalMessage extends MimeMessage {
         return messagePartId;
     }
 
+    /**
+     * Returns a value that changes whenever the body of this message is stored or removed, or {@code null} if the
+     * message has no body.
+     */
+    @Nullable
+    public String getBodyStamp() {
+        return bodyStamp;
+    }
+
     @Override
     public String getMimeType() {
         return mimeType;
@@ -189,6 +204,18 @@ public class LocalMessage extends MimeMessage {
         return (attachmentCount > 0);
     }
 
+    /**
+     * Returns {@code true} if none of the content of this message is available locally. This is the case after only
+     * the envelope was downloaded or after the body was evicted by {@link LocalStore#evictNextBodyBatch(long)}.
+     * <p>
+     * The body needs to be loaded before calling this method.
+     * </p>
+     */
+    public boolean isBodyMissing() {
+        Body body = getBody();
+        return body == null || (body instanceof Multipart && ((Multipart) body).getCount() == 0);
+    }
+
     public int getAttachmentCount() {
         return attachmentCount;
     }
@@ -255,7 +282,7 @@ public class LocalMessage extends MimeMessage {
             throw(MessagingException) e.getCause();
         }
 
-        this.localStore.notifyChange();
+        this.localStore.notifyMessagesUpdated(Collections.singletonList(databaseId));
     }
 
     @Override
@@ -293,7 +320,11 @@ public class LocalMessage extends MimeMessage {
             throw(MessagingException) e.getCause();
         }
 
-        this.localStore.notifyChange();
+        if (flag == Flag.DELETED && set) {
+            this.localStore.notifyMessagesDeleted(Collections.singletonList(databaseId));
+        } else {
+            this.localStore.notifyMessagesUpdated(Collections.singletonList(databaseId));
+        }
     }
 
     /*
@@ -321,6 +352,7 @@ public class LocalMessage extends MimeMessage {
                     cv.putNull("preview");
                     cv.putNull("reply_to_list");
                     cv.putNull("message_part_id");
+                    cv.putNull("body_stamp");
                     cv.putNull("flags");
                     cv.putNull("attachment_count");
                     cv.putNull("internal_date");
@@ -330,7 +362,7 @@ public class LocalMessage extends MimeMessage {
                     db.update("messages", cv, "id = ?", new String[] { Long.toString(databaseId) });
 
                     try {
-                        ((LocalFolder) mFolder).deleteMessagePartsAndDataFromDisk(messagePartId);
+                        ((LocalFolder) mFolder).deleteMessagePartsAndDataFromDisk(databaseId, messagePartId);
                     } catch (MessagingException e) {
                         throw new WrappedException(e);
                     }
@@ -344,7 +376,7 @@ public class LocalMessage extends MimeMessage {
             throw (MessagingException) e.getCause();
         }
 
-        localStore.notifyChange();
+        localStore.notifyMessagesDeleted(Collections.singletonList(databaseId));
     }
 
     public void debugClearLocalData() throws MessagingException {
@@ -358,11 +390,12 @@ public class LocalMessage extends MimeMessage {
                 public Void doDbWork(final SQLiteDatabase db) throws WrappedException, MessagingException {
                     ContentValues cv = new ContentValues();
                     cv.putNull("message_part_id");
+                    cv.putNull("body_stamp");
 
                     db.update("messages", cv, "id = ?", new String[] { Long.toString(databaseId) });
 
                     try {
-                        ((LocalFolder) mFolder).deleteMessagePartsAndDataFromDisk(messagePartId);
+                        ((LocalFolder) mFolder).deleteMessagePartsAndDataFromDisk(databaseId, messagePartId);
                     } catch (MessagingException e) {
                         throw new WrappedException(e);
                     }
@@ -377,7 +410,7 @@ public class LocalMessage extends MimeMessage {
             throw (MessagingException) e.getCause();
         }
 
-        localStore.notifyChange();
+        localStore.notifyMessagesUpdated(Collections.singletonList(databaseId));
     }
 
     /*
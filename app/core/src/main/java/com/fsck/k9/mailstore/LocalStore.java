@@ -10,13 +10,18 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.Stack;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 import android.content.ContentResolver;
 import android.content.ContentValues;
@@ -87,7 +92,7 @@ public class LocalStore {
         "subject, sender_list, date, uid, flags, messages.id, to_list, cc_list, " +
         "bcc_list, reply_to_list, attachment_count, internal_date, messages.message_id, " +
         "folder_id, preview, threads.id, threads.root, deleted, read, flagged, answered, " +
-        "forwarded, message_part_id, messages.mime_type, preview_type, header ";
+        "forwarded, message_part_id, messages.mime_type, preview_type, header, messages.body_stamp ";
 
     static final int MSG_INDEX_SUBJECT = 0;
     static final int MSG_INDEX_SENDER_LIST = 1;
@@ -115,6 +120,7 @@ public class LocalStore {
     static final int MSG_INDEX_MIME_TYPE = 23;
     static final int MSG_INDEX_PREVIEW_TYPE = 24;
     static final int MSG_INDEX_HEADER_DATA = 25;
+    static final int MSG_INDEX_BODY_STAMP = 26;
 
     static final String GET_FOLDER_COLS =
         "folders.id, name, visible_limit, last_updated, status, " +
@@ -139,13 +145,15 @@ public class LocalStore {
 
     static final String[] UID_CHECK_PROJECTION = { "uid" };
 
-    private static final String[] GET_ATTACHMENT_COLS = new String[] { "id", "root", "data_location", "encoding", "data" };
+    private static final String[] GET_ATTACHMENT_COLS =
+            new String[] { "id", "root", "data_location", "encoding", "data", "blob_id" };
 
     private static final int ATTACH_PART_ID_INDEX = 0;
     private static final int ATTACH_ROOT_INDEX = 1;
     private static final int ATTACH_LOCATION_INDEX = 2;
     private static final int ATTACH_ENCODING_INDEX = 3;
     private static final int ATTACH_DATA_INDEX = 4;
+    private static final int ATTACH_BLOB_ID_INDEX = 5;
 
     /**
      * Maximum number of UIDs to check for existence at once.
@@ -162,23 +170,62 @@ public class LocalStore {
     private static final int FLAG_UPDATE_BATCH_SIZE = 500;
 
     /**
-     * Maximum number of threads to perform flag updates on at once.
+     * Maximum number of threads to look up messages for at once when updating flags.
      *
-     * @see #setFlagForThreads(List, Flag, boolean)
+     * @see #getMessageIdsInThreads(long, List)
      */
     private static final int THREAD_FLAG_UPDATE_BATCH_SIZE = 500;
 
+    /**
+     * Maximum number of placeholder messages to merge in one transaction.
+     *
+     * @see #mergeThreadsAcrossFolders()
+     */
+    private static final int THREAD_MERGE_BATCH_SIZE = 100;
+
+    /**
+     * Name of the entry in {@code account_extra_values} that stores the database ID of the last placeholder message
+     * processed by {@link #mergeThreadsAcrossFolders()}. It only exists while there's work left to do.
+     */
+    private static final String THREAD_MERGE_PROGRESS = "thread_merge_progress";
+
+    /**
+     * Maximum number of messages to add to the full-text index in one go.
+     *
+     * @see #indexNextFulltextBatch()
+     */
+    private static final int FULLTEXT_INDEX_BATCH_SIZE = 50;
+
+    /**
+     * Maximum number of messages whose body is removed in one transaction.
+     *
+     * @see #evictNextBodyBatch(long)
+     */
+    private static final int BODY_EVICTION_BATCH_SIZE = 20;
+
+    /**
+     * Messages that were opened within this time are not evicted, so the body of a message that is currently being
+     * displayed isn't removed.
+     *
+     * @see #evictNextBodyBatch(long)
+     */
+    private static final long BODY_EVICTION_MIN_IDLE_TIME = TimeUnit.HOURS.toMillis(1);
+
     private final Context context;
     private final ContentResolver contentResolver;
+    private final MessageChangeFeed messageChangeFeed;
     private final MessagePreviewCreator messagePreviewCreator;
     private final MessageFulltextCreator messageFulltextCreator;
     private final AttachmentCounter attachmentCounter;
     private final PendingCommandSerializer pendingCommandSerializer;
     private final AttachmentInfoExtractor attachmentInfoExtractor;
+    private final MessageThreader messageThreader;
+    private final MessageRenderCache renderCache;
 
     private final Account account;
     private final LockableDatabase database;
     private final OutboxStateRepository outboxStateRepository;
+    private final Clock clock;
 
     static LocalStore createInstance(Account account, Context context) throws MessagingException {
         return new LocalStore(account, context);
@@ -192,12 +239,15 @@ public class LocalStore {
     private LocalStore(final Account account, final Context context) throws MessagingException {
         this.context = context;
         this.contentResolver = context.getContentResolver();
+        messageChangeFeed = DI.get(MessageChangeFeed.class);
 
         messagePreviewCreator = MessagePreviewCreator.newInstance();
         messageFulltextCreator = MessageFulltextCreator.newInstance();
         attachmentCounter = AttachmentCounter.newInstance();
         pendingCommandSerializer = PendingCommandSerializer.getInstance();
         attachmentInfoExtractor = DI.get(AttachmentInfoExtractor.class);
+        messageThreader = new MessageThreader();
+        renderCache = DI.get(MessageRenderCache.class);
 
         this.account = account;
 
@@ -209,7 +259,7 @@ public class LocalStore {
         database.setStorageProviderId(account.getLocalStorageProviderId());
         database.open();
 
-        Clock clock = DI.get(Clock.class);
+        clock = DI.get(Clock.class);
         outboxStateRepository = new OutboxStateRepository(database, clock);
 
         // If "External storage" is selected as storage location, move database to internal storage
@@ -287,6 +337,9 @@ public class LocalStore {
             Timber.i("Before compaction size = %d", getSize());
         }
 
+        repairFolderCounts();
+        deleteUnreferencedAttachmentBlobs();
+
         database.execute(false, new DbCallback<Void>() {
             @Override
             public Void doDbWork(final SQLiteDatabase db) throws WrappedException {
@@ -301,6 +354,29 @@ public class LocalStore {
     }
 
 
+    /**
+     * Recalculate the number of unread, flagged, and total messages stored in the {@code folders} table.
+     * <p>
+     * These counts are maintained by database triggers. This is a consistency check in case they got out of sync,
+     * e.g. because of a bug in a code path writing to the {@code messages} table.
+     * </p>
+     */
+    public void repairFolderCounts() throws MessagingException {
+        database.execute(false, new DbCallback<Void>() {
+            @Override
+            public Void doDbWork(SQLiteDatabase db) {
+                db.execSQL("UPDATE folders SET " +
+                        "total_count = (SELECT COUNT(*) FROM messages " +
+                        "WHERE folder_id = folders.id AND empty = 0 AND deleted = 0), " +
+                        "unread_count = (SELECT COUNT(*) FROM messages " +
+                        "WHERE folder_id = folders.id AND empty = 0 AND deleted = 0 AND read = 0), " +
+                        "flagged_count = (SELECT COUNT(*) FROM messages " +
+                        "WHERE folder_id = folders.id AND empty = 0 AND deleted = 0 AND flagged = 1)");
+                return null;
+            }
+        });
+    }
+
     public void clear() throws MessagingException {
         if (K9.isDebugLoggingEnabled()) {
             Timber.i("Before prune size = %d", getSize());
@@ -422,10 +498,12 @@ public class LocalStore {
 
     public void delete() throws UnavailableStorageException {
         database.delete();
+        renderCache.removeAccount(account.getUuid());
     }
 
     public void recreate() throws UnavailableStorageException {
         database.recreate();
+        renderCache.removeAccount(account.getUuid());
     }
 
     private void deleteAllMessageDataFromDisk() throws MessagingException {
@@ -434,12 +512,21 @@ public class LocalStore {
     }
 
     private void markAllMessagePartsDataAsMissing() throws MessagingException {
-        database.execute(false, new DbCallback<Void>() {
+        database.execute(true, new DbCallback<Void>() {
             @Override
             public Void doDbWork(final SQLiteDatabase db) throws WrappedException {
                 ContentValues cv = new ContentValues();
                 cv.put("data_location", DataLocation.MISSING);
+                cv.putNull("blob_id");
                 db.update("message_parts", cv, null, null);
+                db.delete("attachment_blobs", null, null);
+
+                database.runAfterCommit(new Runnable() {
+                    @Override
+                    public void run() {
+                        renderCache.removeAccount(account.getUuid());
+                    }
+                });
 
                 return null;
             }
@@ -447,10 +534,7 @@ public class LocalStore {
     }
 
     private void deleteAllMessagePartsDataFromDisk() {
-        final StorageManager storageManager = StorageManager.getInstance(context);
-        File attachmentDirectory = storageManager.getAttachmentDirectory(
-                account.getUuid(), database.getStorageProviderId());
-        File[] files = attachmentDirectory.listFiles();
+        File[] files = getAttachmentDirectory().listFiles();
         if (files == null) {
             return;
         }
@@ -621,11 +705,19 @@ public class LocalStore {
 
     }
 
-    public List<LocalMessage> getMessagesInThread(final long rootId) throws MessagingException {
+    /**
+     * Get the messages of a thread that are stored in the given folder.
+     * <p>
+     * Threads can span multiple folders, e.g. a message in the Inbox and the reply in the Sent folder. Operations that
+     * act on a thread in a folder must not touch the messages of that thread in other folders.
+     * </p>
+     */
+    public List<LocalMessage> getMessagesInThread(final long rootId, long folderId) throws MessagingException {
         String rootIdString = Long.toString(rootId);
 
         LocalSearch search = new LocalSearch();
         search.and(SearchField.THREAD_ID, rootIdString, Attribute.EQUALS);
+        search.and(SearchField.FOLDER, Long.toString(folderId), Attribute.EQUALS);
 
         return searchForMessages(null, search);
     }
@@ -705,7 +797,7 @@ public class LocalStore {
             int location = cursor.getInt(ATTACH_LOCATION_INDEX);
 
             if (location == DataLocation.IN_DATABASE || location == DataLocation.ON_DISK) {
-                writeSimplePartToOutputStream(partId, cursor, outputStream);
+                writeSimplePartToOutputStream(cursor, outputStream);
             } else if (location == DataLocation.CHILD_PART_CONTAINS_DATA) {
                 writeRawBodyToStream(cursor, db, outputStream);
             }
@@ -793,7 +885,7 @@ public class LocalStore {
 
     @Nullable
     private LocalMessage loadLocalMessageByMessageId(long messageId) throws MessagingException {
-        Map<Long, List<String>> folderIdsAndUids = getFolderIdsAndUids(Collections.singletonList(messageId), false);
+        Map<Long, List<String>> folderIdsAndUids = getFolderIdsAndUids(Collections.singletonList(messageId));
         if (folderIdsAndUids.isEmpty()) {
             return null;
         }
@@ -812,10 +904,9 @@ public class LocalStore {
         return localMessage;
     }
 
-    private void writeSimplePartToOutputStream(String partId, Cursor cursor, OutputStream outputStream)
-            throws IOException {
+    private void writeSimplePartToOutputStream(Cursor cursor, OutputStream outputStream) throws IOException {
         int location = cursor.getInt(ATTACH_LOCATION_INDEX);
-        InputStream inputStream = getRawAttachmentInputStream(partId, location, cursor);
+        InputStream inputStream = getRawAttachmentInputStream(location, cursor);
 
         try {
             String encoding = cursor.getString(ATTACH_ENCODING_INDEX);
@@ -826,15 +917,16 @@ public class LocalStore {
         }
     }
 
-    private InputStream getRawAttachmentInputStream(String partId, int location, Cursor cursor)
-            throws FileNotFoundException {
+    private InputStream getRawAttachmentInputStream(int location, Cursor cursor) throws FileNotFoundException {
         switch (location) {
             case DataLocation.IN_DATABASE: {
                 byte[] data = cursor.getBlob(ATTACH_DATA_INDEX);
                 return new ByteArrayInputStream(data);
             }
             case DataLocation.ON_DISK: {
-                File file = getAttachmentFile(partId);
+                long messagePartId = cursor.getLong(ATTACH_PART_ID_INDEX);
+                Long blobId = cursor.isNull(ATTACH_BLOB_ID_INDEX) ? null : cursor.getLong(ATTACH_BLOB_ID_INDEX);
+                File file = getAttachmentBlobStore().getMessagePartFile(messagePartId, blobId);
                 return new FileInputStream(file);
             }
             default:
@@ -865,11 +957,61 @@ public class LocalStore {
         return rawInputStream;
     }
 
-    File getAttachmentFile(String attachmentId) {
-        final StorageManager storageManager = StorageManager.getInstance(context);
-        final File attachmentDirectory = storageManager.getAttachmentDirectory(
-                account.getUuid(), database.getStorageProviderId());
-        return new File(attachmentDirectory, attachmentId);
+    AttachmentBlobStore getAttachmentBlobStore() {
+        return new AttachmentBlobStore(getAttachmentDirectory());
+    }
+
+    /**
+     * Deletes the attachment blobs that are no longer used by any message part and blob files without a database row.
+     */
+    void deleteUnreferencedAttachmentBlobs() throws MessagingException {
+        final AttachmentBlobStore attachmentBlobStore = getAttachmentBlobStore();
+        database.execute(true, new DbCallback<Void>() {
+            @Override
+            public Void doDbWork(final SQLiteDatabase db) {
+                attachmentBlobStore.deleteOrphanedBlobFiles(db);
+
+                final List<Long> blobIds = attachmentBlobStore.deleteUnreferencedBlobs(db);
+                if (blobIds.isEmpty()) {
+                    return null;
+                }
+
+                // Keep the files if the deletion is rolled back, e.g. when this is part of a larger transaction
+                database.runAfterCommit(new Runnable() {
+                    @Override
+                    public void run() {
+                        attachmentBlobStore.deleteBlobFiles(blobIds);
+                    }
+                });
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Creates a new value for {@code messages.body_stamp}. It has to be changed whenever the body of a message is stored
+     * or removed.
+     */
+    static String createBodyStamp() {
+        return UUID.randomUUID().toString();
+    }
+
+    /**
+     * Removes the rendered HTML of the given messages from the {@link MessageRenderCache} once the active transaction
+     * has been committed.
+     */
+    void removeRenderedMessages(final Collection<Long> messageIds) {
+        database.runAfterCommit(new Runnable() {
+            @Override
+            public void run() {
+                renderCache.removeMessages(account.getUuid(), messageIds);
+            }
+        });
+    }
+
+    private File getAttachmentDirectory() {
+        StorageManager storageManager = StorageManager.getInstance(context);
+        return storageManager.getAttachmentDirectory(account.getUuid(), database.getStorageProviderId());
     }
 
     public String getFolderServerId(long folderId) throws MessagingException {
@@ -1013,11 +1155,413 @@ public class LocalStore {
         return attachmentInfoExtractor;
     }
 
+    MessageThreader getMessageThreader() {
+        return messageThreader;
+    }
+
+    /**
+     * Connect threads that were created when threads were still limited to a single folder.
+     * <p>
+     * Only one batch of placeholder messages is processed per call. Progress is stored in the database, so the work
+     * can be interrupted and resumed later.
+     * </p>
+     *
+     * @return {@code true} if there's more work to do.
+     */
+    public boolean mergeThreadsAcrossFolders() throws MessagingException {
+        return database.execute(true, new DbCallback<Boolean>() {
+            @Override
+            public Boolean doDbWork(SQLiteDatabase db) {
+                String[] nameArgs = { THREAD_MERGE_PROGRESS };
+                long afterMessageId;
+                Cursor cursor = db.query("account_extra_values", new String[] { "value_integer" }, "name = ?",
+                        nameArgs, null, null, null);
+                try {
+                    if (!cursor.moveToFirst()) {
+                        return false;
+                    }
+                    afterMessageId = cursor.getLong(0);
+                } finally {
+                    cursor.close();
+                }
+
+                long lastMessageId = messageThreader.mergePlaceholderMessages(db, afterMessageId,
+                        THREAD_MERGE_BATCH_SIZE);
+                if (lastMessageId == -1) {
+                    db.delete("account_extra_values", "name = ?", nameArgs);
+                    return false;
+                }
+
+                ContentValues cv = new ContentValues();
+                cv.put("value_integer", lastMessageId);
+                db.update("account_extra_values", cv, "name = ?", nameArgs);
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Add the text of messages that were saved since the last run to the full-text index.
+     * <p>
+     * Extracting the text of a message, e.g. converting HTML to plain text, is too expensive to do while saving
+     * messages during sync. Only one batch of messages is processed per call. The text is extracted outside of a
+     * transaction, so other database users are only blocked while the results are written. Messages that have been
+     * changed in the meantime are left for the next batch. Messages whose text can't be extracted are added to the
+     * index without their text, so they don't block the messages after them.
+     * </p>
+     *
+     * @return {@code true} if there's more work to do.
+     */
+    public boolean indexNextFulltextBatch() throws MessagingException {
+        final List<PendingFulltextMessage> pendingMessages = database.execute(false,
+                new DbCallback<List<PendingFulltextMessage>>() {
+            @Override
+            public List<PendingFulltextMessage> doDbWork(SQLiteDatabase db) {
+                Cursor cursor = db.rawQuery("SELECT id, folder_id, uid, message_part_id, empty, deleted " +
+                        "FROM messages " +
+                        "WHERE fulltext_indexed = 0 " +
+                        "ORDER BY id " +
+                        "LIMIT " + FULLTEXT_INDEX_BATCH_SIZE, null);
+                try {
+                    List<PendingFulltextMessage> result = new ArrayList<>(cursor.getCount());
+                    while (cursor.moveToNext()) {
+                        PendingFulltextMessage pendingMessage = new PendingFulltextMessage();
+                        pendingMessage.messageId = cursor.getLong(0);
+                        pendingMessage.folderId = cursor.getLong(1);
+                        pendingMessage.uid = cursor.getString(2);
+                        pendingMessage.messagePartId = cursor.isNull(3) ? null : cursor.getLong(3);
+                        // Placeholder messages and deleted messages don't have any text to index
+                        pendingMessage.hasText = cursor.getInt(4) == 0 && cursor.getInt(5) == 0;
+                        result.add(pendingMessage);
+                    }
+                    return result;
+                } finally {
+                    cursor.close();
+                }
+            }
+        });
+
+        if (pendingMessages.isEmpty()) {
+            return false;
+        }
+
+        FetchProfile fetchProfile = new FetchProfile();
+        fetchProfile.add(Item.BODY);
+
+        Map<Long, LocalFolder> folders = new HashMap<>();
+        for (PendingFulltextMessage pendingMessage : pendingMessages) {
+            if (!pendingMessage.hasText) {
+                continue;
+            }
+
+            LocalFolder folder = folders.get(pendingMessage.folderId);
+            if (folder == null) {
+                folder = getFolder(pendingMessage.folderId);
+                folders.put(pendingMessage.folderId, folder);
+            }
+
+            LocalMessage message = folder.getMessage(pendingMessage.uid);
+            if (message == null) {
+                pendingMessage.hasText = false;
+                continue;
+            }
+
+            try {
+                folder.fetch(Collections.singletonList(message), fetchProfile, null);
+                pendingMessage.fulltext = messageFulltextCreator.createFulltext(message);
+            } catch (MessagingException | RuntimeException e) {
+                // Index the message without its text. Otherwise every batch would start with the same message and
+                // fail again.
+                Timber.e(e, "Error extracting text of message %d for the full-text index", pendingMessage.messageId);
+                pendingMessage.fulltext = null;
+            }
+        }
+
+        database.execute(true, new DbCallback<Void>() {
+            @Override
+            public Void doDbWork(SQLiteDatabase db) {
+                ContentValues indexedValues = new ContentValues();
+                indexedValues.put("fulltext_indexed", 1);
+
+                for (PendingFulltextMessage pendingMessage : pendingMessages) {
+                    String messageId = Long.toString(pendingMessage.messageId);
+                    int updated;
+                    if (pendingMessage.messagePartId == null) {
+                        updated = db.update("messages", indexedValues,
+                                "id = ? AND fulltext_indexed = 0 AND message_part_id IS NULL",
+                                new String[] { messageId });
+                    } else {
+                        updated = db.update("messages", indexedValues,
+                                "id = ? AND fulltext_indexed = 0 AND message_part_id = ?",
+                                new String[] { messageId, Long.toString(pendingMessage.messagePartId) });
+                    }
+
+                    if (updated == 1 && pendingMessage.hasText) {
+                        ContentValues cv = new ContentValues();
+                        cv.put("fulltext", pendingMessage.fulltext);
+                        db.update("messages_fulltext", cv, "docid = ?", new String[] { messageId });
+                    }
+                }
+                return null;
+            }
+        });
+
+        return true;
+    }
+
+    /**
+     * Returns the number of messages that haven't been added to the full-text index yet.
+     *
+     * @see #indexNextFulltextBatch()
+     */
+    public int getPendingFulltextIndexCount() throws MessagingException {
+        return database.execute(false, new DbCallback<Integer>() {
+            @Override
+            public Integer doDbWork(SQLiteDatabase db) {
+                Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM messages WHERE fulltext_indexed = 0", null);
+                try {
+                    return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+                } finally {
+                    cursor.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Records that a message was opened by the user.
+     *
+     * @see #evictNextBodyBatch(long)
+     */
+    public void updateLastAccess(final long messageId) throws MessagingException {
+        database.execute(false, new DbCallback<Void>() {
+            @Override
+            public Void doDbWork(SQLiteDatabase db) {
+                ContentValues cv = new ContentValues();
+                cv.put("last_access", clock.getTime());
+                db.update("messages", cv, "id = ?", new String[] { Long.toString(messageId) });
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Returns the number of bytes used by message bodies and attachments of this account.
+     * <p>
+     * Attachments stored on disk are counted once per blob, using their decoded size.
+     * </p>
+     */
+    public long getBodyCacheSize() throws MessagingException {
+        return database.execute(false, new DbCallback<Long>() {
+            @Override
+            public Long doDbWork(SQLiteDatabase db) {
+                Cursor cursor = db.rawQuery("SELECT " +
+                        "(SELECT COALESCE(SUM(LENGTH(data)), 0) FROM message_parts " +
+                        "WHERE data_location = " + DataLocation.IN_DATABASE + ") + " +
+                        "(SELECT COALESCE(SUM(decoded_size), 0) FROM attachment_blobs)", null);
+                try {
+                    return cursor.moveToFirst() ? cursor.getLong(0) : 0L;
+                } finally {
+                    cursor.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Remove the bodies of the least recently used messages until about {@code bytesToFree} bytes have been freed.
+     * <p>
+     * Messages are ordered by the time they were last opened, or by the time they were received if they were never
+     * opened. Evicted messages keep their headers and preview and are marked as partially downloaded, so sync doesn't
+     * download them again. They are also marked with {@link Flag#X_BODY_EVICTED}, so the complete message is downloaded
+     * when it is opened. Messages that only exist locally and
+     * messages that were opened recently are never evicted.
+     * </p>
+     * <p>
+     * Messages that haven't been added to the full-text index yet are skipped as well. The index is created from the
+     * message body, so evicting it first would make the message impossible to find by its text.
+     * </p>
+     * <p>
+     * Only one batch of messages is processed per call. Blobs shared with other messages are counted for every message,
+     * so the returned value might be larger than the number of bytes actually freed.
+     * </p>
+     *
+     * @return The number of bytes freed, or {@code 0} if there are no more messages that can be evicted.
+     */
+    public long evictNextBodyBatch(final long bytesToFree) throws MessagingException {
+        if (bytesToFree <= 0) {
+            return 0;
+        }
+
+        final String accessedBefore = Long.toString(clock.getTime() - BODY_EVICTION_MIN_IDLE_TIME);
+        final List<Long> evictedMessageIds = new ArrayList<>();
+        long freedSize = database.execute(true, new DbCallback<Long>() {
+            @Override
+            public Long doDbWork(SQLiteDatabase db) {
+                List<EvictableMessage> messages = loadEvictableMessages(db, accessedBefore);
+                loadEvictableMessageSizes(db, messages);
+
+                long freedSize = 0;
+                for (EvictableMessage message : messages) {
+                    if (freedSize >= bytesToFree) {
+                        break;
+                    }
+
+                    evictMessageBody(db, message);
+                    evictedMessageIds.add(message.messageId);
+                    // Count every message so a batch of empty bodies isn't mistaken for there being nothing left to do
+                    freedSize += Math.max(message.size, 1);
+                }
+                return freedSize;
+            }
+        });
+
+        if (evictedMessageIds.isEmpty()) {
+            return 0;
+        }
+
+        deleteUnreferencedAttachmentBlobs();
+        removeRenderedMessages(evictedMessageIds);
+        notifyMessagesUpdated(evictedMessageIds);
+
+        return freedSize;
+    }
+
+    private List<EvictableMessage> loadEvictableMessages(SQLiteDatabase db, String accessedBefore) {
+        String evictableMessages = "FROM messages m " +
+                "JOIN folders f ON (f.id = m.folder_id) " +
+                "WHERE m.empty = 0 AND m.deleted = 0 AND m.fulltext_indexed = 1 " +
+                "AND (f.local_only IS NULL OR f.local_only = 0) " +
+                "AND m.uid NOT LIKE '" + K9.LOCAL_UID_PREFIX + "%' " +
+                "AND EXISTS (SELECT 1 FROM message_parts p WHERE p.root = m.message_part_id " +
+                "AND p.data_location IN (" + DataLocation.IN_DATABASE + ", " + DataLocation.ON_DISK + ")) ";
+
+        // Messages that were never opened and messages that were opened are queried separately, so both parts can
+        // walk the msg_last_access index in order. Sorting by COALESCE(last_access, internal_date) can't use an index.
+        Cursor cursor = db.rawQuery("SELECT id, message_part_id, flags FROM (" +
+                "SELECT * FROM (SELECT m.id, m.message_part_id, m.flags, m.internal_date AS sort_key " +
+                evictableMessages + "AND m.last_access IS NULL " +
+                "ORDER BY m.internal_date LIMIT " + BODY_EVICTION_BATCH_SIZE + ") " +
+                "UNION ALL " +
+                "SELECT * FROM (SELECT m.id, m.message_part_id, m.flags, m.last_access AS sort_key " +
+                evictableMessages + "AND m.last_access < ? " +
+                "ORDER BY m.last_access LIMIT " + BODY_EVICTION_BATCH_SIZE + ")" +
+                ") ORDER BY sort_key LIMIT " + BODY_EVICTION_BATCH_SIZE, new String[] { accessedBefore });
+        try {
+            List<EvictableMessage> messages = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                EvictableMessage message = new EvictableMessage();
+                message.messageId = cursor.getLong(0);
+                message.messagePartId = cursor.getLong(1);
+                message.flags = cursor.getString(2);
+                messages.add(message);
+            }
+            return messages;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void loadEvictableMessageSizes(SQLiteDatabase db, List<EvictableMessage> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+
+        Map<Long, EvictableMessage> messagesByRootPartId = new HashMap<>(messages.size());
+        for (EvictableMessage message : messages) {
+            messagesByRootPartId.put(message.messagePartId, message);
+        }
+
+        Cursor cursor = db.rawQuery("SELECT p.root, " +
+                "COALESCE(SUM(LENGTH(p.data)), 0) + COALESCE(SUM(b.decoded_size), 0) " +
+                "FROM message_parts p LEFT JOIN attachment_blobs b ON (b.id = p.blob_id) " +
+                "WHERE p.root IN (" + TextUtils.join(", ", messagesByRootPartId.keySet()) + ") " +
+                "GROUP BY p.root", null);
+        try {
+            while (cursor.moveToNext()) {
+                EvictableMessage message = messagesByRootPartId.get(cursor.getLong(0));
+                if (message != null) {
+                    message.size = cursor.getLong(1);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void evictMessageBody(SQLiteDatabase db, EvictableMessage message) {
+        String rootPartId = Long.toString(message.messagePartId);
+        db.delete("message_parts", "root = ? AND id != ?", new String[] { rootPartId, rootPartId });
+
+        // Keep the header and MIME type of the root part. That's what a message looks like after only the envelope
+        // was downloaded.
+        ContentValues partValues = new ContentValues();
+        partValues.put("data_location", DataLocation.MISSING);
+        partValues.putNull("data");
+        partValues.putNull("blob_id");
+        partValues.putNull("preamble");
+        partValues.putNull("epilogue");
+        db.update("message_parts", partValues, "id = ?", new String[] { rootPartId });
+
+        Set<Flag> flags = parseExtraFlags(message.flags);
+        flags.remove(Flag.X_DOWNLOADED_FULL);
+        flags.add(Flag.X_DOWNLOADED_PARTIAL);
+        flags.add(Flag.X_BODY_EVICTED);
+
+        ContentValues messageValues = new ContentValues();
+        messageValues.put("flags", serializeFlags(flags));
+        messageValues.put("body_stamp", createBodyStamp());
+        db.update("messages", messageValues, "id = ?", new String[] { Long.toString(message.messageId) });
+    }
+
+    private static Set<Flag> parseExtraFlags(String flagList) {
+        Set<Flag> flags = EnumSet.noneOf(Flag.class);
+        if (TextUtils.isEmpty(flagList)) {
+            return flags;
+        }
+
+        for (String flagName : flagList.split(",")) {
+            try {
+                flags.add(Flag.valueOf(flagName));
+            } catch (IllegalArgumentException e) {
+                Timber.w("Unable to parse flag %s", flagName);
+            }
+        }
+
+        return flags;
+    }
+
+    /**
+     * Notify listeners that messages have changed without specifying which ones.
+     *
+     * <p>
+     * Prefer {@link #notifyChange(MessageChanges)} if the affected messages are known. The message list has to be
+     * reloaded completely after this notification.
+     * </p>
+     */
     public void notifyChange() {
+        notifyChange(MessageChanges.unknown(account.getUuid()));
+    }
+
+    public void notifyChange(MessageChanges changes) {
+        messageChangeFeed.notifyMessagesChanged(changes);
+
         Uri uri = Uri.withAppendedPath(EmailProvider.CONTENT_URI, "account/" + account.getUuid() + "/messages");
         contentResolver.notifyChange(uri, null);
     }
 
+    void notifyMessagesInserted(Collection<Long> messageIds) {
+        notifyChange(MessageChanges.inserted(account.getUuid(), messageIds));
+    }
+
+    void notifyMessagesUpdated(Collection<Long> messageIds) {
+        notifyChange(MessageChanges.updated(account.getUuid(), messageIds));
+    }
+
+    void notifyMessagesDeleted(Collection<Long> messageIds) {
+        notifyChange(MessageChanges.deleted(account.getUuid(), messageIds));
+    }
+
     /**
      * Split database operations with a large set of arguments into multiple SQL statements.
      *
@@ -1165,30 +1709,27 @@ public class LocalStore {
 
             @Override
             public void postDbWork() {
-                notifyChange();
+                // Listeners are notified once all batches have been written
             }
         }, FLAG_UPDATE_BATCH_SIZE);
+
+        notifyMessagesUpdated(messageIds);
     }
 
     /**
-     * Change the state of a flag for a list of threads.
-     *
-     * <p>
-     * The goal of this method is to be fast. Currently this means using as few SQL UPDATE
-     * statements as possible.
+     * Get the IDs of the messages in a list of threads that are stored in the given folder.
      *
+     * @param folderId
+     *         The folder the threads are displayed in. Messages of these threads in other folders are ignored.
      * @param threadRootIds
      *         A list of root thread IDs.
-     * @param flag
-     *         The flag to change. This must be a flag with a separate column in the database.
-     * @param newState
-     *         {@code true}, if the flag should be set. {@code false}, otherwise.
      *
+     * @return The primary keys of the messages in the "messages" table.
      */
-    public void setFlagForThreads(final List<Long> threadRootIds, Flag flag, final boolean newState)
+    public List<Long> getMessageIdsInThreads(final long folderId, final List<Long> threadRootIds)
             throws MessagingException {
 
-        final String flagColumn = getColumnNameForFlag(flag);
+        final List<Long> messageIds = new ArrayList<>();
 
         doBatchSetSelection(new BatchSetSelection() {
 
@@ -1206,20 +1747,27 @@ public class LocalStore {
             public void doDbWork(SQLiteDatabase db, String selectionSet, String[] selectionArgs)
                     throws UnavailableStorageException {
 
-                db.execSQL("UPDATE messages SET " + flagColumn + " = " + ((newState) ? "1" : "0") +
-                        " WHERE id IN (" +
-                        "SELECT m.id FROM threads t " +
-                        "LEFT JOIN messages m ON (t.message_id = m.id) " +
-                        "WHERE m.empty = 0 AND m.deleted = 0 " +
-                        "AND t.root" + selectionSet + ")",
+                Cursor cursor = db.rawQuery("SELECT m.id FROM threads t " +
+                        "JOIN messages m ON (t.message_id = m.id) " +
+                        "WHERE m.empty = 0 AND m.deleted = 0 AND m.folder_id = " + folderId + " " +
+                        "AND t.root" + selectionSet,
                         selectionArgs);
+                try {
+                    while (cursor.moveToNext()) {
+                        messageIds.add(cursor.getLong(0));
+                    }
+                } finally {
+                    cursor.close();
+                }
             }
 
             @Override
             public void postDbWork() {
-                notifyChange();
+                // Nothing was written; there's no need to notify listeners
             }
         }, THREAD_FLAG_UPDATE_BATCH_SIZE);
+
+        return messageIds;
     }
 
     /**
@@ -1227,17 +1775,11 @@ public class LocalStore {
      *
      * @param messageIds
      *         A list of primary keys in the "messages" table.
-     * @param threadedList
-     *         If this is {@code true}, {@code messageIds} contains the thread IDs of the messages
-     *         at the root of a thread. In that case return UIDs for all messages in these threads.
-     *         If this is {@code false} only the UIDs for messages in {@code messageIds} are
-     *         returned.
      *
      * @return The list of UIDs for the messages grouped by folder ID.
      *
      */
-    public Map<Long, List<String>> getFolderIdsAndUids(final List<Long> messageIds,
-            final boolean threadedList) throws MessagingException {
+    public Map<Long, List<String>> getFolderIdsAndUids(final List<Long> messageIds) throws MessagingException {
 
         final Map<Long, List<String>> folderMap = new HashMap<>();
 
@@ -1257,23 +1799,12 @@ public class LocalStore {
             public void doDbWork(SQLiteDatabase db, String selectionSet, String[] selectionArgs)
                     throws UnavailableStorageException {
 
-                if (threadedList) {
-                    String sql = "SELECT m.uid, m.folder_id " +
-                            "FROM threads t " +
-                            "LEFT JOIN messages m ON (t.message_id = m.id) " +
-                            "WHERE m.empty = 0 AND m.deleted = 0 " +
-                            "AND t.root" + selectionSet;
-
-                    getDataFromCursor(db.rawQuery(sql, selectionArgs));
-
-                } else {
-                    String sql =
-                            "SELECT uid, folder_id " +
-                            "FROM messages " +
-                            "WHERE empty = 0 AND id" + selectionSet;
+                String sql =
+                        "SELECT uid, folder_id " +
+                        "FROM messages " +
+                        "WHERE empty = 0 AND id" + selectionSet;
 
-                    getDataFromCursor(db.rawQuery(sql, selectionArgs));
-                }
+                getDataFromCursor(db.rawQuery(sql, selectionArgs));
             }
 
             private void getDataFromCursor(Cursor cursor) {
@@ -1297,8 +1828,7 @@ public class LocalStore {
 
             @Override
             public void postDbWork() {
-                notifyChange();
-
+                // Nothing was written; there's no need to notify listeners
             }
         }, UID_CHECK_BATCH_SIZE);
 
@@ -1313,11 +1843,19 @@ public class LocalStore {
         String where = whereBuilder.toString();
         final String[] selectionArgs = queryArgs.toArray(new String[queryArgs.size()]);
 
-        final String sqlQuery = "SELECT SUM(read=0) " +
-                "FROM messages " +
-                "JOIN folders ON (folders.id = messages.folder_id) " +
-                "WHERE (messages.empty = 0 AND messages.deleted = 0)" +
-                (!TextUtils.isEmpty(where) ? " AND (" + where + ")" : "");
+        final String sqlQuery;
+        if (SqlQueryBuilder.containsOnlyFolderConditions(search.getConditions())) {
+            // Use the unread counts maintained by database triggers instead of counting messages
+            sqlQuery = "SELECT SUM(unread_count) " +
+                    "FROM (SELECT id AS folder_id, integrate, display_class, unread_count FROM folders)" +
+                    (!TextUtils.isEmpty(where) ? " WHERE (" + where + ")" : "");
+        } else {
+            sqlQuery = "SELECT SUM(read=0) " +
+                    "FROM messages " +
+                    "JOIN folders ON (folders.id = messages.folder_id) " +
+                    "WHERE (messages.empty = 0 AND messages.deleted = 0)" +
+                    (!TextUtils.isEmpty(where) ? " AND (" + where + ")" : "");
+        }
 
         return database.execute(false, new DbCallback<Integer>() {
             @Override
@@ -1357,6 +1895,22 @@ public class LocalStore {
         }
     }
 
+    private static class PendingFulltextMessage {
+        long messageId;
+        long folderId;
+        String uid;
+        Long messagePartId;
+        boolean hasText;
+        String fulltext;
+    }
+
+    private static class EvictableMessage {
+        long messageId;
+        long messagePartId;
+        String flags;
+        long size;
+    }
+
     class RealMigrationsHelper implements MigrationsHelper {
         @Override
         public Account getAccount() {
@@ -1367,5 +1921,10 @@ public class LocalStore {
         public void saveAccount() {
             getPreferences().saveAccount(account);
         }
+
+        @Override
+        public File getAttachmentDirectory() {
+            return LocalStore.this.getAttachmentDirectory();
+        }
     }
 }
@@ -2,6 +2,8 @@ package com.fsck.k9.mailstore;
 
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -135,6 +137,13 @@ public class LockableDatabase {
      */
     private ThreadLocal<Boolean> inTransaction = new ThreadLocal<>();
 
+    /**
+     * Actions to run after the transaction of the current {@link Thread} has been committed.
+     *
+     * @see #runAfterCommit(Runnable)
+     */
+    private ThreadLocal<List<Runnable>> afterCommitActions = new ThreadLocal<>();
+
     private SchemaDefinition mSchemaDefinition;
 
     private String uUid;
@@ -263,16 +272,19 @@ public class LockableDatabase {
     public <T> T execute(final boolean transactional, final DbCallback<T> callback) throws MessagingException {
         lockRead();
         final boolean doTransaction = transactional && inTransaction.get() == null;
+        boolean committed = false;
         try {
             final boolean debug = K9.isDebugLoggingEnabled();
             if (doTransaction) {
                 inTransaction.set(Boolean.TRUE);
                 mDb.beginTransaction();
             }
+            boolean successful = false;
             try {
                 final T result = callback.doDbWork(mDb);
                 if (doTransaction) {
                     mDb.setTransactionSuccessful();
+                    successful = true;
                 }
                 return result;
             } finally {
@@ -285,6 +297,7 @@ public class LockableDatabase {
                     }
                     // not doing endTransaction in the same 'finally' block of unlockRead() because endTransaction() may throw an exception
                     mDb.endTransaction();
+                    committed = successful;
                     if (debug) {
                         Timber.v("LockableDatabase: Transaction ended, took %d ms / %s",
                                 currentTimeMillis() - begin,
@@ -293,11 +306,44 @@ public class LockableDatabase {
                 }
             }
         } finally {
+            List<Runnable> actions = null;
             if (doTransaction) {
                 inTransaction.set(null);
+                actions = afterCommitActions.get();
+                afterCommitActions.remove();
             }
             unlockRead();
+
+            if (committed && actions != null) {
+                for (Runnable action : actions) {
+                    action.run();
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs {@code action} once the transaction that is active in the current {@link Thread} has been committed. The
+     * action is discarded if the transaction is rolled back. If there's no active transaction the action is run
+     * immediately.
+     *
+     * <p>
+     * Use this for changes outside of the database that must not happen unless the database changes are persisted,
+     * e.g. deleting files referenced by deleted rows.
+     * </p>
+     */
+    public void runAfterCommit(Runnable action) {
+        if (inTransaction.get() == null) {
+            action.run();
+            return;
+        }
+
+        List<Runnable> actions = afterCommitActions.get();
+        if (actions == null) {
+            actions = new ArrayList<>();
+            afterCommitActions.set(actions);
         }
+        actions.add(action);
     }
 
     /**
@@ -0,0 +1,31 @@
+package com.fsck.k9.mailstore
+
+import java.util.concurrent.CopyOnWriteArraySet
+
+/**
+ * Distributes [MessageChanges] from the write paths of the message store to interested parties, e.g. the message
+ * list.
+ *
+ * Listeners are called synchronously on the thread that made the change.
+ */
+class MessageChangeFeed {
+    private val listeners = CopyOnWriteArraySet<MessageChangeListener>()
+
+    fun addListener(listener: MessageChangeListener) {
+        listeners.add(listener)
+    }
+
+    fun removeListener(listener: MessageChangeListener) {
+        listeners.remove(listener)
+    }
+
+    fun notifyMessagesChanged(changes: MessageChanges) {
+        for (listener in listeners) {
+            listener.onMessagesChanged(changes)
+        }
+    }
+}
+
+interface MessageChangeListener {
+    fun onMessagesChanged(changes: MessageChanges)
+}
@@ -0,0 +1,44 @@
+package com.fsck.k9.mailstore
+
+/**
+ * Describes which messages of an account were inserted, updated or deleted by a write to the message store.
+ *
+ * IDs are database IDs from the `messages` table. If [isComplete] is `false` the writer couldn't tell which messages
+ * were affected and listeners have to assume that any message might have changed.
+ */
+data class MessageChanges(
+    val accountUuid: String,
+    val insertedMessageIds: Set<Long> = emptySet(),
+    val updatedMessageIds: Set<Long> = emptySet(),
+    val deletedMessageIds: Set<Long> = emptySet(),
+    val isComplete: Boolean = true
+) {
+    operator fun plus(other: MessageChanges): MessageChanges {
+        require(accountUuid == other.accountUuid) { "Can't combine changes of different accounts" }
+
+        return MessageChanges(
+            accountUuid,
+            insertedMessageIds = insertedMessageIds + other.insertedMessageIds,
+            updatedMessageIds = updatedMessageIds + other.updatedMessageIds,
+            deletedMessageIds = deletedMessageIds + other.deletedMessageIds,
+            isComplete = isComplete && other.isComplete
+        )
+    }
+
+    companion object {
+        @JvmStatic
+        fun unknown(accountUuid: String) = MessageChanges(accountUuid, isComplete = false)
+
+        @JvmStatic
+        fun inserted(accountUuid: String, messageIds: Collection<Long>) =
+            MessageChanges(accountUuid, insertedMessageIds = messageIds.toSet())
+
+        @JvmStatic
+        fun updated(accountUuid: String, messageIds: Collection<Long>) =
+            MessageChanges(accountUuid, updatedMessageIds = messageIds.toSet())
+
+        @JvmStatic
+        fun deleted(accountUuid: String, messageIds: Collection<Long>) =
+            MessageChanges(accountUuid, deletedMessageIds = messageIds.toSet())
+    }
+}
@@ -0,0 +1,155 @@
+package com.fsck.k9.mailstore
+
+import com.fsck.k9.Clock
+import java.io.File
+import java.io.FileNotFoundException
+import java.io.IOException
+import java.security.MessageDigest
+import timber.log.Timber
+
+/**
+ * Stores the sanitized HTML of messages so [MessageViewInfoExtractor] doesn't have to process it every time a message
+ * is displayed.
+ *
+ * Every entry is stored in its own file. When the total size of all entries exceeds [maxSize], the least recently
+ * used entries are removed.
+ *
+ * Entries are stored per message. The key includes the body stamp of the message, which changes whenever its body is
+ * stored or removed, so an old rendering is never returned for a new body, even if SQLite reuses the database IDs of a
+ * deleted message. Entries of deleted messages and accounts are removed with [removeMessages] and [removeAccount].
+ */
+class MessageRenderCache(
+    private val directory: File,
+    private val maxSize: Long,
+    private val clock: Clock
+) {
+    private var totalSize = UNKNOWN_SIZE
+
+    @Synchronized
+    fun get(key: MessageRenderCacheKey): String? {
+        val file = getFile(key)
+        return try {
+            file.readText().also {
+                file.setLastModified(clock.time)
+            }
+        } catch (e: FileNotFoundException) {
+            null
+        } catch (e: IOException) {
+            Timber.w(e, "Error reading cached HTML")
+            null
+        }
+    }
+
+    @Synchronized
+    operator fun contains(key: MessageRenderCacheKey): Boolean {
+        return getFile(key).exists()
+    }
+
+    @Synchronized
+    fun put(key: MessageRenderCacheKey, html: String) {
+        val file = getFile(key)
+        val tempFile = File(directory, file.name + TEMP_FILE_SUFFIX)
+        try {
+            directory.mkdirs()
+            val sizeWithoutEntry = getTotalSize() - file.length()
+
+            tempFile.writeText(html)
+            if (!tempFile.renameTo(file)) {
+                tempFile.delete()
+                totalSize = UNKNOWN_SIZE
+                return
+            }
+
+            file.setLastModified(clock.time)
+            totalSize = sizeWithoutEntry + file.length()
+        } catch (e: IOException) {
+            Timber.w(e, "Error writing cached HTML")
+            tempFile.delete()
+            totalSize = UNKNOWN_SIZE
+            return
+        }
+
+        trimToSize()
+    }
+
+    @Synchronized
+    fun removeMessages(accountUuid: String, messageIds: Collection<Long>) {
+        val prefix = getFileNamePrefix(accountUuid)
+        val messageIdSet = messageIds.toSet()
+        removeFiles { file ->
+            val messageId = if (file.name.startsWith(prefix)) getMessageId(file.name, prefix) else null
+            messageId != null && messageId in messageIdSet
+        }
+    }
+
+    @Synchronized
+    fun removeAccount(accountUuid: String) {
+        val prefix = getFileNamePrefix(accountUuid)
+        removeFiles { file -> file.name.startsWith(prefix) }
+    }
+
+    @Synchronized
+    fun clear() {
+        removeFiles { true }
+    }
+
+    private fun removeFiles(predicate: (File) -> Boolean) {
+        directory.listFiles()?.forEach { file ->
+            if (predicate(file)) {
+                file.delete()
+            }
+        }
+        totalSize = UNKNOWN_SIZE
+    }
+
+    private fun getTotalSize(): Long {
+        if (totalSize == UNKNOWN_SIZE) {
+            totalSize = directory.listFiles()?.fold(0L) { sum, file -> sum + file.length() } ?: 0L
+        }
+
+        return totalSize
+    }
+
+    private fun trimToSize() {
+        if (getTotalSize() <= maxSize) return
+
+        val files = directory.listFiles() ?: return
+        files.sortBy { it.lastModified() }
+
+        for (file in files) {
+            if (totalSize <= maxSize) break
+
+            val length = file.length()
+            if (file.delete()) {
+                totalSize -= length
+            }
+        }
+    }
+
+    private fun getFile(key: MessageRenderCacheKey): File {
+        val digest = MessageDigest.getInstance("SHA-1").digest(key.variant.toByteArray())
+        val variantHash = digest.joinToString(separator = "") { byte -> "%02x".format(byte) }
+        return File(directory, getFileNamePrefix(key.accountUuid, key.messageId) + variantHash)
+    }
+
+    private fun getMessageId(fileName: String, accountPrefix: String): Long? {
+        return fileName.removePrefix(accountPrefix).substringBefore('_').toLongOrNull()
+    }
+
+    private fun getFileNamePrefix(accountUuid: String) = "${accountUuid}_"
+
+    private fun getFileNamePrefix(accountUuid: String, messageId: Long) = "${accountUuid}_${messageId}_"
+
+    companion object {
+        private const val UNKNOWN_SIZE = -1L
+        private const val TEMP_FILE_SUFFIX = ".tmp"
+    }
+}
+
+/**
+ * Identifies the rendered HTML of a message.
+ *
+ * [variant] has to change whenever the rendered HTML would, i.e. when the body of the message or the render settings
+ * change.
+ */
+data class MessageRenderCacheKey(val accountUuid: String, val messageId: Long, val variant: String)
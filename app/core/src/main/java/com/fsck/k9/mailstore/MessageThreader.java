@@ -0,0 +1,334 @@
+package com.fsck.k9.mailstore;
+
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.fsck.k9.helper.Utility;
+import com.fsck.k9.mail.Message;
+
+
+/**
+ * Builds the thread structure of messages using the {@code Message-ID}, {@code References}, and
+ * {@code In-Reply-To} header fields.
+ * <p>
+ * Threads span all folders of an account. So e.g. a reply stored in the Sent folder is part of the same conversation
+ * as the message in the Inbox it replies to.
+ * </p>
+ */
+class MessageThreader {
+    /**
+     * Maximum number of Message-IDs to look up in one query. SQLite supports at most 999 parameters per statement.
+     */
+    private static final int MESSAGE_ID_LOOKUP_BATCH_SIZE = 500;
+
+
+    /**
+     * Find or create the thread containers for a message that is about to be saved in the folder with the database ID
+     * {@code folderId}.
+     * <p>
+     * All Message-IDs referenced by the message are resolved using a single query. Placeholder messages for
+     * references that aren't in the database yet are created in {@code folderId}.
+     * </p>
+     */
+    ThreadInfo doMessageThreading(SQLiteDatabase db, long folderId, Message message) {
+        String messageId = message.getMessageId();
+        List<String> references = getReferences(message);
+
+        Set<String> messageIdsToResolve = new LinkedHashSet<>();
+        if (messageId != null) {
+            messageIdsToResolve.add(messageId);
+        }
+        if (references != null) {
+            messageIdsToResolve.addAll(references);
+        }
+
+        Map<String, ThreadInfo> threadInfos = new HashMap<>();
+        ThreadInfo msgThreadInfo = resolveMessageIds(db, messageId, messageIdsToResolve, threadInfos);
+
+        if (references == null) {
+            // This is not a reply, nothing to do for us.
+            return (msgThreadInfo != null) ?
+                    msgThreadInfo : new ThreadInfo(-1, -1, messageId, -1, -1);
+        }
+
+        long rootId = -1;
+        long parentId = -1;
+        for (String reference : references) {
+            ThreadInfo threadInfo = threadInfos.get(reference);
+
+            if (threadInfo == null) {
+                // Create placeholder message in 'messages' table
+                ContentValues cv = new ContentValues();
+                cv.put("message_id", reference);
+                cv.put("folder_id", folderId);
+                cv.put("empty", 1);
+
+                long newMsgId = db.insert("messages", null, cv);
+
+                // Create entry in 'threads' table
+                cv.clear();
+                cv.put("message_id", newMsgId);
+                if (rootId != -1) {
+                    cv.put("root", rootId);
+                }
+                if (parentId != -1) {
+                    cv.put("parent", parentId);
+                }
+
+                long previousParentId = parentId;
+                parentId = db.insert("threads", null, cv);
+                if (rootId == -1) {
+                    rootId = parentId;
+                }
+
+                // "References" may contain the same Message-ID more than once
+                threadInfos.put(reference, new ThreadInfo(parentId, newMsgId, reference, rootId, previousParentId));
+            } else {
+                if (rootId != -1 && threadInfo.rootId == -1 && rootId != threadInfo.threadId) {
+                    // We found an existing root container that is not
+                    // the root of our current path (References).
+                    // Connect it to the current parent.
+
+                    // Let all children know who's the new root
+                    ContentValues cv = new ContentValues();
+                    cv.put("root", rootId);
+                    db.update("threads", cv, "root = ?",
+                            new String[] { Long.toString(threadInfo.threadId) });
+
+                    // Connect the message to the current parent
+                    cv.put("parent", parentId);
+                    db.update("threads", cv, "id = ?",
+                            new String[] { Long.toString(threadInfo.threadId) });
+
+                    updateCachedRoots(threadInfos, threadInfo.threadId, rootId);
+                } else {
+                    rootId = (threadInfo.rootId == -1) ?
+                            threadInfo.threadId : threadInfo.rootId;
+                }
+                parentId = threadInfo.threadId;
+            }
+        }
+
+        //TODO: set in-reply-to "link" even if one already exists
+
+        long threadId;
+        long msgId;
+        if (msgThreadInfo != null) {
+            threadId = msgThreadInfo.threadId;
+            msgId = msgThreadInfo.msgId;
+        } else {
+            threadId = -1;
+            msgId = -1;
+        }
+
+        return new ThreadInfo(threadId, msgId, messageId, rootId, parentId);
+    }
+
+    /**
+     * Returns the Message-IDs from the "References" header followed by the first Message-ID of the "In-Reply-To"
+     * header, or {@code null} if the message isn't a reply.
+     */
+    private static List<String> getReferences(Message message) {
+        List<String> messageIds = null;
+
+        String[] referencesArray = message.getHeader("References");
+        if (referencesArray.length > 0) {
+            messageIds = Utility.extractMessageIds(referencesArray[0]);
+        }
+
+        String[] inReplyToArray = message.getHeader("In-Reply-To");
+        if (inReplyToArray.length > 0) {
+            String inReplyTo = Utility.extractMessageId(inReplyToArray[0]);
+            if (inReplyTo != null) {
+                if (messageIds == null) {
+                    messageIds = new ArrayList<>(1);
+                    messageIds.add(inReplyTo);
+                } else if (!messageIds.contains(inReplyTo)) {
+                    messageIds.add(inReplyTo);
+                }
+            }
+        }
+
+        return messageIds;
+    }
+
+    /**
+     * Looks up the thread containers of all {@code messageIds} in any folder and stores the first match for each
+     * Message-ID in {@code threadInfos}.
+     *
+     * @return The thread container of an empty placeholder message with the Message-ID {@code ownMessageId}, or
+     *         {@code null} if there is none.
+     */
+    private static ThreadInfo resolveMessageIds(SQLiteDatabase db, String ownMessageId, Set<String> messageIds,
+            Map<String, ThreadInfo> threadInfos) {
+        ThreadInfo placeholderThreadInfo = null;
+        long placeholderDatabaseId = -1;
+
+        List<String> messageIdList = new ArrayList<>(messageIds);
+        for (int start = 0; start < messageIdList.size(); start += MESSAGE_ID_LOOKUP_BATCH_SIZE) {
+            int end = Math.min(start + MESSAGE_ID_LOOKUP_BATCH_SIZE, messageIdList.size());
+            List<String> batch = messageIdList.subList(start, end);
+
+            String sql = "SELECT t.id, t.message_id, t.root, t.parent, m.message_id, m.empty, m.id " +
+                    "FROM messages m " +
+                    "LEFT JOIN threads t ON (t.message_id = m.id) " +
+                    "WHERE m.message_id IN " + placeholders(batch.size()) + " " +
+                    "ORDER BY m.id";
+            String[] selectionArgs = batch.toArray(new String[0]);
+
+            Cursor cursor = db.rawQuery(sql, selectionArgs);
+            try {
+                while (cursor.moveToNext()) {
+                    long threadId = cursor.getLong(0);
+                    long msgId = cursor.getLong(1);
+                    long rootId = (cursor.isNull(2)) ? -1 : cursor.getLong(2);
+                    long parentId = (cursor.isNull(3)) ? -1 : cursor.getLong(3);
+                    String messageId = cursor.getString(4);
+                    boolean empty = cursor.getInt(5) == 1;
+                    long databaseId = cursor.getLong(6);
+
+                    ThreadInfo threadInfo = new ThreadInfo(threadId, msgId, messageId, rootId, parentId);
+                    if (!threadInfos.containsKey(messageId)) {
+                        threadInfos.put(messageId, threadInfo);
+                    }
+
+                    if (empty && messageId.equals(ownMessageId) &&
+                            (placeholderThreadInfo == null || databaseId < placeholderDatabaseId)) {
+                        placeholderThreadInfo = threadInfo;
+                        placeholderDatabaseId = databaseId;
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        return placeholderThreadInfo;
+    }
+
+    private static String placeholders(int count) {
+        StringBuilder sb = new StringBuilder(count * 2 + 1);
+        sb.append('(');
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append('?');
+        }
+        sb.append(')');
+        return sb.toString();
+    }
+
+    private static void updateCachedRoots(Map<String, ThreadInfo> threadInfos, long oldRootId, long newRootId) {
+        for (Map.Entry<String, ThreadInfo> entry : threadInfos.entrySet()) {
+            ThreadInfo threadInfo = entry.getValue();
+            if (threadInfo.threadId == oldRootId || threadInfo.rootId == oldRootId) {
+                entry.setValue(new ThreadInfo(threadInfo.threadId, threadInfo.msgId, threadInfo.messageId,
+                        newRootId, threadInfo.parentId));
+            }
+        }
+    }
+
+    /**
+     * Merges empty placeholder messages into other messages with the same Message-ID.
+     * <p>
+     * Before threads spanned multiple folders, every folder got its own placeholder for a referenced message. This
+     * connects these per-folder threads. Only placeholders with a database ID greater than {@code afterMessageId} are
+     * processed, at most {@code batchSize} of them.
+     * </p>
+     *
+     * @return The database ID of the last processed placeholder, or {@code -1} if there were none left.
+     */
+    long mergePlaceholderMessages(SQLiteDatabase db, long afterMessageId, int batchSize) {
+        long lastMessageId = -1;
+
+        Cursor cursor = db.rawQuery(
+                "SELECT m.id, m.message_id, t.id, t.root, t.parent " +
+                        "FROM messages m " +
+                        "JOIN threads t ON (t.message_id = m.id) " +
+                        "WHERE m.id > ? AND m.empty = 1 AND m.message_id IS NOT NULL " +
+                        "ORDER BY m.id " +
+                        "LIMIT " + batchSize,
+                new String[] { Long.toString(afterMessageId) });
+        try {
+            while (cursor.moveToNext()) {
+                long messageId = cursor.getLong(0);
+                String messageIdHeader = cursor.getString(1);
+                long threadId = cursor.getLong(2);
+                long rootId = cursor.getLong(3);
+                long parentId = cursor.isNull(4) ? -1 : cursor.getLong(4);
+
+                mergePlaceholderMessage(db, messageId, messageIdHeader, threadId, rootId, parentId);
+                lastMessageId = messageId;
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return lastMessageId;
+    }
+
+    private static void mergePlaceholderMessage(SQLiteDatabase db, long messageId, String messageIdHeader,
+            long threadId, long rootId, long parentId) {
+        long targetThreadId;
+        long targetRootId;
+        long targetParentId;
+
+        // Prefer real messages over other placeholders
+        Cursor cursor = db.rawQuery(
+                "SELECT t.id, t.root, t.parent " +
+                        "FROM messages m " +
+                        "JOIN threads t ON (t.message_id = m.id) " +
+                        "WHERE m.message_id = ? AND m.id != ? " +
+                        "ORDER BY m.empty, m.id " +
+                        "LIMIT 1",
+                new String[] { messageIdHeader, Long.toString(messageId) });
+        try {
+            if (!cursor.moveToFirst()) {
+                return;
+            }
+
+            targetThreadId = cursor.getLong(0);
+            targetRootId = cursor.getLong(1);
+            targetParentId = cursor.isNull(2) ? -1 : cursor.getLong(2);
+        } finally {
+            cursor.close();
+        }
+
+        if (rootId == targetRootId) {
+            // Both are already part of the same thread
+            return;
+        }
+
+        ContentValues cv = new ContentValues();
+        if (parentId != -1 && targetParentId == -1) {
+            // The placeholder knows the ancestors of the message. Move the other thread below them.
+            cv.put("root", rootId);
+            db.update("threads", cv, "root = ?", new String[] { Long.toString(targetRootId) });
+
+            cv.clear();
+            cv.put("parent", parentId);
+            db.update("threads", cv, "id = ?", new String[] { Long.toString(targetThreadId) });
+        } else {
+            cv.put("root", targetRootId);
+            db.update("threads", cv, "root = ?", new String[] { Long.toString(rootId) });
+        }
+
+        // Move the children of the placeholder to the other message
+        cv.clear();
+        cv.put("parent", targetThreadId);
+        db.update("threads", cv, "parent = ?", new String[] { Long.toString(threadId) });
+
+        db.delete("threads", "id = ?", new String[] { Long.toString(threadId) });
+        db.delete("messages", "id = ?", new String[] { Long.toString(messageId) });
+    }
+}
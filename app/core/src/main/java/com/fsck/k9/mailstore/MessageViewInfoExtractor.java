@@ -49,13 +49,24 @@ public class MessageViewInfoExtractor {
     private final AttachmentInfoExtractor attachmentInfoExtractor;
     private final HtmlProcessor htmlProcessor;
     private final CoreResourceProvider resourceProvider;
+    private final MessageRenderCache renderCache;
+    private final String renderCacheVersion;
 
 
+    /**
+     * @param renderCache
+     *         Cache for the sanitized HTML of messages. May be {@code null} to disable caching.
+     * @param renderCacheVersion
+     *         Identifies everything besides the message that influences the generated HTML, e.g. display settings.
+     */
     MessageViewInfoExtractor(AttachmentInfoExtractor attachmentInfoExtractor, HtmlProcessor htmlProcessor,
-            CoreResourceProvider resourceProvider) {
+            CoreResourceProvider resourceProvider, @Nullable MessageRenderCache renderCache,
+            @Nullable String renderCacheVersion) {
         this.attachmentInfoExtractor = attachmentInfoExtractor;
         this.htmlProcessor = htmlProcessor;
         this.resourceProvider = resourceProvider;
+        this.renderCache = renderCache;
+        this.renderCacheVersion = renderCacheVersion;
     }
 
     @WorkerThread
@@ -139,15 +150,62 @@ public class MessageViewInfoExtractor {
     }
 
     private MessageViewInfo extractSimpleMessageForView(Message message, Part contentPart) throws MessagingException {
-        List<AttachmentViewInfo> attachmentInfos = new ArrayList<>();
-        ViewableExtractedText viewable = extractViewableAndAttachments(
-                Collections.singletonList(contentPart), attachmentInfos);
-        AttachmentResolver attachmentResolver = AttachmentResolver.createFromPart(contentPart);
         boolean isMessageIncomplete =
                 !message.isSet(Flag.X_DOWNLOADED_FULL) || MessageExtractor.hasMissingParts(message);
 
+        // Only complete messages are cached. The parts of incomplete messages can still change.
+        MessageRenderCacheKey renderCacheKey =
+                (contentPart == message && !isMessageIncomplete) ? getRenderCacheKey(message) : null;
+        String cachedHtml = renderCacheKey != null ? renderCache.get(renderCacheKey) : null;
+
+        List<AttachmentViewInfo> attachmentInfos = new ArrayList<>();
+        String html;
+        if (cachedHtml != null) {
+            extractAttachments(contentPart, attachmentInfos);
+            html = cachedHtml;
+        } else {
+            ViewableExtractedText viewable = extractViewableAndAttachments(
+                    Collections.singletonList(contentPart), attachmentInfos);
+            html = viewable.html;
+
+            if (renderCacheKey != null) {
+                renderCache.put(renderCacheKey, html);
+            }
+        }
+
+        AttachmentResolver attachmentResolver = AttachmentResolver.createFromPart(contentPart);
+
         return MessageViewInfo.createWithExtractedContent(
-                message, contentPart, isMessageIncomplete, viewable.html, attachmentInfos, attachmentResolver);
+                message, contentPart, isMessageIncomplete, html, attachmentInfos, attachmentResolver);
+    }
+
+    /**
+     * Returns the key for the entry of {@code message} in the render cache, or {@code null} if the message can't be
+     * cached.
+     */
+    @Nullable
+    private MessageRenderCacheKey getRenderCacheKey(Message message) {
+        if (renderCache == null || !(message instanceof LocalMessage)) {
+            return null;
+        }
+
+        LocalMessage localMessage = (LocalMessage) message;
+        String bodyStamp = localMessage.getBodyStamp();
+        if (bodyStamp == null) {
+            return null;
+        }
+
+        String accountUuid = localMessage.getAccount().getUuid();
+        String variant = bodyStamp + ":" + renderCacheVersion;
+        return new MessageRenderCacheKey(accountUuid, localMessage.getDatabaseId(), variant);
+    }
+
+    private void extractAttachments(Part part, List<AttachmentViewInfo> attachmentInfos) throws MessagingException {
+        ArrayList<Viewable> viewableParts = new ArrayList<>();
+        ArrayList<Part> attachments = new ArrayList<>();
+        MessageExtractor.findViewablesAndAttachments(part, viewableParts, attachments);
+
+        attachmentInfos.addAll(attachmentInfoExtractor.extractAttachmentInfoForView(attachments));
     }
 
     private ViewableExtractedText extractViewableAndAttachments(List<Part> parts,
@@ -4,14 +4,32 @@ import com.fsck.k9.CoreResourceProvider
 import com.fsck.k9.message.extractors.AttachmentInfoExtractor
 import com.fsck.k9.message.html.HtmlProcessorFactory
 import com.fsck.k9.message.html.HtmlSettings
+import java.util.Locale
 
 class MessageViewInfoExtractorFactory(
     private val attachmentInfoExtractor: AttachmentInfoExtractor,
     private val htmlProcessorFactory: HtmlProcessorFactory,
-    private val resourceProvider: CoreResourceProvider
+    private val resourceProvider: CoreResourceProvider,
+    private val renderCache: MessageRenderCache
 ) {
     fun create(settings: HtmlSettings): MessageViewInfoExtractor {
         val htmlProcessor = htmlProcessorFactory.create(settings)
-        return MessageViewInfoExtractor(attachmentInfoExtractor, htmlProcessor, resourceProvider)
+        val renderCacheVersion = createRenderCacheVersion(settings)
+        return MessageViewInfoExtractor(
+            attachmentInfoExtractor, htmlProcessor, resourceProvider, renderCache, renderCacheVersion
+        )
+    }
+
+    // The locale is included because the generated HTML contains localized strings, e.g. for headers of attached
+    // messages.
+    private fun createRenderCacheVersion(settings: HtmlSettings): String {
+        return "$RENDER_CACHE_VERSION:${settings.useDarkMode}:${settings.useFixedWidthFont}:${Locale.getDefault()}"
+    }
+
+    companion object {
+        /**
+         * Increment when changing how the HTML of a message is generated to invalidate existing cache entries.
+         */
+        private const val RENDER_CACHE_VERSION = 1
     }
 }
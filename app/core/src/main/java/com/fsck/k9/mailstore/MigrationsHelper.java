@@ -1,6 +1,8 @@
 package com.fsck.k9.mailstore;
 
 
+import java.io.File;
+
 import com.fsck.k9.Account;
 
 
@@ -10,4 +12,5 @@ import com.fsck.k9.Account;
 public interface MigrationsHelper {
     Account getAccount();
     void saveAccount();
+    File getAttachmentDirectory();
 }
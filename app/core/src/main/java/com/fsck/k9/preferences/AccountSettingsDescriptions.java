@@ -105,6 +105,10 @@ public class AccountSettingsDescriptions {
         s.put("idleRefreshMinutes", Settings.versions(
                 new V(1, new IntegerResourceSetting(24, R.array.idle_refresh_period_values))
         ));
+        s.put("imapConnectionPoolSize", Settings.versions(
+                new V(70, new IntegerResourceSetting(AccountPreferenceSerializer.DEFAULT_IMAP_CONNECTION_POOL_SIZE,
+                        R.array.imap_connection_pool_size_values))
+        ));
         s.put("led", Settings.versions(
                 new V(1, new BooleanSetting(true))
         ));
@@ -126,6 +130,9 @@ public class AccountSettingsDescriptions {
         s.put("maximumAutoDownloadMessageSize", Settings.versions(
                 new V(1, new IntegerResourceSetting(32768, R.array.autodownload_message_size_values))
         ));
+        s.put("maximumLocalStorageSize", Settings.versions(
+                new V(69, new IntegerResourceSetting(0, R.array.local_storage_size_values))
+        ));
         s.put("maximumPolledMessageAge", Settings.versions(
                 new V(1, new IntegerResourceSetting(-1, R.array.message_age_values))
         ));
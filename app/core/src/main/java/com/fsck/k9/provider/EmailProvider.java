@@ -48,6 +48,11 @@ public class EmailProvider extends ContentProvider {
     public static String AUTHORITY;
     public static Uri CONTENT_URI;
 
+    /**
+     * Query parameter to limit the number of rows returned by a {@code messages} query.
+     */
+    public static final String QUERY_PARAMETER_LIMIT = "limit";
+
     public static Uri getNotificationUri(String accountUuid) {
         return Uri.withAppendedPath(CONTENT_URI, "account/" + accountUuid + "/messages");
     }
@@ -232,7 +237,8 @@ public class EmailProvider extends ContentProvider {
                 String[] dbProjection = dbColumnNames.toArray(new String[0]);
 
                 if (match == MESSAGES) {
-                    cursor = getMessages(accountUuid, dbProjection, selection, selectionArgs, sortOrder);
+                    String limit = getLimit(uri);
+                    cursor = getMessages(accountUuid, dbProjection, selection, selectionArgs, sortOrder, limit);
                 } else if (match == MESSAGES_THREADED) {
                     cursor = getThreadedMessages(accountUuid, dbProjection, selection, selectionArgs, sortOrder);
                 } else if (match == MESSAGES_THREAD) {
@@ -253,6 +259,19 @@ public class EmailProvider extends ContentProvider {
         return cursor;
     }
 
+    private static String getLimit(Uri uri) {
+        String limit = uri.getQueryParameter(QUERY_PARAMETER_LIMIT);
+        if (limit == null) {
+            return null;
+        }
+
+        try {
+            return Integer.toString(Integer.parseInt(limit));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid limit: " + limit);
+        }
+    }
+
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
         throw new RuntimeException("not implemented yet");
@@ -269,7 +288,7 @@ public class EmailProvider extends ContentProvider {
     }
 
     protected Cursor getMessages(String accountUuid, final String[] projection, final String selection,
-            final String[] selectionArgs, final String sortOrder) {
+            final String[] selectionArgs, final String sortOrder, final String limit) {
 
         Account account = getAccount(accountUuid);
         LockableDatabase database = getDatabase(account);
@@ -317,10 +336,15 @@ public class EmailProvider extends ContentProvider {
                         query.append(SqlQueryBuilder.addPrefixToSelection(FIXUP_MESSAGES_COLUMNS, "m.", where));
                         query.append(" ORDER BY ");
                         query.append(SqlQueryBuilder.addPrefixToSelection(FIXUP_MESSAGES_COLUMNS, "m.", sortOrder));
+                        if (limit != null) {
+                            query.append(" LIMIT ");
+                            query.append(limit);
+                        }
 
                         cursor = db.rawQuery(query.toString(), selectionArgs);
                     } else {
-                        cursor = db.query(MESSAGES_TABLE, projection, where, selectionArgs, null, null, sortOrder);
+                        cursor = db.query(MESSAGES_TABLE, projection, where, selectionArgs, null, null, sortOrder,
+                                limit);
                     }
 
                     return cursor;
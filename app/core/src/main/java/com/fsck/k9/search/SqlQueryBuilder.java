@@ -1,6 +1,7 @@
 package com.fsck.k9.search;
 
 import java.util.List;
+import java.util.Locale;
 
 import com.fsck.k9.DI;
 import timber.log.Timber;
@@ -17,6 +18,32 @@ public class SqlQueryBuilder {
         buildWhereClauseInternal(account, node, query, selectionArgs);
     }
 
+    /**
+     * Returns {@code true} if the conditions only depend on the folder of a message, e.g. to limit a search to
+     * displayable folders. Such a search can be answered using the message counts stored in the {@code folders} table.
+     */
+    public static boolean containsOnlyFolderConditions(ConditionsTreeNode node) {
+        if (node == null) {
+            return true;
+        }
+
+        if (node.mLeft == null && node.mRight == null) {
+            switch (node.mCondition.field) {
+                case FOLDER:
+                case INTEGRATE:
+                case DISPLAY_CLASS:
+                case SEARCHABLE: {
+                    return true;
+                }
+                default: {
+                    return false;
+                }
+            }
+        }
+
+        return containsOnlyFolderConditions(node.mLeft) && containsOnlyFolderConditions(node.mRight);
+    }
+
     private static void buildWhereClauseInternal(Account account, ConditionsTreeNode node,
             StringBuilder query, List<String> selectionArgs) {
         if (node == null) {
@@ -62,16 +89,36 @@ public class SqlQueryBuilder {
                     break;
                 }
                 case MESSAGE_CONTENTS: {
-                    String fulltextQueryString = condition.value;
                     if (condition.attribute != Attribute.CONTAINS) {
                         Timber.e("message contents can only be matched!");
                     }
-                    query.append("m.id IN (SELECT docid FROM messages_fulltext WHERE fulltext MATCH ?)");
-                    selectionArgs.add(fulltextQueryString);
+                    String fulltextQueryString = createFulltextQuery(condition.value);
+                    if (fulltextQueryString == null) {
+                        // The input doesn't contain any searchable terms
+                        query.append("0");
+                        break;
+                    }
+                    appendFulltextCondition("fulltext", fulltextQueryString, query, selectionArgs);
                     break;
                 }
                 default: {
-                    appendCondition(condition, query, selectionArgs);
+                    String fulltextColumnName = getFulltextColumnName(condition.field);
+                    String fulltextQueryString = null;
+                    if (fulltextColumnName != null && condition.attribute == Attribute.CONTAINS) {
+                        fulltextQueryString = createFulltextQuery(condition.value);
+                    }
+                    if (fulltextQueryString == null) {
+                        appendCondition(condition, query, selectionArgs);
+                    } else if (isFulltextColumnShared(condition.field)) {
+                        // The index doesn't know which kind of recipient matched. Use it to find candidates only.
+                        query.append("(");
+                        appendFulltextCondition(fulltextColumnName, fulltextQueryString, query, selectionArgs);
+                        query.append(" AND ");
+                        appendCondition(condition, query, selectionArgs);
+                        query.append(")");
+                    } else {
+                        appendFulltextCondition(fulltextColumnName, fulltextQueryString, query, selectionArgs);
+                    }
                 }
             }
         } else {
@@ -85,6 +132,73 @@ public class SqlQueryBuilder {
         }
     }
 
+    private static void appendFulltextCondition(String columnName, String fulltextQueryString, StringBuilder query,
+            List<String> selectionArgs) {
+        query.append("m.id IN (SELECT docid FROM messages_fulltext WHERE ");
+        query.append(columnName);
+        query.append(" MATCH ?)");
+        selectionArgs.add(fulltextQueryString);
+    }
+
+    /**
+     * Get the column of the {@code messages_fulltext} table that indexes the given field.
+     *
+     * @return The column name or {@code null} if the field isn't part of the full-text index.
+     */
+    private static String getFulltextColumnName(SearchField field) {
+        switch (field) {
+            case SUBJECT: {
+                return "subject";
+            }
+            case SENDER: {
+                return "sender";
+            }
+            case TO:
+            case CC:
+            case BCC: {
+                return "recipients";
+            }
+            default: {
+                return null;
+            }
+        }
+    }
+
+    private static boolean isFulltextColumnShared(SearchField field) {
+        return field == SearchField.TO || field == SearchField.CC || field == SearchField.BCC;
+    }
+
+    /**
+     * Turn user input into a full-text query that matches messages containing words starting with every term of the
+     * input, e.g. "Invoice 2020" becomes {@code invoice* 2020*}.
+     * <p>
+     * The input is split into terms the same way the {@code unicode61} tokenizer splits the indexed text. That also
+     * makes sure the query doesn't contain any characters that have a special meaning in the full-text query syntax.
+     * </p>
+     *
+     * @return The full-text query or {@code null} if the input doesn't contain any searchable terms.
+     */
+    static String createFulltextQuery(String value) {
+        if (value == null) {
+            return null;
+        }
+
+        StringBuilder fulltextQuery = new StringBuilder();
+        // Lower case terms can't be mistaken for the operators AND, OR, NOT, and NEAR
+        for (String term : value.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (term.isEmpty()) {
+                continue;
+            }
+
+            if (fulltextQuery.length() > 0) {
+                fulltextQuery.append(' ');
+            }
+            fulltextQuery.append(term).append('*');
+        }
+
+        return (fulltextQuery.length() > 0) ? fulltextQuery.toString() : null;
+    }
+
     private static void appendCondition(SearchCondition condition, StringBuilder query,
             List<String> selectionArgs) {
         query.append(getColumnName(condition));
@@ -2,13 +2,15 @@ package com.fsck.k9.cache;
 
 
 import java.util.Collections;
-import java.util.UUID;
 
 import android.net.Uri;
 
-import com.fsck.k9.RobolectricTest;
+import com.fsck.k9.K9RobolectricTest;
 import com.fsck.k9.mailstore.LocalFolder;
 import com.fsck.k9.mailstore.LocalMessage;
+import com.fsck.k9.mailstore.MessageChangeFeed;
+import com.fsck.k9.mailstore.MessageChangeListener;
+import com.fsck.k9.mailstore.MessageChanges;
 import com.fsck.k9.provider.EmailProvider;
 import org.junit.Before;
 import org.junit.Test;
@@ -22,13 +24,18 @@ import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 
-public class EmailProviderCacheTest extends RobolectricTest {
+public class EmailProviderCacheTest extends K9RobolectricTest {
+
+    private static final String ACCOUNT_UUID = "00000000-0000-4000-0000-000000000000";
 
     private EmailProviderCache cache;
     @Mock
+    private MessageChangeListener messageChangeListener;
+    @Mock
     private LocalMessage mockLocalMessage;
     @Mock
     private LocalFolder mockLocalMessageFolder;
@@ -40,7 +47,9 @@ public class EmailProviderCacheTest extends RobolectricTest {
         MockitoAnnotations.initMocks(this);
         EmailProvider.CONTENT_URI = Uri.parse("content://test.provider.email");
 
-        cache = EmailProviderCache.getCache(UUID.randomUUID().toString(), RuntimeEnvironment.application);
+        MessageChangeFeed messageChangeFeed = new MessageChangeFeed();
+        messageChangeFeed.addListener(messageChangeListener);
+        cache = new EmailProviderCache(RuntimeEnvironment.application, ACCOUNT_UUID, messageChangeFeed);
         when(mockLocalMessage.getDatabaseId()).thenReturn(localMessageId);
         when(mockLocalMessage.getFolder()).thenReturn(mockLocalMessageFolder);
         when(mockLocalMessageFolder.getDatabaseId()).thenReturn(localMessageFolderId);
@@ -71,6 +80,29 @@ public class EmailProviderCacheTest extends RobolectricTest {
         assertEquals("Subject", result);
     }
 
+    @Test
+    public void setValueForMessages_notifiesMessageChangeListener() {
+        cache.setValueForMessages(Collections.singletonList(1L), "subject", "Subject");
+
+        verify(messageChangeListener).onMessagesChanged(
+                MessageChanges.updated(ACCOUNT_UUID, Collections.singletonList(1L)));
+    }
+
+    @Test
+    public void setValueForThreads_notifiesMessageChangeListenerOfUnknownChanges() {
+        cache.setValueForThreads(Collections.singletonList(1L), "subject", "Subject");
+
+        verify(messageChangeListener).onMessagesChanged(MessageChanges.unknown(ACCOUNT_UUID));
+    }
+
+    @Test
+    public void hideMessages_notifiesMessageChangeListenerOfDeletedMessages() {
+        cache.hideMessages(Collections.singletonList(mockLocalMessage));
+
+        verify(messageChangeListener).onMessagesChanged(
+                MessageChanges.deleted(ACCOUNT_UUID, Collections.singletonList(localMessageId)));
+    }
+
     @Test
     public void getValueForUnknownMessage_returnsNull() {
         String result = cache.getValueForMessage(1L, "subject");
@@ -0,0 +1,160 @@
+package com.fsck.k9.controller
+
+import com.google.common.truth.Truth.assertThat
+import java.util.concurrent.Executor
+import org.junit.Test
+
+class FolderSyncSchedulerTest {
+    private val executor = ManualExecutor()
+    private val finishedAccounts = mutableListOf<String>()
+    private val listener = object : FolderSyncScheduler.Listener {
+        override fun onAccountSyncsFinished(accountUuid: String) {
+            finishedAccounts.add(accountUuid)
+        }
+    }
+    private val scheduler =
+        FolderSyncScheduler(executor, MAX_CONCURRENT_SYNCS, MAX_CONCURRENT_SYNCS_PER_ACCOUNT, listener)
+    private val executedSyncs = mutableListOf<String>()
+
+    @Test
+    fun schedule_withDifferentFolders_shouldRunConcurrently() {
+        scheduleSync(ACCOUNT_ONE, 1)
+        scheduleSync(ACCOUNT_ONE, 2)
+
+        assertThat(executor.pendingCount).isEqualTo(2)
+    }
+
+    @Test
+    fun schedule_withSameFolder_shouldRunOneAfterAnother() {
+        scheduleSync(ACCOUNT_ONE, 1, "first")
+        scheduleSync(ACCOUNT_ONE, 1, "second")
+
+        assertThat(executor.pendingCount).isEqualTo(1)
+
+        executor.runNext()
+
+        assertThat(executedSyncs).containsExactly("first")
+        assertThat(executor.pendingCount).isEqualTo(1)
+
+        executor.runNext()
+
+        assertThat(executedSyncs).containsExactly("first", "second").inOrder()
+    }
+
+    @Test
+    fun schedule_withMoreFoldersThanAccountLimit_shouldStartOtherAccountFirst() {
+        scheduleSync(ACCOUNT_ONE, 1)
+        scheduleSync(ACCOUNT_ONE, 2)
+        scheduleSync(ACCOUNT_ONE, 3, "account one, folder 3")
+        scheduleSync(ACCOUNT_TWO, 1, "account two, folder 1")
+
+        assertThat(executor.pendingCount).isEqualTo(3)
+
+        executor.runAll()
+
+        assertThat(executedSyncs.indexOf("account two, folder 1"))
+            .isLessThan(executedSyncs.indexOf("account one, folder 3"))
+    }
+
+    @Test
+    fun schedule_withMoreFoldersThanGlobalLimit_shouldStartRemainingFoldersLater() {
+        scheduleSync(ACCOUNT_ONE, 1)
+        scheduleSync(ACCOUNT_ONE, 2)
+        scheduleSync(ACCOUNT_TWO, 1)
+        scheduleSync(ACCOUNT_TWO, 2)
+        scheduleSync(ACCOUNT_THREE, 1)
+
+        assertThat(executor.pendingCount).isEqualTo(MAX_CONCURRENT_SYNCS)
+
+        executor.runAll()
+
+        assertThat(executedSyncs).hasSize(5)
+    }
+
+    @Test
+    fun schedule_withFailingSync_shouldContinueWithNextSync() {
+        scheduler.schedule(ACCOUNT_ONE, 1, Runnable { throw RuntimeException("Test") })
+        scheduleSync(ACCOUNT_ONE, 1, "after failure")
+
+        executor.runAll()
+
+        assertThat(executedSyncs).containsExactly("after failure")
+    }
+
+    @Test
+    fun schedule_withOverlappingFolders_shouldNotifyListenerAfterLastSyncOfAccount() {
+        scheduleSync(ACCOUNT_ONE, 1)
+        scheduleSync(ACCOUNT_ONE, 2)
+        scheduleSync(ACCOUNT_TWO, 1)
+
+        executor.runNext()
+
+        assertThat(finishedAccounts).isEmpty()
+
+        executor.runNext()
+
+        assertThat(finishedAccounts).containsExactly(ACCOUNT_ONE)
+
+        executor.runNext()
+
+        assertThat(finishedAccounts).containsExactly(ACCOUNT_ONE, ACCOUNT_TWO).inOrder()
+    }
+
+    @Test
+    fun schedule_withSyncWaitingForAccountLimit_shouldNotifyListenerAfterWaitingSync() {
+        scheduleSync(ACCOUNT_ONE, 1)
+        scheduleSync(ACCOUNT_ONE, 2)
+        scheduleSync(ACCOUNT_ONE, 3)
+
+        executor.runNext()
+        executor.runNext()
+
+        assertThat(finishedAccounts).isEmpty()
+
+        executor.runNext()
+
+        assertThat(finishedAccounts).containsExactly(ACCOUNT_ONE)
+    }
+
+    @Test
+    fun schedule_withFailingSync_shouldNotifyListener() {
+        scheduler.schedule(ACCOUNT_ONE, 1, Runnable { throw RuntimeException("Test") })
+
+        executor.runAll()
+
+        assertThat(finishedAccounts).containsExactly(ACCOUNT_ONE)
+    }
+
+    private fun scheduleSync(accountUuid: String, folderId: Long, name: String = "$accountUuid:$folderId") {
+        scheduler.schedule(accountUuid, folderId, Runnable { executedSyncs.add(name) })
+    }
+
+    private class ManualExecutor : Executor {
+        private val tasks = mutableListOf<Runnable>()
+
+        val pendingCount: Int
+            get() = tasks.size
+
+        override fun execute(command: Runnable) {
+            tasks.add(command)
+        }
+
+        fun runNext() {
+            tasks.removeAt(0).run()
+        }
+
+        fun runAll() {
+            while (tasks.isNotEmpty()) {
+                runNext()
+            }
+        }
+    }
+
+    companion object {
+        private const val MAX_CONCURRENT_SYNCS = 4
+        private const val MAX_CONCURRENT_SYNCS_PER_ACCOUNT = 2
+        private const val ACCOUNT_ONE = "account1"
+        private const val ACCOUNT_TWO = "account2"
+        private const val ACCOUNT_THREE = "account3"
+    }
+}
@@ -0,0 +1,127 @@
+package com.fsck.k9.controller
+
+import android.net.Uri
+import com.fsck.k9.Account
+import com.fsck.k9.K9RobolectricTest
+import com.fsck.k9.Preferences
+import com.fsck.k9.backend.BackendManager
+import com.fsck.k9.backend.api.Backend
+import com.fsck.k9.backend.api.BackendFolder
+import com.fsck.k9.backend.api.FolderInfo
+import com.fsck.k9.backend.api.updateFolders
+import com.fsck.k9.mail.Address
+import com.fsck.k9.mail.FolderType
+import com.fsck.k9.mail.Message
+import com.fsck.k9.mail.internet.MimeMessage
+import com.fsck.k9.mail.internet.MimeMessageHelper
+import com.fsck.k9.mail.internet.TextBody
+import com.fsck.k9.mailstore.K9BackendFolder
+import com.fsck.k9.mailstore.K9BackendStorage
+import com.fsck.k9.mailstore.LocalFolder
+import com.fsck.k9.mailstore.LocalStore
+import com.fsck.k9.mailstore.LocalStoreProvider
+import com.fsck.k9.provider.EmailProvider
+import com.nhaarman.mockitokotlin2.any
+import com.nhaarman.mockitokotlin2.doReturn
+import com.nhaarman.mockitokotlin2.eq
+import com.nhaarman.mockitokotlin2.mock
+import com.nhaarman.mockitokotlin2.verify
+import com.nhaarman.mockitokotlin2.whenever
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Before
+import org.junit.Test
+import org.koin.core.inject
+
+class MessagingControllerThreadTest : K9RobolectricTest() {
+    val preferences: Preferences by inject()
+    val localStoreProvider: LocalStoreProvider by inject()
+    val backendManager: BackendManager by inject()
+    val controller: MessagingController by inject()
+
+    val account: Account = createAccount()
+    val localStore: LocalStore = localStoreProvider.getInstance(account)
+    val backend = mock<Backend> {
+        on { supportsMove } doReturn true
+        on { moveMessages(any(), any(), any()) } doReturn emptyMap()
+    }
+
+    @Before
+    fun setUp() {
+        // Set EmailProvider.CONTENT_URI so LocalStore.notifyChange() won't crash
+        EmailProvider.CONTENT_URI = Uri.parse("content://dummy")
+        whenever(backendManager.getBackend(account)).thenReturn(backend)
+        createFolders()
+    }
+
+    @After
+    fun tearDown() {
+        preferences.deleteAccount(account)
+    }
+
+    @Test
+    fun moveMessagesInThread_withReplyInSentFolder_shouldOnlyMoveMessagesOfSourceFolder() {
+        createBackendFolder(INBOX).saveCompleteMessage(createMessage("1", ORIGINAL_MESSAGE_ID))
+        createBackendFolder(SENT).saveCompleteMessage(createMessage("2", REPLY_MESSAGE_ID, ORIGINAL_MESSAGE_ID))
+        val inbox = getFolder(INBOX)
+        val archive = getFolder(ARCHIVE)
+        val message = inbox.getMessage("1")
+
+        controller.moveMessagesInThreadSynchronous(account, inbox.databaseId, listOf(message), archive.databaseId)
+        controller.processPendingCommandsSynchronous(account)
+
+        verify(backend).moveMessages(eq(INBOX), eq(ARCHIVE), eq(listOf("1")))
+        assertEquals(1, archive.messageCount)
+        assertNotNull(getFolder(SENT).getMessage("2"))
+    }
+
+    private fun createAccount(): Account {
+        // FIXME: This is a hack to get Preferences into a state where it's safe to call newAccount()
+        preferences.clearAccounts()
+
+        return preferences.newAccount()
+    }
+
+    private fun createFolders() {
+        val backendStorage = K9BackendStorage(preferences, account, localStore, emptyList())
+        backendStorage.updateFolders {
+            createFolders(listOf(
+                FolderInfo(INBOX, "Inbox", FolderType.INBOX),
+                FolderInfo(SENT, "Sent", FolderType.SENT),
+                FolderInfo(ARCHIVE, "Archive", FolderType.ARCHIVE)
+            ))
+        }
+    }
+
+    private fun createBackendFolder(folderServerId: String): BackendFolder {
+        return K9BackendFolder(preferences, account, localStore, folderServerId)
+    }
+
+    private fun getFolder(folderServerId: String): LocalFolder {
+        return localStore.getFolder(folderServerId).apply { open() }
+    }
+
+    private fun createMessage(messageServerId: String, messageId: String, inReplyTo: String? = null): Message {
+        return MimeMessage().apply {
+            subject = "Test message"
+            setFrom(Address("alice@domain.example"))
+            setHeader("To", "bob@domain.example")
+            setHeader("Message-ID", messageId)
+            if (inReplyTo != null) {
+                setHeader("In-Reply-To", inReplyTo)
+            }
+            MimeMessageHelper.setBody(this, TextBody("Hello Bob!"))
+
+            uid = messageServerId
+        }
+    }
+
+    companion object {
+        const val INBOX = "inbox"
+        const val SENT = "sent"
+        const val ARCHIVE = "archive"
+        const val ORIGINAL_MESSAGE_ID = "<original@domain.example>"
+        const val REPLY_MESSAGE_ID = "<reply@domain.example>"
+    }
+}
@@ -0,0 +1,105 @@
+package com.fsck.k9.controller.push
+
+import com.fsck.k9.Account
+import com.fsck.k9.Account.FolderMode
+import com.fsck.k9.Preferences
+import com.fsck.k9.backend.BackendManager
+import com.fsck.k9.backend.api.Backend
+import com.fsck.k9.backend.api.BackendPusher
+import com.fsck.k9.mailstore.LocalStore
+import com.fsck.k9.mailstore.LocalStoreProvider
+import com.nhaarman.mockitokotlin2.any
+import com.nhaarman.mockitokotlin2.doReturn
+import com.nhaarman.mockitokotlin2.mock
+import com.nhaarman.mockitokotlin2.never
+import com.nhaarman.mockitokotlin2.verify
+import com.nhaarman.mockitokotlin2.whenever
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import org.junit.Test
+
+class PushControllerTest {
+    private val accountOne = createAccount("1")
+    private val accountTwo = createAccount("2")
+    private val pusherOne = mock<BackendPusher>()
+    private val pusherTwo = mock<BackendPusher>()
+    private val preferences = mock<Preferences> {
+        on { availableAccounts } doReturn listOf(accountOne, accountTwo)
+    }
+    private val backendManager = mock<BackendManager> {
+        on { getBackend(accountOne) } doReturn createBackend(pusherOne)
+        on { getBackend(accountTwo) } doReturn createBackend(pusherTwo)
+    }
+    private val localStore = mock<LocalStore> {
+        on { getPersonalNamespaces(false) } doReturn emptyList()
+    }
+    private val localStoreProvider = mock<LocalStoreProvider> {
+        on { getInstance(any()) } doReturn localStore
+    }
+    private val pushController =
+        PushController(preferences, backendManager, localStoreProvider, mock(), Executor { it.run() })
+
+    @Test
+    fun stopPusherAndWait_shouldOnlyStopPusherOfAccount() {
+        pushController.updatePushers()
+
+        pushController.stopPusherAndWait(accountOne)
+
+        verify(pusherOne).stop()
+        verify(pusherTwo, never()).stop()
+    }
+
+    @Test
+    fun stopPusherAndWait_withBusyExecutor_shouldReturnAfterPusherWasStopped() {
+        val executor = Executors.newSingleThreadExecutor()
+        try {
+            val pushController = PushController(preferences, backendManager, localStoreProvider, mock(), executor)
+            pushController.updatePushers()
+            executor.execute { Thread.sleep(100) }
+
+            pushController.stopPusherAndWait(accountOne)
+
+            verify(pusherOne).stop()
+        } finally {
+            executor.shutdown()
+        }
+    }
+
+    @Test
+    fun stopAll_shouldStopPushersOfAllAccounts() {
+        pushController.updatePushers()
+
+        pushController.stopAll()
+
+        verify(pusherOne).stop()
+        verify(pusherTwo).stop()
+    }
+
+    @Test
+    fun updatePushers_withAccountRemoved_shouldStopPusherOfRemovedAccount() {
+        pushController.updatePushers()
+        whenever(preferences.availableAccounts).thenReturn(listOf(accountTwo))
+
+        pushController.updatePushers()
+
+        verify(pusherOne).stop()
+        verify(pusherTwo, never()).stop()
+    }
+
+    private fun createAccount(accountUuid: String): Account {
+        return mock {
+            on { uuid } doReturn accountUuid
+            on { description } doReturn "Account $accountUuid"
+            on { folderPushMode } doReturn FolderMode.FIRST_CLASS
+            on { folderDisplayMode } doReturn FolderMode.ALL
+            on { maxPushFolders } doReturn 10
+        }
+    }
+
+    private fun createBackend(pusher: BackendPusher): Backend {
+        return mock {
+            on { isPushCapable } doReturn true
+            on { createPusher(any()) } doReturn pusher
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package com.fsck.k9.mailstore
+
+import android.net.Uri
+import com.fsck.k9.Account
+import com.fsck.k9.K9RobolectricTest
+import com.fsck.k9.Preferences
+import com.fsck.k9.backend.api.BackendFolder
+import com.fsck.k9.backend.api.FolderInfo
+import com.fsck.k9.backend.api.updateFolders
+import com.fsck.k9.mail.Address
+import com.fsck.k9.mail.FetchProfile
+import com.fsck.k9.mail.FolderType
+import com.fsck.k9.mail.Message
+import com.fsck.k9.mail.internet.MessageExtractor
+import com.fsck.k9.mail.internet.MimeMessage
+import com.fsck.k9.mail.internet.MimeMessageHelper
+import com.fsck.k9.mail.internet.TextBody
+import com.fsck.k9.provider.EmailProvider
+import java.io.File
+import java.util.Base64
+import org.apache.james.mime4j.util.MimeUtil
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Assert.fail
+import org.junit.Before
+import org.junit.Test
+import org.koin.core.inject
+
+class AttachmentBlobStoreTest : K9RobolectricTest() {
+    val preferences: Preferences by inject()
+    val localStoreProvider: LocalStoreProvider by inject()
+
+    val account: Account = createAccount()
+    val localStore: LocalStore = localStoreProvider.getInstance(account)
+    val database: LockableDatabase = localStore.database
+
+    @Before
+    fun setUp() {
+        // Set EmailProvider.CONTENT_URI so LocalStore.notifyChange() won't crash
+        EmailProvider.CONTENT_URI = Uri.parse("content://dummy")
+        createFolders()
+    }
+
+    @After
+    fun tearDown() {
+        preferences.deleteAccount(account)
+    }
+
+    @Test
+    fun saveMessages_withSameLargeBody_shouldShareBlob() {
+        val inbox = createBackendFolder(INBOX)
+        inbox.saveCompleteMessage(createMessage("1", LARGE_TEXT))
+        inbox.saveCompleteMessage(createMessage("2", LARGE_TEXT))
+
+        val blobs = getBlobs()
+        assertEquals(1, blobs.size)
+        assertEquals(2, blobs.first().refCount)
+        assertTrue(getBlobFile(blobs.first().id).exists())
+    }
+
+    @Test
+    fun saveMessages_withDifferentLargeBodies_shouldCreateBlobForEach() {
+        val inbox = createBackendFolder(INBOX)
+        inbox.saveCompleteMessage(createMessage("1", LARGE_TEXT))
+        inbox.saveCompleteMessage(createMessage("2", LARGE_TEXT + "!"))
+
+        val blobs = getBlobs()
+        assertEquals(2, blobs.size)
+        assertTrue(blobs.all { it.refCount == 1 })
+    }
+
+    @Test
+    fun saveMessages_withSameContentButDifferentLineLength_shouldKeepEncodedBytesOfEach() {
+        val data = LARGE_TEXT.toByteArray()
+        val encodedData1 = Base64.getMimeEncoder(76, CRLF).encode(data)
+        val encodedData2 = Base64.getMimeEncoder(64, CRLF).encode(data)
+        val inbox = createBackendFolder(INBOX)
+
+        inbox.saveCompleteMessage(createBase64Message("1", encodedData1))
+        inbox.saveCompleteMessage(createBase64Message("2", encodedData2))
+
+        val blobs = getBlobs()
+        assertEquals(2, blobs.size)
+        assertArrayEquals(encodedData1, getBlobFile(blobs[0].id).readBytes())
+        assertArrayEquals(encodedData2, getBlobFile(blobs[1].id).readBytes())
+    }
+
+    @Test
+    fun loadMessage_shouldReadBodyFromBlob() {
+        createBackendFolder(INBOX).saveCompleteMessage(createMessage("1", LARGE_TEXT))
+        val folder = localStore.getFolder(INBOX).apply { open() }
+        val message = folder.getMessage("1")
+
+        folder.fetch(listOf(message), FetchProfile().apply { add(FetchProfile.Item.BODY) }, null)
+
+        assertEquals(LARGE_TEXT, MessageExtractor.getTextFromPart(message))
+    }
+
+    @Test
+    fun destroyMessages_shouldDeleteBlobWhenNoLongerReferenced() {
+        val inbox = createBackendFolder(INBOX)
+        inbox.saveCompleteMessage(createMessage("1", LARGE_TEXT))
+        inbox.saveCompleteMessage(createMessage("2", LARGE_TEXT))
+        val blobFile = getBlobFile(getBlobs().first().id)
+
+        inbox.destroyMessages(listOf("1"))
+
+        assertEquals(1, getBlobs().first().refCount)
+        assertTrue(blobFile.exists())
+
+        inbox.destroyMessages(listOf("2"))
+
+        assertTrue(getBlobs().isEmpty())
+        assertFalse(blobFile.exists())
+    }
+
+    @Test
+    fun destroyMessages_insideTransaction_shouldKeepBlobFileUntilCommit() {
+        val inbox = createBackendFolder(INBOX)
+        inbox.saveCompleteMessage(createMessage("1", LARGE_TEXT))
+        val blobFile = getBlobFile(getBlobs().first().id)
+
+        database.execute(true) {
+            inbox.destroyMessages(listOf("1"))
+
+            assertTrue(blobFile.exists())
+        }
+
+        assertTrue(getBlobs().isEmpty())
+        assertFalse(blobFile.exists())
+    }
+
+    @Test
+    fun deleteUnreferencedAttachmentBlobs_afterRollback_shouldDeleteOrphanedBlobFile() {
+        val inbox = createBackendFolder(INBOX)
+        try {
+            database.execute<Unit>(true) {
+                inbox.saveCompleteMessage(createMessage("1", LARGE_TEXT))
+                throw IllegalStateException("roll back")
+            }
+            fail("Expected exception")
+        } catch (e: IllegalStateException) {
+        }
+
+        assertTrue(getBlobs().isEmpty())
+        assertEquals(1, getBlobFiles().size)
+
+        localStore.deleteUnreferencedAttachmentBlobs()
+
+        assertTrue(getBlobFiles().isEmpty())
+    }
+
+    @Test
+    fun deleteUnreferencedAttachmentBlobs_shouldKeepBlobFilesWithRow() {
+        createBackendFolder(INBOX).saveCompleteMessage(createMessage("1", LARGE_TEXT))
+        val blobFile = getBlobFile(getBlobs().first().id)
+
+        localStore.deleteUnreferencedAttachmentBlobs()
+
+        assertTrue(blobFile.exists())
+    }
+
+    @Test
+    fun deleteFolder_shouldDeleteBlobs() {
+        createBackendFolder(INBOX).saveCompleteMessage(createMessage("1", LARGE_TEXT))
+        val blobFile = getBlobFile(getBlobs().first().id)
+
+        localStore.getFolder(INBOX).delete()
+
+        assertTrue(getBlobs().isEmpty())
+        assertFalse(blobFile.exists())
+    }
+
+    private fun createAccount(): Account {
+        // FIXME: This is a hack to get Preferences into a state where it's safe to call newAccount()
+        preferences.clearAccounts()
+
+        return preferences.newAccount()
+    }
+
+    private fun createFolders() {
+        val backendStorage = K9BackendStorage(preferences, account, localStore, emptyList())
+        backendStorage.updateFolders {
+            createFolders(listOf(FolderInfo(INBOX, "Inbox", FolderType.INBOX)))
+        }
+    }
+
+    private fun createBackendFolder(folderServerId: String): BackendFolder {
+        return K9BackendFolder(preferences, account, localStore, folderServerId)
+    }
+
+    private fun createMessage(messageServerId: String, text: String): Message {
+        return MimeMessage().apply {
+            subject = "Test message"
+            setFrom(Address("alice@domain.example"))
+            setHeader("To", "bob@domain.example")
+            MimeMessageHelper.setBody(this, TextBody(text))
+
+            uid = messageServerId
+        }
+    }
+
+    private fun createBase64Message(messageServerId: String, encodedData: ByteArray): Message {
+        return MimeMessage().apply {
+            subject = "Test message"
+            setFrom(Address("alice@domain.example"))
+            setHeader("To", "bob@domain.example")
+            setHeader("Content-Type", "application/octet-stream")
+            setHeader("Content-Transfer-Encoding", MimeUtil.ENC_BASE64)
+            body = BinaryMemoryBody(encodedData, MimeUtil.ENC_BASE64)
+
+            uid = messageServerId
+        }
+    }
+
+    private fun getBlobs(): List<Blob> {
+        return database.execute(false) { db ->
+            db.query("attachment_blobs", arrayOf("id", "ref_count"), null, null, null, null, "id").use { cursor ->
+                val blobs = mutableListOf<Blob>()
+                while (cursor.moveToNext()) {
+                    blobs.add(Blob(cursor.getLong(0), cursor.getInt(1)))
+                }
+                blobs
+            }
+        }
+    }
+
+    private fun getBlobFile(blobId: Long) = localStore.attachmentBlobStore.getBlobFile(blobId)
+
+    private fun getBlobFiles(): List<File> {
+        val attachmentDirectory = getBlobFile(0).parentFile!!
+        return attachmentDirectory.listFiles { _, name -> name.startsWith("blob_") }?.toList() ?: emptyList()
+    }
+
+    data class Blob(val id: Long, val refCount: Int)
+
+    companion object {
+        const val INBOX = "inbox"
+        val LARGE_TEXT = "Hello Bob! ".repeat(2 * 1024)
+        val CRLF = "\r\n".toByteArray()
+    }
+}
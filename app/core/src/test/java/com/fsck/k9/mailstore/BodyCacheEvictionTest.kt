@@ -0,0 +1,192 @@
+package com.fsck.k9.mailstore
+
+import android.content.ContentValues
+import android.net.Uri
+import com.fsck.k9.Account
+import com.fsck.k9.K9RobolectricTest
+import com.fsck.k9.Preferences
+import com.fsck.k9.backend.api.BackendFolder
+import com.fsck.k9.backend.api.FolderInfo
+import com.fsck.k9.backend.api.updateFolders
+import com.fsck.k9.mail.Address
+import com.fsck.k9.mail.FetchProfile
+import com.fsck.k9.mail.Flag
+import com.fsck.k9.mail.FolderType
+import com.fsck.k9.mail.Message
+import com.fsck.k9.mail.internet.MimeMessage
+import com.fsck.k9.mail.internet.MimeMessageHelper
+import com.fsck.k9.mail.internet.TextBody
+import com.fsck.k9.provider.EmailProvider
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.koin.core.inject
+
+class BodyCacheEvictionTest : K9RobolectricTest() {
+    val preferences: Preferences by inject()
+    val localStoreProvider: LocalStoreProvider by inject()
+
+    val account: Account = createAccount()
+    val localStore: LocalStore = localStoreProvider.getInstance(account)
+    val database: LockableDatabase = localStore.database
+
+    @Before
+    fun setUp() {
+        // Set EmailProvider.CONTENT_URI so LocalStore.notifyChange() won't crash
+        EmailProvider.CONTENT_URI = Uri.parse("content://dummy")
+        createFolders()
+    }
+
+    @After
+    fun tearDown() {
+        preferences.deleteAccount(account)
+    }
+
+    @Test
+    fun evictNextBodyBatch_withNothingToFree_shouldNotEvictAnything() {
+        saveMessage("1", LARGE_TEXT, lastAccess = 1000L)
+
+        val freedBytes = localStore.evictNextBodyBatch(0)
+
+        assertEquals(0L, freedBytes)
+        assertFalse(isBodyMissing("1"))
+    }
+
+    @Test
+    fun evictNextBodyBatch_shouldOnlyEvictLeastRecentlyUsedMessages() {
+        saveMessage("1", LARGE_TEXT + "1", lastAccess = 2000L)
+        saveMessage("2", LARGE_TEXT + "2", lastAccess = 1000L)
+
+        val freedBytes = localStore.evictNextBodyBatch(1)
+
+        assertTrue(freedBytes >= LARGE_TEXT.length)
+        assertFalse(isBodyMissing("1"))
+        assertTrue(isBodyMissing("2"))
+    }
+
+    @Test
+    fun evictNextBodyBatch_shouldUseDateOfMessagesThatWereNeverOpened() {
+        saveMessage("1", LARGE_TEXT + "1", lastAccess = 2000L)
+        saveMessage("2", LARGE_TEXT + "2", lastAccess = null, internalDate = 1000L)
+
+        localStore.evictNextBodyBatch(1)
+
+        assertFalse(isBodyMissing("1"))
+        assertTrue(isBodyMissing("2"))
+    }
+
+    @Test
+    fun evictNextBodyBatch_shouldMarkMessageAsPartiallyDownloadedAndEvicted() {
+        saveMessage("1", LARGE_TEXT, lastAccess = 1000L)
+
+        localStore.evictNextBodyBatch(Long.MAX_VALUE)
+
+        val message = getMessage("1")
+        assertTrue(message.isSet(Flag.X_DOWNLOADED_PARTIAL))
+        assertTrue(message.isSet(Flag.X_BODY_EVICTED))
+        assertFalse(message.isSet(Flag.X_DOWNLOADED_FULL))
+        assertEquals("Test message", message.subject)
+    }
+
+    @Test
+    fun evictNextBodyBatch_shouldKeepRecentlyOpenedMessages() {
+        saveMessage("1", LARGE_TEXT, lastAccess = 1000L)
+        localStore.updateLastAccess(getMessage("1").databaseId)
+
+        val freedBytes = localStore.evictNextBodyBatch(Long.MAX_VALUE)
+
+        assertEquals(0L, freedBytes)
+        assertFalse(isBodyMissing("1"))
+    }
+
+    @Test
+    fun evictNextBodyBatch_withoutMoreMessagesToEvict_shouldReturnZero() {
+        saveMessage("1", LARGE_TEXT, lastAccess = 1000L)
+
+        assertTrue(localStore.evictNextBodyBatch(Long.MAX_VALUE) > 0)
+        assertEquals(0L, localStore.evictNextBodyBatch(Long.MAX_VALUE))
+    }
+
+    @Test
+    fun evictNextBodyBatch_shouldDeleteUnreferencedBlobs() {
+        saveMessage("1", LARGE_TEXT, lastAccess = 1000L)
+
+        localStore.evictNextBodyBatch(Long.MAX_VALUE)
+
+        assertEquals(0L, localStore.bodyCacheSize)
+        assertEquals(0, getBlobCount())
+    }
+
+    private fun createAccount(): Account {
+        // FIXME: This is a hack to get Preferences into a state where it's safe to call newAccount()
+        preferences.clearAccounts()
+
+        return preferences.newAccount()
+    }
+
+    private fun createFolders() {
+        val backendStorage = K9BackendStorage(preferences, account, localStore, emptyList())
+        backendStorage.updateFolders {
+            createFolders(listOf(FolderInfo(INBOX, "Inbox", FolderType.INBOX)))
+        }
+    }
+
+    private fun createBackendFolder(folderServerId: String): BackendFolder {
+        return K9BackendFolder(preferences, account, localStore, folderServerId)
+    }
+
+    private fun saveMessage(messageServerId: String, text: String, lastAccess: Long?, internalDate: Long = 0L) {
+        val message = createMessage(messageServerId, text)
+        createBackendFolder(INBOX).saveCompleteMessage(message)
+
+        // Only messages that have been added to the full-text index are evicted
+        val values = ContentValues().apply {
+            put("last_access", lastAccess)
+            put("internal_date", internalDate)
+            put("fulltext_indexed", 1)
+        }
+        database.execute(false) { db ->
+            db.update("messages", values, "uid = ?", arrayOf(messageServerId))
+        }
+    }
+
+    private fun createMessage(messageServerId: String, text: String): Message {
+        return MimeMessage().apply {
+            subject = "Test message"
+            setFrom(Address("alice@domain.example"))
+            setHeader("To", "bob@domain.example")
+            MimeMessageHelper.setBody(this, TextBody(text))
+
+            uid = messageServerId
+        }
+    }
+
+    private fun getMessage(messageServerId: String): LocalMessage {
+        val folder = localStore.getFolder(INBOX).apply { open() }
+        return folder.getMessage(messageServerId)
+    }
+
+    private fun isBodyMissing(messageServerId: String): Boolean {
+        val folder = localStore.getFolder(INBOX).apply { open() }
+        val message = folder.getMessage(messageServerId)
+        folder.fetch(listOf(message), FetchProfile().apply { add(FetchProfile.Item.BODY) }, null)
+
+        return message.isBodyMissing
+    }
+
+    private fun getBlobCount(): Int {
+        return database.execute(false) { db ->
+            db.rawQuery("SELECT COUNT(*) FROM attachment_blobs", null).use { cursor ->
+                if (cursor.moveToFirst()) cursor.getInt(0) else 0
+            }
+        }
+    }
+
+    companion object {
+        const val INBOX = "inbox"
+        val LARGE_TEXT = "Hello Bob! ".repeat(2 * 1024)
+    }
+}
@@ -0,0 +1,170 @@
+package com.fsck.k9.mailstore
+
+import android.net.Uri
+import com.fsck.k9.Account
+import com.fsck.k9.K9RobolectricTest
+import com.fsck.k9.Preferences
+import com.fsck.k9.backend.api.BackendFolder
+import com.fsck.k9.backend.api.FolderInfo
+import com.fsck.k9.backend.api.updateFolders
+import com.fsck.k9.mail.Address
+import com.fsck.k9.mail.Flag
+import com.fsck.k9.mail.FolderType
+import com.fsck.k9.mail.Message
+import com.fsck.k9.mail.internet.MimeMessage
+import com.fsck.k9.mail.internet.MimeMessageHelper
+import com.fsck.k9.mail.internet.TextBody
+import com.fsck.k9.provider.EmailProvider
+import com.fsck.k9.search.LocalSearch
+import com.fsck.k9.search.SearchSpecification.Attribute
+import com.fsck.k9.search.SearchSpecification.SearchField
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import org.koin.core.inject
+
+class FolderCountsTest : K9RobolectricTest() {
+    val preferences: Preferences by inject()
+    val localStoreProvider: LocalStoreProvider by inject()
+
+    val account: Account = createAccount()
+    val localStore: LocalStore = localStoreProvider.getInstance(account)
+    val database: LockableDatabase = localStore.database
+
+    @Before
+    fun setUp() {
+        // Set EmailProvider.CONTENT_URI so LocalStore.notifyChange() won't crash
+        EmailProvider.CONTENT_URI = Uri.parse("content://dummy")
+        createFolders()
+    }
+
+    @After
+    fun tearDown() {
+        preferences.deleteAccount(account)
+    }
+
+    @Test
+    fun saveMessages_shouldUpdateCounts() {
+        val inbox = createBackendFolder(INBOX)
+        inbox.saveCompleteMessage(createMessage("1"))
+        inbox.saveCompleteMessage(createMessage("2", Flag.SEEN, Flag.FLAGGED))
+
+        assertEquals(FolderCounts(total = 2, unread = 1, flagged = 1), getFolderCounts(INBOX))
+    }
+
+    @Test
+    fun setFlags_shouldUpdateCounts() {
+        val inbox = createBackendFolder(INBOX)
+        inbox.saveCompleteMessage(createMessage("1"))
+        inbox.saveCompleteMessage(createMessage("2"))
+
+        inbox.setMessageFlag("1", Flag.SEEN, true)
+        inbox.setMessageFlag("2", Flag.FLAGGED, true)
+
+        assertEquals(FolderCounts(total = 2, unread = 1, flagged = 1), getFolderCounts(INBOX))
+    }
+
+    @Test
+    fun destroyMessages_shouldUpdateCounts() {
+        val inbox = createBackendFolder(INBOX)
+        inbox.saveCompleteMessage(createMessage("1", Flag.FLAGGED))
+        inbox.saveCompleteMessage(createMessage("2"))
+
+        inbox.destroyMessages(listOf("1"))
+
+        assertEquals(FolderCounts(total = 1, unread = 1, flagged = 0), getFolderCounts(INBOX))
+    }
+
+    @Test
+    fun moveMessage_shouldUpdateCountsOfBothFolders() {
+        createBackendFolder(INBOX).saveCompleteMessage(createMessage("1"))
+        val sourceFolder = localStore.getFolder(INBOX)
+        val destinationFolder = localStore.getFolder(ARCHIVE)
+        sourceFolder.open()
+        destinationFolder.open()
+
+        sourceFolder.moveMessages(listOf(sourceFolder.getMessage("1")), destinationFolder)
+
+        assertEquals(FolderCounts(total = 0, unread = 0, flagged = 0), getFolderCounts(INBOX))
+        assertEquals(FolderCounts(total = 1, unread = 1, flagged = 0), getFolderCounts(ARCHIVE))
+        assertEquals(0, sourceFolder.unreadMessageCount)
+        assertEquals(1, destinationFolder.unreadMessageCount)
+    }
+
+    @Test
+    fun getUnreadMessageCount_withFolderSearch_shouldUseFolderCounts() {
+        createBackendFolder(INBOX).saveCompleteMessage(createMessage("1"))
+        createBackendFolder(ARCHIVE).saveCompleteMessage(createMessage("2"))
+        val archiveFolder = localStore.getFolder(ARCHIVE).apply { open() }
+        val search = LocalSearch().apply {
+            and(SearchField.FOLDER, archiveFolder.databaseId.toString(), Attribute.NOT_EQUALS)
+        }
+
+        assertEquals(1, localStore.getUnreadMessageCount(search))
+    }
+
+    @Test
+    fun repairFolderCounts_shouldFixCounts() {
+        createBackendFolder(INBOX).saveCompleteMessage(createMessage("1"))
+        database.execute(false) { db ->
+            db.execSQL("UPDATE folders SET total_count = 42, unread_count = 23, flagged_count = 5")
+        }
+
+        localStore.repairFolderCounts()
+
+        assertEquals(FolderCounts(total = 1, unread = 1, flagged = 0), getFolderCounts(INBOX))
+    }
+
+    private fun createAccount(): Account {
+        // FIXME: This is a hack to get Preferences into a state where it's safe to call newAccount()
+        preferences.clearAccounts()
+
+        return preferences.newAccount()
+    }
+
+    private fun createFolders() {
+        val backendStorage = K9BackendStorage(preferences, account, localStore, emptyList())
+        backendStorage.updateFolders {
+            createFolders(listOf(
+                FolderInfo(INBOX, "Inbox", FolderType.INBOX),
+                FolderInfo(ARCHIVE, "Archive", FolderType.ARCHIVE)
+            ))
+        }
+    }
+
+    private fun createBackendFolder(folderServerId: String): BackendFolder {
+        return K9BackendFolder(preferences, account, localStore, folderServerId)
+    }
+
+    private fun createMessage(messageServerId: String, vararg flags: Flag): Message {
+        return MimeMessage().apply {
+            subject = "Test message"
+            setFrom(Address("alice@domain.example"))
+            setHeader("To", "bob@domain.example")
+            MimeMessageHelper.setBody(this, TextBody("Hello Bob!"))
+
+            uid = messageServerId
+            for (flag in flags) {
+                setFlag(flag, true)
+            }
+        }
+    }
+
+    private fun getFolderCounts(folderServerId: String): FolderCounts {
+        return database.execute(false) { db ->
+            db.query("folders", arrayOf("total_count", "unread_count", "flagged_count"), "server_id = ?",
+                arrayOf(folderServerId), null, null, null).use { cursor ->
+                if (!cursor.moveToFirst()) throw AssertionError("Folder not found")
+                FolderCounts(cursor.getInt(0), cursor.getInt(1), cursor.getInt(2))
+            }
+        }
+    }
+
+    data class FolderCounts(val total: Int, val unread: Int, val flagged: Int)
+
+    companion object {
+        const val INBOX = "inbox"
+        const val ARCHIVE = "archive"
+    }
+}
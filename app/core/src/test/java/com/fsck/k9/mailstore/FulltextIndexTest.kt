@@ -0,0 +1,146 @@
+package com.fsck.k9.mailstore
+
+import android.net.Uri
+import com.fsck.k9.Account
+import com.fsck.k9.K9RobolectricTest
+import com.fsck.k9.Preferences
+import com.fsck.k9.backend.api.FolderInfo
+import com.fsck.k9.backend.api.updateFolders
+import com.fsck.k9.mail.Address
+import com.fsck.k9.mail.FolderType
+import com.fsck.k9.mail.Message
+import com.fsck.k9.mail.internet.MimeMessage
+import com.fsck.k9.mail.internet.MimeMessageHelper
+import com.fsck.k9.mail.internet.TextBody
+import com.fsck.k9.provider.EmailProvider
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.koin.core.inject
+
+class FulltextIndexTest : K9RobolectricTest() {
+    val preferences: Preferences by inject()
+    val localStoreProvider: LocalStoreProvider by inject()
+
+    val account: Account = createAccount()
+    val localStore: LocalStore = localStoreProvider.getInstance(account)
+    val database: LockableDatabase = localStore.database
+
+    @Before
+    fun setUp() {
+        // Set EmailProvider.CONTENT_URI so LocalStore.notifyChange() won't crash
+        EmailProvider.CONTENT_URI = Uri.parse("content://dummy")
+        createFolder()
+    }
+
+    @After
+    fun tearDown() {
+        preferences.deleteAccount(account)
+    }
+
+    @Test
+    fun saveMessage_shouldNotIndexMessageText() {
+        saveMessage("1", "<html><body><p>Hello Bob!</p></body></html>")
+
+        assertEquals(1, localStore.pendingFulltextIndexCount)
+        assertNull(getFulltext("1"))
+    }
+
+    @Test
+    fun indexNextFulltextBatch_shouldIndexMessageText() {
+        saveMessage("1", "<html><body><p>Hello Bob!</p></body></html>")
+
+        val hasMoreWork = localStore.indexNextFulltextBatch()
+
+        assertTrue(hasMoreWork)
+        assertEquals(0, localStore.pendingFulltextIndexCount)
+        assertEquals("Hello Bob!", getFulltext("1")?.trim())
+        assertFalse(localStore.indexNextFulltextBatch())
+    }
+
+    @Test
+    fun saveMessage_afterIndexing_shouldIndexMessageTextAgain() {
+        saveMessage("1", "<html><body><p>Hello Bob!</p></body></html>")
+        localStore.indexNextFulltextBatch()
+
+        saveMessage("1", "<html><body><p>Goodbye Bob!</p></body></html>")
+        assertEquals(1, localStore.pendingFulltextIndexCount)
+
+        localStore.indexNextFulltextBatch()
+        assertEquals("Goodbye Bob!", getFulltext("1")?.trim())
+    }
+
+    @Test
+    fun indexNextFulltextBatch_withBrokenMessage_shouldSkipMessageText() {
+        saveMessage("1", "<html><body><p>Hello Bob!</p></body></html>")
+        saveMessage("2", "<html><body><p>Hello Alice!</p></body></html>")
+        addOrphanedMessagePart("1")
+
+        localStore.indexNextFulltextBatch()
+
+        assertEquals(0, localStore.pendingFulltextIndexCount)
+        assertNull(getFulltext("1"))
+        assertEquals("Hello Alice!", getFulltext("2")?.trim())
+    }
+
+    private fun createAccount(): Account {
+        // FIXME: This is a hack to get Preferences into a state where it's safe to call newAccount()
+        preferences.clearAccounts()
+
+        return preferences.newAccount()
+    }
+
+    private fun createFolder() {
+        val backendStorage = K9BackendStorage(preferences, account, localStore, emptyList())
+        backendStorage.updateFolders {
+            createFolders(listOf(FolderInfo(INBOX, "Inbox", FolderType.INBOX)))
+        }
+    }
+
+    private fun saveMessage(messageServerId: String, html: String) {
+        val backendFolder = K9BackendFolder(preferences, account, localStore, INBOX)
+        backendFolder.saveCompleteMessage(createMessage(messageServerId, html))
+    }
+
+    private fun createMessage(messageServerId: String, html: String): Message {
+        return MimeMessage().apply {
+            subject = "Test message"
+            setFrom(Address("alice@domain.example"))
+            setHeader("To", "bob@domain.example")
+            setHeader("Content-Type", "text/html")
+            MimeMessageHelper.setBody(this, TextBody(html))
+
+            uid = messageServerId
+        }
+    }
+
+    private fun addOrphanedMessagePart(messageServerId: String) {
+        database.execute(false) { db ->
+            db.execSQL(
+                "INSERT INTO message_parts (type, root, parent, seq, data_location) " +
+                    "SELECT 0, message_part_id, -1, 1, 0 FROM messages WHERE uid = ?",
+                arrayOf(messageServerId)
+            )
+        }
+    }
+
+    private fun getFulltext(messageServerId: String): String? {
+        return database.execute(false) { db ->
+            db.rawQuery(
+                "SELECT f.fulltext FROM messages m JOIN messages_fulltext f ON (f.docid = m.id) WHERE m.uid = ?",
+                arrayOf(messageServerId)
+            ).use { cursor ->
+                if (!cursor.moveToFirst()) throw AssertionError("Message not found")
+                cursor.getString(0)
+            }
+        }
+    }
+
+    companion object {
+        const val INBOX = "inbox"
+    }
+}
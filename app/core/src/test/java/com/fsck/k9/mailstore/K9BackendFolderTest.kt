@@ -29,6 +29,7 @@ import org.koin.core.inject
 class K9BackendFolderTest : K9RobolectricTest() {
     val preferences: Preferences by inject()
     val localStoreProvider: LocalStoreProvider by inject()
+    val messageChangeFeed: MessageChangeFeed by inject()
 
     val account: Account = createAccount()
     val backendFolder = createBackendFolder()
@@ -76,6 +77,34 @@ class K9BackendFolderTest : K9RobolectricTest() {
         assertEquals(flags, messageFlags)
     }
 
+    @Test
+    fun getMessageFlags_withMultipleMessageServerIds() {
+        createMessageInBackendFolder("1", setOf(Flag.SEEN))
+        createMessageInBackendFolder("2", setOf(Flag.FLAGGED, Flag.X_DOWNLOADED_PARTIAL))
+        createMessageInBackendFolder("3")
+
+        val messageFlags = backendFolder.getMessageFlags(listOf("1", "2", "3", "missing"))
+
+        assertEquals(
+            mapOf(
+                "1" to setOf(Flag.SEEN),
+                "2" to setOf(Flag.FLAGGED, Flag.X_DOWNLOADED_PARTIAL),
+                "3" to emptySet<Flag>()
+            ),
+            messageFlags
+        )
+    }
+
+    @Test
+    fun getMessageFlags_withMoreMessageServerIdsThanBatchSize() {
+        createMessageInBackendFolder("1", setOf(Flag.SEEN))
+        val messageServerIds = (2..LocalStore.UID_CHECK_BATCH_SIZE + 1).map { it.toString() } + "1"
+
+        val messageFlags = backendFolder.getMessageFlags(messageServerIds)
+
+        assertEquals(mapOf("1" to setOf(Flag.SEEN)), messageFlags)
+    }
+
     @Test
     fun getLastUid() {
         createMessageInBackendFolder("200")
@@ -97,6 +126,45 @@ class K9BackendFolderTest : K9RobolectricTest() {
         }
     }
 
+    @Test
+    fun saveCompleteMessages() {
+        val messages = listOf(createMessage("1", setOf(Flag.SEEN)), createMessage("2"))
+
+        backendFolder.saveCompleteMessages(messages)
+
+        assertEquals(
+            mapOf(
+                "1" to setOf(Flag.SEEN, Flag.X_DOWNLOADED_FULL),
+                "2" to setOf(Flag.X_DOWNLOADED_FULL)
+            ),
+            backendFolder.getMessageFlags(listOf("1", "2"))
+        )
+    }
+
+    @Test
+    fun saveCompleteMessages_shouldNotifyInsertedMessages() {
+        val messageChanges = recordMessageChanges()
+
+        backendFolder.saveCompleteMessages(listOf(createMessage("1"), createMessage("2")))
+
+        assertEquals(1, messageChanges.size)
+        val changes = messageChanges.first()
+        assertEquals(account.uuid, changes.accountUuid)
+        assertEquals(setOf(getMessageId("1"), getMessageId("2")), changes.insertedMessageIds)
+        assertTrue(changes.isComplete)
+    }
+
+    @Test
+    fun setMessageFlag_shouldNotifyUpdatedMessage() {
+        createMessageInBackendFolder(MESSAGE_SERVER_ID)
+        val messageChanges = recordMessageChanges()
+
+        backendFolder.setMessageFlag(MESSAGE_SERVER_ID, Flag.SEEN, true)
+
+        val messageId = getMessageId(MESSAGE_SERVER_ID)
+        assertEquals(listOf(MessageChanges.updated(account.uuid, listOf(messageId))), messageChanges)
+    }
+
     @Test
     fun savePartialMessage_withoutServerId_shouldThrow() {
         val message = createMessage(messageServerId = null)
@@ -160,6 +228,26 @@ class K9BackendFolderTest : K9RobolectricTest() {
         }
     }
 
+    private fun recordMessageChanges(): List<MessageChanges> {
+        val messageChanges = mutableListOf<MessageChanges>()
+        messageChangeFeed.addListener(object : MessageChangeListener {
+            override fun onMessagesChanged(changes: MessageChanges) {
+                messageChanges.add(changes)
+            }
+        })
+
+        return messageChanges
+    }
+
+    private fun getMessageId(messageServerId: String): Long {
+        return database.execute(false) { db ->
+            db.query("messages", arrayOf("id"), "uid = ?", arrayOf(messageServerId), null, null, null).use { cursor ->
+                if (!cursor.moveToFirst()) throw AssertionError("Message not found")
+                cursor.getLong(0)
+            }
+        }
+    }
+
     private fun dbOperation(action: (SQLiteDatabase) -> Unit) = database.execute(false, action)
 
     companion object {
@@ -0,0 +1,149 @@
+package com.fsck.k9.mailstore
+
+import android.net.Uri
+import com.fsck.k9.Account
+import com.fsck.k9.K9RobolectricTest
+import com.fsck.k9.Preferences
+import com.fsck.k9.backend.api.BackendFolder
+import com.fsck.k9.backend.api.FolderInfo
+import com.fsck.k9.backend.api.updateFolders
+import com.fsck.k9.mail.Address
+import com.fsck.k9.mail.FetchProfile
+import com.fsck.k9.mail.FolderType
+import com.fsck.k9.mail.Message
+import com.fsck.k9.mail.internet.MimeMessage
+import com.fsck.k9.mail.internet.MimeMessageHelper
+import com.fsck.k9.mail.internet.TextBody
+import com.fsck.k9.message.html.HtmlSettings
+import com.fsck.k9.provider.EmailProvider
+import com.google.common.truth.Truth.assertThat
+import java.io.File
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.koin.core.inject
+import org.robolectric.RuntimeEnvironment
+
+class MessageRenderCacheInvalidationTest : K9RobolectricTest() {
+    val preferences: Preferences by inject()
+    val localStoreProvider: LocalStoreProvider by inject()
+    val messageViewInfoExtractorFactory: MessageViewInfoExtractorFactory by inject()
+
+    val account: Account = createAccount()
+    val localStore: LocalStore = localStoreProvider.getInstance(account)
+    val renderCacheDirectory = File(RuntimeEnvironment.application.cacheDir, "rendered_html")
+
+    @Before
+    fun setUp() {
+        // Set EmailProvider.CONTENT_URI so LocalStore.notifyChange() won't crash
+        EmailProvider.CONTENT_URI = Uri.parse("content://dummy")
+        createFolders()
+    }
+
+    @After
+    fun tearDown() {
+        preferences.deleteAccount(account)
+    }
+
+    @Test
+    fun extractMessageForView_withNewMessageReusingIdsOfDeletedMessage_shouldNotReturnHtmlOfDeletedMessage() {
+        val inbox = createBackendFolder(INBOX)
+        inbox.saveCompleteMessage(createMessage("1", "Hello Alice"))
+        val deletedMessage = loadMessage("1")
+        assertThat(renderMessage(deletedMessage)).contains("Hello Alice")
+        inbox.destroyMessages(listOf("1"))
+
+        inbox.saveCompleteMessage(createMessage("2", "Hello Bob"))
+        val newMessage = loadMessage("2")
+
+        // SQLite hands out the IDs of the deleted rows again
+        assertThat(newMessage.messagePartId).isEqualTo(deletedMessage.messagePartId)
+        assertThat(newMessage.databaseId).isEqualTo(deletedMessage.databaseId)
+        assertThat(renderMessage(newMessage)).contains("Hello Bob")
+    }
+
+    @Test
+    fun extractMessageForView_withMessageSavedAgain_shouldReturnHtmlOfNewBody() {
+        val inbox = createBackendFolder(INBOX)
+        inbox.saveCompleteMessage(createMessage("1", "Hello Alice"))
+        assertThat(renderMessage(loadMessage("1"))).contains("Hello Alice")
+
+        inbox.saveCompleteMessage(createMessage("1", "Hello Bob"))
+
+        assertThat(renderMessage(loadMessage("1"))).contains("Hello Bob")
+    }
+
+    @Test
+    fun destroyMessages_shouldRemoveRenderedMessage() {
+        val inbox = createBackendFolder(INBOX)
+        inbox.saveCompleteMessage(createMessage("1", "Hello Alice"))
+        renderMessage(loadMessage("1"))
+        assertThat(getRenderCacheFiles()).isNotEmpty()
+
+        inbox.destroyMessages(listOf("1"))
+
+        assertThat(getRenderCacheFiles()).isEmpty()
+    }
+
+    @Test
+    fun delete_shouldRemoveRenderedMessagesOfAccount() {
+        createBackendFolder(INBOX).saveCompleteMessage(createMessage("1", "Hello Alice"))
+        renderMessage(loadMessage("1"))
+        assertThat(getRenderCacheFiles()).isNotEmpty()
+
+        localStore.delete()
+
+        assertThat(getRenderCacheFiles()).isEmpty()
+    }
+
+    private fun createAccount(): Account {
+        // FIXME: This is a hack to get Preferences into a state where it's safe to call newAccount()
+        preferences.clearAccounts()
+
+        return preferences.newAccount()
+    }
+
+    private fun createFolders() {
+        val backendStorage = K9BackendStorage(preferences, account, localStore, emptyList())
+        backendStorage.updateFolders {
+            createFolders(listOf(FolderInfo(INBOX, "Inbox", FolderType.INBOX)))
+        }
+    }
+
+    private fun createBackendFolder(folderServerId: String): BackendFolder {
+        return K9BackendFolder(preferences, account, localStore, folderServerId)
+    }
+
+    private fun createMessage(messageServerId: String, text: String): Message {
+        return MimeMessage().apply {
+            subject = "Test message"
+            setFrom(Address("alice@domain.example"))
+            setHeader("To", "bob@domain.example")
+            MimeMessageHelper.setBody(this, TextBody(text))
+
+            uid = messageServerId
+        }
+    }
+
+    private fun loadMessage(messageServerId: String): LocalMessage {
+        val folder = localStore.getFolder(INBOX).apply { open() }
+        val message = folder.getMessage(messageServerId)
+        folder.fetch(listOf(message), FetchProfile().apply { add(FetchProfile.Item.BODY) }, null)
+
+        return message
+    }
+
+    private fun renderMessage(message: LocalMessage): String {
+        val htmlSettings = HtmlSettings(useDarkMode = false, useFixedWidthFont = false)
+        val messageViewInfoExtractor = messageViewInfoExtractorFactory.create(htmlSettings)
+        return messageViewInfoExtractor.extractMessageForView(message, null, false).text
+    }
+
+    private fun getRenderCacheFiles(): List<File> {
+        return renderCacheDirectory.listFiles()?.toList() ?: emptyList()
+    }
+
+    companion object {
+        const val INBOX = "inbox"
+    }
+}
@@ -0,0 +1,147 @@
+package com.fsck.k9.mailstore
+
+import com.fsck.k9.Clock
+import com.google.common.truth.Truth.assertThat
+import com.nhaarman.mockitokotlin2.whenever
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.mockito.Mockito.mock
+
+class MessageRenderCacheTest {
+    @get:Rule
+    val temporaryFolder = TemporaryFolder()
+
+    private val clock = mock(Clock::class.java)
+
+    @Test
+    fun get_withMissingEntry_shouldReturnNull() {
+        val renderCache = createRenderCache(maxSize = 1000)
+
+        assertThat(renderCache.get(KEY)).isNull()
+    }
+
+    @Test
+    fun put_shouldStoreEntry() {
+        val renderCache = createRenderCache(maxSize = 1000)
+
+        renderCache.put(KEY, "<p>Hello</p>")
+
+        assertThat(renderCache.get(KEY)).isEqualTo("<p>Hello</p>")
+        assertThat(KEY in renderCache).isTrue()
+    }
+
+    @Test
+    fun put_withExistingEntry_shouldReplaceEntry() {
+        val renderCache = createRenderCache(maxSize = 1000)
+        renderCache.put(KEY, "<p>Hello</p>")
+
+        renderCache.put(KEY, "<p>Goodbye</p>")
+
+        assertThat(renderCache.get(KEY)).isEqualTo("<p>Goodbye</p>")
+    }
+
+    @Test
+    fun put_exceedingMaxSize_shouldEvictLeastRecentlyUsedEntry() {
+        val renderCache = createRenderCache(maxSize = 20)
+        setClockTo(1000)
+        renderCache.put(ONE, "0123456789")
+        setClockTo(2000)
+        renderCache.put(TWO, "0123456789")
+        setClockTo(3000)
+        renderCache.get(ONE)
+
+        setClockTo(4000)
+        renderCache.put(THREE, "0123456789")
+
+        assertThat(ONE in renderCache).isTrue()
+        assertThat(TWO in renderCache).isFalse()
+        assertThat(THREE in renderCache).isTrue()
+    }
+
+    @Test
+    fun clear_shouldRemoveAllEntries() {
+        val renderCache = createRenderCache(maxSize = 1000)
+        renderCache.put(ONE, "<p>One</p>")
+        renderCache.put(TWO, "<p>Two</p>")
+
+        renderCache.clear()
+
+        assertThat(ONE in renderCache).isFalse()
+        assertThat(TWO in renderCache).isFalse()
+    }
+
+    @Test
+    fun removeMessages_shouldRemoveAllEntriesOfMessages() {
+        val renderCache = createRenderCache(maxSize = 1000)
+        val variant = KEY.copy(variant = "other")
+        renderCache.put(KEY, "<p>Hello</p>")
+        renderCache.put(variant, "<p>Hello</p>")
+        renderCache.put(TWO, "<p>Two</p>")
+
+        renderCache.removeMessages(ACCOUNT_UUID, listOf(KEY.messageId))
+
+        assertThat(KEY in renderCache).isFalse()
+        assertThat(variant in renderCache).isFalse()
+        assertThat(TWO in renderCache).isTrue()
+    }
+
+    @Test
+    fun removeMessages_shouldNotRemoveMessagesWithSameIdPrefix() {
+        val renderCache = createRenderCache(maxSize = 1000)
+        val message10 = KEY.copy(messageId = 10)
+        renderCache.put(KEY, "<p>Hello</p>")
+        renderCache.put(message10, "<p>Hello</p>")
+
+        renderCache.removeMessages(ACCOUNT_UUID, listOf(1L))
+
+        assertThat(KEY in renderCache).isFalse()
+        assertThat(message10 in renderCache).isTrue()
+    }
+
+    @Test
+    fun removeAccount_shouldOnlyRemoveEntriesOfAccount() {
+        val renderCache = createRenderCache(maxSize = 1000)
+        val otherAccount = KEY.copy(accountUuid = "other-account")
+        renderCache.put(KEY, "<p>Hello</p>")
+        renderCache.put(otherAccount, "<p>Hello</p>")
+
+        renderCache.removeAccount(ACCOUNT_UUID)
+
+        assertThat(KEY in renderCache).isFalse()
+        assertThat(otherAccount in renderCache).isTrue()
+    }
+
+    @Test
+    fun put_afterRemoveMessages_shouldStillEvictByTotalSize() {
+        val renderCache = createRenderCache(maxSize = 20)
+        setClockTo(1000)
+        renderCache.put(ONE, "0123456789")
+        renderCache.removeMessages(ACCOUNT_UUID, listOf(ONE.messageId))
+        setClockTo(2000)
+        renderCache.put(TWO, "0123456789")
+
+        setClockTo(3000)
+        renderCache.put(THREE, "0123456789")
+
+        assertThat(TWO in renderCache).isTrue()
+        assertThat(THREE in renderCache).isTrue()
+    }
+
+    private fun createRenderCache(maxSize: Long): MessageRenderCache {
+        setClockTo(1000)
+        return MessageRenderCache(temporaryFolder.newFolder("rendered_html"), maxSize, clock)
+    }
+
+    private fun setClockTo(time: Long) {
+        whenever(clock.time).thenReturn(time)
+    }
+
+    companion object {
+        private const val ACCOUNT_UUID = "00000000-0000-4000-0000-000000000000"
+        private val KEY = MessageRenderCacheKey(ACCOUNT_UUID, messageId = 1, variant = "stamp:1")
+        private val ONE = MessageRenderCacheKey(ACCOUNT_UUID, messageId = 1, variant = "stamp:1")
+        private val TWO = MessageRenderCacheKey(ACCOUNT_UUID, messageId = 2, variant = "stamp:1")
+        private val THREE = MessageRenderCacheKey(ACCOUNT_UUID, messageId = 3, variant = "stamp:1")
+    }
+}
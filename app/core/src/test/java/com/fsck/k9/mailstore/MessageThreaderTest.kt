@@ -0,0 +1,169 @@
+package com.fsck.k9.mailstore
+
+import android.net.Uri
+import androidx.core.content.contentValuesOf
+import com.fsck.k9.Account
+import com.fsck.k9.K9RobolectricTest
+import com.fsck.k9.Preferences
+import com.fsck.k9.backend.api.BackendFolder
+import com.fsck.k9.backend.api.FolderInfo
+import com.fsck.k9.backend.api.updateFolders
+import com.fsck.k9.mail.Address
+import com.fsck.k9.mail.FolderType
+import com.fsck.k9.mail.Message
+import com.fsck.k9.mail.internet.MimeMessage
+import com.fsck.k9.mail.internet.MimeMessageHelper
+import com.fsck.k9.mail.internet.TextBody
+import com.fsck.k9.provider.EmailProvider
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Before
+import org.junit.Test
+import org.koin.core.inject
+
+class MessageThreaderTest : K9RobolectricTest() {
+    val preferences: Preferences by inject()
+    val localStoreProvider: LocalStoreProvider by inject()
+
+    val account: Account = createAccount()
+    val localStore: LocalStore = localStoreProvider.getInstance(account)
+    val database: LockableDatabase = localStore.database
+
+    @Before
+    fun setUp() {
+        // Set EmailProvider.CONTENT_URI so LocalStore.notifyChange() won't crash
+        EmailProvider.CONTENT_URI = Uri.parse("content://dummy")
+        createFolders()
+    }
+
+    @After
+    fun tearDown() {
+        preferences.deleteAccount(account)
+    }
+
+    @Test
+    fun replyInOtherFolder_shouldBeInSameThread() {
+        createBackendFolder(INBOX).saveCompleteMessage(createMessage("1", ORIGINAL_MESSAGE_ID))
+        createBackendFolder(SENT).saveCompleteMessage(createMessage("2", REPLY_MESSAGE_ID, ORIGINAL_MESSAGE_ID))
+
+        assertEquals(getThreadRoot(ORIGINAL_MESSAGE_ID), getThreadRoot(REPLY_MESSAGE_ID))
+    }
+
+    @Test
+    fun replyInOtherFolderSavedFirst_shouldReusePlaceholder() {
+        createBackendFolder(SENT).saveCompleteMessage(createMessage("2", REPLY_MESSAGE_ID, ORIGINAL_MESSAGE_ID))
+        createBackendFolder(INBOX).saveCompleteMessage(createMessage("1", ORIGINAL_MESSAGE_ID))
+
+        assertEquals(getThreadRoot(ORIGINAL_MESSAGE_ID), getThreadRoot(REPLY_MESSAGE_ID))
+        assertEquals(0, countEmptyMessages())
+    }
+
+    @Test
+    fun mergeThreadsAcrossFolders_shouldConnectThreadsOfDifferentFolders() {
+        createBackendFolder(SENT).saveCompleteMessage(createMessage("2", REPLY_MESSAGE_ID, ORIGINAL_MESSAGE_ID))
+        insertMessageWithSeparateThread(INBOX, ORIGINAL_MESSAGE_ID)
+        startThreadMerge()
+
+        localStore.mergeThreadsAcrossFolders()
+
+        assertEquals(getThreadRoot(ORIGINAL_MESSAGE_ID), getThreadRoot(REPLY_MESSAGE_ID))
+        assertEquals(0, countEmptyMessages())
+        assertFalse(localStore.mergeThreadsAcrossFolders())
+    }
+
+    private fun createAccount(): Account {
+        // FIXME: This is a hack to get Preferences into a state where it's safe to call newAccount()
+        preferences.clearAccounts()
+
+        return preferences.newAccount()
+    }
+
+    private fun createFolders() {
+        val backendStorage = K9BackendStorage(preferences, account, localStore, emptyList())
+        backendStorage.updateFolders {
+            createFolders(listOf(
+                FolderInfo(INBOX, "Inbox", FolderType.INBOX),
+                FolderInfo(SENT, "Sent", FolderType.SENT)
+            ))
+        }
+    }
+
+    private fun createBackendFolder(folderServerId: String): BackendFolder {
+        return K9BackendFolder(preferences, account, localStore, folderServerId)
+    }
+
+    private fun createMessage(messageServerId: String, messageId: String, inReplyTo: String? = null): Message {
+        return MimeMessage().apply {
+            subject = "Test message"
+            setFrom(Address("alice@domain.example"))
+            setHeader("To", "bob@domain.example")
+            setHeader("Message-ID", messageId)
+            if (inReplyTo != null) {
+                setHeader("In-Reply-To", inReplyTo)
+            }
+            MimeMessageHelper.setBody(this, TextBody("Hello Bob!"))
+
+            uid = messageServerId
+        }
+    }
+
+    /**
+     * Inserts a message the way threading worked when threads were limited to a single folder.
+     */
+    private fun insertMessageWithSeparateThread(folderServerId: String, messageId: String) {
+        database.execute(false) { db ->
+            val folderId = db.query("folders", arrayOf("id"), "server_id = ?", arrayOf(folderServerId),
+                null, null, null).use { cursor ->
+                if (!cursor.moveToFirst()) throw AssertionError("Folder not found")
+                cursor.getLong(0)
+            }
+
+            val databaseId = db.insert("messages", null, contentValuesOf(
+                "folder_id" to folderId,
+                "uid" to "legacy",
+                "message_id" to messageId,
+                "empty" to 0
+            ))
+            db.insert("threads", null, contentValuesOf("message_id" to databaseId))
+        }
+    }
+
+    private fun startThreadMerge() {
+        database.execute(false) { db ->
+            db.insert("account_extra_values", null, contentValuesOf(
+                "name" to "thread_merge_progress",
+                "value_integer" to 0L
+            ))
+        }
+    }
+
+    private fun getThreadRoot(messageId: String): Long {
+        return database.execute(false) { db ->
+            db.rawQuery(
+                "SELECT t.root FROM messages m JOIN threads t ON (t.message_id = m.id) " +
+                    "WHERE m.message_id = ? AND m.empty = 0",
+                arrayOf(messageId)
+            ).use { cursor ->
+                if (!cursor.moveToFirst()) throw AssertionError("Message not found")
+                cursor.getLong(0)
+            }
+        }
+    }
+
+    private fun countEmptyMessages(): Int {
+        return database.execute(false) { db ->
+            db.rawQuery("SELECT COUNT(*) FROM messages WHERE empty = 1", null).use { cursor ->
+                cursor.moveToFirst()
+                cursor.getInt(0)
+            }
+        }
+    }
+
+    companion object {
+        const val INBOX = "inbox"
+        const val SENT = "sent"
+        const val ORIGINAL_MESSAGE_ID = "<original@domain.example>"
+        const val REPLY_MESSAGE_ID = "<reply@domain.example>"
+    }
+}
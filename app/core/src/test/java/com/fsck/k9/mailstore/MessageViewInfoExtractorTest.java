@@ -76,7 +76,7 @@ public class MessageViewInfoExtractorTest extends K9RobolectricTest {
         HtmlProcessor htmlProcessor = createFakeHtmlProcessor();
         attachmentInfoExtractor = spy(DI.get(AttachmentInfoExtractor.class));
         messageViewInfoExtractor = new MessageViewInfoExtractor(attachmentInfoExtractor, htmlProcessor,
-                new TestCoreResourceProvider());
+                new TestCoreResourceProvider(), null, null);
     }
 
     @Test
@@ -93,7 +93,7 @@ public class MessageViewInfoExtractorTest extends K9RobolectricTest {
         HtmlProcessor htmlProcessor = mock(HtmlProcessor.class);
         MessageViewInfoExtractor messageViewInfoExtractor =
                 new MessageViewInfoExtractor(null, htmlProcessor,
-                        new TestCoreResourceProvider());
+                        new TestCoreResourceProvider(), null, null);
         String value = "--sanitized html--";
         when(htmlProcessor.processForDisplay(anyString())).thenReturn(value);
 
@@ -0,0 +1,26 @@
+package com.fsck.k9.search
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+
+class SqlQueryBuilderTest {
+    @Test
+    fun createFulltextQuery_withSingleWord() {
+        assertThat(SqlQueryBuilder.createFulltextQuery("Invoice")).isEqualTo("invoice*")
+    }
+
+    @Test
+    fun createFulltextQuery_withEmailAddress_shouldSplitIntoTerms() {
+        assertThat(SqlQueryBuilder.createFulltextQuery("alice@domain.example")).isEqualTo("alice* domain* example*")
+    }
+
+    @Test
+    fun createFulltextQuery_withQueryOperators_shouldTreatThemAsTerms() {
+        assertThat(SqlQueryBuilder.createFulltextQuery("\"this\" OR -that*")).isEqualTo("this* or* that*")
+    }
+
+    @Test
+    fun createFulltextQuery_withoutSearchableTerms_shouldReturnNull() {
+        assertThat(SqlQueryBuilder.createFulltextQuery(" !?- ")).isNull()
+    }
+}
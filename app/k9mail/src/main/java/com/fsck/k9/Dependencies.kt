@@ -9,6 +9,7 @@ import com.fsck.k9.preferences.K9StoragePersister
 import com.fsck.k9.preferences.StoragePersister
 import com.fsck.k9.resources.resourcesModule
 import com.fsck.k9.storage.storageModule
+import com.fsck.k9.ui.messageview.MessagePrerenderer
 import com.fsck.k9.widget.list.MessageListWidgetUpdateListener
 import com.fsck.k9.widget.list.messageListWidgetModule
 import com.fsck.k9.widget.unread.UnreadWidgetUpdateListener
@@ -21,7 +22,8 @@ private val mainAppModule = module {
     single { MessagingListenerProvider(
             listOf(
                     get<UnreadWidgetUpdateListener>(),
-                    get<MessageListWidgetUpdateListener>()
+                    get<MessageListWidgetUpdateListener>(),
+                    get<MessagePrerenderer>()
             ))
     }
     single(named("controllerExtensions")) { emptyList<ControllerExtension>() }
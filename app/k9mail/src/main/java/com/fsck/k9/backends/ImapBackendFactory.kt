@@ -6,6 +6,7 @@ import com.fsck.k9.Account
 import com.fsck.k9.backend.BackendFactory
 import com.fsck.k9.backend.api.Backend
 import com.fsck.k9.backend.imap.ImapBackend
+import com.fsck.k9.backend.imap.ImapPushConfig
 import com.fsck.k9.backend.imap.ImapStoreUriCreator
 import com.fsck.k9.backend.imap.ImapStoreUriDecoder
 import com.fsck.k9.mail.NetworkType
@@ -32,8 +33,9 @@ class ImapBackendFactory(
         val accountName = account.displayName
         val backendStorage = backendStorageFactory.createBackendStorage(account)
         val imapStore = createImapStore(account)
+        val pushConfig = createPushConfig(account)
         val smtpTransport = createSmtpTransport(account)
-        return ImapBackend(accountName, backendStorage, imapStore, powerManager, smtpTransport)
+        return ImapBackend(accountName, backendStorage, imapStore, powerManager, pushConfig, smtpTransport)
     }
 
     private fun createImapStore(account: Account): ImapStore {
@@ -57,6 +59,24 @@ class ImapBackendFactory(
             override fun isSubscribedFoldersOnly() = account.isSubscribedFoldersOnly
 
             override fun useCompression(type: NetworkType) = account.useCompression(type)
+
+            override val maxPooledConnections
+                get() = account.imapConnectionPoolSize
+
+            override val maxConnections = MAX_CONNECTIONS
+
+            override val connectionWaitTimeout = CONNECTION_WAIT_TIMEOUT
+
+            override val pooledConnectionIdleTimeout = POOLED_CONNECTION_IDLE_TIMEOUT
+
+            override val pooledConnectionCheckInterval = POOLED_CONNECTION_CHECK_INTERVAL
+        }
+    }
+
+    private fun createPushConfig(account: Account): ImapPushConfig {
+        return object : ImapPushConfig {
+            override val idleRefreshMinutes: Int
+                get() = account.idleRefreshMinutes
         }
     }
 
@@ -81,4 +101,11 @@ class ImapBackendFactory(
     override fun createTransportUri(serverSettings: ServerSettings): String {
         return SmtpTransportUriCreator.createSmtpUri(serverSettings)
     }
+
+    companion object {
+        private const val POOLED_CONNECTION_IDLE_TIMEOUT = 5 * 60 * 1000L
+        private const val POOLED_CONNECTION_CHECK_INTERVAL = 30 * 1000L
+        private const val MAX_CONNECTIONS = 8
+        private const val CONNECTION_WAIT_TIMEOUT = 60 * 1000L
+    }
 }
@@ -4,15 +4,16 @@ package com.fsck.k9.external;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.Semaphore;
-import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -38,21 +39,37 @@ import android.provider.BaseColumns;
 import com.fsck.k9.Account;
 import com.fsck.k9.BuildConfig;
 import com.fsck.k9.DI;
+import com.fsck.k9.K9;
 import com.fsck.k9.Preferences;
 import com.fsck.k9.controller.MessageReference;
 import com.fsck.k9.controller.MessagingController;
 import com.fsck.k9.controller.SimpleMessagingListener;
-import com.fsck.k9.mail.Flag;
-import com.fsck.k9.mail.Message;
-import com.fsck.k9.mailstore.LocalMessage;
+import com.fsck.k9.helper.Contacts;
+import com.fsck.k9.helper.MergeCursor;
+import com.fsck.k9.provider.EmailProvider;
+import com.fsck.k9.provider.EmailProvider.SpecialColumns;
+import com.fsck.k9.search.LocalSearch;
 import com.fsck.k9.search.SearchAccount;
+import com.fsck.k9.search.SqlQueryBuilder;
 import timber.log.Timber;
 
+import static com.fsck.k9.search.LocalSearchExtensions.getAccountsFromLocalSearch;
+
 
 public class MessageProvider extends ContentProvider {
     public static String AUTHORITY = BuildConfig.APPLICATION_ID + ".messageprovider";
     public static Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY);
 
+    /**
+     * Maximum number of messages returned by the {@code inbox_messages} URI. By default all messages are returned.
+     */
+    public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+    /**
+     * Number of messages to skip before the first message returned by the {@code inbox_messages} URI.
+     */
+    public static final String QUERY_PARAMETER_OFFSET = "offset";
+
     private static final String[] DEFAULT_MESSAGE_PROJECTION = new String[] {
             MessageColumns._ID,
             MessageColumns.SEND_DATE,
@@ -204,19 +221,6 @@ public class MessageProvider extends ContentProvider {
     }
 
 
-    public static class ReverseDateComparator implements Comparator<MessageInfoHolder> {
-        @Override
-        public int compare(MessageInfoHolder object2, MessageInfoHolder object1) {
-            if (object1.compareDate == null) {
-                return (object2.compareDate == null ? 0 : 1);
-            } else if (object2.compareDate == null) {
-                return -1;
-            } else {
-                return object1.compareDate.compareTo(object2.compareDate);
-            }
-        }
-    }
-
     public interface MessageColumns extends BaseColumns {
         /**
          * The number of milliseconds since Jan. 1, 1970, midnight GMT.
@@ -329,13 +333,12 @@ public class MessageProvider extends ContentProvider {
     }
 
     /**
-     * Extracts the {@link LocalMessage#getDatabaseId() ID} from the given {@link MessageInfoHolder}. The underlying
-     * {@link Message} is expected to be a {@link LocalMessage}.
+     * Extracts the database ID of the message.
      */
-    public static class IdExtractor implements FieldExtractor<MessageInfoHolder, Long> {
+    public static class IdExtractor implements FieldExtractor<MessageRow, Long> {
         @Override
-        public Long getField(MessageInfoHolder source) {
-            return source.message.getDatabaseId();
+        public Long getField(MessageRow source) {
+            return source.getDatabaseId();
         }
     }
 
@@ -352,102 +355,101 @@ public class MessageProvider extends ContentProvider {
         }
     }
 
-    public static class SubjectExtractor implements FieldExtractor<MessageInfoHolder, String> {
+    public static class SubjectExtractor implements FieldExtractor<MessageRow, String> {
         @Override
-        public String getField(MessageInfoHolder source) {
-            return source.message.getSubject();
+        public String getField(MessageRow source) {
+            return source.getSubject();
         }
     }
 
-    public static class SendDateExtractor implements FieldExtractor<MessageInfoHolder, Long> {
+    public static class SendDateExtractor implements FieldExtractor<MessageRow, Long> {
         @Override
-        public Long getField(MessageInfoHolder source) {
-            return source.message.getSentDate().getTime();
+        public Long getField(MessageRow source) {
+            return source.getDate();
         }
     }
 
-    public static class PreviewExtractor implements FieldExtractor<MessageInfoHolder, String> {
+    public static class PreviewExtractor implements FieldExtractor<MessageRow, String> {
         @Override
-        public String getField(MessageInfoHolder source) {
-            return source.message.getPreview();
+        public String getField(MessageRow source) {
+            return source.getPreview();
         }
     }
 
-    public static class UriExtractor implements FieldExtractor<MessageInfoHolder, String> {
+    public static class UriExtractor implements FieldExtractor<MessageRow, String> {
         @Override
-        public String getField(MessageInfoHolder source) {
-            return source.uri;
+        public String getField(MessageRow source) {
+            return source.getUri();
         }
     }
 
-    public static class DeleteUriExtractor implements FieldExtractor<MessageInfoHolder, String> {
+    public static class DeleteUriExtractor implements FieldExtractor<MessageRow, String> {
         @Override
-        public String getField(MessageInfoHolder source) {
-            LocalMessage message = source.message;
-            int accountNumber = message.getAccount().getAccountNumber();
+        public String getField(MessageRow source) {
+            int accountNumber = source.getAccount().getAccountNumber();
             return CONTENT_URI.buildUpon()
                     .appendPath("delete_message")
                     .appendPath(Integer.toString(accountNumber))
-                    .appendPath(Long.toString(message.getFolder().getDatabaseId()))
-                    .appendPath(message.getUid())
+                    .appendPath(Long.toString(source.getFolderId()))
+                    .appendPath(source.getUid())
                     .build()
                     .toString();
         }
     }
 
-    public static class SenderExtractor implements FieldExtractor<MessageInfoHolder, CharSequence> {
+    public static class SenderExtractor implements FieldExtractor<MessageRow, CharSequence> {
         @Override
-        public CharSequence getField(MessageInfoHolder source) {
-            return source.sender;
+        public CharSequence getField(MessageRow source) {
+            return source.getSender();
         }
     }
 
-    public static class SenderAddressExtractor implements FieldExtractor<MessageInfoHolder, String> {
+    public static class SenderAddressExtractor implements FieldExtractor<MessageRow, String> {
         @Override
-        public String getField(MessageInfoHolder source) {
-            return source.senderAddress;
+        public String getField(MessageRow source) {
+            return source.getSenderAddress();
         }
     }
 
-    public static class AccountExtractor implements FieldExtractor<MessageInfoHolder, String> {
+    public static class AccountExtractor implements FieldExtractor<MessageRow, String> {
         @Override
-        public String getField(MessageInfoHolder source) {
-            return source.message.getAccount().getDescription();
+        public String getField(MessageRow source) {
+            return source.getAccount().getDescription();
         }
     }
 
-    public static class AccountColorExtractor implements FieldExtractor<MessageInfoHolder, Integer> {
+    public static class AccountColorExtractor implements FieldExtractor<MessageRow, Integer> {
         @Override
-        public Integer getField(MessageInfoHolder source) {
-            return source.message.getAccount().getChipColor();
+        public Integer getField(MessageRow source) {
+            return source.getAccount().getChipColor();
         }
     }
 
-    public static class AccountNumberExtractor implements FieldExtractor<MessageInfoHolder, Integer> {
+    public static class AccountNumberExtractor implements FieldExtractor<MessageRow, Integer> {
         @Override
-        public Integer getField(MessageInfoHolder source) {
-            return source.message.getAccount().getAccountNumber();
+        public Integer getField(MessageRow source) {
+            return source.getAccount().getAccountNumber();
         }
     }
 
-    public static class HasAttachmentsExtractor implements FieldExtractor<MessageInfoHolder, Boolean> {
+    public static class HasAttachmentsExtractor implements FieldExtractor<MessageRow, Boolean> {
         @Override
-        public Boolean getField(MessageInfoHolder source) {
-            return source.message.hasAttachments();
+        public Boolean getField(MessageRow source) {
+            return source.hasAttachments();
         }
     }
 
-    public static class HasStarExtractor implements FieldExtractor<MessageInfoHolder, Boolean> {
+    public static class HasStarExtractor implements FieldExtractor<MessageRow, Boolean> {
         @Override
-        public Boolean getField(MessageInfoHolder source) {
-            return source.message.isSet(Flag.FLAGGED);
+        public Boolean getField(MessageRow source) {
+            return source.isFlagged();
         }
     }
 
-    public static class UnreadExtractor implements FieldExtractor<MessageInfoHolder, Boolean> {
+    public static class UnreadExtractor implements FieldExtractor<MessageRow, Boolean> {
         @Override
-        public Boolean getField(MessageInfoHolder source) {
-            return !source.read;
+        public Boolean getField(MessageRow source) {
+            return !source.isRead();
         }
     }
 
@@ -455,12 +457,12 @@ public class MessageProvider extends ContentProvider {
      * @deprecated having an incremental value has no real interest, implemented for compatibility only
      */
     @Deprecated
-    public static class IncrementExtractor implements FieldExtractor<MessageInfoHolder, Integer> {
+    public static class IncrementExtractor implements FieldExtractor<MessageRow, Integer> {
         private int count = 0;
 
 
         @Override
-        public Integer getField(MessageInfoHolder source) {
+        public Integer getField(MessageRow source) {
             return count++;
         }
     }
@@ -478,24 +480,30 @@ public class MessageProvider extends ContentProvider {
         @Override
         public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder)
                 throws Exception {
-            return getMessages(projection);
-        }
-
-        protected MatrixCursor getMessages(String[] projection) throws InterruptedException {
-            BlockingQueue<List<MessageInfoHolder>> queue = new SynchronousQueue<>();
-
-            // new code for integrated inbox, only execute this once as it will be processed afterwards via the listener
-            SearchAccount integratedInboxAccount = SearchAccount.createUnifiedInboxAccount();
-            MessagingController msgController = MessagingController.getInstance(getContext());
+            int limit = getIntQueryParameter(uri, QUERY_PARAMETER_LIMIT, -1);
+            int offset = getIntQueryParameter(uri, QUERY_PARAMETER_OFFSET, 0);
 
-            msgController.searchLocalMessages(integratedInboxAccount.getRelatedSearch(),
-                    new MessageInfoHolderRetrieverListener(queue));
-
-            List<MessageInfoHolder> holders = queue.take();
-
-            // TODO add sort order parameter
-            Collections.sort(holders, new ReverseDateComparator());
+            /*
+             * EmailProvider is not exported so third-party apps can't access it directly. For this to work we need to
+             * clear the calling identity.
+             */
+            long identityToken = Binder.clearCallingIdentity();
+            try {
+                return getMessages(projection, limit, offset);
+            } finally {
+                Binder.restoreCallingIdentity(identityToken);
+            }
+        }
 
+        /**
+         * Returns the messages of the unified inbox, newest first.
+         * <p>
+         * For every account only the first {@code offset + limit} messages are queried, sorted by the database.
+         * These per-account cursors are then merged. Only the columns needed for {@code projection} are read and only
+         * the rows of the requested page are copied to the returned cursor.
+         * </p>
+         */
+        protected MatrixCursor getMessages(String[] projection, int limit, int offset) {
             String[] projectionToUse;
             if (projection == null) {
                 projectionToUse = DEFAULT_MESSAGE_PROJECTION;
@@ -503,31 +511,148 @@ public class MessageProvider extends ContentProvider {
                 projectionToUse = projection;
             }
 
-            LinkedHashMap<String, FieldExtractor<MessageInfoHolder, ?>> extractors =
-                    resolveMessageExtractors(projectionToUse, holders.size());
-            int fieldCount = extractors.size();
+            Context context = getContext();
+            Preferences preferences = Preferences.getPreferences(context);
+            LocalSearch search = SearchAccount.createUnifiedInboxAccount().getRelatedSearch();
+            String[] databaseProjection = getDatabaseProjection(projectionToUse);
+            String queryLimit = (limit >= 0) ? Integer.toString(offset + limit) : null;
+
+            Map<String, Account> accounts = new HashMap<>();
+            List<Cursor> cursors = new ArrayList<>();
+            for (Account account : getAccountsFromLocalSearch(search, preferences)) {
+                if (!account.isAvailable(context)) {
+                    continue;
+                }
 
-            String[] actualProjection = extractors.keySet().toArray(new String[fieldCount]);
-            MatrixCursor cursor = new MatrixCursor(actualProjection);
+                Cursor accountCursor = queryMessages(account, search, databaseProjection, queryLimit);
+                if (accountCursor != null) {
+                    accounts.put(account.getUuid(), account);
+                    cursors.add(accountCursor);
+                }
+            }
+
+            Cursor cursor = new MergeCursor(cursors.toArray(new Cursor[0]), new NewestFirstComparator());
+            try {
+                int availableCount = Math.max(0, cursor.getCount() - offset);
+                int count = (limit >= 0) ? Math.min(limit, availableCount) : availableCount;
 
-            for (MessageInfoHolder holder : holders) {
-                Object[] o = new Object[fieldCount];
+                LinkedHashMap<String, FieldExtractor<MessageRow, ?>> extractors =
+                        resolveMessageExtractors(projectionToUse, count);
+                int fieldCount = extractors.size();
 
-                int i = 0;
-                for (FieldExtractor<MessageInfoHolder, ?> extractor : extractors.values()) {
-                    o[i] = extractor.getField(holder);
-                    i += 1;
+                String[] actualProjection = extractors.keySet().toArray(new String[fieldCount]);
+                MatrixCursor result = new MatrixCursor(actualProjection, count);
+                if (count == 0) {
+                    return result;
                 }
 
-                cursor.addRow(o);
+                Contacts contacts = K9.isShowContactName() ? Contacts.getInstance(context) : null;
+                int accountUuidColumn = cursor.getColumnIndexOrThrow(SpecialColumns.ACCOUNT_UUID);
+
+                cursor.moveToPosition(offset - 1);
+                for (int row = 0; row < count && cursor.moveToNext(); row++) {
+                    Account account = accounts.get(cursor.getString(accountUuidColumn));
+                    MessageRow messageRow = new MessageRow(context, cursor, account, contacts);
+
+                    Object[] o = new Object[fieldCount];
+
+                    int i = 0;
+                    for (FieldExtractor<MessageRow, ?> extractor : extractors.values()) {
+                        o[i] = extractor.getField(messageRow);
+                        i += 1;
+                    }
+
+                    result.addRow(o);
+                }
+
+                return result;
+            } finally {
+                cursor.close();
             }
+        }
 
-            return cursor;
+        private Cursor queryMessages(Account account, LocalSearch search, String[] databaseProjection,
+                String queryLimit) {
+            StringBuilder query = new StringBuilder();
+            List<String> queryArgs = new ArrayList<>();
+            SqlQueryBuilder.buildWhereClause(account, search.getConditions(), query, queryArgs);
+
+            Uri.Builder uriBuilder = EmailProvider.CONTENT_URI.buildUpon()
+                    .appendPath("account")
+                    .appendPath(account.getUuid())
+                    .appendPath("messages");
+            if (queryLimit != null) {
+                uriBuilder.appendQueryParameter(EmailProvider.QUERY_PARAMETER_LIMIT, queryLimit);
+            }
+
+            String selection = query.toString();
+            String[] selectionArgs = queryArgs.toArray(new String[0]);
+            String sortOrder = EmailProvider.MessageColumns.DATE + " DESC, " + EmailProvider.MessageColumns.ID +
+                    " DESC";
+
+            return getContext().getContentResolver().query(uriBuilder.build(), databaseProjection, selection,
+                    selectionArgs, sortOrder);
         }
 
-        protected LinkedHashMap<String, FieldExtractor<MessageInfoHolder, ?>> resolveMessageExtractors(
+        /**
+         * Returns the {@link EmailProvider} columns needed to provide the values for {@code projection}.
+         */
+        private String[] getDatabaseProjection(String[] projection) {
+            Set<String> columns = new LinkedHashSet<>();
+            // Needed to sort the merged cursor and to find the account of a message
+            columns.add(EmailProvider.MessageColumns.ID);
+            columns.add(EmailProvider.MessageColumns.DATE);
+            columns.add(SpecialColumns.ACCOUNT_UUID);
+            // Makes EmailProvider join the folders table, which the search conditions of the unified inbox refer to
+            columns.add(SpecialColumns.INTEGRATE);
+
+            for (String field : projection) {
+                if (MessageColumns.SUBJECT.equals(field)) {
+                    columns.add(EmailProvider.MessageColumns.SUBJECT);
+                } else if (MessageColumns.SENDER.equals(field) || MessageColumns.SENDER_ADDRESS.equals(field)) {
+                    columns.add(EmailProvider.MessageColumns.SENDER_LIST);
+                    columns.add(EmailProvider.MessageColumns.TO_LIST);
+                } else if (MessageColumns.PREVIEW.equals(field)) {
+                    columns.add(EmailProvider.MessageColumns.PREVIEW_TYPE);
+                    columns.add(EmailProvider.MessageColumns.PREVIEW);
+                } else if (MessageColumns.URI.equals(field) || MessageColumns.DELETE_URI.equals(field)) {
+                    columns.add(EmailProvider.MessageColumns.FOLDER_ID);
+                    columns.add(EmailProvider.MessageColumns.UID);
+                } else if (MessageColumns.UNREAD.equals(field)) {
+                    columns.add(EmailProvider.MessageColumns.READ);
+                } else if (MessageColumns.HAS_ATTACHMENTS.equals(field)) {
+                    columns.add(EmailProvider.MessageColumns.ATTACHMENT_COUNT);
+                } else if (MessageColumns.HAS_STAR.equals(field)) {
+                    columns.add(EmailProvider.MessageColumns.FLAGGED);
+                }
+            }
+
+            return columns.toArray(new String[0]);
+        }
+
+        private int getIntQueryParameter(Uri uri, String name, int defaultValue) {
+            String value = uri.getQueryParameter(name);
+            if (value == null) {
+                return defaultValue;
+            }
+
+            int intValue;
+            try {
+                intValue = Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid " + name + ": " + value);
+            }
+
+            if (intValue < 0) {
+                throw new IllegalArgumentException("Invalid " + name + ": " + value);
+            }
+
+            return intValue;
+        }
+
+        protected LinkedHashMap<String, FieldExtractor<MessageRow, ?>> resolveMessageExtractors(
                 String[] projection, int count) {
-            LinkedHashMap<String, FieldExtractor<MessageInfoHolder, ?>> extractors = new LinkedHashMap<>();
+            LinkedHashMap<String, FieldExtractor<MessageRow, ?>> extractors = new LinkedHashMap<>();
 
             for (String field : projection) {
                 if (extractors.containsKey(field)) {
@@ -536,7 +661,7 @@ public class MessageProvider extends ContentProvider {
                 if (MessageColumns._ID.equals(field)) {
                     extractors.put(field, new IdExtractor());
                 } else if (MessageColumns._COUNT.equals(field)) {
-                    extractors.put(field, new CountExtractor<MessageInfoHolder>(count));
+                    extractors.put(field, new CountExtractor<MessageRow>(count));
                 } else if (MessageColumns.SUBJECT.equals(field)) {
                     extractors.put(field, new SubjectExtractor());
                 } else if (MessageColumns.SENDER.equals(field)) {
@@ -571,6 +696,24 @@ public class MessageProvider extends ContentProvider {
         }
     }
 
+    /**
+     * Sorts the rows of the message cursors returned by {@link EmailProvider} by date, newest first.
+     */
+    static class NewestFirstComparator implements Comparator<Cursor> {
+        @Override
+        public int compare(Cursor cursor1, Cursor cursor2) {
+            int dateColumn = cursor1.getColumnIndexOrThrow(EmailProvider.MessageColumns.DATE);
+            int idColumn = cursor1.getColumnIndexOrThrow(EmailProvider.MessageColumns.ID);
+
+            int result = Long.compare(cursor2.getLong(dateColumn), cursor1.getLong(dateColumn));
+            if (result != 0) {
+                return result;
+            }
+
+            return Long.compare(cursor2.getLong(idColumn), cursor1.getLong(idColumn));
+        }
+    }
+
     /**
      * Retrieve the account list.
      */
@@ -1037,38 +1180,4 @@ public class MessageProvider extends ContentProvider {
             return wrapped;
         }
     }
-
-    /**
-     * Synchronized listener used to retrieve {@link MessageInfoHolder}s using a given {@link BlockingQueue}.
-     */
-    protected class MessageInfoHolderRetrieverListener extends SimpleMessagingListener {
-        private final BlockingQueue<List<MessageInfoHolder>> queue;
-        private List<MessageInfoHolder> holders = new ArrayList<>();
-
-
-        public MessageInfoHolderRetrieverListener(BlockingQueue<List<MessageInfoHolder>> queue) {
-            this.queue = queue;
-        }
-
-        @Override
-        public void listLocalMessagesAddMessages(Account account, String folderServerId, List<LocalMessage> messages) {
-            Context context = getContext();
-
-            for (LocalMessage message : messages) {
-                Account messageAccount = message.getAccount();
-                MessageInfoHolder messageInfoHolder = MessageInfoHolder.create(context, message, messageAccount);
-
-                holders.add(messageInfoHolder);
-            }
-        }
-
-        @Override
-        public void listLocalMessagesFinished() {
-            try {
-                queue.put(holders);
-            } catch (InterruptedException e) {
-                Timber.e(e, "Unable to return message list back to caller");
-            }
-        }
-    }
 }
@@ -0,0 +1,135 @@
+package com.fsck.k9.external;
+
+
+import android.content.Context;
+import android.database.Cursor;
+import android.text.SpannableStringBuilder;
+
+import com.fsck.k9.Account;
+import com.fsck.k9.R;
+import com.fsck.k9.helper.Contacts;
+import com.fsck.k9.helper.MessageHelper;
+import com.fsck.k9.mail.Address;
+import com.fsck.k9.mailstore.DatabasePreviewType;
+import com.fsck.k9.provider.EmailProvider.MessageColumns;
+
+
+/**
+ * Gives access to the current row of a message cursor returned by {@link com.fsck.k9.provider.EmailProvider}.
+ * <p>
+ * Only the columns needed by the requested fields are part of the cursor. Values that are expensive to compute, like
+ * the sender, are only computed when they are requested.
+ * </p>
+ */
+class MessageRow {
+    private final Context context;
+    private final Cursor cursor;
+    private final Account account;
+    private final Contacts contacts;
+
+    private CharSequence sender;
+    private String senderAddress;
+
+
+    MessageRow(Context context, Cursor cursor, Account account, Contacts contacts) {
+        this.context = context;
+        this.cursor = cursor;
+        this.account = account;
+        this.contacts = contacts;
+    }
+
+    public Account getAccount() {
+        return account;
+    }
+
+    public long getDatabaseId() {
+        return getLong(MessageColumns.ID);
+    }
+
+    public long getFolderId() {
+        return getLong(MessageColumns.FOLDER_ID);
+    }
+
+    public String getUid() {
+        return getString(MessageColumns.UID);
+    }
+
+    public Long getDate() {
+        int columnIndex = cursor.getColumnIndexOrThrow(MessageColumns.DATE);
+        return cursor.isNull(columnIndex) ? null : cursor.getLong(columnIndex);
+    }
+
+    public String getSubject() {
+        return getString(MessageColumns.SUBJECT);
+    }
+
+    public String getPreview() {
+        String previewTypeString = getString(MessageColumns.PREVIEW_TYPE);
+        DatabasePreviewType databasePreviewType = DatabasePreviewType.fromDatabaseValue(previewTypeString);
+        if (databasePreviewType != DatabasePreviewType.TEXT) {
+            return "";
+        }
+
+        return getString(MessageColumns.PREVIEW);
+    }
+
+    public boolean isRead() {
+        return getLong(MessageColumns.READ) == 1;
+    }
+
+    public boolean isFlagged() {
+        return getLong(MessageColumns.FLAGGED) == 1;
+    }
+
+    public boolean hasAttachments() {
+        return getLong(MessageColumns.ATTACHMENT_COUNT) > 0;
+    }
+
+    public String getUri() {
+        return "k9mail://messages/" + account.getAccountNumber() + "/" + getFolderId() + "/" + getUid();
+    }
+
+    public CharSequence getSender() {
+        loadSender();
+        return sender;
+    }
+
+    public String getSenderAddress() {
+        loadSender();
+        return senderAddress;
+    }
+
+    private void loadSender() {
+        if (sender != null) {
+            return;
+        }
+
+        Address[] fromAddresses = Address.unpack(getString(MessageColumns.SENDER_LIST));
+
+        String counterParty;
+        if (fromAddresses.length > 0 && account.isAnIdentity(fromAddresses[0])) {
+            Address[] toAddresses = Address.unpack(getString(MessageColumns.TO_LIST));
+            CharSequence to = MessageHelper.toFriendly(toAddresses, contacts);
+            counterParty = to.toString();
+            sender = new SpannableStringBuilder(context.getString(R.string.message_to_label)).append(to);
+        } else {
+            sender = MessageHelper.toFriendly(fromAddresses, contacts);
+            counterParty = sender.toString();
+        }
+
+        if (fromAddresses.length > 0) {
+            senderAddress = fromAddresses[0].getAddress();
+        } else {
+            // a reasonable fallback "whomever we were corresponding with
+            senderAddress = counterParty;
+        }
+    }
+
+    private String getString(String columnName) {
+        return cursor.getString(cursor.getColumnIndexOrThrow(columnName));
+    }
+
+    private long getLong(String columnName) {
+        return cursor.getLong(cursor.getColumnIndexOrThrow(columnName));
+    }
+}
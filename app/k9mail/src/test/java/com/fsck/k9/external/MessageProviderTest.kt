@@ -0,0 +1,212 @@
+package com.fsck.k9.external
+
+import android.database.Cursor
+import android.net.Uri
+import com.fsck.k9.Account
+import com.fsck.k9.AppRobolectricTest
+import com.fsck.k9.Preferences
+import com.fsck.k9.backend.api.FolderInfo
+import com.fsck.k9.backend.api.updateFolders
+import com.fsck.k9.external.MessageProvider.MessageColumns
+import com.fsck.k9.mail.Address
+import com.fsck.k9.mail.Flag
+import com.fsck.k9.mail.FolderType
+import com.fsck.k9.mail.internet.MimeMessage
+import com.fsck.k9.mail.internet.MimeMessageHelper
+import com.fsck.k9.mail.internet.TextBody
+import com.fsck.k9.mailstore.K9BackendFolder
+import com.fsck.k9.mailstore.K9BackendStorage
+import com.fsck.k9.mailstore.LocalStoreProvider
+import com.fsck.k9.provider.EmailProvider
+import com.google.common.truth.Truth.assertThat
+import java.util.Date
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.koin.core.inject
+import org.robolectric.Robolectric
+import org.robolectric.RuntimeEnvironment
+
+class MessageProviderTest : AppRobolectricTest() {
+    val preferences: Preferences by inject()
+    val localStoreProvider: LocalStoreProvider by inject()
+
+    lateinit var provider: MessageProvider
+    lateinit var account1: Account
+    lateinit var account2: Account
+
+    @Before
+    fun setUp() {
+        val packageName = RuntimeEnvironment.application.packageName
+        Robolectric.setupContentProvider(EmailProvider::class.java, "$packageName.provider.email")
+        provider = Robolectric.setupContentProvider(MessageProvider::class.java, MessageProvider.AUTHORITY)
+
+        // FIXME: This is a hack to get Preferences into a state where it's safe to call newAccount()
+        preferences.clearAccounts()
+        account1 = createAccount("Account 1")
+        account2 = createAccount("Account 2")
+    }
+
+    @After
+    fun tearDown() {
+        preferences.deleteAccount(account1)
+        preferences.deleteAccount(account2)
+    }
+
+    @Test
+    fun inboxMessages_withoutPaging_shouldReturnMessagesOfAllAccountsNewestFirst() {
+        saveMessage(account1, "A1", date = 5000L)
+        saveMessage(account1, "A2", date = 3000L)
+        saveMessage(account1, "A3", date = 1000L)
+        saveMessage(account2, "B1", date = 4000L)
+        saveMessage(account2, "B2", date = 2000L)
+
+        val subjects = querySubjects()
+
+        assertThat(subjects).containsExactly("A1", "B1", "A2", "B2", "A3").inOrder()
+    }
+
+    @Test
+    fun inboxMessages_withPageBoundaryBetweenAccounts_shouldContinueWithNextMessage() {
+        saveMessage(account1, "A1", date = 5000L)
+        saveMessage(account1, "A2", date = 3000L)
+        saveMessage(account1, "A3", date = 1000L)
+        saveMessage(account2, "B1", date = 4000L)
+        saveMessage(account2, "B2", date = 2000L)
+
+        assertThat(querySubjects(limit = 2, offset = 0)).containsExactly("A1", "B1").inOrder()
+        assertThat(querySubjects(limit = 2, offset = 2)).containsExactly("A2", "B2").inOrder()
+    }
+
+    @Test
+    fun inboxMessages_withLastPartialPage_shouldReturnRemainingMessages() {
+        saveMessage(account1, "A1", date = 5000L)
+        saveMessage(account1, "A2", date = 3000L)
+        saveMessage(account1, "A3", date = 1000L)
+        saveMessage(account2, "B1", date = 4000L)
+        saveMessage(account2, "B2", date = 2000L)
+
+        assertThat(querySubjects(limit = 2, offset = 4)).containsExactly("A3")
+        assertThat(querySubjects(limit = 2, offset = 6)).isEmpty()
+    }
+
+    @Test
+    fun inboxMessages_withSameDate_shouldOrderByIdAcrossPages() {
+        saveMessage(account1, "X0", date = 1000L)
+        saveMessage(account1, "X1", date = 2000L)
+        saveMessage(account1, "X2", date = 2000L)
+        saveMessage(account2, "Y1", date = 2000L)
+        val allSubjects = querySubjects()
+
+        for (limit in 1..3) {
+            val pagedSubjects = (0 until allSubjects.size step limit).flatMap { offset ->
+                querySubjects(limit = limit, offset = offset)
+            }
+
+            assertThat(pagedSubjects).containsExactlyElementsIn(allSubjects).inOrder()
+        }
+        assertThat(allSubjects).containsExactly("X2", "X1", "Y1", "X0").inOrder()
+    }
+
+    @Test
+    fun inboxMessages_shouldMapMessageColumns() {
+        saveMessage(account2, "Subject", 1000L, Flag.FLAGGED)
+
+        val projection = arrayOf(
+            MessageColumns.SUBJECT,
+            MessageColumns.SEND_DATE,
+            MessageColumns.SENDER,
+            MessageColumns.SENDER_ADDRESS,
+            MessageColumns.PREVIEW,
+            MessageColumns.ACCOUNT,
+            MessageColumns.UNREAD,
+            MessageColumns.HAS_STAR,
+            MessageColumns.URI
+        )
+        queryInboxMessages(projection).use { cursor ->
+            assertThat(cursor.count).isEqualTo(1)
+            cursor.moveToFirst()
+
+            assertThat(cursor.getString(MessageColumns.SUBJECT)).isEqualTo("Subject")
+            assertThat(cursor.getLong(cursor.getColumnIndexOrThrow(MessageColumns.SEND_DATE))).isEqualTo(1000L)
+            assertThat(cursor.getString(MessageColumns.SENDER)).isEqualTo("Alice")
+            assertThat(cursor.getString(MessageColumns.SENDER_ADDRESS)).isEqualTo("alice@domain.example")
+            assertThat(cursor.getString(MessageColumns.PREVIEW)).isEqualTo("Hello Bob!")
+            assertThat(cursor.getString(MessageColumns.ACCOUNT)).isEqualTo("Account 2")
+            assertThat(cursor.getString(MessageColumns.UNREAD)).isEqualTo("true")
+            assertThat(cursor.getString(MessageColumns.HAS_STAR)).isEqualTo("true")
+            assertThat(cursor.getString(MessageColumns.URI))
+                .startsWith("k9mail://messages/${account2.accountNumber}/")
+        }
+    }
+
+    @Test
+    fun inboxMessages_withPaging_shouldOnlyReturnRequestedColumns() {
+        saveMessage(account1, "A1", date = 1000L)
+
+        queryInboxMessages(arrayOf(MessageColumns.SUBJECT), limit = 1, offset = 0).use { cursor ->
+            assertThat(cursor.columnNames).asList().containsExactly(MessageColumns.SUBJECT)
+        }
+    }
+
+    private fun createAccount(description: String): Account {
+        val account = preferences.newAccount()
+        account.description = description
+
+        val localStore = localStoreProvider.getInstance(account)
+        val backendStorage = K9BackendStorage(preferences, account, localStore, emptyList())
+        backendStorage.updateFolders {
+            createFolders(listOf(FolderInfo(INBOX, "Inbox", FolderType.INBOX)))
+        }
+
+        // The unified inbox contains the messages of folders marked as "integrate"
+        localStore.database.execute(false) { db ->
+            db.execSQL("UPDATE folders SET integrate = 1 WHERE server_id = ?", arrayOf(INBOX))
+        }
+
+        return account
+    }
+
+    private fun saveMessage(account: Account, subject: String, date: Long, vararg flags: Flag) {
+        val message = MimeMessage().apply {
+            this.subject = subject
+            setFrom(Address("alice@domain.example", "Alice"))
+            setHeader("To", "bob@domain.example")
+            setSentDate(Date(date), false)
+            MimeMessageHelper.setBody(this, TextBody("Hello Bob!"))
+
+            uid = subject
+            for (flag in flags) {
+                setFlag(flag, true)
+            }
+        }
+
+        val localStore = localStoreProvider.getInstance(account)
+        K9BackendFolder(preferences, account, localStore, INBOX).saveCompleteMessage(message)
+    }
+
+    private fun querySubjects(limit: Int? = null, offset: Int? = null): List<String> {
+        return queryInboxMessages(arrayOf(MessageColumns.SUBJECT), limit, offset).use { cursor ->
+            val subjects = mutableListOf<String>()
+            while (cursor.moveToNext()) {
+                subjects.add(cursor.getString(0))
+            }
+            subjects
+        }
+    }
+
+    private fun queryInboxMessages(projection: Array<String>, limit: Int? = null, offset: Int? = null): Cursor {
+        val uri = Uri.withAppendedPath(MessageProvider.CONTENT_URI, "inbox_messages/").buildUpon().apply {
+            if (limit != null) appendQueryParameter(MessageProvider.QUERY_PARAMETER_LIMIT, limit.toString())
+            if (offset != null) appendQueryParameter(MessageProvider.QUERY_PARAMETER_OFFSET, offset.toString())
+        }.build()
+
+        return provider.query(uri, projection, null, null, null) ?: throw AssertionError("Query failed")
+    }
+
+    private fun Cursor.getString(columnName: String): String? = getString(getColumnIndexOrThrow(columnName))
+
+    companion object {
+        const val INBOX = "inbox"
+    }
+}
@@ -12,7 +12,7 @@ import timber.log.Timber;
 
 
 class StoreSchemaDefinition implements SchemaDefinition {
-    static final int DB_VERSION = 78;
+    static final int DB_VERSION = 86;
 
     private final MigrationsHelper migrationsHelper;
 
@@ -42,7 +42,8 @@ class StoreSchemaDefinition implements SchemaDefinition {
     }
 
     private void upgradeDatabase(final SQLiteDatabase db) {
-        Timber.i("Upgrading database from version %d to version %d", db.getVersion(), DB_VERSION);
+        int oldVersion = db.getVersion();
+        Timber.i("Upgrading database from version %d to version %d", oldVersion, DB_VERSION);
 
         db.beginTransaction();
         try {
@@ -70,6 +71,8 @@ class StoreSchemaDefinition implements SchemaDefinition {
         if (db.getVersion() != DB_VERSION) {
             throw new RuntimeException("Database upgrade failed!");
         }
+
+        Migrations.cleanUpAfterUpgrade(db, oldVersion, migrationsHelper);
     }
 
     private static void dbCreateDatabaseFromScratch(SQLiteDatabase db) {
@@ -98,7 +101,8 @@ class StoreSchemaDefinition implements SchemaDefinition {
                 "more_messages TEXT default \"unknown\", " +
                 "server_id TEXT, " +
                 "local_only INTEGER, " +
-                "type TEXT DEFAULT \"regular\"" +
+                "type TEXT DEFAULT \"regular\", " +
+                "total_count INTEGER default 0" +
                 ")");
 
         db.execSQL("DROP INDEX IF EXISTS folder_server_id");
@@ -140,7 +144,10 @@ class StoreSchemaDefinition implements SchemaDefinition {
                 "answered INTEGER default 0, " +
                 "forwarded INTEGER default 0, " +
                 "message_part_id INTEGER," +
-                "encryption_type TEXT" +
+                "encryption_type TEXT, " +
+                "fulltext_indexed INTEGER default 0, " +
+                "last_access INTEGER, " +
+                "body_stamp TEXT" +
                 ")");
 
         db.execSQL("DROP TABLE IF EXISTS message_parts");
@@ -162,7 +169,8 @@ class StoreSchemaDefinition implements SchemaDefinition {
                 "epilogue TEXT, " +
                 "boundary TEXT, " +
                 "content_id TEXT, " +
-                "server_extra TEXT" +
+                "server_extra TEXT, " +
+                "blob_id INTEGER" +
                 ")");
 
         db.execSQL("CREATE TRIGGER set_message_part_root " +
@@ -171,6 +179,40 @@ class StoreSchemaDefinition implements SchemaDefinition {
                 "UPDATE message_parts SET root=id WHERE root IS NULL AND ROWID = NEW.ROWID; " +
                 "END");
 
+        db.execSQL("DROP TABLE IF EXISTS attachment_blobs");
+        db.execSQL("CREATE TABLE attachment_blobs (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                "hash TEXT NOT NULL, " +
+                "encoding TEXT NOT NULL, " +
+                "decoded_size INTEGER NOT NULL, " +
+                "ref_count INTEGER NOT NULL DEFAULT 0" +
+                ")");
+
+        db.execSQL("DROP TRIGGER IF EXISTS insert_message_part_blob");
+        db.execSQL("CREATE TRIGGER insert_message_part_blob " +
+                "AFTER INSERT ON message_parts " +
+                "WHEN NEW.blob_id IS NOT NULL " +
+                "BEGIN " +
+                "UPDATE attachment_blobs SET ref_count = ref_count + 1 WHERE id = NEW.blob_id; " +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS update_message_part_blob");
+        db.execSQL("CREATE TRIGGER update_message_part_blob " +
+                "AFTER UPDATE OF blob_id ON message_parts " +
+                "WHEN OLD.blob_id IS NOT NEW.blob_id " +
+                "BEGIN " +
+                "UPDATE attachment_blobs SET ref_count = ref_count - 1 WHERE id = OLD.blob_id; " +
+                "UPDATE attachment_blobs SET ref_count = ref_count + 1 WHERE id = NEW.blob_id; " +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS delete_message_part_blob");
+        db.execSQL("CREATE TRIGGER delete_message_part_blob " +
+                "AFTER DELETE ON message_parts " +
+                "WHEN OLD.blob_id IS NOT NULL " +
+                "BEGIN " +
+                "UPDATE attachment_blobs SET ref_count = ref_count - 1 WHERE id = OLD.blob_id; " +
+                "END");
+
         db.execSQL("CREATE INDEX IF NOT EXISTS msg_uid ON messages (uid, folder_id)");
         db.execSQL("DROP INDEX IF EXISTS msg_folder_id");
         db.execSQL("DROP INDEX IF EXISTS msg_folder_id_date");
@@ -191,6 +233,18 @@ class StoreSchemaDefinition implements SchemaDefinition {
         db.execSQL("DROP INDEX IF EXISTS message_parts_root");
         db.execSQL("CREATE INDEX IF NOT EXISTS message_parts_root ON message_parts (root)");
 
+        db.execSQL("DROP INDEX IF EXISTS attachment_blobs_hash");
+        db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS attachment_blobs_hash ON attachment_blobs (hash, encoding)");
+
+        db.execSQL("DROP INDEX IF EXISTS msg_message_id");
+        db.execSQL("CREATE INDEX IF NOT EXISTS msg_message_id ON messages (message_id)");
+
+        db.execSQL("DROP INDEX IF EXISTS msg_fulltext_pending");
+        db.execSQL("CREATE INDEX IF NOT EXISTS msg_fulltext_pending ON messages (id) WHERE fulltext_indexed = 0");
+
+        db.execSQL("DROP INDEX IF EXISTS msg_last_access");
+        db.execSQL("CREATE INDEX IF NOT EXISTS msg_last_access ON messages (last_access, internal_date)");
+
         db.execSQL("DROP TABLE IF EXISTS threads");
         db.execSQL("CREATE TABLE threads (" +
                 "id INTEGER PRIMARY KEY, " +
@@ -237,6 +291,48 @@ class StoreSchemaDefinition implements SchemaDefinition {
                 "DELETE FROM folder_extra_values WHERE old.id = folder_id; " +
                 "END;");
 
+        db.execSQL("DROP TRIGGER IF EXISTS insert_message_folder_counts");
+        db.execSQL("CREATE TRIGGER insert_message_folder_counts " +
+                "AFTER INSERT ON messages " +
+                "WHEN NEW.empty = 0 AND NEW.deleted = 0 " +
+                "BEGIN " +
+                "UPDATE folders SET " +
+                "total_count = coalesce(total_count, 0) + 1, " +
+                "unread_count = coalesce(unread_count, 0) + (NEW.read = 0), " +
+                "flagged_count = coalesce(flagged_count, 0) + (NEW.flagged = 1) " +
+                "WHERE id = NEW.folder_id; " +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS update_message_folder_counts");
+        db.execSQL("CREATE TRIGGER update_message_folder_counts " +
+                "AFTER UPDATE OF folder_id, empty, deleted, read, flagged ON messages " +
+                "WHEN OLD.folder_id IS NOT NEW.folder_id OR OLD.empty IS NOT NEW.empty OR " +
+                "OLD.deleted IS NOT NEW.deleted OR OLD.read IS NOT NEW.read OR OLD.flagged IS NOT NEW.flagged " +
+                "BEGIN " +
+                "UPDATE folders SET " +
+                "total_count = coalesce(total_count, 0) - 1, " +
+                "unread_count = coalesce(unread_count, 0) - (OLD.read = 0), " +
+                "flagged_count = coalesce(flagged_count, 0) - (OLD.flagged = 1) " +
+                "WHERE id = OLD.folder_id AND OLD.empty = 0 AND OLD.deleted = 0; " +
+                "UPDATE folders SET " +
+                "total_count = coalesce(total_count, 0) + 1, " +
+                "unread_count = coalesce(unread_count, 0) + (NEW.read = 0), " +
+                "flagged_count = coalesce(flagged_count, 0) + (NEW.flagged = 1) " +
+                "WHERE id = NEW.folder_id AND NEW.empty = 0 AND NEW.deleted = 0; " +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS delete_message_folder_counts");
+        db.execSQL("CREATE TRIGGER delete_message_folder_counts " +
+                "AFTER DELETE ON messages " +
+                "WHEN OLD.empty = 0 AND OLD.deleted = 0 " +
+                "BEGIN " +
+                "UPDATE folders SET " +
+                "total_count = coalesce(total_count, 0) - 1, " +
+                "unread_count = coalesce(unread_count, 0) - (OLD.read = 0), " +
+                "flagged_count = coalesce(flagged_count, 0) - (OLD.flagged = 1) " +
+                "WHERE id = OLD.folder_id; " +
+                "END");
+
         db.execSQL("DROP TRIGGER IF EXISTS delete_message");
         db.execSQL("CREATE TRIGGER delete_message " +
                 "BEFORE DELETE ON messages " +
@@ -246,6 +342,7 @@ class StoreSchemaDefinition implements SchemaDefinition {
                 "END");
 
         db.execSQL("DROP TABLE IF EXISTS messages_fulltext");
-        db.execSQL("CREATE VIRTUAL TABLE messages_fulltext USING fts4 (fulltext)");
+        db.execSQL("CREATE VIRTUAL TABLE messages_fulltext USING fts4 (" +
+                "subject, sender, recipients, fulltext, tokenize=unicode61, prefix=\"2,3\")");
     }
 }
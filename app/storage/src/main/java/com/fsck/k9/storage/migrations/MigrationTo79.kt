@@ -0,0 +1,16 @@
+package com.fsck.k9.storage.migrations
+
+import android.database.sqlite.SQLiteDatabase
+
+internal class MigrationTo79(private val db: SQLiteDatabase) {
+    fun addMessageIdIndexAndMergeThreads() {
+        db.execSQL("DROP INDEX IF EXISTS msg_message_id")
+        db.execSQL("CREATE INDEX IF NOT EXISTS msg_message_id ON messages (message_id)")
+
+        // Threads used to be limited to a single folder. Existing threads are connected in the background.
+        // See LocalStore.mergeThreadsAcrossFolders()
+        db.execSQL(
+            "INSERT OR REPLACE INTO account_extra_values (name, value_integer) VALUES ('thread_merge_progress', 0)"
+        )
+    }
+}
@@ -0,0 +1,35 @@
+package com.fsck.k9.storage.migrations
+
+import android.database.sqlite.SQLiteDatabase
+
+/**
+ * Add subject and addresses to the full-text index so searching these fields doesn't require a full table scan.
+ */
+internal class MigrationTo80(private val db: SQLiteDatabase) {
+    fun addHeadersToFulltextIndex() {
+        db.execSQL("DROP TABLE IF EXISTS fulltext_backup")
+        db.execSQL("CREATE TEMPORARY TABLE fulltext_backup AS SELECT docid, fulltext FROM messages_fulltext")
+
+        db.execSQL("DROP TABLE IF EXISTS messages_fulltext")
+        db.execSQL(
+            "CREATE VIRTUAL TABLE messages_fulltext USING fts4 (" +
+                "subject, sender, recipients, fulltext, tokenize=unicode61, prefix=\"2,3\")"
+        )
+
+        // Address lists are stored with NUL characters as separators
+        db.execSQL(
+            "INSERT INTO messages_fulltext (docid, subject, sender, recipients, fulltext) " +
+                "SELECT m.id, m.subject, " +
+                "replace(m.sender_list, char(0), ' '), " +
+                "replace(" +
+                "coalesce(m.to_list, '') || ' ' || coalesce(m.cc_list, '') || ' ' || coalesce(m.bcc_list, ''), " +
+                "char(0), ' '), " +
+                "b.fulltext " +
+                "FROM messages m " +
+                "LEFT JOIN fulltext_backup b ON (b.docid = m.id) " +
+                "WHERE m.empty = 0 AND m.deleted = 0"
+        )
+
+        db.execSQL("DROP TABLE fulltext_backup")
+    }
+}
@@ -0,0 +1,18 @@
+package com.fsck.k9.storage.migrations
+
+import android.database.sqlite.SQLiteDatabase
+
+/**
+ * Keep track of which messages have been added to the full-text index. Indexing is done in the background.
+ */
+internal class MigrationTo81(private val db: SQLiteDatabase) {
+    fun addFulltextIndexedColumn() {
+        db.execSQL("ALTER TABLE messages ADD fulltext_indexed INTEGER default 0")
+
+        // The full-text index of existing messages was created when they were saved
+        db.execSQL("UPDATE messages SET fulltext_indexed = 1")
+
+        db.execSQL("DROP INDEX IF EXISTS msg_fulltext_pending")
+        db.execSQL("CREATE INDEX IF NOT EXISTS msg_fulltext_pending ON messages (id) WHERE fulltext_indexed = 0")
+    }
+}
@@ -0,0 +1,72 @@
+package com.fsck.k9.storage.migrations
+
+import android.database.sqlite.SQLiteDatabase
+
+/**
+ * Keep track of the number of unread, flagged, and total messages per folder using triggers, so these numbers don't
+ * have to be counted every time they are displayed.
+ */
+internal class MigrationTo82(private val db: SQLiteDatabase) {
+    fun addFolderCounts() {
+        db.execSQL("ALTER TABLE folders ADD total_count INTEGER default 0")
+
+        db.execSQL("DROP TRIGGER IF EXISTS insert_message_folder_counts")
+        db.execSQL(
+            "CREATE TRIGGER insert_message_folder_counts " +
+                "AFTER INSERT ON messages " +
+                "WHEN NEW.empty = 0 AND NEW.deleted = 0 " +
+                "BEGIN " +
+                "UPDATE folders SET " +
+                "total_count = coalesce(total_count, 0) + 1, " +
+                "unread_count = coalesce(unread_count, 0) + (NEW.read = 0), " +
+                "flagged_count = coalesce(flagged_count, 0) + (NEW.flagged = 1) " +
+                "WHERE id = NEW.folder_id; " +
+                "END"
+        )
+
+        db.execSQL("DROP TRIGGER IF EXISTS update_message_folder_counts")
+        db.execSQL(
+            "CREATE TRIGGER update_message_folder_counts " +
+                "AFTER UPDATE OF folder_id, empty, deleted, read, flagged ON messages " +
+                "WHEN OLD.folder_id IS NOT NEW.folder_id OR OLD.empty IS NOT NEW.empty OR " +
+                "OLD.deleted IS NOT NEW.deleted OR OLD.read IS NOT NEW.read OR OLD.flagged IS NOT NEW.flagged " +
+                "BEGIN " +
+                "UPDATE folders SET " +
+                "total_count = coalesce(total_count, 0) - 1, " +
+                "unread_count = coalesce(unread_count, 0) - (OLD.read = 0), " +
+                "flagged_count = coalesce(flagged_count, 0) - (OLD.flagged = 1) " +
+                "WHERE id = OLD.folder_id AND OLD.empty = 0 AND OLD.deleted = 0; " +
+                "UPDATE folders SET " +
+                "total_count = coalesce(total_count, 0) + 1, " +
+                "unread_count = coalesce(unread_count, 0) + (NEW.read = 0), " +
+                "flagged_count = coalesce(flagged_count, 0) + (NEW.flagged = 1) " +
+                "WHERE id = NEW.folder_id AND NEW.empty = 0 AND NEW.deleted = 0; " +
+                "END"
+        )
+
+        db.execSQL("DROP TRIGGER IF EXISTS delete_message_folder_counts")
+        db.execSQL(
+            "CREATE TRIGGER delete_message_folder_counts " +
+                "AFTER DELETE ON messages " +
+                "WHEN OLD.empty = 0 AND OLD.deleted = 0 " +
+                "BEGIN " +
+                "UPDATE folders SET " +
+                "total_count = coalesce(total_count, 0) - 1, " +
+                "unread_count = coalesce(unread_count, 0) - (OLD.read = 0), " +
+                "flagged_count = coalesce(flagged_count, 0) - (OLD.flagged = 1) " +
+                "WHERE id = OLD.folder_id; " +
+                "END"
+        )
+
+        // Initialize the counts. See LocalStore.repairFolderCounts()
+        db.execSQL(
+            "UPDATE folders SET " +
+                "total_count = (SELECT COUNT(*) FROM messages " +
+                "WHERE folder_id = folders.id AND empty = 0 AND deleted = 0), " +
+                "unread_count = (SELECT COUNT(*) FROM messages " +
+                "WHERE folder_id = folders.id AND empty = 0 AND deleted = 0 AND read = 0), " +
+                "flagged_count = (SELECT COUNT(*) FROM messages " +
+                "WHERE folder_id = folders.id AND empty = 0 AND deleted = 0 AND flagged = 1)"
+        )
+    }
+}
@@ -0,0 +1,198 @@
+package com.fsck.k9.storage.migrations
+
+import android.content.ContentValues
+import android.database.sqlite.SQLiteDatabase
+import com.fsck.k9.mailstore.AttachmentBlobStore
+import com.fsck.k9.mailstore.MigrationsHelper
+import java.io.File
+import java.io.IOException
+import org.apache.james.mime4j.util.MimeUtil
+import timber.log.Timber
+
+/**
+ * Move the files of message parts stored on disk into the content-addressed attachment blob store.
+ *
+ * Before, every message part had its own file named after the message part ID. Now message parts reference a row in
+ * `attachment_blobs` via `message_parts.blob_id` and parts with the same content share one file.
+ *
+ * The files are moved, not copied. If a file can't be moved, its message part keeps using the old file (`blob_id` stays
+ * `NULL`). If the migration fails, the files that were already moved are put back so the old database can still find
+ * them.
+ */
+internal class MigrationTo83(private val db: SQLiteDatabase, private val migrationsHelper: MigrationsHelper) {
+    fun addAttachmentBlobs() {
+        createAttachmentBlobsTable()
+
+        val attachmentDirectory = migrationsHelper.attachmentDirectory
+        moveMessagePartFilesToBlobStore(attachmentDirectory)
+    }
+
+    private fun createAttachmentBlobsTable() {
+        db.execSQL("DROP TABLE IF EXISTS attachment_blobs")
+        db.execSQL(
+            "CREATE TABLE attachment_blobs (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                "hash TEXT NOT NULL, " +
+                "encoding TEXT NOT NULL, " +
+                "decoded_size INTEGER NOT NULL, " +
+                "ref_count INTEGER NOT NULL DEFAULT 0" +
+                ")"
+        )
+
+        db.execSQL("DROP INDEX IF EXISTS attachment_blobs_hash")
+        db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS attachment_blobs_hash ON attachment_blobs (hash, encoding)")
+
+        db.execSQL("ALTER TABLE message_parts ADD blob_id INTEGER")
+
+        db.execSQL("DROP TRIGGER IF EXISTS insert_message_part_blob")
+        db.execSQL(
+            "CREATE TRIGGER insert_message_part_blob " +
+                "AFTER INSERT ON message_parts " +
+                "WHEN NEW.blob_id IS NOT NULL " +
+                "BEGIN " +
+                "UPDATE attachment_blobs SET ref_count = ref_count + 1 WHERE id = NEW.blob_id; " +
+                "END"
+        )
+
+        db.execSQL("DROP TRIGGER IF EXISTS update_message_part_blob")
+        db.execSQL(
+            "CREATE TRIGGER update_message_part_blob " +
+                "AFTER UPDATE OF blob_id ON message_parts " +
+                "WHEN OLD.blob_id IS NOT NEW.blob_id " +
+                "BEGIN " +
+                "UPDATE attachment_blobs SET ref_count = ref_count - 1 WHERE id = OLD.blob_id; " +
+                "UPDATE attachment_blobs SET ref_count = ref_count + 1 WHERE id = NEW.blob_id; " +
+                "END"
+        )
+
+        db.execSQL("DROP TRIGGER IF EXISTS delete_message_part_blob")
+        db.execSQL(
+            "CREATE TRIGGER delete_message_part_blob " +
+                "AFTER DELETE ON message_parts " +
+                "WHEN OLD.blob_id IS NOT NULL " +
+                "BEGIN " +
+                "UPDATE attachment_blobs SET ref_count = ref_count - 1 WHERE id = OLD.blob_id; " +
+                "END"
+        )
+    }
+
+    private fun moveMessagePartFilesToBlobStore(attachmentDirectory: File) {
+        val attachmentBlobStore = AttachmentBlobStore(attachmentDirectory)
+        val movedFiles = mutableListOf<MovedFile>()
+
+        try {
+            for (messagePart in getMessagePartsStoredOnDisk()) {
+                val file = File(attachmentDirectory, messagePart.id.toString())
+                if (!file.exists()) {
+                    Timber.w("File of message part %d is missing", messagePart.id)
+                    markMessagePartAsMissing(messagePart.id)
+                    continue
+                }
+
+                try {
+                    // storeBlob() moves the file into the store or deletes it if the store already has the same bytes
+                    val blob = attachmentBlobStore.storeBlob(db, file, messagePart.encoding)
+                    movedFiles.add(MovedFile(file, attachmentBlobStore.getBlobFile(blob.id)))
+
+                    val values = ContentValues().apply {
+                        put("blob_id", blob.id)
+                    }
+                    db.update("message_parts", values, "id = ?", arrayOf(messagePart.id.toString()))
+                } catch (e: IOException) {
+                    // storeBlob() only removes the file once it's stored, so the message part can keep using it
+                    Timber.e(e, "Error moving file of message part %d to the blob store", messagePart.id)
+                }
+            }
+        } catch (e: Exception) {
+            restoreMessagePartFiles(movedFiles)
+            throw e
+        }
+    }
+
+    /**
+     * The database changes are rolled back when the migration fails. Put the files back where the old database
+     * expects them.
+     */
+    private fun restoreMessagePartFiles(movedFiles: List<MovedFile>) {
+        for ((file, blobFile) in movedFiles) {
+            try {
+                if (!file.exists()) {
+                    blobFile.copyTo(file)
+                }
+            } catch (e: IOException) {
+                Timber.e(e, "Error restoring file: %s", file.absolutePath)
+            }
+        }
+    }
+
+    private fun getMessagePartsStoredOnDisk(): List<MessagePart> {
+        return db.query(
+            "message_parts",
+            arrayOf("id", "encoding"),
+            "data_location = $DATA_LOCATION_ON_DISK",
+            null,
+            null,
+            null,
+            null
+        ).use { cursor ->
+            val messageParts = mutableListOf<MessagePart>()
+            while (cursor.moveToNext()) {
+                val id = cursor.getLong(0)
+                val encoding = cursor.getString(1) ?: MimeUtil.ENC_7BIT
+                messageParts.add(MessagePart(id, encoding))
+            }
+            messageParts
+        }
+    }
+
+    private fun markMessagePartAsMissing(messagePartId: Long) {
+        val values = ContentValues().apply {
+            put("data_location", DATA_LOCATION_MISSING)
+        }
+        db.update("message_parts", values, "id = ?", arrayOf(messagePartId.toString()))
+    }
+
+    private class MessagePart(val id: Long, val encoding: String)
+
+    private data class MovedFile(val file: File, val blobFile: File)
+
+    companion object {
+        private const val DATA_LOCATION_MISSING = 0
+        private const val DATA_LOCATION_ON_DISK = 2
+
+        /**
+         * Deletes the files of message parts that were named after the message part ID, except the ones still used
+         * by message parts that couldn't be moved to the blob store.
+         *
+         * Must only be called after the migration has been committed.
+         */
+        fun deleteMessagePartFiles(db: SQLiteDatabase, attachmentDirectory: File) {
+            val files = attachmentDirectory.listFiles() ?: return
+            val usedMessagePartIds = getMessagePartIdsWithoutBlob(db)
+            for (file in files) {
+                val messagePartId = file.name.toLongOrNull() ?: continue
+                if (messagePartId !in usedMessagePartIds && !file.delete()) {
+                    Timber.d("Couldn't delete old message part file: %s", file.absolutePath)
+                }
+            }
+        }
+
+        private fun getMessagePartIdsWithoutBlob(db: SQLiteDatabase): Set<Long> {
+            return db.query(
+                "message_parts",
+                arrayOf("id"),
+                "data_location = $DATA_LOCATION_ON_DISK AND blob_id IS NULL",
+                null,
+                null,
+                null,
+                null
+            ).use { cursor ->
+                val messagePartIds = mutableSetOf<Long>()
+                while (cursor.moveToNext()) {
+                    messagePartIds.add(cursor.getLong(0))
+                }
+                messagePartIds
+            }
+        }
+    }
+}
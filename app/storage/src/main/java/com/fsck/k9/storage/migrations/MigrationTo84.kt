@@ -0,0 +1,13 @@
+package com.fsck.k9.storage.migrations
+
+import android.database.sqlite.SQLiteDatabase
+
+/**
+ * Keep track of when a message was last opened, so the bodies of messages that haven't been used in a while can be
+ * removed when the account exceeds its local storage limit.
+ */
+internal class MigrationTo84(private val db: SQLiteDatabase) {
+    fun addLastAccessColumn() {
+        db.execSQL("ALTER TABLE messages ADD last_access INTEGER")
+    }
+}
@@ -0,0 +1,13 @@
+package com.fsck.k9.storage.migrations
+
+import android.database.sqlite.SQLiteDatabase
+
+/**
+ * Add an index that allows finding the least recently used messages without scanning the whole `messages` table.
+ */
+internal class MigrationTo85(private val db: SQLiteDatabase) {
+    fun createLastAccessIndex() {
+        db.execSQL("DROP INDEX IF EXISTS msg_last_access")
+        db.execSQL("CREATE INDEX IF NOT EXISTS msg_last_access ON messages (last_access, internal_date)")
+    }
+}
@@ -0,0 +1,14 @@
+package com.fsck.k9.storage.migrations
+
+import android.database.sqlite.SQLiteDatabase
+
+/**
+ * Add a column that changes whenever the body of a message is stored or removed, so rendered versions of the old body
+ * are never mistaken for the new one.
+ */
+internal class MigrationTo86(private val db: SQLiteDatabase) {
+    fun addBodyStampColumn() {
+        db.execSQL("ALTER TABLE messages ADD body_stamp TEXT")
+        db.execSQL("UPDATE messages SET body_stamp = hex(randomblob(16)) WHERE message_part_id IS NOT NULL")
+    }
+}
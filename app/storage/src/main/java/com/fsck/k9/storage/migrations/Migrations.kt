@@ -24,5 +24,21 @@ object Migrations {
         if (oldVersion < 76) MigrationTo76(db, migrationsHelper).cleanUpSpecialLocalFolders()
         // 77: No longer necessary
         if (oldVersion < 78) MigrationTo78(db).removeServerIdFromLocalFolders()
+        if (oldVersion < 79) MigrationTo79(db).addMessageIdIndexAndMergeThreads()
+        if (oldVersion < 80) MigrationTo80(db).addHeadersToFulltextIndex()
+        if (oldVersion < 81) MigrationTo81(db).addFulltextIndexedColumn()
+        if (oldVersion < 82) MigrationTo82(db).addFolderCounts()
+        if (oldVersion < 83) MigrationTo83(db, migrationsHelper).addAttachmentBlobs()
+        if (oldVersion < 84) MigrationTo84(db).addLastAccessColumn()
+        if (oldVersion < 85) MigrationTo85(db).createLastAccessIndex()
+        if (oldVersion < 86) MigrationTo86(db).addBodyStampColumn()
+    }
+
+    /**
+     * Performs changes outside of the database that must only happen once [upgradeDatabase] has been committed.
+     */
+    @JvmStatic
+    fun cleanUpAfterUpgrade(db: SQLiteDatabase, oldVersion: Int, migrationsHelper: MigrationsHelper) {
+        if (oldVersion < 83) MigrationTo83.deleteMessagePartFiles(db, migrationsHelper.attachmentDirectory)
     }
 }
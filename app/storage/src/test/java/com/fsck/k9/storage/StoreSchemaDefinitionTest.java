@@ -1,6 +1,7 @@
 package com.fsck.k9.storage;
 
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -386,6 +387,11 @@ public class StoreSchemaDefinitionTest extends K9RobolectricTest {
             public void saveAccount() {
                 // Do nothing
             }
+
+            @Override
+            public File getAttachmentDirectory() {
+                return new File(RuntimeEnvironment.application.getFilesDir(), "attachments");
+            }
         };
 
         return new StoreSchemaDefinition(migrationsHelper);
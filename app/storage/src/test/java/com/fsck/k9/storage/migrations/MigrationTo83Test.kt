@@ -0,0 +1,132 @@
+package com.fsck.k9.storage.migrations
+
+import android.database.sqlite.SQLiteDatabase
+import com.fsck.k9.Account
+import com.fsck.k9.mailstore.AttachmentBlobStore
+import com.fsck.k9.mailstore.MigrationsHelper
+import com.fsck.k9.storage.RobolectricTest
+import java.io.File
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+class MigrationTo83Test : RobolectricTest() {
+    @get:Rule
+    val temporaryFolder = TemporaryFolder()
+
+    private lateinit var attachmentDirectory: File
+    private lateinit var db: SQLiteDatabase
+
+    @Before
+    fun setUp() {
+        attachmentDirectory = temporaryFolder.newFolder("attachments")
+        db = createV82Database()
+    }
+
+    @Test
+    fun addAttachmentBlobs_shouldMoveFileIntoBlobStore() {
+        val file = createMessagePart(id = 1, content = "Hello Bob!")
+
+        migrate()
+
+        val blobId = getBlobId(messagePartId = 1)
+        assertNotNull(blobId)
+        assertFalse(file.exists())
+        assertEquals("Hello Bob!", AttachmentBlobStore(attachmentDirectory).getBlobFile(blobId!!).readText())
+    }
+
+    @Test
+    fun addAttachmentBlobs_withMissingFile_shouldMarkMessagePartAsMissing() {
+        createMessagePart(id = 1, content = "Hello Bob!").delete()
+
+        migrate()
+
+        assertEquals(DATA_LOCATION_MISSING, getDataLocation(messagePartId = 1))
+    }
+
+    @Test
+    fun addAttachmentBlobs_withFileThatCantBeMoved_shouldKeepUsingOriginalFile() {
+        val file = createMessagePart(id = 1, content = "Hello Bob!")
+        // A non-empty directory where the first blob file would go makes moving the file fail
+        val blockingDirectory = File(attachmentDirectory, "blob_1").apply { mkdir() }
+        File(blockingDirectory, "file").writeText("blocker")
+
+        migrate()
+        MigrationTo83.deleteMessagePartFiles(db, attachmentDirectory)
+
+        assertNull(getBlobId(messagePartId = 1))
+        assertEquals(DATA_LOCATION_ON_DISK, getDataLocation(messagePartId = 1))
+        assertTrue(file.exists())
+        val messagePartFile = AttachmentBlobStore(attachmentDirectory).getMessagePartFile(1, null)
+        assertEquals("Hello Bob!", messagePartFile.readText())
+    }
+
+    @Test
+    fun deleteMessagePartFiles_shouldDeleteFilesNotUsedByMessageParts() {
+        createMessagePart(id = 1, content = "Hello Bob!")
+        val unusedFile = File(attachmentDirectory, "2").apply { writeText("unused") }
+
+        migrate()
+        MigrationTo83.deleteMessagePartFiles(db, attachmentDirectory)
+
+        assertFalse(unusedFile.exists())
+    }
+
+    private fun createV82Database(): SQLiteDatabase {
+        return SQLiteDatabase.create(null).apply {
+            execSQL(
+                "CREATE TABLE message_parts (" +
+                    "id INTEGER PRIMARY KEY, " +
+                    "data_location INTEGER NOT NULL, " +
+                    "encoding TEXT" +
+                    ")"
+            )
+        }
+    }
+
+    private fun createMessagePart(id: Long, content: String): File {
+        db.execSQL(
+            "INSERT INTO message_parts (id, data_location, encoding) VALUES (?, ?, '7bit')",
+            arrayOf(id, DATA_LOCATION_ON_DISK)
+        )
+
+        return File(attachmentDirectory, id.toString()).apply { writeText(content) }
+    }
+
+    private fun migrate() {
+        val migrationsHelper = object : MigrationsHelper {
+            override fun getAccount(): Account = throw UnsupportedOperationException()
+            override fun saveAccount() = Unit
+            override fun getAttachmentDirectory() = attachmentDirectory
+        }
+
+        MigrationTo83(db, migrationsHelper).addAttachmentBlobs()
+    }
+
+    private fun getBlobId(messagePartId: Long): Long? {
+        return db.rawQuery("SELECT blob_id FROM message_parts WHERE id = ?", arrayOf(messagePartId.toString()))
+            .use { cursor ->
+                assertTrue(cursor.moveToFirst())
+                if (cursor.isNull(0)) null else cursor.getLong(0)
+            }
+    }
+
+    private fun getDataLocation(messagePartId: Long): Int {
+        return db.rawQuery("SELECT data_location FROM message_parts WHERE id = ?", arrayOf(messagePartId.toString()))
+            .use { cursor ->
+                assertTrue(cursor.moveToFirst())
+                cursor.getInt(0)
+            }
+    }
+
+    companion object {
+        private const val DATA_LOCATION_MISSING = 0
+        private const val DATA_LOCATION_ON_DISK = 2
+    }
+}
@@ -3,7 +3,9 @@ package com.fsck.k9.account
 import com.fsck.k9.Core
 import com.fsck.k9.Preferences
 import com.fsck.k9.controller.MessagingController
+import com.fsck.k9.job.K9JobManager
 import com.fsck.k9.mailstore.LocalStoreProvider
+import com.fsck.k9.mailstore.MessageRenderCache
 import timber.log.Timber
 
 /**
@@ -12,7 +14,9 @@ import timber.log.Timber
 class AccountRemover(
     private val localStoreProvider: LocalStoreProvider,
     private val messagingController: MessagingController,
-    private val preferences: Preferences
+    private val preferences: Preferences,
+    private val jobManager: K9JobManager,
+    private val messageRenderCache: MessageRenderCache
 ) {
 
     fun removeAccount(accountUuid: String) {
@@ -25,6 +29,8 @@ class AccountRemover(
         val accountName = account.description
         Timber.v("Removing account '%s'…", accountName)
 
+        jobManager.stopPusherAndWait(account)
+
         try {
             val localStore = localStoreProvider.getInstance(account)
             localStore.delete()
@@ -34,6 +40,9 @@ class AccountRemover(
             // Ignore, this may lead to localStores on sd-cards that are currently not inserted to be left
         }
 
+        // Rendered messages are kept outside of the message database
+        messageRenderCache.removeAccount(accountUuid)
+
         messagingController.deleteAccount(account)
         preferences.deleteAccount(account)
         Core.setServicesEnabled()
@@ -3,7 +3,7 @@ package com.fsck.k9.account
 import org.koin.dsl.module
 
 val accountModule = module {
-    factory { AccountRemover(get(), get(), get()) }
+    factory { AccountRemover(get(), get(), get(), get(), get()) }
     factory { BackgroundAccountRemover(get()) }
     factory { AccountCreator(get(), get()) }
 }
@@ -1,7 +1,30 @@
 package com.fsck.k9.activity
 
+import com.fsck.k9.helper.NamedThreadFactory
+import com.fsck.k9.ui.messageview.MessagePrerenderer
+import com.fsck.k9.ui.messageview.MessageViewPrefetcher
+import java.util.concurrent.Executors
 import org.koin.dsl.module
 
 val activityModule = module {
-    single { MessageLoaderHelperFactory(get(), get()) }
+    single { MessageLoaderHelperFactory(get(), get(), get()) }
+    single {
+        MessagePrerenderer(
+            localStoreProvider = get(),
+            messageViewInfoExtractorFactory = get(),
+            htmlSettingsProvider = get(),
+            executor = Executors.newSingleThreadExecutor(NamedThreadFactory("MessagePrerenderer"))
+        )
+    }
+    single {
+        MessageViewPrefetcher(
+            context = get(),
+            preferences = get(),
+            messagingController = get(),
+            localStoreProvider = get(),
+            messageViewInfoExtractorFactory = get(),
+            htmlSettingsProvider = get(),
+            executor = Executors.newSingleThreadExecutor(NamedThreadFactory("MessageViewPrefetcher"))
+        )
+    }
 }
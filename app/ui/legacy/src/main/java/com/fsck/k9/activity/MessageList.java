@@ -59,6 +59,7 @@ import com.fsck.k9.ui.managefolders.ManageFoldersActivity;
 import com.fsck.k9.ui.messagelist.DefaultFolderProvider;
 import com.fsck.k9.ui.messageview.MessageViewFragment;
 import com.fsck.k9.ui.messageview.MessageViewFragment.MessageViewFragmentListener;
+import com.fsck.k9.ui.messageview.MessageViewPrefetcher;
 import com.fsck.k9.ui.messageview.PlaceholderFragment;
 import com.fsck.k9.ui.onboarding.OnboardingActivity;
 import com.fsck.k9.ui.permissions.K9PermissionUiHelper;
@@ -184,6 +185,7 @@ public class MessageList extends K9Activity implements MessageListFragmentListen
     private final Preferences preferences = DI.get(Preferences.class);
     private final NotificationChannelManager channelUtils = DI.get(NotificationChannelManager.class);
     private final DefaultFolderProvider defaultFolderProvider = DI.get(DefaultFolderProvider.class);
+    private final MessageViewPrefetcher messageViewPrefetcher = DI.get(MessageViewPrefetcher.class);
 
     private final PermissionUiHelper permissionUiHelper = new K9PermissionUiHelper(this);
 
@@ -1270,7 +1272,19 @@ public class MessageList extends K9Activity implements MessageListFragmentListen
             if (displayMode != DisplayMode.SPLIT_VIEW) {
                 showMessageView();
             }
+
+            prefetchAdjacentMessages(messageReference);
+        }
+    }
+
+    private void prefetchAdjacentMessages(MessageReference messageReference) {
+        if (messageListFragment == null) {
+            return;
         }
+
+        List<MessageReference> messageReferences =
+                messageListFragment.getAdjacentMessageReferences(messageReference);
+        messageViewPrefetcher.prefetch(messageReferences);
     }
 
     @Override
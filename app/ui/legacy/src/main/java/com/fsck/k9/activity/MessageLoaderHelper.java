@@ -24,6 +24,7 @@ import com.fsck.k9.controller.MessagingController;
 import com.fsck.k9.controller.MessagingListener;
 import com.fsck.k9.controller.SimpleMessagingListener;
 import com.fsck.k9.helper.RetainFragment;
+import com.fsck.k9.helper.Utility;
 import com.fsck.k9.mail.Flag;
 import com.fsck.k9.mail.MessagingException;
 import com.fsck.k9.mailstore.LocalMessage;
@@ -35,6 +36,7 @@ import com.fsck.k9.ui.crypto.MessageCryptoHelper;
 import com.fsck.k9.ui.crypto.OpenPgpApiFactory;
 import com.fsck.k9.ui.message.LocalMessageExtractorLoader;
 import com.fsck.k9.ui.message.LocalMessageLoader;
+import com.fsck.k9.ui.messageview.MessageViewPrefetcher;
 import org.openintents.openpgp.OpenPgpDecryptionResult;
 import timber.log.Timber;
 
@@ -46,7 +48,8 @@ import timber.log.Timber;
  *  - load raw message data from the database, using LocalMessageLoader
  *  - download partial message content if it is missing using MessagingController
  *  - apply crypto operations if applicable, using MessageCryptoHelper
- *  - extract MessageViewInfo from the message and crypto data using DecodeMessageLoader
+ *  - extract MessageViewInfo from the message and crypto data using DecodeMessageLoader, unless
+ *    MessageViewPrefetcher already did that
  *  - download complete message content for partially downloaded messages if requested
  *
  * No state is retained in this object itself. Instead, state is stored in the
@@ -85,6 +88,8 @@ public class MessageLoaderHelper {
     @Nullable // make this explicitly nullable, make sure to cancel/ignore any operation if this is null
     private MessageLoaderCallbacks callback;
     private final MessageViewInfoExtractor messageViewInfoExtractor;
+    @Nullable
+    private final MessageViewPrefetcher messageViewPrefetcher;
     private Handler handler = new Handler(Looper.getMainLooper());
 
     // transient state
@@ -100,12 +105,14 @@ public class MessageLoaderHelper {
 
 
     public MessageLoaderHelper(Context context, LoaderManager loaderManager, FragmentManager fragmentManager,
-            @NonNull MessageLoaderCallbacks callback, MessageViewInfoExtractor messageViewInfoExtractor) {
+            @NonNull MessageLoaderCallbacks callback, MessageViewInfoExtractor messageViewInfoExtractor,
+            @Nullable MessageViewPrefetcher messageViewPrefetcher) {
         this.context = context;
         this.loaderManager = loaderManager;
         this.fragmentManager = fragmentManager;
         this.callback = callback;
         this.messageViewInfoExtractor = messageViewInfoExtractor;
+        this.messageViewPrefetcher = messageViewPrefetcher;
     }
 
 
@@ -229,6 +236,19 @@ public class MessageLoaderHelper {
             return;
         }
 
+        // The body of messages that haven't been opened in a while is removed to stay within the storage limit
+        boolean bodyEvicted = localMessage.isSet(Flag.X_BODY_EVICTED) && !onlyLoadMetadata &&
+                localMessage.isBodyMissing();
+        if (bodyEvicted) {
+            if (Utility.hasConnectivity(context)) {
+                startDownloadingMessageBody(true);
+            } else {
+                MessageViewInfo messageViewInfo = MessageViewInfo.createForMetadataOnly(localMessage, true);
+                onDecodeMessageFinished(messageViewInfo);
+            }
+            return;
+        }
+
         if (onlyLoadMetadata) {
             MessageViewInfo messageViewInfo = MessageViewInfo.createForMetadataOnly(localMessage, !downloadedCompletely);
             onDecodeMessageFinished(messageViewInfo);
@@ -366,6 +386,15 @@ public class MessageLoaderHelper {
     // decode message
 
     private void startOrResumeDecodeMessage() {
+        if (messageViewPrefetcher != null && messageCryptoAnnotations == null) {
+            MessageViewInfo messageViewInfo = messageViewPrefetcher.getMessageViewInfo(messageReference, localMessage);
+            if (messageViewInfo != null) {
+                Timber.d("Using prefetched message view info");
+                onDecodeMessageFinished(messageViewInfo);
+                return;
+            }
+        }
+
         LocalMessageExtractorLoader loader =
                 (LocalMessageExtractorLoader) loaderManager.<MessageViewInfo>getLoader(DECODE_MESSAGE_LOADER_ID);
         boolean isLoaderStale = (loader == null) || !loader.isCreatedFor(localMessage, messageCryptoAnnotations);
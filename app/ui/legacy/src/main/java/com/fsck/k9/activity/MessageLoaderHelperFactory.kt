@@ -6,10 +6,12 @@ import androidx.loader.app.LoaderManager
 import com.fsck.k9.activity.MessageLoaderHelper.MessageLoaderCallbacks
 import com.fsck.k9.mailstore.MessageViewInfoExtractorFactory
 import com.fsck.k9.ui.helper.HtmlSettingsProvider
+import com.fsck.k9.ui.messageview.MessageViewPrefetcher
 
 class MessageLoaderHelperFactory(
     private val messageViewInfoExtractorFactory: MessageViewInfoExtractorFactory,
-    private val htmlSettingsProvider: HtmlSettingsProvider
+    private val htmlSettingsProvider: HtmlSettingsProvider,
+    private val messageViewPrefetcher: MessageViewPrefetcher
 ) {
     fun createForMessageView(
         context: Context,
@@ -19,7 +21,14 @@ class MessageLoaderHelperFactory(
     ): MessageLoaderHelper {
         val htmlSettings = htmlSettingsProvider.createForMessageView()
         val messageViewInfoExtractor = messageViewInfoExtractorFactory.create(htmlSettings)
-        return MessageLoaderHelper(context, loaderManager, fragmentManager, callback, messageViewInfoExtractor)
+        return MessageLoaderHelper(
+            context,
+            loaderManager,
+            fragmentManager,
+            callback,
+            messageViewInfoExtractor,
+            messageViewPrefetcher
+        )
     }
 
     fun createForMessageCompose(
@@ -30,6 +39,6 @@ class MessageLoaderHelperFactory(
     ): MessageLoaderHelper {
         val htmlSettings = htmlSettingsProvider.createForMessageCompose()
         val messageViewInfoExtractor = messageViewInfoExtractorFactory.create(htmlSettings)
-        return MessageLoaderHelper(context, loaderManager, fragmentManager, callback, messageViewInfoExtractor)
+        return MessageLoaderHelper(context, loaderManager, fragmentManager, callback, messageViewInfoExtractor, null)
     }
 }
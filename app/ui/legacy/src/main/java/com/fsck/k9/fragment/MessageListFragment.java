@@ -25,6 +25,8 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AbsListView;
+import android.widget.AbsListView.OnScrollListener;
 import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemClickListener;
 import android.widget.AdapterView.OnItemLongClickListener;
@@ -106,6 +108,11 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
     private static final String STATE_REMOTE_SEARCH_PERFORMED = "remoteSearchPerformed";
     private static final String STATE_MESSAGE_LIST = "listState";
 
+    /**
+     * Start loading the next page of the message list when the user scrolled to within this many items of the end.
+     */
+    private static final int LOAD_NEXT_PAGE_THRESHOLD = 20;
+
     private final SortTypeToastProvider sortTypeToastProvider = DI.get(SortTypeToastProvider.class);
     private final MessageListFragmentDiContainer diContainer = new MessageListFragmentDiContainer(this);
     private final FolderNameFormatterFactory folderNameFormatterFactory = DI.get(FolderNameFormatterFactory.class);
@@ -602,6 +609,19 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
         listView.setScrollingCacheEnabled(false);
         listView.setOnItemClickListener(this);
         listView.setOnItemLongClickListener(this);
+        listView.setOnScrollListener(new OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+                int lastVisibleItem = firstVisibleItem + visibleItemCount;
+                if (messageListLoaded && lastVisibleItem >= totalItemCount - LOAD_NEXT_PAGE_THRESHOLD) {
+                    getViewModel().loadNextPage();
+                }
+            }
+        });
     }
 
     public void onCompose() {
@@ -1271,7 +1291,7 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
 
         if (showingThreadedList && messageListItem.getThreadCount() > 1) {
             long threadRootId = messageListItem.getThreadRoot();
-            messagingController.setFlagForThreads(account,
+            messagingController.setFlagForThreads(account, messageListItem.getFolderId(),
                     Collections.singletonList(threadRootId), flag, newState);
         } else {
             long id = messageListItem.getDatabaseId();
@@ -1288,7 +1308,7 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
         }
 
         Map<Account, List<Long>> messageMap = new HashMap<>();
-        Map<Account, List<Long>> threadMap = new HashMap<>();
+        Map<Account, Map<Long, List<Long>>> threadMap = new HashMap<>();
         Set<Account> accounts = new HashSet<>();
 
         for (int position = 0, end = adapter.getCount(); position < end; position++) {
@@ -1300,10 +1320,16 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
                 accounts.add(account);
 
                 if (showingThreadedList && messageListItem.getThreadCount() > 1) {
-                    List<Long> threadRootIdList = threadMap.get(account);
+                    Map<Long, List<Long>> folderThreadMap = threadMap.get(account);
+                    if (folderThreadMap == null) {
+                        folderThreadMap = new HashMap<>();
+                        threadMap.put(account, folderThreadMap);
+                    }
+
+                    List<Long> threadRootIdList = folderThreadMap.get(messageListItem.getFolderId());
                     if (threadRootIdList == null) {
                         threadRootIdList = new ArrayList<>();
-                        threadMap.put(account, threadRootIdList);
+                        folderThreadMap.put(messageListItem.getFolderId(), threadRootIdList);
                     }
 
                     threadRootIdList.add(messageListItem.getThreadRoot());
@@ -1321,14 +1347,18 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
 
         for (Account account : accounts) {
             List<Long> messageIds = messageMap.get(account);
-            List<Long> threadRootIds = threadMap.get(account);
+            Map<Long, List<Long>> folderThreadMap = threadMap.get(account);
 
             if (messageIds != null) {
                 messagingController.setFlag(account, messageIds, flag, newState);
             }
 
-            if (threadRootIds != null) {
-                messagingController.setFlagForThreads(account, threadRootIds, flag, newState);
+            if (folderThreadMap != null) {
+                for (Map.Entry<Long, List<Long>> entry : folderThreadMap.entrySet()) {
+                    long folderId = entry.getKey();
+                    List<Long> threadRootIds = entry.getValue();
+                    messagingController.setFlagForThreads(account, folderId, threadRootIds, flag, newState);
+                }
             }
         }
 
@@ -1909,6 +1939,26 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
         return adapter.isEmpty() || messageReference.equals(getReferenceForPosition(adapter.getCount() - 1));
     }
 
+    /**
+     * Returns the references of the messages before and after {@code messageReference} in the current sort order.
+     */
+    public List<MessageReference> getAdjacentMessageReferences(MessageReference messageReference) {
+        int position = getPosition(messageReference);
+        if (position < 0) {
+            return Collections.emptyList();
+        }
+
+        List<MessageReference> messageReferences = new ArrayList<>(2);
+        if (position + 1 < adapter.getCount()) {
+            messageReferences.add(getReferenceForPosition(position + 1));
+        }
+        if (position > 0) {
+            messageReferences.add(getReferenceForPosition(position - 1));
+        }
+
+        return messageReferences;
+    }
+
     private MessageReference getReferenceForPosition(int position) {
         MessageListItem messageListItem = adapter.getItem(position);
 
@@ -4,7 +4,6 @@ import android.database.Cursor
 import com.fsck.k9.Preferences
 import com.fsck.k9.fragment.MLFProjectionInfo
 import com.fsck.k9.helper.MessageHelper
-import com.fsck.k9.helper.map
 import com.fsck.k9.mail.Address
 import com.fsck.k9.mailstore.DatabasePreviewType
 
@@ -12,16 +11,31 @@ class MessageListExtractor(
     private val preferences: Preferences,
     private val messageHelper: MessageHelper
 ) {
-    fun extractMessageList(cursor: Cursor, uniqueIdColumn: Int, threadCountIncluded: Boolean): List<MessageListItem> {
-        return cursor.map { extractMessageListItem(it, uniqueIdColumn, threadCountIncluded) }
+    /**
+     * Extract the first [maxCount] rows of [cursor]. [positionOffset] is added to the cursor position of each row so
+     * items can be appended to an already loaded list.
+     */
+    fun extractMessageList(
+        cursor: Cursor,
+        uniqueIdColumn: Int,
+        threadCountIncluded: Boolean,
+        maxCount: Int = Int.MAX_VALUE,
+        positionOffset: Int = 0
+    ): List<MessageListItem> {
+        val count = minOf(cursor.count, maxCount)
+        return List(count) { index ->
+            cursor.moveToPosition(index)
+            extractMessageListItem(cursor, uniqueIdColumn, threadCountIncluded, positionOffset)
+        }
     }
 
     private fun extractMessageListItem(
         cursor: Cursor,
         uniqueIdColumn: Int,
-        threadCountIncluded: Boolean
+        threadCountIncluded: Boolean,
+        positionOffset: Int
     ): MessageListItem {
-        val position = cursor.position
+        val position = positionOffset + cursor.position
         val accountUuid = cursor.getString(MLFProjectionInfo.ACCOUNT_UUID_COLUMN)
         val account = preferences.getAccount(accountUuid)
         val fromList = cursor.getString(MLFProjectionInfo.SENDER_LIST_COLUMN)
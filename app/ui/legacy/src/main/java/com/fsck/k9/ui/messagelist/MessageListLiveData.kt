@@ -1,36 +1,107 @@
 package com.fsck.k9.ui.messagelist
 
-import android.content.ContentResolver
-import android.database.ContentObserver
-import android.net.Uri
-import android.os.Handler
 import androidx.lifecycle.LiveData
 import com.fsck.k9.Preferences
-import com.fsck.k9.provider.EmailProvider
+import com.fsck.k9.mailstore.MessageChangeFeed
+import com.fsck.k9.mailstore.MessageChangeListener
+import com.fsck.k9.mailstore.MessageChanges
 import com.fsck.k9.search.getAccountUuids
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
 import kotlinx.coroutines.withContext
 
 class MessageListLiveData(
     private val messageListLoader: MessageListLoader,
     private val preferences: Preferences,
-    private val contentResolver: ContentResolver,
+    private val messageChangeFeed: MessageChangeFeed,
     private val coroutineScope: CoroutineScope,
     val config: MessageListConfig
 ) : LiveData<MessageListInfo>() {
 
-    private val contentObserver = object : ContentObserver(Handler()) {
-        override fun onChange(selfChange: Boolean) {
-            loadMessageListAsync()
+    // Makes sure only one load or update modifies the message list at a time
+    private val updateMutex = Mutex()
+
+    private val pendingChanges = mutableListOf<MessageChanges>()
+    private var isUpdateScheduled = false
+
+    @Volatile
+    private var accountUuids: Set<String> = emptySet()
+
+    private val messageChangeListener = object : MessageChangeListener {
+        override fun onMessagesChanged(changes: MessageChanges) {
+            if (changes.accountUuid !in accountUuids) return
+
+            // Changes that arrive while an update is in progress are combined and applied in one go
+            synchronized(pendingChanges) {
+                pendingChanges.add(changes)
+                if (isUpdateScheduled) return
+                isUpdateScheduled = true
+            }
+
+            applyPendingChangesAsync()
         }
     }
 
     private fun loadMessageListAsync() {
         coroutineScope.launch(Dispatchers.Main) {
-            value = withContext(Dispatchers.IO) {
-                messageListLoader.getMessageList(config)
+            updateMutex.withLock {
+                takePendingChanges()
+                value = loadMessageList()
+            }
+        }
+    }
+
+    private suspend fun loadMessageList(): MessageListInfo {
+        // Reload at least as many messages as are currently displayed
+        val loadedCount = value?.messageListItems?.size ?: 0
+        val minimumCount = maxOf(loadedCount, MessageListLoader.PAGE_SIZE)
+
+        return withContext(Dispatchers.IO) {
+            messageListLoader.getMessageList(config, minimumCount)
+        }
+    }
+
+    private fun applyPendingChangesAsync() {
+        coroutineScope.launch(Dispatchers.Main) {
+            updateMutex.withLock {
+                val changes = takePendingChanges()
+                val messageListInfo = value
+                if (changes.isEmpty() || messageListInfo == null) return@withLock
+
+                val updatedMessageListInfo = withContext(Dispatchers.IO) {
+                    messageListLoader.applyChanges(config, messageListInfo, changes)
+                }
+
+                value = updatedMessageListInfo ?: loadMessageList()
+            }
+        }
+    }
+
+    private fun takePendingChanges(): List<MessageChanges> {
+        return synchronized(pendingChanges) {
+            val changes = pendingChanges.toList()
+            pendingChanges.clear()
+            isUpdateScheduled = false
+
+            changes
+        }
+    }
+
+    fun loadNextPage() {
+        val messageListInfo = value ?: return
+        if (updateMutex.isLocked || !messageListInfo.hasMoreLocalMessages) return
+
+        coroutineScope.launch(Dispatchers.Main) {
+            updateMutex.withLock {
+                // Skip if the message list was modified in the meantime
+                if (value !== messageListInfo) return@withLock
+
+                value = withContext(Dispatchers.IO) {
+                    messageListLoader.getNextPage(config, messageListInfo)
+                }
             }
         }
     }
@@ -38,31 +109,22 @@ class MessageListLiveData(
     override fun onActive() {
         super.onActive()
 
-        registerContentObserverAsync()
+        registerMessageChangeListenerAsync()
         loadMessageListAsync()
     }
 
     override fun onInactive() {
         super.onInactive()
-        contentResolver.unregisterContentObserver(contentObserver)
+        messageChangeFeed.removeListener(messageChangeListener)
     }
 
-    private fun registerContentObserverAsync() {
+    private fun registerMessageChangeListenerAsync() {
         coroutineScope.launch(Dispatchers.Main) {
-            val notificationUris = withContext(Dispatchers.IO) {
-                getNotificationUris()
+            accountUuids = withContext(Dispatchers.IO) {
+                config.search.getAccountUuids(preferences).toSet()
             }
 
-            for (notificationUri in notificationUris) {
-                contentResolver.registerContentObserver(notificationUri, false, contentObserver)
-            }
-        }
-    }
-
-    private fun getNotificationUris(): List<Uri> {
-        val accountUuids = config.search.getAccountUuids(preferences)
-        return accountUuids.map { accountUuid ->
-            EmailProvider.getNotificationUri(accountUuid)
+            messageChangeFeed.addListener(messageChangeListener)
         }
     }
 }
@@ -19,6 +19,7 @@ import com.fsck.k9.fragment.MessageListFragmentComparators.SubjectComparator
 import com.fsck.k9.fragment.MessageListFragmentComparators.UnreadComparator
 import com.fsck.k9.helper.MergeCursorWithUniqueId
 import com.fsck.k9.mailstore.LocalStoreProvider
+import com.fsck.k9.mailstore.MessageChanges
 import com.fsck.k9.provider.EmailProvider
 import com.fsck.k9.search.LocalSearch
 import com.fsck.k9.search.SearchSpecification.SearchField
@@ -34,10 +35,182 @@ class MessageListLoader(
     private val messageListExtractor: MessageListExtractor
 ) {
 
-    fun getMessageList(config: MessageListConfig): MessageListInfo {
+    /**
+     * Load the message list for [config].
+     *
+     * If the message list can be loaded page by page (see [isPagingSupported]) only the first [minimumCount] messages
+     * are loaded. Use [getNextPage] to load more messages.
+     */
+    fun getMessageList(config: MessageListConfig, minimumCount: Int = PAGE_SIZE): MessageListInfo {
+        val limit = if (isPagingSupported(config)) minimumCount else null
+        return loadMessageList(config, limit, previousPageKey = null, previousMessageListInfo = null)
+    }
+
+    /**
+     * Load the messages following the ones contained in [messageListInfo].
+     *
+     * Only the rows of the next page are queried. For each account the query continues after the last message of that
+     * account that was already loaded, i.e. `(date, id) < (lastDate, lastId)`, and the per-account results are merged.
+     */
+    fun getNextPage(config: MessageListConfig, messageListInfo: MessageListInfo): MessageListInfo {
+        val pageKey = messageListInfo.nextPageKey ?: return messageListInfo
+
+        return loadMessageList(config, PAGE_SIZE, pageKey, messageListInfo)
+    }
+
+    /**
+     * Apply [changes] to [messageListInfo] without reloading the whole message list.
+     *
+     * Deleted messages are removed from the list. Updated messages are queried by ID and replaced in place. Updated
+     * messages that no longer match the search are removed.
+     *
+     * Returns `null` if the changes can't be applied this way and the message list has to be reloaded, e.g. because
+     * messages were inserted or the changes are incomplete.
+     */
+    fun applyChanges(
+        config: MessageListConfig,
+        messageListInfo: MessageListInfo,
+        changes: List<MessageChanges>
+    ): MessageListInfo? {
+        if (!isIncrementalUpdateSupported(config)) return null
+        if (changes.any { !it.isComplete || it.insertedMessageIds.isNotEmpty() }) return null
+
+        val accounts = config.search.getAccounts(preferences).associateBy { it.uuid }
+        val changesByAccount = changes
+            .groupBy { it.accountUuid }
+            .mapValues { (_, accountChanges) -> accountChanges.reduce { result, change -> result + change } }
+
+        val items = messageListInfo.messageListItems
+        val removedItems = mutableSetOf<MessageListItem>()
+        val replacedItems = mutableMapOf<MessageListItem, MessageListItem>()
+        for ((accountUuid, accountChanges) in changesByAccount) {
+            val account = accounts[accountUuid] ?: continue
+            val accountItems = items.filter { it.account.uuid == accountUuid }.associateBy { it.databaseId }
+
+            accountChanges.deletedMessageIds.mapNotNullTo(removedItems) { accountItems[it] }
+
+            val updatedMessageIds = accountChanges.updatedMessageIds - accountChanges.deletedMessageIds
+            if (updatedMessageIds.isEmpty()) continue
+
+            val updatedItems = loadMessageListItems(account, config, updatedMessageIds)
+            for ((updatedItem, sortValue) in updatedItems) {
+                val oldItem = accountItems[updatedItem.databaseId]
+                when {
+                    oldItem == null -> {
+                        // A message that wasn't part of the list before now matches the search
+                        val pageKey = messageListInfo.nextPageKey
+                        if (!isBeyondLoadedMessages(config, pageKey, account, sortValue, updatedItem)) return null
+                    }
+                    messageListInfo.sortValues[oldItem.uniqueId] != sortValue -> {
+                        // The position of the message in the list might have changed
+                        return null
+                    }
+                    else -> {
+                        replacedItems[oldItem] =
+                            updatedItem.copy(position = oldItem.position, uniqueId = oldItem.uniqueId)
+                    }
+                }
+            }
+
+            val returnedMessageIds = updatedItems.map { (item, _) -> item.databaseId }.toSet()
+            updatedMessageIds
+                .filter { it !in returnedMessageIds }
+                .mapNotNullTo(removedItems) { accountItems[it] }
+        }
+
+        if (removedItems.isEmpty() && replacedItems.isEmpty()) return messageListInfo
+
+        val messageListItems = items
+            .filter { it !in removedItems }
+            .mapIndexed { index, item ->
+                val newItem = replacedItems[item] ?: item
+                if (newItem.position == index) newItem else newItem.copy(position = index)
+            }
+
+        val sortValues = if (removedItems.isEmpty()) {
+            messageListInfo.sortValues
+        } else {
+            messageListInfo.sortValues - removedItems.map { it.uniqueId }
+        }
+
+        return messageListInfo.copy(messageListItems = messageListItems, sortValues = sortValues)
+    }
+
+    private fun loadMessageListItems(
+        account: Account,
+        config: MessageListConfig,
+        messageIds: Set<Long>
+    ): List<Pair<MessageListItem, Long>> {
+        val sortValueColumn = getSortValueColumn(config)
+
+        return messageIds.chunked(MESSAGE_ID_BATCH_SIZE).flatMap { messageIdsChunk ->
+            val cursor = loadMessageListForAccount(account, config, null, null, messageIdsChunk)
+                ?: return@flatMap emptyList<Pair<MessageListItem, Long>>()
+
+            cursor.use {
+                val items = messageListExtractor.extractMessageList(
+                    cursor,
+                    MLFProjectionInfo.ID_COLUMN,
+                    threadCountIncluded = false
+                )
+
+                items.mapIndexed { position, item ->
+                    cursor.moveToPosition(position)
+                    item to cursor.getLong(sortValueColumn)
+                }
+            }
+        }
+    }
+
+    private fun isBeyondLoadedMessages(
+        config: MessageListConfig,
+        pageKey: MessageListPageKey?,
+        account: Account,
+        sortValue: Long,
+        item: MessageListItem
+    ): Boolean {
+        val lastMessage = pageKey?.lastMessages?.get(account.uuid) ?: return false
+
+        return when {
+            sortValue == lastMessage.sortValue -> item.databaseId < lastMessage.messageId
+            config.sortAscending -> sortValue > lastMessage.sortValue
+            else -> sortValue < lastMessage.sortValue
+        }
+    }
+
+    /**
+     * Changes can only be applied in place if they can't affect the order of messages. This is the case for lists
+     * sorted by date since a message's date doesn't change after it has been saved.
+     */
+    private fun isIncrementalUpdateSupported(config: MessageListConfig): Boolean {
+        return isPagingSupported(config)
+    }
+
+    /**
+     * Paging is only supported for unthreaded lists sorted by date. Here the sort order `(date, id)` can be used as
+     * a key to continue loading after the last message of the previous page.
+     */
+    private fun isPagingSupported(config: MessageListConfig): Boolean {
+        return !config.showingThreadedList && getThreadId(config.search) == null &&
+            (config.sortType == SortType.SORT_DATE || config.sortType == SortType.SORT_ARRIVAL)
+    }
+
+    private fun loadMessageList(
+        config: MessageListConfig,
+        limit: Int?,
+        previousPageKey: MessageListPageKey?,
+        previousMessageListInfo: MessageListInfo?
+    ): MessageListInfo {
+        val previousItems = previousMessageListInfo?.messageListItems ?: emptyList()
         val accounts = config.search.getAccounts(preferences)
+
+        // Query one more row than necessary so we can tell whether there are more messages
+        val queryLimit = limit?.plus(1)
         val cursors = accounts
-            .mapNotNull { loadMessageListForAccount(it, config) }
+            .mapNotNull { account ->
+                val lastMessage = previousPageKey?.lastMessages?.get(account.uuid)
+                loadMessageListForAccount(account, config, queryLimit, lastMessage)
+            }
             .toTypedArray()
 
         val cursor: Cursor
@@ -50,19 +223,72 @@ class MessageListLoader(
             uniqueIdColumn = MLFProjectionInfo.ID_COLUMN
         }
 
+        var nextPageKey: MessageListPageKey? = null
+        val sortValues = previousMessageListInfo?.sortValues?.toMutableMap() ?: mutableMapOf()
         val messageListItems = cursor.use {
-            messageListExtractor.extractMessageList(
+            val maxCount = limit ?: Int.MAX_VALUE
+            val items = messageListExtractor.extractMessageList(
                 cursor,
                 uniqueIdColumn,
-                threadCountIncluded = config.showingThreadedList
+                threadCountIncluded = config.showingThreadedList,
+                maxCount = maxCount,
+                positionOffset = previousItems.size
             )
+
+            if (cursor.count > maxCount) {
+                nextPageKey = buildNextPageKey(cursor, items.size, config, previousPageKey)
+            }
+
+            val sortValueColumn = getSortValueColumn(config)
+            items.forEachIndexed { position, item ->
+                cursor.moveToPosition(position)
+                sortValues[item.uniqueId] = cursor.getLong(sortValueColumn)
+            }
+
+            items
         }
         val hasMoreMessages = loadHasMoreMessages(accounts, config.search.folderIds)
 
-        return MessageListInfo(messageListItems, hasMoreMessages)
+        return MessageListInfo(previousItems + messageListItems, hasMoreMessages, nextPageKey, sortValues)
+    }
+
+    private fun buildNextPageKey(
+        cursor: Cursor,
+        count: Int,
+        config: MessageListConfig,
+        previousPageKey: MessageListPageKey?
+    ): MessageListPageKey {
+        val sortValueColumn = getSortValueColumn(config)
+
+        // Accounts that don't have a message in this page continue where they left off before
+        val lastMessages = previousPageKey?.lastMessages?.toMutableMap() ?: mutableMapOf()
+        for (position in 0 until count) {
+            cursor.moveToPosition(position)
+            val accountUuid = cursor.getString(MLFProjectionInfo.ACCOUNT_UUID_COLUMN)
+            lastMessages[accountUuid] = MessageListPosition(
+                sortValue = cursor.getLong(sortValueColumn),
+                messageId = cursor.getLong(MLFProjectionInfo.ID_COLUMN)
+            )
+        }
+
+        return MessageListPageKey(lastMessages)
+    }
+
+    private fun getSortValueColumn(config: MessageListConfig): Int {
+        return if (config.sortType == SortType.SORT_ARRIVAL) {
+            MLFProjectionInfo.INTERNAL_DATE_COLUMN
+        } else {
+            MLFProjectionInfo.DATE_COLUMN
+        }
     }
 
-    private fun loadMessageListForAccount(account: Account, config: MessageListConfig): Cursor? {
+    private fun loadMessageListForAccount(
+        account: Account,
+        config: MessageListConfig,
+        limit: Int?,
+        lastMessage: MessageListPosition?,
+        messageIds: List<Long>? = null
+    ): Cursor? {
         val accountUuid = account.uuid
         val threadId: String? = getThreadId(config.search)
 
@@ -105,12 +331,61 @@ class MessageListLoader(
             }
         }
 
+        if (lastMessage != null) {
+            appendPageCondition(config, lastMessage, query, queryArgs)
+        }
+
+        if (messageIds != null) {
+            appendMessageIdCondition(messageIds, query, queryArgs)
+        }
+
         val selection = query.toString()
         val selectionArgs = queryArgs.toTypedArray()
 
         val sortOrder: String = buildSortOrder(config)
 
-        return contentResolver.query(uri, projection, selection, selectionArgs, sortOrder)
+        val queryUri = if (limit != null) {
+            uri.buildUpon().appendQueryParameter(EmailProvider.QUERY_PARAMETER_LIMIT, limit.toString()).build()
+        } else {
+            uri
+        }
+
+        return contentResolver.query(queryUri, projection, selection, selectionArgs, sortOrder)
+    }
+
+    private fun appendMessageIdCondition(
+        messageIds: List<Long>,
+        query: StringBuilder,
+        queryArgs: MutableList<String>
+    ) {
+        if (query.isNotEmpty()) {
+            query.insert(0, '(').append(") AND ")
+        }
+
+        val placeholders = messageIds.joinToString(separator = ",") { "?" }
+        query.append("${EmailProvider.MessageColumns.ID} IN ($placeholders)")
+        messageIds.mapTo(queryArgs) { it.toString() }
+    }
+
+    private fun appendPageCondition(
+        config: MessageListConfig,
+        lastMessage: MessageListPosition,
+        query: StringBuilder,
+        queryArgs: MutableList<String>
+    ) {
+        if (query.isNotEmpty()) {
+            query.insert(0, '(').append(") AND ")
+        }
+
+        val sortKey = getDateSortKey(config.sortType)
+        val operator = if (config.sortAscending) ">" else "<"
+
+        // Row values, i.e. (date, id) < (?, ?), are not supported by the SQLite versions shipped with older Android
+        // versions.
+        query.append("($sortKey $operator ? OR ($sortKey = ? AND ${EmailProvider.MessageColumns.ID} < ?))")
+        queryArgs.add(lastMessage.sortValue.toString())
+        queryArgs.add(lastMessage.sortValue.toString())
+        queryArgs.add(lastMessage.messageId.toString())
     }
 
     private fun getThreadId(search: LocalSearch): String? {
@@ -119,13 +394,13 @@ class MessageListLoader(
 
     private fun buildSortOrder(config: MessageListConfig): String {
         val sortColumn = when (config.sortType) {
-            SortType.SORT_ARRIVAL -> EmailProvider.MessageColumns.INTERNAL_DATE
+            SortType.SORT_ARRIVAL -> getDateSortKey(SortType.SORT_ARRIVAL)
             SortType.SORT_ATTACHMENT -> "(${EmailProvider.MessageColumns.ATTACHMENT_COUNT} < 1)"
             SortType.SORT_FLAGGED -> "(${EmailProvider.MessageColumns.FLAGGED} != 1)"
             SortType.SORT_SENDER -> EmailProvider.MessageColumns.SENDER_LIST // FIXME
             SortType.SORT_SUBJECT -> "${EmailProvider.MessageColumns.SUBJECT} COLLATE NOCASE"
             SortType.SORT_UNREAD -> EmailProvider.MessageColumns.READ
-            SortType.SORT_DATE -> EmailProvider.MessageColumns.DATE
+            SortType.SORT_DATE -> getDateSortKey(SortType.SORT_DATE)
             else -> EmailProvider.MessageColumns.DATE
         }
 
@@ -143,6 +418,21 @@ class MessageListLoader(
         return "$sortColumn$sortDirection, $secondarySort${EmailProvider.MessageColumns.ID} DESC"
     }
 
+    /**
+     * Messages without a date are sorted as if their date was `0`. The same expression has to be used in the keyset
+     * condition of [appendPageCondition], otherwise `date < ?` would skip those messages. This also matches the value
+     * [Cursor.getLong] returns for `NULL`, which is used for the page key and by [getComparator].
+     */
+    private fun getDateSortKey(sortType: SortType): String {
+        val sortColumn = if (sortType == SortType.SORT_ARRIVAL) {
+            EmailProvider.MessageColumns.INTERNAL_DATE
+        } else {
+            EmailProvider.MessageColumns.DATE
+        }
+
+        return "COALESCE($sortColumn, 0)"
+    }
+
     private fun getComparator(config: MessageListConfig): Comparator<Cursor>? {
         val chain: MutableList<Comparator<Cursor>> = ArrayList(3 /* we add 3 comparators at most */)
 
@@ -185,6 +475,10 @@ class MessageListLoader(
     }
 
     companion object {
+        const val PAGE_SIZE = 100
+
+        private const val MESSAGE_ID_BATCH_SIZE = 500
+
         private val SORT_COMPARATORS = mapOf(
             SortType.SORT_ATTACHMENT to AttachmentComparator(),
             SortType.SORT_DATE to DateComparator(),
@@ -197,4 +491,25 @@ class MessageListLoader(
     }
 }
 
-data class MessageListInfo(val messageListItems: List<MessageListItem>, val hasMoreMessages: Boolean)
+/**
+ * @param hasMoreMessages `true` if more messages can be downloaded from the server.
+ * @param nextPageKey Where to continue loading if not all local messages have been loaded yet. `null` otherwise.
+ * @param sortValues The value of the column the list is sorted by, e.g. the message date or the arrival date, keyed by
+ *   [MessageListItem.uniqueId].
+ */
+data class MessageListInfo(
+    val messageListItems: List<MessageListItem>,
+    val hasMoreMessages: Boolean,
+    val nextPageKey: MessageListPageKey? = null,
+    val sortValues: Map<Long, Long> = emptyMap()
+) {
+    val hasMoreLocalMessages: Boolean
+        get() = nextPageKey != null
+}
+
+/**
+ * Sort key of the last message that was loaded for each account, keyed by account UUID.
+ */
+data class MessageListPageKey(val lastMessages: Map<String, MessageListPosition>)
+
+data class MessageListPosition(val sortValue: Long, val messageId: Long)
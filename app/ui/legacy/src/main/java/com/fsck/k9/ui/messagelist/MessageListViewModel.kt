@@ -26,6 +26,10 @@ class MessageListViewModel(private val messageListLiveDataFactory: MessageListLi
         }
     }
 
+    fun loadNextPage() {
+        currentMessageListLiveData?.loadNextPage()
+    }
+
     private fun removeCurrentMessageListLiveData() {
         currentMessageListLiveData?.let {
             currentMessageListLiveData = null
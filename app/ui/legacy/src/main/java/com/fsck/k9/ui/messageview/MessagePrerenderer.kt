@@ -0,0 +1,58 @@
+package com.fsck.k9.ui.messageview
+
+import com.fsck.k9.Account
+import com.fsck.k9.controller.SimpleMessagingListener
+import com.fsck.k9.mail.FetchProfile
+import com.fsck.k9.mail.Flag
+import com.fsck.k9.mail.Message
+import com.fsck.k9.mail.MessagingException
+import com.fsck.k9.mailstore.LocalMessage
+import com.fsck.k9.mailstore.LocalStoreProvider
+import com.fsck.k9.mailstore.MessageRenderCache
+import com.fsck.k9.mailstore.MessageViewInfoExtractorFactory
+import com.fsck.k9.ui.helper.HtmlSettingsProvider
+import java.util.concurrent.Executor
+import timber.log.Timber
+
+/**
+ * Renders new messages in the Inbox in the background, so they are already in the [MessageRenderCache] when the
+ * user opens them.
+ */
+class MessagePrerenderer(
+    private val localStoreProvider: LocalStoreProvider,
+    private val messageViewInfoExtractorFactory: MessageViewInfoExtractorFactory,
+    private val htmlSettingsProvider: HtmlSettingsProvider,
+    private val executor: Executor
+) : SimpleMessagingListener() {
+
+    override fun synchronizeMailboxNewMessage(account: Account, folderServerId: String, message: Message) {
+        val localMessage = message as? LocalMessage ?: return
+        val folderId = localMessage.folder.databaseId
+
+        // Messages that haven't been downloaded completely are not cached
+        if (folderId != account.inboxFolderId || !localMessage.isSet(Flag.X_DOWNLOADED_FULL)) return
+
+        val uid = localMessage.uid
+        executor.execute {
+            prerenderMessage(account, folderId, uid)
+        }
+    }
+
+    private fun prerenderMessage(account: Account, folderId: Long, uid: String) {
+        try {
+            val localFolder = localStoreProvider.getInstance(account).getFolder(folderId)
+            localFolder.open()
+
+            val message = localFolder.getMessage(uid) ?: return
+
+            val fetchProfile = FetchProfile().apply { add(FetchProfile.Item.BODY) }
+            localFolder.fetch(listOf(message), fetchProfile, null)
+
+            val htmlSettings = htmlSettingsProvider.createForMessageView()
+            val messageViewInfoExtractor = messageViewInfoExtractorFactory.create(htmlSettings)
+            messageViewInfoExtractor.extractMessageForView(message, null, account.isOpenPgpProviderConfigured)
+        } catch (e: MessagingException) {
+            Timber.w(e, "Error rendering message %s in the background", uid)
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.fsck.k9.ui.messageview
+
+import android.content.Context
+import android.net.ConnectivityManager
+import android.util.LruCache
+import com.fsck.k9.Account
+import com.fsck.k9.K9
+import com.fsck.k9.Preferences
+import com.fsck.k9.controller.MessageReference
+import com.fsck.k9.controller.MessagingController
+import com.fsck.k9.controller.SimpleMessagingListener
+import com.fsck.k9.helper.Utility
+import com.fsck.k9.mail.FetchProfile
+import com.fsck.k9.mail.Flag
+import com.fsck.k9.mail.MessagingException
+import com.fsck.k9.mailstore.LocalMessage
+import com.fsck.k9.mailstore.LocalStoreProvider
+import com.fsck.k9.mailstore.MessageViewInfo
+import com.fsck.k9.mailstore.MessageViewInfoExtractorFactory
+import com.fsck.k9.message.html.HtmlSettings
+import com.fsck.k9.ui.helper.HtmlSettingsProvider
+import java.util.concurrent.Executor
+import timber.log.Timber
+
+/**
+ * Prepares the messages next to the one currently displayed, so swiping to them doesn't show a progress indicator.
+ *
+ * Missing message bodies are downloaded with background priority. Partially downloaded messages are only downloaded
+ * completely when the active network isn't metered. For accounts without an OpenPGP provider the [MessageViewInfo]
+ * is kept in memory until [MessageLoaderHelper][com.fsck.k9.activity.MessageLoaderHelper] asks for it.
+ */
+class MessageViewPrefetcher(
+    private val context: Context,
+    private val preferences: Preferences,
+    private val messagingController: MessagingController,
+    private val localStoreProvider: LocalStoreProvider,
+    private val messageViewInfoExtractorFactory: MessageViewInfoExtractorFactory,
+    private val htmlSettingsProvider: HtmlSettingsProvider,
+    private val executor: Executor
+) {
+    private val cache = object : LruCache<MessageReference, PrefetchedMessage>(MAX_CACHE_SIZE) {
+        override fun sizeOf(key: MessageReference, value: PrefetchedMessage): Int {
+            val messageViewInfo = value.messageViewInfo
+            return 1 + (messageViewInfo.text?.length ?: 0) + (messageViewInfo.extraText?.length ?: 0)
+        }
+    }
+
+    @Volatile
+    private var wantedReferences: Set<MessageReference> = emptySet()
+
+    /**
+     * Starts preparing [messageReferences]. Messages that were requested by an earlier call but are not part of
+     * [messageReferences] are skipped if they haven't been processed yet.
+     */
+    fun prefetch(messageReferences: List<MessageReference>) {
+        wantedReferences = messageReferences.toSet()
+
+        for (messageReference in messageReferences) {
+            if (cache.get(messageReference) != null) continue
+
+            executor.execute {
+                prefetchMessage(messageReference, allowDownload = true)
+            }
+        }
+    }
+
+    /**
+     * Returns the prefetched [MessageViewInfo] for [message] or `null` if there is none that matches the current
+     * version of the message and the current display settings.
+     */
+    fun getMessageViewInfo(messageReference: MessageReference, message: LocalMessage): MessageViewInfo? {
+        val prefetchedMessage = cache.get(messageReference) ?: return null
+
+        val isCurrent = prefetchedMessage.messagePartId == message.messagePartId &&
+            prefetchedMessage.htmlSettings == htmlSettingsProvider.createForMessageView()
+        if (!isCurrent) {
+            cache.remove(messageReference)
+            return null
+        }
+
+        return prefetchedMessage.messageViewInfo
+    }
+
+    private fun prefetchMessage(messageReference: MessageReference, allowDownload: Boolean) {
+        if (messageReference !in wantedReferences || cache.get(messageReference) != null) return
+
+        val account = preferences.getAccount(messageReference.accountUuid) ?: return
+        try {
+            val localFolder = localStoreProvider.getInstance(account).getFolder(messageReference.folderId)
+            localFolder.open()
+
+            val message = localFolder.getMessage(messageReference.uid) ?: return
+            if (message.databaseId == 0L) return
+
+            val downloadedCompletely = message.isSet(Flag.X_DOWNLOADED_FULL)
+            val downloadedPartially = message.isSet(Flag.X_DOWNLOADED_PARTIAL)
+            if (allowDownload && !downloadedCompletely && canDownload(message, downloadedPartially)) {
+                downloadMessage(account, messageReference, downloadComplete = downloadedPartially)
+                return
+            }
+
+            if (!downloadedCompletely && !downloadedPartially) return
+
+            val fetchProfile = FetchProfile().apply { add(FetchProfile.Item.BODY) }
+            localFolder.fetch(listOf(message), fetchProfile, null)
+            if (message.isBodyMissing) return
+
+            // Messages of accounts using OpenPGP need to go through MessageCryptoHelper before they can be displayed
+            if (account.openPgpProvider != null) return
+
+            val htmlSettings = htmlSettingsProvider.createForMessageView()
+            val messageViewInfoExtractor = messageViewInfoExtractorFactory.create(htmlSettings)
+            val messageViewInfo = messageViewInfoExtractor.extractMessageForView(message, null, false)
+
+            cache.put(messageReference, PrefetchedMessage(message.messagePartId, htmlSettings, messageViewInfo))
+        } catch (e: MessagingException) {
+            Timber.w(e, "Error prefetching message %s", messageReference)
+        }
+    }
+
+    private fun canDownload(message: LocalMessage, downloadedPartially: Boolean): Boolean {
+        if (message.uid.startsWith(K9.LOCAL_UID_PREFIX) || !Utility.hasConnectivity(context)) return false
+
+        // Don't use up mobile data for content the user might never look at
+        val connectivityManager = context.getSystemService(Context.CONNECTIVITY_SERVICE) as ConnectivityManager
+        return !downloadedPartially || !connectivityManager.isActiveNetworkMetered
+    }
+
+    private fun downloadMessage(account: Account, messageReference: MessageReference, downloadComplete: Boolean) {
+        val listener = object : SimpleMessagingListener() {
+            override fun loadMessageRemoteFinished(account: Account, folderId: Long, uid: String) {
+                if (!messageReference.equals(account.uuid, folderId, uid)) return
+
+                executor.execute {
+                    prefetchMessage(messageReference, allowDownload = false)
+                }
+            }
+        }
+
+        messagingController.prefetchMessageRemote(
+            account,
+            messageReference.folderId,
+            messageReference.uid,
+            downloadComplete,
+            listener
+        )
+    }
+
+    private class PrefetchedMessage(
+        val messagePartId: Long,
+        val htmlSettings: HtmlSettings,
+        val messageViewInfo: MessageViewInfo
+    )
+
+    companion object {
+        /**
+         * Maximum number of characters of message text to keep in memory.
+         */
+        private const val MAX_CACHE_SIZE = 1024 * 1024
+    }
+}
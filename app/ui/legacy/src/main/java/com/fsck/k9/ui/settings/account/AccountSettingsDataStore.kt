@@ -120,6 +120,8 @@ class AccountSettingsDataStore(
             "account_display_count" -> account.displayCount.toString()
             "account_message_age" -> account.maximumPolledMessageAge.toString()
             "account_autodownload_size" -> account.maximumAutoDownloadMessageSize.toString()
+            "account_local_storage_size" -> account.maximumLocalStorageSize.toString()
+            "account_imap_connection_pool_size" -> account.imapConnectionPoolSize.toString()
             "account_check_frequency" -> account.automaticCheckIntervalMinutes.toString()
             "folder_sync_mode" -> account.folderSyncMode.name
             "folder_push_mode" -> account.folderPushMode.name
@@ -159,6 +161,8 @@ class AccountSettingsDataStore(
             "account_display_count" -> account.displayCount = value.toInt()
             "account_message_age" -> account.maximumPolledMessageAge = value.toInt()
             "account_autodownload_size" -> account.maximumAutoDownloadMessageSize = value.toInt()
+            "account_local_storage_size" -> account.maximumLocalStorageSize = value.toInt()
+            "account_imap_connection_pool_size" -> account.imapConnectionPoolSize = value.toInt()
             "account_check_frequency" -> {
                 if (account.setAutomaticCheckIntervalMinutes(value.toInt())) {
                     reschedulePoll()
@@ -69,6 +69,8 @@ class AccountSettingsFragment : PreferenceFragmentCompat(), ConfirmationDialogFr
         initializeDeletePolicy(account)
         initializeExpungePolicy(account)
         initializeMessageAge(account)
+        initializeLocalStorageSize(account)
+        initializeImapConnectionPoolSize(account)
         initializeAdvancedPushSettings(account)
         initializeCryptoSettings(account)
         initializeFolderSettings(account)
@@ -169,6 +171,23 @@ class AccountSettingsFragment : PreferenceFragmentCompat(), ConfirmationDialogFr
         }
     }
 
+    private fun initializeLocalStorageSize(account: Account) {
+        findPreference<Preference>(PREFERENCE_LOCAL_STORAGE_SIZE)?.apply {
+            // Evicted messages are downloaded again when needed. POP3 servers might not have them anymore.
+            if (account.isPop3()) {
+                remove()
+            }
+        }
+    }
+
+    private fun initializeImapConnectionPoolSize(account: Account) {
+        findPreference<Preference>(PREFERENCE_IMAP_CONNECTION_POOL_SIZE)?.apply {
+            if (!account.isImap()) {
+                remove()
+            }
+        }
+    }
+
     private fun initializeAdvancedPushSettings(account: Account) {
         /* Temporarily disabled. See GH-4253
         if (!messagingController.isPushCapable(account)) {
@@ -351,6 +370,10 @@ class AccountSettingsFragment : PreferenceFragmentCompat(), ConfirmationDialogFr
         dataStore.saveSettingsInBackground()
     }
 
+    private fun Account.isPop3() = storeUri.startsWith("pop3")
+
+    private fun Account.isImap() = storeUri.startsWith("imap")
+
     companion object {
         internal const val PREFERENCE_OPENPGP = "openpgp"
         private const val ARG_ACCOUNT_UUID = "accountUuid"
@@ -363,6 +386,8 @@ class AccountSettingsFragment : PreferenceFragmentCompat(), ConfirmationDialogFr
         private const val PREFERENCE_DELETE_POLICY = "delete_policy"
         private const val PREFERENCE_EXPUNGE_POLICY = "expunge_policy"
         private const val PREFERENCE_MESSAGE_AGE = "account_message_age"
+        private const val PREFERENCE_LOCAL_STORAGE_SIZE = "account_local_storage_size"
+        private const val PREFERENCE_IMAP_CONNECTION_POOL_SIZE = "account_imap_connection_pool_size"
         private const val PREFERENCE_PUSH_MODE = "folder_push_mode"
         private const val PREFERENCE_ADVANCED_PUSH_SETTINGS = "push_advanced"
         private const val PREFERENCE_REMOTE_SEARCH = "search"
@@ -0,0 +1,194 @@
+package com.fsck.k9.ui.messagelist
+
+import com.fsck.k9.Account
+import com.fsck.k9.Account.SortType
+import com.fsck.k9.K9RobolectricTest
+import com.fsck.k9.Preferences
+import com.fsck.k9.backend.api.FolderInfo
+import com.fsck.k9.backend.api.updateFolders
+import com.fsck.k9.helper.MessageHelper
+import com.fsck.k9.mail.Address
+import com.fsck.k9.mail.FolderType
+import com.fsck.k9.mail.internet.MimeMessage
+import com.fsck.k9.mail.internet.MimeMessageHelper
+import com.fsck.k9.mail.internet.TextBody
+import com.fsck.k9.mailstore.K9BackendFolder
+import com.fsck.k9.mailstore.K9BackendStorage
+import com.fsck.k9.mailstore.LocalStoreProvider
+import com.fsck.k9.mailstore.MessageChanges
+import com.fsck.k9.provider.EmailProvider
+import com.fsck.k9.search.LocalSearch
+import com.google.common.truth.Truth.assertThat
+import java.util.Date
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.koin.core.inject
+import org.robolectric.Robolectric
+import org.robolectric.RuntimeEnvironment
+
+class MessageListLoaderTest : K9RobolectricTest() {
+    val preferences: Preferences by inject()
+    val localStoreProvider: LocalStoreProvider by inject()
+
+    lateinit var account: Account
+    lateinit var messageListLoader: MessageListLoader
+
+    @Before
+    fun setUp() {
+        val context = RuntimeEnvironment.application
+        Robolectric.setupContentProvider(EmailProvider::class.java, "${context.packageName}.provider.email")
+
+        // FIXME: This is a hack to get Preferences into a state where it's safe to call newAccount()
+        preferences.clearAccounts()
+        account = createAccount()
+
+        val messageListExtractor = MessageListExtractor(preferences, MessageHelper.getInstance(context))
+        messageListLoader =
+            MessageListLoader(preferences, context.contentResolver, localStoreProvider, messageListExtractor)
+    }
+
+    @After
+    fun tearDown() {
+        preferences.deleteAccount(account)
+    }
+
+    @Test
+    fun getNextPage_withMessagesWithoutDate_shouldContinueWithThoseMessages() {
+        saveMessage("A", date = 3000L)
+        saveMessage("B", date = null)
+        saveMessage("C", date = null)
+        saveMessage("D", date = null)
+        val config = createConfig()
+
+        for (firstPageSize in 1..3) {
+            val firstPage = messageListLoader.getMessageList(config, minimumCount = firstPageSize)
+            val messageListInfo = messageListLoader.getNextPage(config, firstPage)
+
+            assertThat(firstPage.messageListItems).hasSize(firstPageSize)
+            assertThat(messageListInfo.messageListItems.map { it.subject })
+                .containsExactly("A", "D", "C", "B").inOrder()
+            assertThat(messageListInfo.messageListItems.map { it.position }).containsExactly(0, 1, 2, 3).inOrder()
+            assertThat(messageListInfo.hasMoreLocalMessages).isFalse()
+        }
+    }
+
+    @Test
+    fun getMessageList_withMessagesWithoutDate_shouldSortThemLast() {
+        saveMessage("A", date = null)
+        saveMessage("B", date = 1000L)
+        saveMessage("C", date = 2000L)
+
+        val messageListInfo = messageListLoader.getMessageList(createConfig())
+
+        assertThat(messageListInfo.messageListItems.map { it.subject }).containsExactly("C", "B", "A").inOrder()
+    }
+
+    @Test
+    fun applyChanges_withUnchangedSortValue_shouldReplaceItemInPlace() {
+        saveMessage("A", date = 3000L)
+        saveMessage("B", date = 2000L)
+        val config = createConfig()
+        val messageListInfo = messageListLoader.getMessageList(config)
+        val messageB = messageListInfo.messageListItems.first { it.subject == "B" }
+        updateMessage("B", "read = 1")
+
+        val result = messageListLoader.applyChanges(config, messageListInfo, listOf(updated(messageB)))
+
+        assertThat(result).isNotNull()
+        val items = result!!.messageListItems
+        assertThat(items.map { it.subject }).containsExactly("A", "B").inOrder()
+        assertThat(items[1].isRead).isTrue()
+        assertThat(items[1].position).isEqualTo(messageB.position)
+        assertThat(items[1].uniqueId).isEqualTo(messageB.uniqueId)
+    }
+
+    @Test
+    fun applyChanges_withChangedDate_shouldRequestReload() {
+        saveMessage("A", date = 3000L)
+        saveMessage("B", date = 2000L)
+        val config = createConfig()
+        val messageListInfo = messageListLoader.getMessageList(config)
+        val messageB = messageListInfo.messageListItems.first { it.subject == "B" }
+        updateMessage("B", "date = 4000")
+
+        val result = messageListLoader.applyChanges(config, messageListInfo, listOf(updated(messageB)))
+
+        assertThat(result).isNull()
+    }
+
+    @Test
+    fun applyChanges_withChangedArrivalDateInListSortedByArrival_shouldRequestReload() {
+        saveMessage("A", date = 3000L)
+        saveMessage("B", date = 2000L)
+        updateMessage("A", "internal_date = 3000")
+        updateMessage("B", "internal_date = 2000")
+        val config = createConfig(SortType.SORT_ARRIVAL)
+        val messageListInfo = messageListLoader.getMessageList(config)
+        val messageB = messageListInfo.messageListItems.first { it.subject == "B" }
+        updateMessage("B", "internal_date = 4000")
+
+        val result = messageListLoader.applyChanges(config, messageListInfo, listOf(updated(messageB)))
+
+        assertThat(result).isNull()
+    }
+
+    private fun createAccount(): Account {
+        val account = preferences.newAccount()
+
+        val localStore = localStoreProvider.getInstance(account)
+        val backendStorage = K9BackendStorage(preferences, account, localStore, emptyList())
+        backendStorage.updateFolders {
+            createFolders(listOf(FolderInfo(INBOX, "Inbox", FolderType.INBOX)))
+        }
+
+        return account
+    }
+
+    private fun createConfig(sortType: SortType = SortType.SORT_DATE): MessageListConfig {
+        val search = LocalSearch().apply { addAccountUuid(account.uuid) }
+        return MessageListConfig(
+            search,
+            showingThreadedList = false,
+            sortType = sortType,
+            sortAscending = false,
+            sortDateAscending = false,
+            activeMessage = null
+        )
+    }
+
+    private fun saveMessage(subject: String, date: Long?) {
+        val message = MimeMessage().apply {
+            this.subject = subject
+            setFrom(Address("alice@domain.example", "Alice"))
+            setHeader("To", "bob@domain.example")
+            setSentDate(Date(date ?: 0L), false)
+            MimeMessageHelper.setBody(this, TextBody("Hello Bob!"))
+
+            uid = subject
+        }
+
+        val localStore = localStoreProvider.getInstance(account)
+        K9BackendFolder(preferences, account, localStore, INBOX).saveCompleteMessage(message)
+
+        if (date == null) {
+            // Messages saved by older versions of the app can lack a date
+            updateMessage(subject, "date = NULL")
+        }
+    }
+
+    private fun updateMessage(uid: String, assignment: String) {
+        val localStore = localStoreProvider.getInstance(account)
+        localStore.database.execute(false) { db ->
+            db.execSQL("UPDATE messages SET $assignment WHERE uid = ?", arrayOf(uid))
+        }
+    }
+
+    private fun updated(item: MessageListItem): MessageChanges {
+        return MessageChanges.updated(account.uuid, listOf(item.databaseId))
+    }
+
+    companion object {
+        const val INBOX = "inbox"
+    }
+}
@@ -0,0 +1,121 @@
+package com.fsck.k9.ui.messageview
+
+import com.fsck.k9.Account
+import com.fsck.k9.Preferences
+import com.fsck.k9.RobolectricTest
+import com.fsck.k9.controller.MessageReference
+import com.fsck.k9.controller.MessagingController
+import com.fsck.k9.mail.Flag
+import com.fsck.k9.mailstore.LocalFolder
+import com.fsck.k9.mailstore.LocalMessage
+import com.fsck.k9.mailstore.LocalStore
+import com.fsck.k9.mailstore.LocalStoreProvider
+import com.fsck.k9.mailstore.MessageViewInfo
+import com.fsck.k9.mailstore.MessageViewInfoExtractor
+import com.fsck.k9.mailstore.MessageViewInfoExtractorFactory
+import com.fsck.k9.message.html.HtmlSettings
+import com.fsck.k9.ui.helper.HtmlSettingsProvider
+import com.nhaarman.mockitokotlin2.any
+import com.nhaarman.mockitokotlin2.anyOrNull
+import com.nhaarman.mockitokotlin2.doReturn
+import com.nhaarman.mockitokotlin2.eq
+import com.nhaarman.mockitokotlin2.mock
+import com.nhaarman.mockitokotlin2.never
+import com.nhaarman.mockitokotlin2.verify
+import com.nhaarman.mockitokotlin2.whenever
+import java.util.concurrent.Executor
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Test
+import org.robolectric.RuntimeEnvironment
+
+class MessageViewPrefetcherTest : RobolectricTest() {
+    private val account = mock<Account> {
+        on { uuid } doReturn ACCOUNT_UUID
+    }
+    private val localMessage = mock<LocalMessage> {
+        on { databaseId } doReturn 1L
+        on { uid } doReturn MESSAGE_UID
+        on { messagePartId } doReturn MESSAGE_PART_ID
+    }
+    private val localFolder = mock<LocalFolder> {
+        on { getMessage(MESSAGE_UID) } doReturn localMessage
+    }
+    private val localStore = mock<LocalStore> {
+        on { getFolder(FOLDER_ID) } doReturn localFolder
+    }
+    private val localStoreProvider = mock<LocalStoreProvider> {
+        on { getInstance(account) } doReturn localStore
+    }
+    private val preferences = mock<Preferences> {
+        on { getAccount(ACCOUNT_UUID) } doReturn account
+    }
+    private val messageViewInfo = mock<MessageViewInfo>()
+    private val messageViewInfoExtractor = mock<MessageViewInfoExtractor> {
+        on { extractMessageForView(eq(localMessage), anyOrNull(), eq(false)) } doReturn messageViewInfo
+    }
+    private val messageViewInfoExtractorFactory = mock<MessageViewInfoExtractorFactory> {
+        on { create(any()) } doReturn messageViewInfoExtractor
+    }
+    private val htmlSettingsProvider = mock<HtmlSettingsProvider> {
+        on { createForMessageView() } doReturn HTML_SETTINGS
+    }
+    private val messagingController = mock<MessagingController>()
+    private val messageViewPrefetcher = MessageViewPrefetcher(
+        RuntimeEnvironment.application,
+        preferences,
+        messagingController,
+        localStoreProvider,
+        messageViewInfoExtractorFactory,
+        htmlSettingsProvider,
+        Executor { it.run() }
+    )
+
+    @Test
+    fun prefetch_withCompleteMessage_shouldProvideMessageViewInfo() {
+        whenever(localMessage.isSet(Flag.X_DOWNLOADED_FULL)).thenReturn(true)
+
+        messageViewPrefetcher.prefetch(listOf(MESSAGE_REFERENCE))
+
+        assertSame(messageViewInfo, messageViewPrefetcher.getMessageViewInfo(MESSAGE_REFERENCE, localMessage))
+        verify(messagingController, never()).prefetchMessageRemote(any(), any(), any(), any(), anyOrNull())
+    }
+
+    @Test
+    fun getMessageViewInfo_withChangedMessage_shouldReturnNull() {
+        whenever(localMessage.isSet(Flag.X_DOWNLOADED_FULL)).thenReturn(true)
+        messageViewPrefetcher.prefetch(listOf(MESSAGE_REFERENCE))
+        val changedMessage = mock<LocalMessage> {
+            on { messagePartId } doReturn MESSAGE_PART_ID + 1
+        }
+
+        assertNull(messageViewPrefetcher.getMessageViewInfo(MESSAGE_REFERENCE, changedMessage))
+    }
+
+    @Test
+    fun getMessageViewInfo_withChangedHtmlSettings_shouldReturnNull() {
+        whenever(localMessage.isSet(Flag.X_DOWNLOADED_FULL)).thenReturn(true)
+        messageViewPrefetcher.prefetch(listOf(MESSAGE_REFERENCE))
+        whenever(htmlSettingsProvider.createForMessageView()).thenReturn(HTML_SETTINGS.copy(useDarkMode = true))
+
+        assertNull(messageViewPrefetcher.getMessageViewInfo(MESSAGE_REFERENCE, localMessage))
+    }
+
+    @Test
+    fun prefetch_withMessageWithoutBody_shouldDownloadMessage() {
+        messageViewPrefetcher.prefetch(listOf(MESSAGE_REFERENCE))
+
+        verify(messagingController)
+            .prefetchMessageRemote(eq(account), eq(FOLDER_ID), eq(MESSAGE_UID), eq(false), any())
+        assertNull(messageViewPrefetcher.getMessageViewInfo(MESSAGE_REFERENCE, localMessage))
+    }
+
+    companion object {
+        private const val ACCOUNT_UUID = "00000000-0000-4000-0000-000000000000"
+        private const val FOLDER_ID = 23L
+        private const val MESSAGE_UID = "42"
+        private const val MESSAGE_PART_ID = 10L
+        private val MESSAGE_REFERENCE = MessageReference(ACCOUNT_UUID, FOLDER_ID, MESSAGE_UID, null)
+        private val HTML_SETTINGS = HtmlSettings(useDarkMode = false, useFixedWidthFont = false)
+    }
+}
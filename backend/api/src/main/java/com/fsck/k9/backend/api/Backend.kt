@@ -98,6 +98,24 @@ interface Backend {
     @Throws(MessagingException::class)
     fun sendMessage(message: Message)
 
+    /**
+     * Called before a batch of messages is sent using [sendMessage]. Backends may keep the connection to the outgoing
+     * server open until [endSendSession] is called.
+     */
+    fun beginSendSession()
+
+    fun endSendSession()
+
     @Throws(MessagingException::class)
     fun checkOutgoingServerSettings()
+
+    /**
+     * Creates a [BackendPusher] that notifies [callback] about changes on the server.
+     *
+     * Backends that don't support push can use the default implementation. The returned pusher calls
+     * [BackendPusherCallback.onPushNotSupported] when it's started.
+     */
+    fun createPusher(callback: BackendPusherCallback): BackendPusher {
+        return PushNotSupportedBackendPusher(callback)
+    }
 }
@@ -20,9 +20,22 @@ interface BackendFolder {
     fun setStatus(status: String?)
     fun isMessagePresent(messageServerId: String): Boolean
     fun getMessageFlags(messageServerId: String): Set<Flag>
+
+    /**
+     * Returns the flags of all messages in [messageServerIds] that are present in this folder. Messages that are not
+     * present are not part of the returned map.
+     */
+    fun getMessageFlags(messageServerIds: Collection<String>): Map<String, Set<Flag>>
     fun setMessageFlag(messageServerId: String, flag: Flag, value: Boolean)
     fun savePartialMessage(message: Message)
     fun saveCompleteMessage(message: Message)
+
+    /**
+     * Saves all [messages] as completely downloaded messages using a single database transaction.
+     *
+     * All messages are held in memory until this method returns. Callers should limit the size of a batch.
+     */
+    fun saveCompleteMessages(messages: List<Message>)
     fun getLatestOldMessageSeenTime(): Date
     fun setLatestOldMessageSeenTime(date: Date)
     fun getOldestMessageDate(): Date?
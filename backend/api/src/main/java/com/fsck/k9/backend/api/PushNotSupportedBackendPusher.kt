@@ -0,0 +1,14 @@
+package com.fsck.k9.backend.api
+
+/**
+ * [BackendPusher] for backends that don't support push.
+ */
+internal class PushNotSupportedBackendPusher(private val callback: BackendPusherCallback) : BackendPusher {
+    override fun start() {
+        callback.onPushNotSupported()
+    }
+
+    override fun updateFolders(folderServerIds: Collection<String>) = Unit
+
+    override fun stop() = Unit
+}
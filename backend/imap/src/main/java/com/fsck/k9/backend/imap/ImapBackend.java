@@ -7,6 +7,8 @@ import java.util.Map;
 import java.util.Set;
 
 import com.fsck.k9.backend.api.Backend;
+import com.fsck.k9.backend.api.BackendPusher;
+import com.fsck.k9.backend.api.BackendPusherCallback;
 import com.fsck.k9.backend.api.BackendStorage;
 import com.fsck.k9.backend.api.SyncConfig;
 import com.fsck.k9.backend.api.SyncListener;
@@ -24,8 +26,10 @@ import org.jetbrains.annotations.Nullable;
 
 
 public class ImapBackend implements Backend {
+    private final String accountName;
     private final ImapStore imapStore;
     private final PowerManager powerManager;
+    private final ImapPushConfig pushConfig;
     private final SmtpTransport smtpTransport;
     private final ImapSync imapSync;
     private final CommandRefreshFolderList commandRefreshFolderList;
@@ -41,9 +45,11 @@ public class ImapBackend implements Backend {
 
 
     public ImapBackend(String accountName, BackendStorage backendStorage, ImapStore imapStore,
-            PowerManager powerManager, SmtpTransport smtpTransport) {
+            PowerManager powerManager, ImapPushConfig pushConfig, SmtpTransport smtpTransport) {
+        this.accountName = accountName;
         this.imapStore = imapStore;
         this.powerManager = powerManager;
+        this.pushConfig = pushConfig;
         this.smtpTransport = smtpTransport;
 
         imapSync = new ImapSync(accountName, backendStorage, imapStore);
@@ -222,8 +228,24 @@ public class ImapBackend implements Backend {
         smtpTransport.sendMessage(message);
     }
 
+    @Override
+    public void beginSendSession() {
+        smtpTransport.beginSession();
+    }
+
+    @Override
+    public void endSendSession() {
+        smtpTransport.endSession();
+    }
+
     @Override
     public void checkOutgoingServerSettings() throws MessagingException {
         smtpTransport.checkSettings();
     }
+
+    @NotNull
+    @Override
+    public BackendPusher createPusher(@NotNull BackendPusherCallback callback) {
+        return new ImapBackendPusher(imapStore, powerManager, pushConfig, callback, accountName);
+    }
 }
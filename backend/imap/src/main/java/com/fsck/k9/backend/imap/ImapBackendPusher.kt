@@ -0,0 +1,90 @@
+package com.fsck.k9.backend.imap
+
+import com.fsck.k9.backend.api.BackendPusher
+import com.fsck.k9.backend.api.BackendPusherCallback
+import com.fsck.k9.mail.power.PowerManager
+import com.fsck.k9.mail.store.imap.ImapStore
+import java.util.Timer
+import timber.log.Timber
+
+/**
+ * Manages one [ImapFolderPusher] per folder that should be monitored using IMAP IDLE.
+ */
+internal class ImapBackendPusher(
+    private val imapStore: ImapStore,
+    private val powerManager: PowerManager,
+    private val pushConfig: ImapPushConfig,
+    private val callback: BackendPusherCallback,
+    private val accountName: String
+) : BackendPusher {
+    private val lock = Any()
+    private val pushers = mutableMapOf<String, ImapFolderPusher>()
+    private var refreshTimer: Timer? = null
+    private var stopped = false
+
+    override fun start() {
+        synchronized(lock) {
+            stopped = false
+            if (refreshTimer == null) {
+                refreshTimer = Timer("ImapBackendPusher-$accountName", true)
+            }
+        }
+    }
+
+    override fun updateFolders(folderServerIds: Collection<String>) {
+        val stopFolderPushers: List<ImapFolderPusher>
+        synchronized(lock) {
+            if (stopped) {
+                return
+            }
+
+            val timer = refreshTimer ?: throw IllegalStateException("start() must be called first")
+            val currentFolderServerIds = pushers.keys.toSet()
+
+            val startFolderServerIds = folderServerIds.toSet() - currentFolderServerIds
+            val stopFolderServerIds = currentFolderServerIds - folderServerIds
+
+            stopFolderPushers = stopFolderServerIds.mapNotNull { folderServerId -> pushers.remove(folderServerId) }
+
+            for (folderServerId in startFolderServerIds) {
+                Timber.v("Starting ImapFolderPusher for %s / %s", accountName, folderServerId)
+                val folderPusher = createFolderPusher(folderServerId, timer)
+                pushers[folderServerId] = folderPusher
+                folderPusher.start()
+            }
+        }
+
+        for (folderPusher in stopFolderPushers) {
+            folderPusher.stop()
+        }
+    }
+
+    override fun stop() {
+        val folderPushers: List<ImapFolderPusher>
+        synchronized(lock) {
+            stopped = true
+            folderPushers = pushers.values.toList()
+            pushers.clear()
+
+            refreshTimer?.cancel()
+            refreshTimer = null
+        }
+
+        for (folderPusher in folderPushers) {
+            folderPusher.stop()
+        }
+    }
+
+    private fun createFolderPusher(folderServerId: String, refreshTimer: Timer): ImapFolderPusher {
+        val idleRefreshTimeoutMs = pushConfig.idleRefreshMinutes * 60 * 1000L
+        return ImapFolderPusher(
+            imapStore,
+            powerManager,
+            callback,
+            accountName,
+            folderServerId,
+            idleRefreshTimeoutMs,
+            refreshTimer
+        )
+    }
+}
@@ -0,0 +1,95 @@
+package com.fsck.k9.backend.imap
+
+import com.fsck.k9.backend.api.BackendPusherCallback
+import com.fsck.k9.mail.power.PowerManager
+import com.fsck.k9.mail.store.imap.IdleResult
+import com.fsck.k9.mail.store.imap.ImapFolderIdler
+import com.fsck.k9.mail.store.imap.ImapStore
+import java.util.Timer
+import timber.log.Timber
+
+/**
+ * Listens for changes to an IMAP folder in a dedicated thread.
+ */
+internal class ImapFolderPusher(
+    private val imapStore: ImapStore,
+    private val powerManager: PowerManager,
+    private val callback: BackendPusherCallback,
+    private val accountName: String,
+    private val folderServerId: String,
+    private val idleRefreshTimeoutMs: Long,
+    private val refreshTimer: Timer
+) {
+    @Volatile
+    private var stopPushing = false
+    @Volatile
+    private var folderIdler: ImapFolderIdler? = null
+    private var thread: Thread? = null
+
+    fun start() {
+        val thread = Thread(::runPushLoop, "ImapFolderPusher-$accountName-$folderServerId")
+        this.thread = thread
+        thread.start()
+    }
+
+    fun stop() {
+        stopPushing = true
+        folderIdler?.stop()
+        thread?.interrupt()
+    }
+
+    private fun runPushLoop() {
+        val wakeLock = powerManager.newWakeLock("ImapFolderPusher-$accountName-$folderServerId")
+        wakeLock.setReferenceCounted(false)
+
+        val folderIdler = ImapFolderIdler(imapStore, wakeLock, folderServerId, idleRefreshTimeoutMs, refreshTimer)
+        this.folderIdler = folderIdler
+        if (stopPushing) {
+            return
+        }
+
+        var delayMs = INITIAL_RETRY_DELAY_MS
+        while (!stopPushing) {
+            try {
+                when (folderIdler.idle()) {
+                    IdleResult.SYNC -> {
+                        callback.onPushEvent(folderServerId)
+                    }
+                    IdleResult.STOPPED -> {
+                        break
+                    }
+                    IdleResult.NOT_SUPPORTED -> {
+                        callback.onPushNotSupported()
+                        break
+                    }
+                }
+
+                delayMs = INITIAL_RETRY_DELAY_MS
+            } catch (e: Exception) {
+                if (stopPushing) {
+                    break
+                }
+
+                Timber.v(e, "Exception in ImapFolderPusher for %s / %s", accountName, folderServerId)
+                callback.onPushError(e)
+
+                try {
+                    Thread.sleep(delayMs)
+                } catch (e: InterruptedException) {
+                    break
+                }
+
+                delayMs = (delayMs * 2).coerceAtMost(MAX_RETRY_DELAY_MS)
+            }
+        }
+
+        folderIdler.stop()
+        wakeLock.release()
+        Timber.v("Exiting ImapFolderPusher for %s / %s", accountName, folderServerId)
+    }
+
+    companion object {
+        private const val INITIAL_RETRY_DELAY_MS = 5 * 1000L
+        private const val MAX_RETRY_DELAY_MS = 5 * 60 * 1000L
+    }
+}
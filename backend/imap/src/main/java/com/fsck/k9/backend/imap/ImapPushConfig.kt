@@ -0,0 +1,5 @@
+package com.fsck.k9.backend.imap
+
+interface ImapPushConfig {
+    val idleRefreshMinutes: Int
+}
@@ -4,6 +4,7 @@ package com.fsck.k9.backend.imap;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -11,6 +12,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.fsck.k9.backend.api.BackendFolder;
 import com.fsck.k9.backend.api.BackendFolder.MoreMessages;
@@ -31,11 +33,17 @@ import com.fsck.k9.mail.internet.MessageExtractor;
 import com.fsck.k9.mail.store.imap.ImapFolder;
 import com.fsck.k9.mail.store.imap.ImapMessage;
 import com.fsck.k9.mail.store.imap.ImapStore;
+import com.fsck.k9.mail.store.imap.QresyncParameters;
+import com.fsck.k9.mail.store.imap.QresyncResponse;
 import timber.log.Timber;
 
 
 class ImapSync {
     private static final String EXTRA_UID_VALIDITY = "imapUidValidity";
+    private static final String EXTRA_HIGHEST_MOD_SEQ = "imapHighestModSeq";
+    private static final String EXTRA_SYNCED_VISIBLE_LIMIT = "imapSyncedVisibleLimit";
+    private static final int SMALL_MESSAGE_SAVE_BATCH_SIZE = 25;
+    private static final long SMALL_MESSAGE_SAVE_BATCH_MAX_BYTES = 1024 * 1024;
 
     private final String accountName;
     private final BackendStorage backendStorage;
@@ -93,12 +101,31 @@ class ImapSync {
                 Timber.d("SYNC: Expunging folder %s:%s", accountName, folder);
                 remoteFolder.expunge();
             }
-            remoteFolder.open(ImapFolder.OPEN_MODE_RO);
+            int visibleLimit = backendFolder.getVisibleLimit();
+
+            if (visibleLimit < 0) {
+                visibleLimit = syncConfig.getDefaultVisibleLimit();
+            }
+
+            Long oldUidValidity = backendFolder.getFolderExtraNumber(EXTRA_UID_VALIDITY);
+            Long oldHighestModSeq = getHighestModSeqOfLastSync(backendFolder, visibleLimit);
+
+            /*
+             * If we know the mod-sequence of the last sync we ask the server to only report changes since then
+             * (QRESYNC, RFC 7162). The incremental sync doesn't prune messages that are older than the earliest poll
+             * date, so we always do a full sync when a date restriction is configured.
+             */
+            QresyncResponse qresyncResponse = null;
+            if (oldUidValidity != null && oldHighestModSeq != null && syncConfig.getEarliestPollDate() == null) {
+                QresyncParameters qresyncParameters = new QresyncParameters(oldUidValidity, oldHighestModSeq);
+                qresyncResponse = remoteFolder.openWithQresync(ImapFolder.OPEN_MODE_RO, qresyncParameters);
+            } else {
+                remoteFolder.open(ImapFolder.OPEN_MODE_RO);
+            }
 
             listener.syncAuthenticationSuccess();
 
             Long uidValidity = remoteFolder.getUidValidity();
-            Long oldUidValidity = backendFolder.getFolderExtraNumber(EXTRA_UID_VALIDITY);
             if (oldUidValidity == null && uidValidity != null) {
                 Timber.d("SYNC: Saving UIDVALIDITY for %s", folder);
                 backendFolder.setFolderExtraNumber(EXTRA_UID_VALIDITY, uidValidity);
@@ -106,6 +133,16 @@ class ImapSync {
                 Timber.d("SYNC: UIDVALIDITY for %s changed; clearing local message cache", folder);
                 backendFolder.clearAllMessages();
                 backendFolder.setFolderExtraNumber(EXTRA_UID_VALIDITY, uidValidity);
+
+                oldHighestModSeq = null;
+                qresyncResponse = null;
+            }
+
+            Long highestModSeq = remoteFolder.getHighestModSeq();
+            if (highestModSeq == null || (oldHighestModSeq != null && highestModSeq < oldHighestModSeq)) {
+                // The server doesn't (or no longer) support mod-sequences for this folder
+                oldHighestModSeq = null;
+                qresyncResponse = null;
             }
 
             /*
@@ -115,6 +152,21 @@ class ImapSync {
 
             Long lastUid = backendFolder.getLastUid();
 
+            int qresyncNewMessages = 0;
+            if (qresyncResponse != null) {
+                qresyncNewMessages = synchronizeChanges(syncConfig, remoteFolder, backendFolder, qresyncResponse,
+                        visibleLimit, lastUid, listener);
+
+                if (!isVisibleWindowIncomplete(remoteFolder, backendFolder, qresyncResponse, visibleLimit)) {
+                    saveHighestModSeq(backendFolder, highestModSeq, visibleLimit);
+                    finishSync(folder, backendFolder, qresyncNewMessages, listener);
+                    return;
+                }
+
+                // Older messages moved into the visible window. Only a full sync can find out which ones.
+                Timber.d("SYNC: Messages were removed from folder %s; refilling the visible window", folder);
+            }
+
             Map<String, Long> localUidMap = backendFolder.getAllMessagesAndEffectiveDates();
 
             /*
@@ -122,12 +174,6 @@ class ImapSync {
              */
             int remoteMessageCount = remoteFolder.getMessageCount();
 
-            int visibleLimit = backendFolder.getVisibleLimit();
-
-            if (visibleLimit < 0) {
-                visibleLimit = syncConfig.getDefaultVisibleLimit();
-            }
-
             final List<ImapMessage> remoteMessages = new ArrayList<>();
             Map<String, ImapMessage> remoteUidMap = new HashMap<>();
 
@@ -209,25 +255,13 @@ class ImapSync {
              * Now we download the actual content of messages.
              */
             int newMessages = downloadMessages(syncConfig, remoteFolder, backendFolder, remoteMessages, false,
-                    lastUid, listener);
-
-            listener.folderStatusChanged(folder);
-
-            /* Notify listeners that we're finally done. */
-
-            backendFolder.setLastChecked(System.currentTimeMillis());
-            backendFolder.setStatus(null);
-
-            Timber.d("Done synchronizing folder %s:%s @ %tc with %d new messages",
-                    accountName,
-                    folder,
-                    System.currentTimeMillis(),
-                    newMessages);
+                    lastUid, oldHighestModSeq, listener);
 
-            listener.syncFinished(folder);
-
-            Timber.i("Done synchronizing folder %s:%s", accountName, folder);
+            if (highestModSeq != null) {
+                saveHighestModSeq(backendFolder, highestModSeq, visibleLimit);
+            }
 
+            finishSync(folder, backendFolder, qresyncNewMessages + newMessages, listener);
         } catch (AuthenticationFailedException e) {
             listener.syncFailed(folder, "Authentication failure", e);
         } catch (Exception e) {
@@ -255,6 +289,151 @@ class ImapSync {
 
     }
 
+    private void finishSync(String folder, BackendFolder backendFolder, int newMessages, SyncListener listener) {
+        listener.folderStatusChanged(folder);
+
+        /* Notify listeners that we're finally done. */
+
+        backendFolder.setLastChecked(System.currentTimeMillis());
+        backendFolder.setStatus(null);
+
+        Timber.d("Done synchronizing folder %s:%s @ %tc with %d new messages",
+                accountName,
+                folder,
+                System.currentTimeMillis(),
+                newMessages);
+
+        listener.syncFinished(folder);
+
+        Timber.i("Done synchronizing folder %s:%s", accountName, folder);
+    }
+
+    /**
+     * Returns the HIGHESTMODSEQ value saved after the last successful sync, or {@code null} if the next sync can't
+     * rely on it, e.g. because the visible limit changed in the meantime.
+     */
+    private Long getHighestModSeqOfLastSync(BackendFolder backendFolder, int visibleLimit) {
+        Long syncedVisibleLimit = backendFolder.getFolderExtraNumber(EXTRA_SYNCED_VISIBLE_LIMIT);
+        if (syncedVisibleLimit == null || syncedVisibleLimit != visibleLimit) {
+            return null;
+        }
+
+        return backendFolder.getFolderExtraNumber(EXTRA_HIGHEST_MOD_SEQ);
+    }
+
+    private void saveHighestModSeq(BackendFolder backendFolder, long highestModSeq, int visibleLimit) {
+        backendFolder.setFolderExtraNumber(EXTRA_HIGHEST_MOD_SEQ, highestModSeq);
+        backendFolder.setFolderExtraNumber(EXTRA_SYNCED_VISIBLE_LIMIT, visibleLimit);
+    }
+
+    /**
+     * Applies the changes the server reported in response to opening the folder with the QRESYNC parameter.
+     *
+     * @return The number of downloaded messages that are not flagged as {@link Flag#SEEN}.
+     */
+    private int synchronizeChanges(SyncConfig syncConfig, ImapFolder remoteFolder, BackendFolder backendFolder,
+            QresyncResponse qresyncResponse, int visibleLimit, Long lastUid, SyncListener listener)
+            throws MessagingException {
+        String folder = remoteFolder.getServerId();
+        Set<String> vanishedUids = qresyncResponse.getVanishedUids();
+        List<ImapMessage> modifiedMessages = qresyncResponse.getModifiedMessages();
+
+        Timber.d("SYNC: Server reported %d vanished and %d modified messages for folder %s",
+                vanishedUids.size(), modifiedMessages.size(), folder);
+
+        if (syncConfig.getSyncRemoteDeletions() && !vanishedUids.isEmpty()) {
+            List<String> destroyMessageUids = new ArrayList<>(backendFolder.getMessageFlags(vanishedUids).keySet());
+
+            if (!destroyMessageUids.isEmpty()) {
+                backendFolder.destroyMessages(destroyMessageUids);
+                for (String uid : destroyMessageUids) {
+                    listener.syncRemovedMessage(folder, uid);
+                }
+            }
+        }
+
+        Map<String, Set<Flag>> localFlagsMap = getLocalMessageFlags(backendFolder, modifiedMessages);
+
+        List<ImapMessage> newMessages = new ArrayList<>();
+        for (ImapMessage message : modifiedMessages) {
+            String uid = message.getUid();
+            Set<Flag> localMessageFlags = localFlagsMap.get(uid);
+            if (localMessageFlags != null) {
+                // The flags were part of the response. No need to fetch them again.
+                boolean messageChanged = syncFlags(syncConfig, backendFolder, localMessageFlags, message);
+                if (messageChanged) {
+                    listener.syncFlagChanged(folder, uid);
+                }
+            } else if (!message.isSet(Flag.DELETED) && !isOldMessage(uid, lastUid)) {
+                newMessages.add(message);
+            }
+        }
+
+        int newMessageCount = downloadMessages(syncConfig, remoteFolder, backendFolder, newMessages, false, lastUid,
+                null, listener);
+
+        if (syncConfig.getSyncRemoteDeletions()) {
+            removeMessagesOutsideVisibleWindow(folder, backendFolder, visibleLimit, listener);
+        }
+
+        return newMessageCount;
+    }
+
+    /**
+     * Removes the oldest local messages so only the newest {@code visibleLimit} messages are kept, like a full sync
+     * does.
+     */
+    private void removeMessagesOutsideVisibleWindow(String folder, BackendFolder backendFolder, int visibleLimit,
+            SyncListener listener) {
+        if (visibleLimit <= 0) {
+            return;
+        }
+
+        List<String> localMessageUids = new ArrayList<>(backendFolder.getAllMessagesAndEffectiveDates().keySet());
+        if (localMessageUids.size() <= visibleLimit) {
+            return;
+        }
+
+        Collections.sort(localMessageUids, new Comparator<String>() {
+            @Override
+            public int compare(String uidLeft, String uidRight) {
+                // reverse order
+                return Long.compare(parseUid(uidRight), parseUid(uidLeft));
+            }
+        });
+
+        List<String> destroyMessageUids =
+                new ArrayList<>(localMessageUids.subList(visibleLimit, localMessageUids.size()));
+        backendFolder.destroyMessages(destroyMessageUids);
+        backendFolder.setMoreMessages(MoreMessages.TRUE);
+
+        for (String uid : destroyMessageUids) {
+            listener.syncRemovedMessage(folder, uid);
+        }
+    }
+
+    /**
+     * Returns {@code true} if messages were removed from the server and there are now fewer local messages than the
+     * visible window should contain.
+     */
+    private boolean isVisibleWindowIncomplete(ImapFolder remoteFolder, BackendFolder backendFolder,
+            QresyncResponse qresyncResponse, int visibleLimit) {
+        if (visibleLimit <= 0 || qresyncResponse.getVanishedUids().isEmpty()) {
+            return false;
+        }
+
+        int expectedMessageCount = Math.min(remoteFolder.getMessageCount(), visibleLimit);
+        return backendFolder.getAllMessagesAndEffectiveDates().size() < expectedMessageCount;
+    }
+
+    private static long parseUid(String messageServerId) {
+        try {
+            return Long.parseLong(messageServerId);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
     void downloadMessage(SyncConfig syncConfig, String folderServerId, String messageServerId)
             throws MessagingException {
         BackendFolder backendFolder = backendStorage.getFolder(folderServerId);
@@ -270,6 +449,7 @@ class ImapSync {
                     Collections.singletonList(remoteMessage),
                     false,
                     null,
+                    null,
                     new SimpleSyncListener());
         } finally {
             remoteFolder.close();
@@ -288,12 +468,14 @@ class ImapSync {
      *         A list of messages objects that store the UIDs of which messages to download.
      * @param flagSyncOnly
      *         Only flags will be fetched from the remote store if this is {@code true}.
+     * @param changedSince
+     *         If not {@code null}, only refresh the flags of messages whose mod-sequence is greater than this value.
      * @return The number of downloaded messages that are not flagged as {@link Flag#SEEN}.
      *
      * @throws MessagingException
      */
     private int downloadMessages(SyncConfig syncConfig, ImapFolder remoteFolder, BackendFolder backendFolder,
-            List<ImapMessage> inputMessages, boolean flagSyncOnly, Long lastUid,
+            List<ImapMessage> inputMessages, boolean flagSyncOnly, Long lastUid, Long changedSince,
             final SyncListener listener) throws MessagingException {
 
         final String folder = remoteFolder.getServerId();
@@ -304,9 +486,9 @@ class ImapSync {
 
         List<ImapMessage> messages = new ArrayList<>(inputMessages);
 
+        Map<String, Set<Flag>> localFlagsMap = getLocalMessageFlags(backendFolder, messages);
         for (ImapMessage message : messages) {
-            evaluateMessageForDownload(message, backendFolder, remoteFolder, unsyncedMessages, syncFlagMessages,
-                    flagSyncOnly);
+            evaluateMessageForDownload(message, localFlagsMap, unsyncedMessages, syncFlagMessages, flagSyncOnly);
         }
 
         final AtomicInteger progress = new AtomicInteger(0);
@@ -371,14 +553,24 @@ class ImapSync {
          * download.
          */
 
-        refreshLocalMessageFlags(syncConfig, remoteFolder, backendFolder, syncFlagMessages, progress, todo, listener);
+        refreshLocalMessageFlags(syncConfig, remoteFolder, backendFolder, localFlagsMap, syncFlagMessages,
+                changedSince, progress, todo, listener);
 
         Timber.d("SYNC: Synced remote messages for folder %s, %d new messages", folder, newMessages.get());
 
         return newMessages.get();
     }
 
-    private void evaluateMessageForDownload(ImapMessage message, BackendFolder backendFolder, ImapFolder remoteFolder,
+    private Map<String, Set<Flag>> getLocalMessageFlags(BackendFolder backendFolder, List<ImapMessage> messages) {
+        List<String> messageServerIds = new ArrayList<>(messages.size());
+        for (ImapMessage message : messages) {
+            messageServerIds.add(message.getUid());
+        }
+
+        return backendFolder.getMessageFlags(messageServerIds);
+    }
+
+    private void evaluateMessageForDownload(ImapMessage message, Map<String, Set<Flag>> localFlagsMap,
             List<ImapMessage> unsyncedMessages, List<ImapMessage> syncFlagMessages, boolean flagSyncOnly) {
 
         String messageServerId = message.getUid();
@@ -389,8 +581,8 @@ class ImapSync {
             return;
         }
 
-        boolean messagePresentLocally = backendFolder.isMessagePresent(messageServerId);
-        if (!messagePresentLocally) {
+        Set<Flag> messageFlags = localFlagsMap.get(messageServerId);
+        if (messageFlags == null) {
             if (!flagSyncOnly) {
                 Timber.v("Message with uid %s has not yet been downloaded", messageServerId);
                 unsyncedMessages.add(message);
@@ -398,7 +590,6 @@ class ImapSync {
             return;
         }
 
-        Set<Flag> messageFlags = backendFolder.getMessageFlags(messageServerId);
         if (!messageFlags.contains(Flag.DELETED)) {
             Timber.v("Message with uid %s is present in the local store", messageServerId);
 
@@ -497,47 +688,97 @@ class ImapSync {
 
         Timber.d("SYNC: Fetching %d small messages for folder %s", smallMessages.size(), folder);
 
-        remoteFolder.fetch(smallMessages,
-                fp, new MessageRetrievalListener<ImapMessage>() {
-                    @Override
-                    public void messageFinished(final ImapMessage message, int number, int ofTotal) {
-                        try {
-                            // Store the updated message locally
-                            backendFolder.saveCompleteMessage(message);
-                            progress.incrementAndGet();
-
+        final List<ImapMessage> pendingMessages = new ArrayList<>(SMALL_MESSAGE_SAVE_BATCH_SIZE);
+        final AtomicLong pendingSize = new AtomicLong();
 
-                            // Increment the number of "new messages" if the newly downloaded message is
-                            // not marked as read.
-                            if (!message.isSet(Flag.SEEN)) {
-                                newMessages.incrementAndGet();
+        try {
+            remoteFolder.fetch(smallMessages,
+                    fp, new MessageRetrievalListener<ImapMessage>() {
+                        @Override
+                        public void messageFinished(final ImapMessage message, int number, int ofTotal) {
+                            pendingMessages.add(message);
+                            long batchSize = pendingSize.addAndGet(message.getSize());
+
+                            if (pendingMessages.size() >= SMALL_MESSAGE_SAVE_BATCH_SIZE ||
+                                    batchSize >= SMALL_MESSAGE_SAVE_BATCH_MAX_BYTES) {
+                                saveSmallMessages(backendFolder, folder, pendingMessages, progress, newMessages, todo,
+                                        lastUid, listener);
+                                pendingSize.set(0);
                             }
+                        }
 
-                            String messageServerId = message.getUid();
-                            Timber.v("About to notify listeners that we got a new small message %s:%s:%s",
-                                    accountName, folder, messageServerId);
-
-                            // Update the listener with what we've found
-                            listener.syncProgress(folder, progress.get(), todo);
+                        @Override
+                        public void messageStarted(String uid, int number, int ofTotal) {
+                        }
 
-                            boolean isOldMessage = isOldMessage(messageServerId, lastUid);
-                            listener.syncNewMessage(folder, messageServerId, isOldMessage);
-                        } catch (Exception e) {
-                            Timber.e(e, "SYNC: fetch small messages");
+                        @Override
+                        public void messagesFinished(int total) {
                         }
-                    }
+                    },
+                    -1);
+        } finally {
+            // Also save the messages downloaded before an error interrupted the FETCH command
+            saveSmallMessages(backendFolder, folder, pendingMessages, progress, newMessages, todo, lastUid, listener);
+        }
 
-                    @Override
-                    public void messageStarted(String uid, int number, int ofTotal) {
-                    }
+        Timber.d("SYNC: Done fetching small messages for folder %s", folder);
+    }
 
-                    @Override
-                    public void messagesFinished(int total) {
-                    }
-                },
-                -1);
+    private void saveSmallMessages(BackendFolder backendFolder, String folder, List<ImapMessage> messages,
+            AtomicInteger progress, AtomicInteger newMessages, int todo, Long lastUid, SyncListener listener) {
+        if (messages.isEmpty()) {
+            return;
+        }
 
-        Timber.d("SYNC: Done fetching small messages for folder %s", folder);
+        List<ImapMessage> savedMessages;
+        try {
+            // Store the downloaded messages locally using a single transaction
+            savedMessages = new ArrayList<>(messages);
+            backendFolder.saveCompleteMessages(savedMessages);
+        } catch (Exception e) {
+            Timber.e(e, "SYNC: Error saving batch of small messages; falling back to saving messages one by one");
+            savedMessages = saveMessagesIndividually(backendFolder, messages);
+        }
+
+        for (ImapMessage message : savedMessages) {
+            try {
+                progress.incrementAndGet();
+
+                // Increment the number of "new messages" if the newly downloaded message is
+                // not marked as read.
+                if (!message.isSet(Flag.SEEN)) {
+                    newMessages.incrementAndGet();
+                }
+
+                String messageServerId = message.getUid();
+                Timber.v("About to notify listeners that we got a new small message %s:%s:%s",
+                        accountName, folder, messageServerId);
+
+                // Update the listener with what we've found
+                listener.syncProgress(folder, progress.get(), todo);
+
+                boolean isOldMessage = isOldMessage(messageServerId, lastUid);
+                listener.syncNewMessage(folder, messageServerId, isOldMessage);
+            } catch (Exception e) {
+                Timber.e(e, "SYNC: fetch small messages");
+            }
+        }
+
+        messages.clear();
+    }
+
+    private List<ImapMessage> saveMessagesIndividually(BackendFolder backendFolder, List<ImapMessage> messages) {
+        List<ImapMessage> savedMessages = new ArrayList<>(messages.size());
+        for (ImapMessage message : messages) {
+            try {
+                backendFolder.saveCompleteMessage(message);
+                savedMessages.add(message);
+            } catch (Exception e) {
+                Timber.e(e, "SYNC: fetch small messages");
+            }
+        }
+
+        return savedMessages;
     }
 
     private void downloadLargeMessages(
@@ -591,7 +832,9 @@ class ImapSync {
             SyncConfig syncConfig,
             final ImapFolder remoteFolder,
             final BackendFolder backendFolder,
+            Map<String, Set<Flag>> localFlagsMap,
             List<ImapMessage> syncFlagMessages,
+            Long changedSince,
             final AtomicInteger progress,
             final int todo,
             SyncListener listener
@@ -600,6 +843,12 @@ class ImapSync {
         final String folder = remoteFolder.getServerId();
         Timber.d("SYNC: About to sync flags for %d remote messages for folder %s", syncFlagMessages.size(), folder);
 
+        if (changedSince != null) {
+            refreshChangedMessageFlags(syncConfig, remoteFolder, backendFolder, localFlagsMap, syncFlagMessages,
+                    changedSince, progress, todo, listener);
+            return;
+        }
+
         FetchProfile fp = new FetchProfile();
         fp.add(FetchProfile.Item.FLAGS);
 
@@ -613,7 +862,8 @@ class ImapSync {
         int maxDownloadSize = syncConfig.getMaximumAutoDownloadMessageSize();
         remoteFolder.fetch(undeletedMessages, fp, null, maxDownloadSize);
         for (ImapMessage remoteMessage : syncFlagMessages) {
-            boolean messageChanged = syncFlags(syncConfig, backendFolder, remoteMessage);
+            Set<Flag> localMessageFlags = localFlagsMap.get(remoteMessage.getUid());
+            boolean messageChanged = syncFlags(syncConfig, backendFolder, localMessageFlags, remoteMessage);
             if (messageChanged) {
                 listener.syncFlagChanged(folder, remoteMessage.getUid());
             }
@@ -622,6 +872,44 @@ class ImapSync {
         }
     }
 
+    /**
+     * Only fetches the flags of messages that changed since the last sync (CONDSTORE, RFC 7162) instead of fetching the
+     * flags of all messages in the visible window.
+     */
+    private void refreshChangedMessageFlags(
+            SyncConfig syncConfig,
+            ImapFolder remoteFolder,
+            BackendFolder backendFolder,
+            Map<String, Set<Flag>> localFlagsMap,
+            List<ImapMessage> syncFlagMessages,
+            long changedSince,
+            AtomicInteger progress,
+            int todo,
+            SyncListener listener
+    ) throws MessagingException {
+
+        final String folder = remoteFolder.getServerId();
+
+        Map<String, ImapMessage> changedMessages = new HashMap<>();
+        if (!syncFlagMessages.isEmpty()) {
+            for (ImapMessage message : remoteFolder.fetchChangedFlags(changedSince)) {
+                changedMessages.put(message.getUid(), message);
+            }
+        }
+
+        Timber.d("SYNC: Server reported %d messages with changed flags for folder %s", changedMessages.size(), folder);
+
+        for (ImapMessage message : syncFlagMessages) {
+            ImapMessage remoteMessage = changedMessages.get(message.getUid());
+            Set<Flag> localMessageFlags = localFlagsMap.get(message.getUid());
+            if (remoteMessage != null && syncFlags(syncConfig, backendFolder, localMessageFlags, remoteMessage)) {
+                listener.syncFlagChanged(folder, remoteMessage.getUid());
+            }
+            progress.incrementAndGet();
+            listener.syncProgress(folder, progress.get(), todo);
+        }
+    }
+
     private void downloadSaneBody(ImapFolder remoteFolder, BackendFolder backendFolder, ImapMessage message,
             int maxDownloadSize) throws MessagingException {
         /*
@@ -666,14 +954,15 @@ class ImapSync {
         backendFolder.savePartialMessage(message);
     }
 
-    private boolean syncFlags(SyncConfig syncConfig, BackendFolder backendFolder, ImapMessage remoteMessage) {
+    private boolean syncFlags(SyncConfig syncConfig, BackendFolder backendFolder, Set<Flag> localMessageFlags,
+            ImapMessage remoteMessage) {
         String messageServerId = remoteMessage.getUid();
 
-        if (!backendFolder.isMessagePresent(messageServerId)) {
+        if (localMessageFlags == null) {
+            // Message isn't present locally
             return false;
         }
 
-        Set<Flag> localMessageFlags = backendFolder.getMessageFlags(messageServerId);
         if (localMessageFlags.contains(Flag.DELETED)) {
             return false;
         }
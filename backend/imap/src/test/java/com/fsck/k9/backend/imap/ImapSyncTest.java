@@ -1,13 +1,17 @@
 package com.fsck.k9.backend.imap;
 
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import com.fsck.k9.backend.api.BackendFolder;
+import com.fsck.k9.backend.api.BackendFolder.MoreMessages;
 import com.fsck.k9.backend.api.BackendStorage;
 import com.fsck.k9.backend.api.SyncConfig;
 import com.fsck.k9.backend.api.SyncConfig.ExpungePolicy;
@@ -19,6 +23,8 @@ import com.fsck.k9.mail.MessagingException;
 import com.fsck.k9.mail.store.imap.ImapFolder;
 import com.fsck.k9.mail.store.imap.ImapMessage;
 import com.fsck.k9.mail.store.imap.ImapStore;
+import com.fsck.k9.mail.store.imap.QresyncParameters;
+import com.fsck.k9.mail.store.imap.QresyncResponse;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
@@ -30,6 +36,8 @@ import org.mockito.stubbing.Answer;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.nullable;
 import static org.mockito.Matchers.any;
@@ -46,6 +54,8 @@ import static org.mockito.Mockito.when;
 @SuppressWarnings("unchecked")
 public class ImapSyncTest {
     private static final String EXTRA_UID_VALIDITY = "imapUidValidity";
+    private static final String EXTRA_HIGHEST_MOD_SEQ = "imapHighestModSeq";
+    private static final String EXTRA_SYNCED_VISIBLE_LIMIT = "imapSyncedVisibleLimit";
     private static final String ACCOUNT_NAME = "Account";
     private static final String FOLDER_NAME = "Folder";
     private static final Long FOLDER_UID_VALIDITY = 42L;
@@ -232,6 +242,20 @@ public class ImapSyncTest {
         assertTrue(fetchProfileCaptor.getAllValues().get(1).contains(FetchProfile.Item.BODY));
     }
 
+    @Test
+    public void sync_withUnsyncedNewSmallMessages_shouldSaveMessagesInOneBatch() throws Exception {
+        ImapMessage smallMessage1 = buildSmallNewMessage();
+        ImapMessage smallMessage2 = buildSmallNewMessage();
+        messageCountInRemoteFolder(2);
+        hasUnsyncedRemoteMessage();
+        respondToFetchEnvelopesAndBodiesWithMessages(smallMessage1, smallMessage2);
+
+        imapSync.sync(FOLDER_NAME, syncConfig, listener);
+
+        verify(backendFolder).saveCompleteMessages(Arrays.asList(smallMessage1, smallMessage2));
+        verify(backendFolder, never()).saveCompleteMessage(any(ImapMessage.class));
+    }
+
     @Test
     public void sync_withUnsyncedNewSmallMessage_shouldFetchStructureAndLimitedBodyOfLargeMessage() throws Exception {
         ImapMessage largeMessage = buildLargeNewMessage();
@@ -279,6 +303,172 @@ public class ImapSyncTest {
         verify(backendFolder).setFolderExtraNumber(EXTRA_UID_VALIDITY, FOLDER_UID_VALIDITY);
     }
 
+    @Test
+    public void sync_withHighestModSeq_shouldSaveHighestModSeq() {
+        messageCountInRemoteFolder(1);
+        when(remoteFolder.getHighestModSeq()).thenReturn(100L);
+
+        imapSync.sync(FOLDER_NAME, syncConfig, listener);
+
+        verify(backendFolder).setFolderExtraNumber(EXTRA_HIGHEST_MOD_SEQ, 100L);
+        verify(backendFolder).setFolderExtraNumber(EXTRA_SYNCED_VISIBLE_LIMIT, 0L);
+    }
+
+    @Test
+    public void sync_withSavedHighestModSeq_shouldOpenFolderWithQresync() throws Exception {
+        hasSavedHighestModSeq(100L);
+        when(remoteFolder.getHighestModSeq()).thenReturn(120L);
+
+        imapSync.sync(FOLDER_NAME, syncConfig, listener);
+
+        verify(remoteFolder).openWithQresync(ImapFolder.OPEN_MODE_RO,
+                new QresyncParameters(FOLDER_UID_VALIDITY, 100L));
+    }
+
+    @Test
+    public void sync_withQresyncResponse_shouldDestroyVanishedMessages() throws Exception {
+        hasSavedHighestModSeq(100L);
+        when(remoteFolder.getHighestModSeq()).thenReturn(120L);
+        respondToQresyncWith(new QresyncResponse(Collections.singleton("5"), Collections.<ImapMessage>emptyList()));
+        hasLocalMessageWithFlags("5", Collections.<Flag>emptySet());
+
+        imapSync.sync(FOLDER_NAME, syncConfig, listener);
+
+        verify(backendFolder).destroyMessages(Collections.singletonList("5"));
+        verify(listener).syncRemovedMessage(FOLDER_NAME, "5");
+        verify(remoteFolder, never()).getMessages(anyInt(), anyInt(), nullable(Date.class),
+                nullable(MessageRetrievalListener.class));
+        verify(backendFolder).setFolderExtraNumber(EXTRA_HIGHEST_MOD_SEQ, 120L);
+        verify(listener).syncFinished(FOLDER_NAME);
+    }
+
+    @Test
+    public void sync_withQresyncResponse_shouldUpdateFlagsWithoutFetchingThem() throws Exception {
+        hasSavedHighestModSeq(100L);
+        when(remoteFolder.getHighestModSeq()).thenReturn(120L);
+        ImapMessage modifiedMessage = mock(ImapMessage.class);
+        when(modifiedMessage.getUid()).thenReturn("7");
+        when(modifiedMessage.isSet(Flag.SEEN)).thenReturn(true);
+        respondToQresyncWith(new QresyncResponse(Collections.<String>emptySet(),
+                Collections.singletonList(modifiedMessage)));
+        hasLocalMessageWithFlags("7", Collections.<Flag>emptySet());
+
+        imapSync.sync(FOLDER_NAME, syncConfig, listener);
+
+        verify(backendFolder).setMessageFlag("7", Flag.SEEN, true);
+        verify(listener).syncFlagChanged(FOLDER_NAME, "7");
+        verify(remoteFolder, never()).fetchChangedFlags(anyLong());
+    }
+
+    @Test
+    public void sync_withQresyncResponse_shouldRemoveMessagesOutsideVisibleWindow() throws Exception {
+        hasVisibleLimit(2);
+        hasSavedHighestModSeq(100L, 2);
+        when(remoteFolder.getHighestModSeq()).thenReturn(120L);
+        respondToQresyncWith(new QresyncResponse(Collections.<String>emptySet(),
+                Collections.<ImapMessage>emptyList()));
+        hasLocalMessages("10", "9", "11");
+
+        imapSync.sync(FOLDER_NAME, syncConfig, listener);
+
+        verify(backendFolder).destroyMessages(Collections.singletonList("9"));
+        verify(listener).syncRemovedMessage(FOLDER_NAME, "9");
+        verify(backendFolder).setMoreMessages(MoreMessages.TRUE);
+        verify(listener).syncFinished(FOLDER_NAME);
+    }
+
+    @Test
+    public void sync_withQresyncResponseRemovingMessageFromVisibleWindow_shouldRefillVisibleWindow()
+            throws Exception {
+        hasVisibleLimit(2);
+        hasSavedHighestModSeq(100L, 2);
+        messageCountInRemoteFolder(5);
+        when(remoteFolder.getHighestModSeq()).thenReturn(120L);
+        respondToQresyncWith(new QresyncResponse(Collections.singleton("5"), Collections.<ImapMessage>emptyList()));
+        hasLocalMessages("4");
+
+        imapSync.sync(FOLDER_NAME, syncConfig, listener);
+
+        verify(remoteFolder).getMessages(eq(4), eq(5), nullable(Date.class),
+                nullable(MessageRetrievalListener.class));
+        verify(backendFolder).setFolderExtraNumber(EXTRA_HIGHEST_MOD_SEQ, 120L);
+        verify(listener).syncFinished(FOLDER_NAME);
+    }
+
+    @Test
+    public void sync_withSavedHighestModSeqButWithoutQresync_shouldOnlyFetchChangedFlags() throws Exception {
+        hasSavedHighestModSeq(100L);
+        messageCountInRemoteFolder(1);
+        when(remoteFolder.getHighestModSeq()).thenReturn(120L);
+        ImapMessage remoteMessage = messageOnServer();
+        hasLocalMessageWithFlags("UID", EnumSet.of(Flag.X_DOWNLOADED_FULL));
+        ImapMessage changedMessage = mock(ImapMessage.class);
+        when(changedMessage.getUid()).thenReturn("UID");
+        when(changedMessage.isSet(Flag.FLAGGED)).thenReturn(true);
+        when(remoteFolder.fetchChangedFlags(100L)).thenReturn(Collections.singletonList(changedMessage));
+
+        imapSync.sync(FOLDER_NAME, syncConfig, listener);
+
+        verify(backendFolder).setMessageFlag("UID", Flag.FLAGGED, true);
+        verify(remoteFolder, never()).fetch(eq(Collections.singletonList(remoteMessage)), any(FetchProfile.class),
+                nullable(MessageRetrievalListener.class), anyInt());
+    }
+
+    @Test
+    public void sync_withChangedVisibleLimit_shouldNotUseSavedHighestModSeq() throws Exception {
+        hasSavedHighestModSeq(100L);
+        when(backendFolder.getFolderExtraNumber(EXTRA_SYNCED_VISIBLE_LIMIT)).thenReturn(50L);
+
+        imapSync.sync(FOLDER_NAME, syncConfig, listener);
+
+        verify(remoteFolder).open(ImapFolder.OPEN_MODE_RO);
+        verify(remoteFolder, never()).openWithQresync(anyInt(), any(QresyncParameters.class));
+    }
+
+    @Test
+    public void sync_withLocalMessages_shouldLookUpLocalFlagsInOneCall() throws Exception {
+        messageCountInRemoteFolder(1);
+        messageOnServer();
+        hasLocalMessageWithFlags("UID", EnumSet.of(Flag.X_DOWNLOADED_FULL));
+
+        imapSync.sync(FOLDER_NAME, syncConfig, listener);
+
+        verify(backendFolder).getMessageFlags(Collections.singletonList("UID"));
+        verify(backendFolder, never()).isMessagePresent(any(String.class));
+        verify(backendFolder, never()).getMessageFlags(any(String.class));
+    }
+
+    private void hasLocalMessageWithFlags(String messageServerId, Set<Flag> flags) {
+        when(backendFolder.getMessageFlags(anyCollection()))
+                .thenReturn(Collections.singletonMap(messageServerId, flags));
+    }
+
+    private void hasSavedHighestModSeq(long highestModSeq) {
+        hasSavedHighestModSeq(highestModSeq, 0);
+    }
+
+    private void hasSavedHighestModSeq(long highestModSeq, int syncedVisibleLimit) {
+        when(backendFolder.getFolderExtraNumber(EXTRA_UID_VALIDITY)).thenReturn(FOLDER_UID_VALIDITY);
+        when(backendFolder.getFolderExtraNumber(EXTRA_HIGHEST_MOD_SEQ)).thenReturn(highestModSeq);
+        when(backendFolder.getFolderExtraNumber(EXTRA_SYNCED_VISIBLE_LIMIT)).thenReturn((long) syncedVisibleLimit);
+    }
+
+    private void hasVisibleLimit(int visibleLimit) {
+        when(backendFolder.getVisibleLimit()).thenReturn(visibleLimit);
+    }
+
+    private void hasLocalMessages(String... messageServerIds) {
+        Map<String, Long> localMessages = new HashMap<>();
+        for (String messageServerId : messageServerIds) {
+            localMessages.put(messageServerId, null);
+        }
+        when(backendFolder.getAllMessagesAndEffectiveDates()).thenReturn(localMessages);
+    }
+
+    private void respondToQresyncWith(QresyncResponse qresyncResponse) throws MessagingException {
+        when(remoteFolder.openWithQresync(anyInt(), any(QresyncParameters.class))).thenReturn(qresyncResponse);
+    }
+
     private void respondToFetchEnvelopesWithMessage(final ImapMessage message) throws MessagingException {
         doAnswer(new Answer() {
             @Override
@@ -298,6 +488,25 @@ public class ImapSyncTest {
                 anyInt());
     }
 
+    private void respondToFetchEnvelopesAndBodiesWithMessages(final ImapMessage... messages)
+            throws MessagingException {
+        doAnswer(new Answer() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                FetchProfile fetchProfile = (FetchProfile) invocation.getArguments()[1];
+                MessageRetrievalListener listener = (MessageRetrievalListener) invocation.getArguments()[2];
+                if (listener != null && (fetchProfile.contains(FetchProfile.Item.ENVELOPE) ||
+                        fetchProfile.contains(FetchProfile.Item.BODY))) {
+                    for (int i = 0; i < messages.length; i++) {
+                        listener.messageFinished(messages[i], i + 1, messages.length);
+                    }
+                }
+                return null;
+            }
+        }).when(remoteFolder).fetch(any(List.class), any(FetchProfile.class), nullable(MessageRetrievalListener.class),
+                anyInt());
+    }
+
     private ImapMessage buildSmallNewMessage() {
         ImapMessage message = mock(ImapMessage.class);
         when(message.olderThan(nullable(Date.class))).thenReturn(false);
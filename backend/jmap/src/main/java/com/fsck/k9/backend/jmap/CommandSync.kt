@@ -19,9 +19,11 @@ import rs.ltt.jmap.client.session.Session
 import rs.ltt.jmap.common.entity.Email
 import rs.ltt.jmap.common.entity.filter.EmailFilterCondition
 import rs.ltt.jmap.common.entity.query.EmailQuery
+import rs.ltt.jmap.common.method.call.email.ChangesEmailMethodCall
 import rs.ltt.jmap.common.method.call.email.GetEmailMethodCall
 import rs.ltt.jmap.common.method.call.email.QueryChangesEmailMethodCall
 import rs.ltt.jmap.common.method.call.email.QueryEmailMethodCall
+import rs.ltt.jmap.common.method.response.email.ChangesEmailMethodResponse
 import rs.ltt.jmap.common.method.response.email.GetEmailMethodResponse
 import rs.ltt.jmap.common.method.response.email.QueryChangesEmailMethodResponse
 import rs.ltt.jmap.common.method.response.email.QueryEmailMethodResponse
@@ -41,14 +43,17 @@ class CommandSync(
             listener.syncStarted(folderServerId)
 
             val limit = if (backendFolder.visibleLimit > 0) backendFolder.visibleLimit.toLong() else null
+            val emailState = EmailStateRecorder()
 
             val queryState = backendFolder.getFolderExtraString(EXTRA_QUERY_STATE)
             if (queryState == null) {
-                fullSync(backendFolder, folderServerId, syncConfig, limit, listener)
+                fullSync(backendFolder, folderServerId, syncConfig, limit, emailState, listener)
             } else {
-                deltaSync(backendFolder, folderServerId, syncConfig, limit, queryState, listener)
+                deltaSync(backendFolder, folderServerId, syncConfig, limit, queryState, emailState, listener)
             }
 
+            backendFolder.saveEmailState(emailState.state)
+
             listener.syncFinished(folderServerId)
         } catch (e: UnauthorizedException) {
             Timber.e(e, "Authentication failure during sync")
@@ -67,6 +72,7 @@ class CommandSync(
         folderServerId: String,
         syncConfig: SyncConfig,
         limit: Long?,
+        emailState: EmailStateRecorder,
         listener: SyncListener
     ) {
         val cachedServerIds: Set<String> = backendFolder.getMessageServerIds()
@@ -91,10 +97,12 @@ class CommandSync(
         val destroyServerIds = (cachedServerIds - remoteServerIds).toList()
         val newServerIds = remoteServerIds - cachedServerIds
 
-        handleFolderUpdates(backendFolder, folderServerId, destroyServerIds, newServerIds, queryState, listener)
+        handleFolderUpdates(
+            backendFolder, folderServerId, destroyServerIds, newServerIds, queryState, emailState, listener
+        )
 
         val refreshServerIds = cachedServerIds.intersect(remoteServerIds)
-        refreshMessageFlags(backendFolder, syncConfig, refreshServerIds)
+        refreshMessageFlags(backendFolder, syncConfig, refreshServerIds, emailState)
     }
 
     private fun createEmailQuery(folderServerId: String): EmailQuery? {
@@ -112,10 +120,14 @@ class CommandSync(
         syncConfig: SyncConfig,
         limit: Long?,
         queryState: String,
+        emailState: EmailStateRecorder,
         listener: SyncListener
     ) {
         Timber.d("Updating messages in %s (%s)", backendFolder.name, folderServerId)
 
+        // Ask for changed emails first. Changes made while this sync is running will then be reported next time.
+        val changedEmailIds = getChangedEmailIds(backendFolder, emailState)
+
         val emailQuery = createEmailQuery(folderServerId)
         val queryChangesEmailCall = jmapClient.call(
             QueryChangesEmailMethodCall.builder()
@@ -132,7 +144,7 @@ class CommandSync(
                 Timber.d("Server responded with '$ERROR_CANNOT_CALCULATE_CHANGES'; switching to full sync")
 
                 backendFolder.saveQueryState(null)
-                fullSync(backendFolder, folderServerId, syncConfig, limit, listener)
+                fullSync(backendFolder, folderServerId, syncConfig, limit, emailState, listener)
                 return
             }
 
@@ -151,10 +163,56 @@ class CommandSync(
         val destroyServerIds = (removedServerIds - retainedServerIds).toList()
         val newServerIds = addedServerIds - retainedServerIds
 
-        handleFolderUpdates(backendFolder, folderServerId, destroyServerIds, newServerIds, newQueryState, listener)
+        handleFolderUpdates(
+            backendFolder, folderServerId, destroyServerIds, newServerIds, newQueryState, emailState, listener
+        )
 
-        val refreshServerIds = cachedServerIds - destroyServerIds
-        refreshMessageFlags(backendFolder, syncConfig, refreshServerIds)
+        val retainedCachedServerIds = cachedServerIds - destroyServerIds
+        val refreshServerIds = if (changedEmailIds != null) {
+            retainedCachedServerIds.intersect(changedEmailIds)
+        } else {
+            retainedCachedServerIds
+        }
+        refreshMessageFlags(backendFolder, syncConfig, refreshServerIds, emailState)
+    }
+
+    /**
+     * Use `Email/changes` to find the emails that were created or updated since the last sync of this folder.
+     *
+     * Returns `null` if the changes couldn't be determined. In that case the flags of all cached messages need to be
+     * refreshed.
+     */
+    private fun getChangedEmailIds(backendFolder: BackendFolder, emailState: EmailStateRecorder): Set<String>? {
+        var sinceState = backendFolder.getEmailState() ?: return null
+
+        val changedEmailIds = mutableSetOf<String>()
+        do {
+            val changesEmailCall = jmapClient.call(
+                ChangesEmailMethodCall.builder()
+                    .accountId(accountId)
+                    .sinceState(sinceState)
+                    .build()
+            )
+
+            val changesEmailResponse = try {
+                changesEmailCall.getMainResponseBlocking<ChangesEmailMethodResponse>()
+            } catch (e: MethodErrorResponseException) {
+                if (e.methodErrorResponse.type == ERROR_CANNOT_CALCULATE_CHANGES) {
+                    Timber.d("Server responded with '$ERROR_CANNOT_CALCULATE_CHANGES'; refreshing all flags")
+                    return null
+                }
+
+                throw e
+            }
+
+            changedEmailIds.addAll(changesEmailResponse.created)
+            changedEmailIds.addAll(changesEmailResponse.updated)
+            sinceState = changesEmailResponse.newState
+        } while (changesEmailResponse.isHasMoreChanges)
+
+        emailState.record(sinceState)
+
+        return changedEmailIds
     }
 
     private fun handleFolderUpdates(
@@ -163,6 +221,7 @@ class CommandSync(
         destroyServerIds: List<String>,
         newServerIds: Set<String>,
         newQueryState: String?,
+        emailState: EmailStateRecorder,
         listener: SyncListener
     ) {
         if (destroyServerIds.isNotEmpty()) {
@@ -179,7 +238,7 @@ class CommandSync(
         Timber.d("New messages on server: %s", newServerIds)
         val session = jmapClient.session.get()
         val maxObjectsInGet = session.maxObjectsInGet
-        val messageInfoList = fetchMessageInfo(session, maxObjectsInGet, newServerIds)
+        val messageInfoList = fetchMessageInfo(session, maxObjectsInGet, newServerIds, emailState)
 
         val total = messageInfoList.size
         messageInfoList.forEachIndexed { index, messageInfo ->
@@ -203,10 +262,15 @@ class CommandSync(
         backendFolder.saveQueryState(newQueryState)
     }
 
-    private fun fetchMessageInfo(session: Session, maxObjectsInGet: Int, emailIds: Set<String>): List<MessageInfo> {
+    private fun fetchMessageInfo(
+        session: Session,
+        maxObjectsInGet: Int,
+        emailIds: Set<String>,
+        emailState: EmailStateRecorder
+    ): List<MessageInfo> {
         return emailIds
             .chunked(maxObjectsInGet) { emailIdsChunk ->
-                getEmailPropertiesFromServer(emailIdsChunk, INFO_PROPERTIES)
+                getEmailPropertiesFromServer(emailIdsChunk, INFO_PROPERTIES, emailState)
             }
             .flatten()
             .map { email ->
@@ -214,7 +278,11 @@ class CommandSync(
             }
     }
 
-    private fun getEmailPropertiesFromServer(emailIdsChunk: List<String>, properties: Array<String>): List<Email> {
+    private fun getEmailPropertiesFromServer(
+        emailIdsChunk: List<String>,
+        properties: Array<String>,
+        emailState: EmailStateRecorder
+    ): List<Email> {
         val getEmailCall = jmapClient.call(
             GetEmailMethodCall.builder()
                 .accountId(accountId)
@@ -224,6 +292,8 @@ class CommandSync(
         )
 
         val getEmailResponse = getEmailCall.getMainResponseBlocking<GetEmailMethodResponse>()
+        emailState.record(getEmailResponse.state)
+
         return getEmailResponse.list.toList()
     }
 
@@ -250,7 +320,12 @@ class CommandSync(
         }
     }
 
-    private fun refreshMessageFlags(backendFolder: BackendFolder, syncConfig: SyncConfig, emailIds: Set<String>) {
+    private fun refreshMessageFlags(
+        backendFolder: BackendFolder,
+        syncConfig: SyncConfig,
+        emailIds: Set<String>,
+        emailState: EmailStateRecorder
+    ) {
         if (emailIds.isEmpty()) return
 
         Timber.v("Fetching flags for messages: %s", emailIds)
@@ -260,18 +335,25 @@ class CommandSync(
 
         emailIds
             .asSequence()
-            .chunked(maxObjectsInGet) { emailIdsChunk ->
-                getEmailPropertiesFromServer(emailIdsChunk, FLAG_PROPERTIES)
-            }
-            .flatten()
-            .forEach { email ->
-                syncFlagsForMessage(backendFolder, syncConfig, email)
+            .chunked(maxObjectsInGet)
+            .forEach { emailIdsChunk ->
+                val emails = getEmailPropertiesFromServer(emailIdsChunk, FLAG_PROPERTIES, emailState)
+                val localFlagsMap = backendFolder.getMessageFlags(emailIdsChunk)
+
+                for (email in emails) {
+                    val localFlags = localFlagsMap[email.id] ?: continue
+                    syncFlagsForMessage(backendFolder, syncConfig, email, localFlags)
+                }
             }
     }
 
-    private fun syncFlagsForMessage(backendFolder: BackendFolder, syncConfig: SyncConfig, email: Email) {
+    private fun syncFlagsForMessage(
+        backendFolder: BackendFolder,
+        syncConfig: SyncConfig,
+        email: Email,
+        localFlags: Set<Flag>
+    ) {
         val messageServerId = email.id
-        val localFlags = backendFolder.getMessageFlags(messageServerId)
         val remoteFlags = email.keywords.toFlags()
         for (flag in syncConfig.syncFlags) {
             val flagSetOnServer = flag in remoteFlags
@@ -305,14 +387,41 @@ class CommandSync(
         setFolderExtraString(EXTRA_QUERY_STATE, queryState)
     }
 
+    private fun BackendFolder.getEmailState(): String? {
+        return getFolderExtraString(EXTRA_EMAIL_STATE)
+    }
+
+    private fun BackendFolder.saveEmailState(emailState: String?) {
+        setFolderExtraString(EXTRA_EMAIL_STATE, emailState)
+    }
+
     companion object {
         private const val EXTRA_QUERY_STATE = "jmapQueryState"
+        private const val EXTRA_EMAIL_STATE = "jmapEmailState"
         private const val ERROR_CANNOT_CALCULATE_CHANGES = "cannotCalculateChanges"
         private val INFO_PROPERTIES = arrayOf("id", "blobId", "size", "receivedAt", "keywords")
         private val FLAG_PROPERTIES = arrayOf("id", "keywords")
     }
 }
 
+/**
+ * Remembers the `Email` state of the first response received during a sync.
+ *
+ * Everything fetched later in the sync is at least as recent as this state. So it's safe to use it as `sinceState`
+ * for `Email/changes` during the next sync. If no state was recorded the flags of all messages will be refreshed
+ * next time.
+ */
+private class EmailStateRecorder {
+    var state: String? = null
+        private set
+
+    fun record(newState: String?) {
+        if (state == null) {
+            state = newState
+        }
+    }
+}
+
 private data class MessageInfo(
     val serverId: String,
     val downloadUrl: HttpUrl,
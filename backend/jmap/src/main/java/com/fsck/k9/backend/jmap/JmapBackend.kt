@@ -138,6 +138,10 @@ class JmapBackend(
         throw UnsupportedOperationException("not implemented")
     }
 
+    override fun beginSendSession() = Unit
+
+    override fun endSendSession() = Unit
+
     override fun checkOutgoingServerSettings() {
         checkIncomingServerSettings()
     }
@@ -170,12 +170,83 @@ class CommandSyncTest {
         assertEquals(emptySet<Flag>(), backendFolder.getMessageFlags("M001"))
         assertEquals(setOf(Flag.SEEN), backendFolder.getMessageFlags("M002"))
         backendFolder.assertQueryState("50:0")
+        backendFolder.assertEmailState("50")
         syncListener.assertSyncEvents(
             SyncListenerEvent.SyncStarted(FOLDER_SERVER_ID),
             SyncListenerEvent.SyncFinished(FOLDER_SERVER_ID)
         )
     }
 
+    @Test
+    fun deltaSyncWithEmailStateAndWithoutChanges() {
+        val backendFolder = backendStorage.getFolder(FOLDER_SERVER_ID)
+        backendFolder.createMessages(
+            "M001" to "/jmap_responses/blob/email/email_1.eml",
+            "M002" to "/jmap_responses/blob/email/email_2.eml"
+        )
+        backendFolder.setQueryState("50:0")
+        backendFolder.setEmailState("50")
+        val command = createCommandSync(
+            responseBodyFromResource("/jmap_responses/session/valid_session.json"),
+            responseBodyFromResource("/jmap_responses/email/email_changes_empty_result.json"),
+            responseBodyFromResource("/jmap_responses/email/email_query_changes_empty_result.json")
+        )
+
+        command.sync(FOLDER_SERVER_ID, syncConfig, syncListener)
+
+        assertEquals(setOf("M001", "M002"), backendFolder.getMessageServerIds())
+        backendFolder.assertQueryState("50:0")
+        backendFolder.assertEmailState("50")
+        syncListener.assertSyncSuccess()
+    }
+
+    @Test
+    fun deltaSyncWithEmailStateShouldOnlyRefreshFlagsOfChangedEmails() {
+        val backendFolder = backendStorage.getFolder(FOLDER_SERVER_ID)
+        backendFolder.createMessages(
+            "M001" to "/jmap_responses/blob/email/email_1.eml",
+            "M002" to "/jmap_responses/blob/email/email_2.eml"
+        )
+        backendFolder.setMessageFlag("M002", Flag.SEEN, true)
+        backendFolder.setQueryState("50:0")
+        backendFolder.setEmailState("50")
+        val command = createCommandSync(
+            responseBodyFromResource("/jmap_responses/session/valid_session.json"),
+            responseBodyFromResource("/jmap_responses/email/email_changes_M002_updated.json"),
+            responseBodyFromResource("/jmap_responses/email/email_query_changes_empty_result.json"),
+            responseBodyFromResource("/jmap_responses/email/email_get_keywords_M002.json")
+        )
+
+        command.sync(FOLDER_SERVER_ID, syncConfig, syncListener)
+
+        assertEquals(emptySet<Flag>(), backendFolder.getMessageFlags("M002"))
+        backendFolder.assertEmailState("51")
+        syncListener.assertSyncSuccess()
+    }
+
+    @Test
+    fun deltaSyncWithEmailStateCannotCalculateChanges() {
+        val backendFolder = backendStorage.getFolder(FOLDER_SERVER_ID)
+        backendFolder.createMessages(
+            "M001" to "/jmap_responses/blob/email/email_1.eml",
+            "M002" to "/jmap_responses/blob/email/email_2.eml"
+        )
+        backendFolder.setQueryState("50:0")
+        backendFolder.setEmailState("10")
+        val command = createCommandSync(
+            responseBodyFromResource("/jmap_responses/session/valid_session.json"),
+            responseBodyFromResource("/jmap_responses/email/email_query_changes_cannot_calculate_changes_error.json"),
+            responseBodyFromResource("/jmap_responses/email/email_query_changes_empty_result.json"),
+            responseBodyFromResource("/jmap_responses/email/email_get_keywords_M001_and_M002.json")
+        )
+
+        command.sync(FOLDER_SERVER_ID, syncConfig, syncListener)
+
+        assertEquals(setOf(Flag.SEEN), backendFolder.getMessageFlags("M002"))
+        backendFolder.assertEmailState("50")
+        syncListener.assertSyncSuccess()
+    }
+
     @Test
     fun deltaSyncWithLocalMessagesAndDifferentMessagesInRemoteMailbox() {
         val backendFolder = backendStorage.getFolder(FOLDER_SERVER_ID)
@@ -255,6 +326,14 @@ class CommandSyncTest {
         setFolderExtraString("jmapQueryState", queryState)
     }
 
+    private fun InMemoryBackendFolder.assertEmailState(expected: String) {
+        assertEquals(expected, getFolderExtraString("jmapEmailState"))
+    }
+
+    private fun InMemoryBackendFolder.setEmailState(emailState: String) {
+        setFolderExtraString("jmapEmailState", emailState)
+    }
+
     companion object {
         private const val FOLDER_SERVER_ID = "id_folder"
         private const val USERNAME = "username"
@@ -99,6 +99,12 @@ class InMemoryBackendFolder(override var name: String, var type: FolderType) : B
         return messageFlags[messageServerId] ?: error("Message $messageServerId not found")
     }
 
+    override fun getMessageFlags(messageServerIds: Collection<String>): Map<String, Set<Flag>> {
+        return messageServerIds
+            .mapNotNull { messageServerId -> messageFlags[messageServerId]?.let { messageServerId to it.toSet() } }
+            .toMap()
+    }
+
     override fun setMessageFlag(messageServerId: String, flag: Flag, value: Boolean) {
         val flags = messageFlags[messageServerId] ?: error("Message $messageServerId not found")
         if (value) {
@@ -120,6 +126,10 @@ class InMemoryBackendFolder(override var name: String, var type: FolderType) : B
         messageFlags[messageServerId] = message.flags.toMutableSet()
     }
 
+    override fun saveCompleteMessages(messages: List<Message>) {
+        messages.forEach { saveCompleteMessage(it) }
+    }
+
     override fun getLatestOldMessageSeenTime(): Date {
         throw UnsupportedOperationException("not implemented")
     }
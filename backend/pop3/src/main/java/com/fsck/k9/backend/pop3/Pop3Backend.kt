@@ -132,6 +132,14 @@ class Pop3Backend(
         smtpTransport.sendMessage(message)
     }
 
+    override fun beginSendSession() {
+        smtpTransport.beginSession()
+    }
+
+    override fun endSendSession() {
+        smtpTransport.endSession()
+    }
+
     override fun checkOutgoingServerSettings() {
         smtpTransport.checkSettings()
     }
@@ -265,8 +265,10 @@ class Pop3Sync {
 
         List<Pop3Message> messages = new ArrayList<>(inputMessages);
 
+        Map<String, Set<Flag>> localFlagsMap = getLocalMessageFlags(backendFolder, messages);
         for (Pop3Message message : messages) {
-            evaluateMessageForDownload(message, folder, backendFolder, unsyncedMessages, syncFlagMessages, listener);
+            evaluateMessageForDownload(message, folder, backendFolder, localFlagsMap, unsyncedMessages,
+                    syncFlagMessages, listener);
         }
 
         final AtomicInteger progress = new AtomicInteger(0);
@@ -341,10 +343,20 @@ class Pop3Sync {
         return newMessages.get();
     }
 
+    private Map<String, Set<Flag>> getLocalMessageFlags(BackendFolder backendFolder, List<Pop3Message> messages) {
+        List<String> messageServerIds = new ArrayList<>(messages.size());
+        for (Pop3Message message : messages) {
+            messageServerIds.add(message.getUid());
+        }
+
+        return backendFolder.getMessageFlags(messageServerIds);
+    }
+
     private void evaluateMessageForDownload(
             final Pop3Message message,
             final String folder,
             final BackendFolder backendFolder,
+            final Map<String, Set<Flag>> localFlagsMap,
             final List<Pop3Message> unsyncedMessages,
             final List<Pop3Message> syncFlagMessages,
             SyncListener listener) {
@@ -357,9 +369,9 @@ class Pop3Sync {
             return;
         }
 
-        boolean messagePresentLocally = backendFolder.isMessagePresent(messageServerId);
+        Set<Flag> messageFlags = localFlagsMap.get(messageServerId);
 
-        if (!messagePresentLocally) {
+        if (messageFlags == null) {
             if (!message.isSet(Flag.X_DOWNLOADED_FULL) && !message.isSet(Flag.X_DOWNLOADED_PARTIAL)) {
                 Timber.v("Message with uid %s has not yet been downloaded", messageServerId);
 
@@ -381,7 +393,6 @@ class Pop3Sync {
             return;
         }
 
-        Set<Flag> messageFlags = backendFolder.getMessageFlags(messageServerId);
         if (!messageFlags.contains(Flag.DELETED)) {
             Timber.v("Message with uid %s is present in the local store", messageServerId);
 
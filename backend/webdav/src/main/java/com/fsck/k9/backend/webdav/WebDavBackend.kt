@@ -142,6 +142,14 @@ class WebDavBackend(
         webDavTransport.sendMessage(message)
     }
 
+    override fun beginSendSession() {
+        webDavTransport.beginSession()
+    }
+
+    override fun endSendSession() {
+        webDavTransport.endSession()
+    }
+
     override fun checkOutgoingServerSettings() {
         webDavTransport.checkSettings()
     }
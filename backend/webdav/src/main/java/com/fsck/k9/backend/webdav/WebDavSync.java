@@ -266,8 +266,10 @@ class WebDavSync {
 
         List<WebDavMessage> messages = new ArrayList<>(inputMessages);
 
+        Map<String, Set<Flag>> localFlagsMap = getLocalMessageFlags(backendFolder, messages);
         for (WebDavMessage message : messages) {
-            evaluateMessageForDownload(message, folder, backendFolder, unsyncedMessages, syncFlagMessages, listener);
+            evaluateMessageForDownload(message, folder, backendFolder, localFlagsMap, unsyncedMessages,
+                    syncFlagMessages, listener);
         }
 
         final AtomicInteger progress = new AtomicInteger(0);
@@ -328,7 +330,8 @@ class WebDavSync {
          * download.
          */
 
-        refreshLocalMessageFlags(syncConfig, remoteFolder, backendFolder, syncFlagMessages, progress, todo, listener);
+        refreshLocalMessageFlags(syncConfig, remoteFolder, backendFolder, localFlagsMap, syncFlagMessages, progress,
+                todo, listener);
 
         Timber.d("SYNC: Synced remote messages for folder %s, %d new messages", folder, newMessages.get());
 
@@ -350,10 +353,20 @@ class WebDavSync {
         return newMessages.get();
     }
 
+    private Map<String, Set<Flag>> getLocalMessageFlags(BackendFolder backendFolder, List<WebDavMessage> messages) {
+        List<String> messageServerIds = new ArrayList<>(messages.size());
+        for (WebDavMessage message : messages) {
+            messageServerIds.add(message.getUid());
+        }
+
+        return backendFolder.getMessageFlags(messageServerIds);
+    }
+
     private void evaluateMessageForDownload(
             final WebDavMessage message,
             final String folder,
             final BackendFolder backendFolder,
+            final Map<String, Set<Flag>> localFlagsMap,
             final List<WebDavMessage> unsyncedMessages,
             final List<WebDavMessage> syncFlagMessages,
             SyncListener listener) {
@@ -366,9 +379,9 @@ class WebDavSync {
             return;
         }
 
-        boolean messagePresentLocally = backendFolder.isMessagePresent(messageServerId);
+        Set<Flag> messageFlags = localFlagsMap.get(messageServerId);
 
-        if (!messagePresentLocally) {
+        if (messageFlags == null) {
             if (!message.isSet(Flag.X_DOWNLOADED_FULL) && !message.isSet(Flag.X_DOWNLOADED_PARTIAL)) {
                 Timber.v("Message with uid %s has not yet been downloaded", messageServerId);
 
@@ -389,7 +402,6 @@ class WebDavSync {
             return;
         }
 
-        Set<Flag> messageFlags = backendFolder.getMessageFlags(messageServerId);
         if (!messageFlags.contains(Flag.DELETED)) {
             Timber.v("Message with uid %s is present in the local store", messageServerId);
 
@@ -607,6 +619,7 @@ class WebDavSync {
             final SyncConfig syncConfig,
             final WebDavFolder remoteFolder,
             final BackendFolder backendFolder,
+            Map<String, Set<Flag>> localFlagsMap,
             List<WebDavMessage> syncFlagMessages,
             final AtomicInteger progress,
             final int todo,
@@ -629,7 +642,8 @@ class WebDavSync {
         int maxDownloadSize = syncConfig.getMaximumAutoDownloadMessageSize();
         remoteFolder.fetch(undeletedMessages, fp, null, maxDownloadSize);
         for (WebDavMessage remoteMessage : syncFlagMessages) {
-            boolean messageChanged = syncFlags(syncConfig, backendFolder, remoteMessage);
+            Set<Flag> localMessageFlags = localFlagsMap.get(remoteMessage.getUid());
+            boolean messageChanged = syncFlags(syncConfig, backendFolder, localMessageFlags, remoteMessage);
             if (messageChanged) {
                 listener.syncFlagChanged(folder, remoteMessage.getUid());
             }
@@ -638,14 +652,15 @@ class WebDavSync {
         }
     }
 
-    private boolean syncFlags(SyncConfig syncConfig, BackendFolder backendFolder, WebDavMessage remoteMessage) {
+    private boolean syncFlags(SyncConfig syncConfig, BackendFolder backendFolder, Set<Flag> localMessageFlags,
+            WebDavMessage remoteMessage) {
         String messageServerId = remoteMessage.getUid();
 
-        if (!backendFolder.isMessagePresent(messageServerId)) {
+        if (localMessageFlags == null) {
+            // Message isn't present locally
             return false;
         }
 
-        Set<Flag> localMessageFlags = backendFolder.getMessageFlags(messageServerId);
         if (localMessageFlags.contains(Flag.DELETED)) {
             return false;
         }
@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 
+import com.fsck.k9.mail.filter.DecodedSizeCountingOutputStream;
 import com.fsck.k9.mail.internet.BinaryTempFileBody;
 import com.fsck.k9.mail.internet.BinaryTempFileMessageBody;
 import com.fsck.k9.mail.internet.MimeUtility;
@@ -27,12 +28,15 @@ public class DefaultBodyFactory implements BodyFactory {
             tempBody = new BinaryTempFileBody(contentTransferEncoding);
         }
 
-        OutputStream outputStream = tempBody.getOutputStream();
+        // Calculate the decoded size while writing the raw data so it doesn't have to be read again later
+        DecodedSizeCountingOutputStream outputStream =
+                new DecodedSizeCountingOutputStream(tempBody.getOutputStream(), contentTransferEncoding);
         try {
             copyData(inputStream, outputStream);
         } finally {
             outputStream.close();
         }
+        tempBody.setDecodedSize(outputStream.getDecodedSize());
 
         return tempBody;
     }
@@ -44,6 +44,12 @@ public enum Flag {
      */
     X_DOWNLOADED_PARTIAL,
 
+    /**
+     * Indicates that the body of a message was removed to stay within the account's storage limit. The message is
+     * downloaded again when it's opened.
+     */
+    X_BODY_EVICTED,
+
     /**
      * Indicates that the copy of a message to the Sent folder has started.
      */
@@ -13,4 +13,20 @@ public abstract class Transport {
     public abstract void sendMessage(Message message) throws MessagingException;
 
     public abstract void close();
+
+    /**
+     * Tells the transport that a number of messages are about to be sent using {@link #sendMessage(Message)}.
+     * <p>
+     * Implementations may keep the connection open until {@link #endSession()} is called. The default implementation
+     * does nothing.
+     * </p>
+     */
+    public void beginSession() {
+    }
+
+    /**
+     * Ends a session started with {@link #beginSession()} and releases the resources kept open for it.
+     */
+    public void endSession() {
+    }
 }
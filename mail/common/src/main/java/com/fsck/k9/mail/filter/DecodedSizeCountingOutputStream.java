@@ -0,0 +1,104 @@
+package com.fsck.k9.mail.filter;
+
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.james.mime4j.util.MimeUtil;
+
+
+/**
+ * Passes data through unchanged while counting how many bytes the data will decode to.
+ * <p>
+ * This allows writing the raw (transfer-encoded) body of a part and calculating its decoded size in a single pass.
+ * Counting quoted-printable data is not supported. In that case {@link #getDecodedSize()} returns
+ * {@link #UNKNOWN_SIZE}.
+ */
+public class DecodedSizeCountingOutputStream extends FilterOutputStream {
+    public static final long UNKNOWN_SIZE = -1;
+
+
+    private final Encoding encoding;
+    private long count;
+    private boolean base64PaddingSeen = false;
+
+
+    public DecodedSizeCountingOutputStream(OutputStream out, String transferEncoding) {
+        super(out);
+        encoding = Encoding.fromTransferEncoding(transferEncoding);
+    }
+
+    @Override
+    public void write(int oneByte) throws IOException {
+        out.write(oneByte);
+        count(oneByte);
+    }
+
+    @Override
+    public void write(byte[] b, int offset, int length) throws IOException {
+        out.write(b, offset, length);
+
+        if (encoding == Encoding.IDENTITY) {
+            count += length;
+        } else if (encoding == Encoding.BASE64) {
+            for (int i = offset, end = offset + length; i < end; i++) {
+                count(b[i]);
+            }
+        }
+    }
+
+    private void count(int oneByte) {
+        if (encoding == Encoding.IDENTITY) {
+            count++;
+        } else if (encoding == Encoding.BASE64 && !base64PaddingSeen) {
+            int c = oneByte & 0xFF;
+            if (c == '=') {
+                base64PaddingSeen = true;
+            } else if (isBase64AlphabetCharacter(c)) {
+                count++;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes the data written so far decodes to, or {@link #UNKNOWN_SIZE} if the transfer
+     * encoding is not supported.
+     */
+    public long getDecodedSize() {
+        switch (encoding) {
+            case IDENTITY: {
+                return count;
+            }
+            case BASE64: {
+                // Every base64 character encodes 6 bits. Incomplete bytes at the end are discarded by decoders.
+                return count * 3 / 4;
+            }
+            default: {
+                return UNKNOWN_SIZE;
+            }
+        }
+    }
+
+    private static boolean isBase64AlphabetCharacter(int c) {
+        return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '+' || c == '/';
+    }
+
+
+    private enum Encoding {
+        IDENTITY,
+        BASE64,
+        UNSUPPORTED;
+
+        static Encoding fromTransferEncoding(String transferEncoding) {
+            if (MimeUtil.ENC_BASE64.equalsIgnoreCase(transferEncoding)) {
+                return BASE64;
+            } else if (MimeUtil.ENC_QUOTED_PRINTABLE.equalsIgnoreCase(transferEncoding)) {
+                return UNSUPPORTED;
+            }
+
+            // Unknown encodings are not decoded when reading the body
+            return IDENTITY;
+        }
+    }
+}
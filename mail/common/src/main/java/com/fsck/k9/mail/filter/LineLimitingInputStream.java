@@ -0,0 +1,68 @@
+package com.fsck.k9.mail.filter;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+
+
+/**
+ * A filtering InputStream that stops allowing reads after the given number of lines has been read. The line feed
+ * character ending the last line is still part of the output. The data is passed through unchanged, so this can be
+ * used to truncate a message without knowing its charset.
+ */
+public class LineLimitingInputStream extends InputStream {
+    private final InputStream in;
+    private final int maxLines;
+    private int lineCount = 0;
+
+
+    public LineLimitingInputStream(InputStream in, int maxLines) {
+        this.in = in;
+        this.maxLines = maxLines;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (lineCount >= maxLines) {
+            return -1;
+        }
+
+        int d = in.read();
+        if (d == '\n') {
+            lineCount++;
+        }
+        return d;
+    }
+
+    @Override
+    public int read(byte[] b, int offset, int length) throws IOException {
+        if (lineCount >= maxLines) {
+            return -1;
+        }
+
+        int count = in.read(b, offset, length);
+        if (count <= 0) {
+            return count;
+        }
+
+        for (int i = offset, end = offset + count; i < end; i++) {
+            if (b[i] == '\n') {
+                lineCount++;
+                if (lineCount == maxLines) {
+                    return i - offset + 1;
+                }
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return lineCount >= maxLines ? 0 : in.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
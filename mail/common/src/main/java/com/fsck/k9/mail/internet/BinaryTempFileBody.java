@@ -11,6 +11,7 @@ import java.io.OutputStream;
 
 import com.fsck.k9.mail.MessagingException;
 import com.fsck.k9.mail.filter.Base64OutputStream;
+import com.fsck.k9.mail.filter.DecodedSizeCountingOutputStream;
 import org.apache.commons.io.IOUtils;
 import org.apache.james.mime4j.codec.QuotedPrintableOutputStream;
 import org.apache.james.mime4j.util.MimeUtil;
@@ -27,6 +28,7 @@ public class BinaryTempFileBody implements RawDataBody, SizeAware {
     private static File mTempDirectory;
 
     private File mFile;
+    private long decodedSize = DecodedSizeCountingOutputStream.UNKNOWN_SIZE;
 
     String mEncoding = null;
 
@@ -93,6 +95,7 @@ public class BinaryTempFileBody implements RawDataBody, SizeAware {
     }
 
     public OutputStream getOutputStream() throws IOException {
+        decodedSize = DecodedSizeCountingOutputStream.UNKNOWN_SIZE;
         mFile = File.createTempFile("body", null, mTempDirectory);
         mFile.deleteOnExit();
         return new FileOutputStream(mFile);
@@ -124,6 +127,20 @@ public class BinaryTempFileBody implements RawDataBody, SizeAware {
         return mFile;
     }
 
+    /**
+     * Returns the size of the decoded body if it was calculated while writing the temp file, or
+     * {@link DecodedSizeCountingOutputStream#UNKNOWN_SIZE} otherwise.
+     * <p>
+     * Changing the transfer encoding with {@link #setEncoding(String)} doesn't affect the decoded size.
+     */
+    public long getDecodedSize() {
+        return decodedSize;
+    }
+
+    public void setDecodedSize(long decodedSize) {
+        this.decodedSize = decodedSize;
+    }
+
     class BinaryTempFileBodyInputStream extends FilterInputStream {
         public BinaryTempFileBodyInputStream(InputStream in) {
             super(in);
@@ -0,0 +1,85 @@
+package com.fsck.k9.mail.filter;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class DecodedSizeCountingOutputStreamTest {
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+
+    @Test
+    public void write_shouldPassDataThroughUnchanged() throws Exception {
+        DecodedSizeCountingOutputStream subject = new DecodedSizeCountingOutputStream(out, "base64");
+
+        writeData(subject, "SGVsbG8=\r\n");
+
+        assertEquals("SGVsbG8=\r\n", out.toString());
+    }
+
+    @Test
+    public void getDecodedSize_with7bit() throws Exception {
+        DecodedSizeCountingOutputStream subject = new DecodedSizeCountingOutputStream(out, "7bit");
+
+        writeData(subject, "Hello\r\n");
+
+        assertEquals(7, subject.getDecodedSize());
+    }
+
+    @Test
+    public void getDecodedSize_withoutEncoding() throws Exception {
+        DecodedSizeCountingOutputStream subject = new DecodedSizeCountingOutputStream(out, null);
+
+        writeData(subject, "Hello");
+
+        assertEquals(5, subject.getDecodedSize());
+    }
+
+    @Test
+    public void getDecodedSize_withBase64() throws Exception {
+        DecodedSizeCountingOutputStream subject = new DecodedSizeCountingOutputStream(out, "BASE64");
+
+        writeData(subject, "SGVsbG8g\r\nV29ybGQh\r\n");
+
+        assertEquals(12, subject.getDecodedSize());
+    }
+
+    @Test
+    public void getDecodedSize_withBase64AndPadding() throws Exception {
+        DecodedSizeCountingOutputStream subject = new DecodedSizeCountingOutputStream(out, "base64");
+
+        writeData(subject, "SGVsbG8=\r\n");
+
+        assertEquals(5, subject.getDecodedSize());
+    }
+
+    @Test
+    public void getDecodedSize_withBase64WrittenByteByByte() throws Exception {
+        DecodedSizeCountingOutputStream subject = new DecodedSizeCountingOutputStream(out, "base64");
+
+        for (byte b : "SGk=".getBytes()) {
+            subject.write(b);
+        }
+
+        assertEquals(2, subject.getDecodedSize());
+    }
+
+    @Test
+    public void getDecodedSize_withQuotedPrintable_shouldReturnUnknownSize() throws Exception {
+        DecodedSizeCountingOutputStream subject = new DecodedSizeCountingOutputStream(out, "quoted-printable");
+
+        writeData(subject, "Caf=C3=A9");
+
+        assertEquals(DecodedSizeCountingOutputStream.UNKNOWN_SIZE, subject.getDecodedSize());
+    }
+
+    private void writeData(DecodedSizeCountingOutputStream subject, String data) throws IOException {
+        subject.write(data.getBytes());
+        subject.close();
+    }
+}
@@ -0,0 +1,73 @@
+package com.fsck.k9.mail.filter;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import okio.Buffer;
+import okio.ByteString;
+import okio.Okio;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class LineLimitingInputStreamTest {
+    @Test
+    public void readingStream_shouldReturnDataUpToLineLimit() throws Exception {
+        InputStream inputStream = new LineLimitingInputStream(inputStream("one\r\ntwo\r\nthree\r\n"), 2);
+
+        String readString = readStreamAsUtf8String(inputStream);
+
+        assertEquals("one\r\ntwo\r\n", readString);
+    }
+
+    @Test
+    public void readingStreamByteByByte_shouldReturnDataUpToLineLimit() throws Exception {
+        InputStream inputStream = new LineLimitingInputStream(inputStream("one\ntwo\nthree\n"), 1);
+
+        StringBuilder stringBuilder = new StringBuilder();
+        int d;
+        while ((d = inputStream.read()) != -1) {
+            stringBuilder.append((char) d);
+        }
+
+        assertEquals("one\n", stringBuilder.toString());
+    }
+
+    @Test
+    public void readingStream_withFewerLinesThanLimit_shouldReturnAllData() throws Exception {
+        InputStream inputStream = new LineLimitingInputStream(inputStream("one\r\ntwo"), 10);
+
+        String readString = readStreamAsUtf8String(inputStream);
+
+        assertEquals("one\r\ntwo", readString);
+    }
+
+    @Test
+    public void readingStream_shouldNotModifyNonUtf8Bytes() throws Exception {
+        byte[] data = { 'a', (byte) 0xE4, '\r', '\n', (byte) 0xFF, '\n' };
+        InputStream inputStream = new LineLimitingInputStream(new ByteArrayInputStream(data), 1);
+
+        ByteString readData = Okio.buffer(Okio.source(inputStream)).readByteString();
+
+        assertEquals(ByteString.of(data, 0, 4), readData);
+    }
+
+    @Test
+    public void readingStream_withZeroLines_shouldReturnEndOfStream() throws Exception {
+        InputStream inputStream = new LineLimitingInputStream(inputStream("one\r\n"), 0);
+
+        assertEquals(-1, inputStream.read());
+        assertEquals(-1, inputStream.read(new byte[10]));
+    }
+
+    private String readStreamAsUtf8String(InputStream inputStream) throws IOException {
+        return Okio.buffer(Okio.source(inputStream)).readUtf8();
+    }
+
+    private InputStream inputStream(String data) {
+        return new Buffer().writeUtf8(data).inputStream();
+    }
+}
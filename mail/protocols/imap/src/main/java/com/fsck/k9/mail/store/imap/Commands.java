@@ -6,6 +6,7 @@ class Commands {
     public static final String NAMESPACE = "NAMESPACE";
     public static final String CAPABILITY = "CAPABILITY";
     public static final String COMPRESS_DEFLATE = "COMPRESS DEFLATE";
+    public static final String ENABLE_QRESYNC = "ENABLE QRESYNC";
     public static final String STARTTLS = "STARTTLS";
     public static final String AUTHENTICATE_XOAUTH2 = "AUTHENTICATE XOAUTH2";
     public static final String AUTHENTICATE_CRAM_MD5 = "AUTHENTICATE CRAM-MD5";
@@ -0,0 +1,18 @@
+package com.fsck.k9.mail.store.imap
+
+enum class IdleResult {
+    /**
+     * The server reported a change to the mailbox. The folder should be synchronized.
+     */
+    SYNC,
+
+    /**
+     * [ImapFolderIdler.stop] was called.
+     */
+    STOPPED,
+
+    /**
+     * The server doesn't support the IDLE extension.
+     */
+    NOT_SUPPORTED
+}
@@ -91,6 +91,8 @@ class ImapConnection {
     private Exception stacktraceForClose;
     private boolean open = false;
     private boolean retryXoauth2WithNewToken = true;
+    private boolean qresyncEnabled = false;
+    private SelectedFolderState selectedFolderState;
 
 
     public ImapConnection(ImapSettings settings, TrustedSocketFactory socketFactory,
@@ -125,6 +127,8 @@ class ImapConnection {
         open = true;
         boolean authSuccess = false;
         nextCommandTag = 1;
+        qresyncEnabled = false;
+        selectedFolderState = null;
 
         adjustDNSCacheTTL();
 
@@ -187,6 +191,14 @@ class ImapConnection {
                 socket.isConnected() && !socket.isClosed();
     }
 
+    /**
+     * Returns {@code true} if {@link #close()} was called after the connection was opened. Such a connection can't be
+     * opened again.
+     */
+    boolean isClosed() {
+        return stacktraceForClose != null;
+    }
+
     private void adjustDNSCacheTTL() {
         try {
             Security.setProperty("networkaddress.cache.ttl", "0");
@@ -246,6 +258,17 @@ class ImapConnection {
         socket.setSoTimeout(socketReadTimeout);
     }
 
+    /**
+     * Changes the socket read timeout, e.g. while waiting for responses to an IDLE command.
+     */
+    void setSocketIdleReadTimeout(int timeout) throws SocketException {
+        socket.setSoTimeout(timeout);
+    }
+
+    void setSocketDefaultReadTimeout() throws SocketException {
+        socket.setSoTimeout(socketReadTimeout);
+    }
+
     private void setUpStreamsAndParserFromSocket() throws IOException {
         setUpStreamsAndParser(socket.getInputStream(), socket.getOutputStream());
     }
@@ -607,6 +630,52 @@ class ImapConnection {
         }
     }
 
+    /**
+     * Enables the QRESYNC extension (RFC 7162) if the server supports it.
+     * <p>
+     * Once enabled, the server reports expunged messages using {@code VANISHED} instead of {@code EXPUNGE} responses
+     * for the rest of the session. So this is only done for connections that are used to synchronize a folder, not
+     * when the connection is opened. {@code ENABLE} is only allowed before a folder has been selected, so this returns
+     * {@code false} for a connection that has a selected folder and QRESYNC not already enabled.
+     *
+     * @return {@code true} if QRESYNC is enabled on this connection.
+     */
+    boolean enableQresync() throws IOException, MessagingException {
+        open();
+
+        if (qresyncEnabled) {
+            return true;
+        } else if (!hasCapability(Capabilities.QRESYNC) || selectedFolderState != null) {
+            return false;
+        }
+
+        List<ImapResponse> responses;
+        try {
+            responses = executeSimpleCommand(Commands.ENABLE_QRESYNC);
+        } catch (NegativeImapResponseException e) {
+            Timber.d(e, "Unable to enable QRESYNC");
+            return false;
+        }
+
+        for (ImapResponse response : responses) {
+            if (response.isTagged() || !equalsIgnoreCase(response.get(0), Responses.ENABLED)) {
+                continue;
+            }
+
+            for (int i = 1, size = response.size(); i < size; i++) {
+                if (equalsIgnoreCase(response.get(i), Capabilities.QRESYNC)) {
+                    qresyncEnabled = true;
+                }
+            }
+        }
+
+        if (K9MailLib.isDebug()) {
+            Timber.d("QRESYNC enabled: %b for %s", qresyncEnabled, getLogId());
+        }
+
+        return qresyncEnabled;
+    }
+
     private void retrievePathPrefixIfNecessary() throws IOException, MessagingException {
         if (settings.getPathPrefix() != null) {
             return;
@@ -697,7 +766,34 @@ class ImapConnection {
         return hasCapability(Capabilities.CONDSTORE);
     }
 
-    protected boolean isIdleCapable() {
+    /**
+     * Returns {@code true} if the QRESYNC extension (RFC 7162) has been enabled on this connection. In that case the
+     * server sends {@code VANISHED} instead of {@code EXPUNGE} responses and accepts the QRESYNC parameter to
+     * SELECT/EXAMINE.
+     */
+    boolean isQresyncEnabled() {
+        return qresyncEnabled;
+    }
+
+    /**
+     * Returns the server ID of the folder that was last selected on this connection.
+     */
+    String getSelectedFolder() {
+        return selectedFolderState != null ? selectedFolderState.getFolderServerId() : null;
+    }
+
+    /**
+     * Returns the state of the selected folder, or {@code null} if it's unknown.
+     */
+    SelectedFolderState getSelectedFolderState() {
+        return selectedFolderState;
+    }
+
+    void setSelectedFolderState(SelectedFolderState selectedFolderState) {
+        this.selectedFolderState = selectedFolderState;
+    }
+
+    boolean isIdleCapable() {
         if (K9MailLib.isDebug()) {
             Timber.v("Connection %s has %d capabilities", getLogId(), capabilities.size());
         }
@@ -709,12 +805,17 @@ class ImapConnection {
         return capabilities.contains(Capabilities.UID_PLUS);
     }
 
+    boolean isEsearchCapable() {
+        return capabilities.contains(Capabilities.ESEARCH);
+    }
+
     public void close() {
         if (!open) {
             return;
         }
 
         open = false;
+        selectedFolderState = null;
         stacktraceForClose = new Exception();
 
         IOUtils.closeQuietly(inputStream);
@@ -756,6 +857,24 @@ class ImapConnection {
         }
     }
 
+    /**
+     * Executes a command and reports untagged FETCH, SEARCH, ESEARCH, EXISTS, and EXPUNGE responses to
+     * {@code visitor} instead of returning them.
+     *
+     * @see ImapResponseParser#readStreamingResponse(ImapResponseVisitor)
+     */
+    List<ImapResponse> executeStreamingCommand(String command, ImapResponseVisitor visitor)
+            throws IOException, MessagingException {
+        String tag = sendCommand(command, false);
+
+        try {
+            return responseParser.readStatusResponse(tag, command, getLogId(), null, visitor);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
     List<ImapResponse> executeCommandWithIdSet(String commandPrefix, String commandSuffix, Set<Long> ids)
             throws IOException, MessagingException {
 
@@ -850,6 +969,25 @@ class ImapConnection {
         }
     }
 
+    /**
+     * Reads the next response. Untagged FETCH, SEARCH, ESEARCH, EXISTS, and EXPUNGE responses are reported to
+     * {@code visitor}; {@code null} is returned for them.
+     */
+    ImapResponse readStreamingResponse(ImapResponseVisitor visitor) throws IOException {
+        try {
+            ImapResponse response = responseParser.readStreamingResponse(visitor);
+
+            if (response != null && K9MailLib.isDebug() && DEBUG_PROTOCOL_IMAP) {
+                Timber.v("%s<<<%s", getLogId(), response);
+            }
+
+            return response;
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
     private ImapResponse readContinuationResponse(String tag) throws IOException, MessagingException {
         ImapResponse response;
         do {
@@ -0,0 +1,347 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.fsck.k9.mail.MessagingException;
+import timber.log.Timber;
+
+
+/**
+ * Keeps released {@link ImapConnection}s open so they can be reused.
+ * <p>
+ * At most {@link ImapStoreConfig#getMaxConnections()} connections can be in use at the same time. When that limit is
+ * reached, {@link #acquire(String)} waits up to {@link ImapStoreConfig#getConnectionWaitTimeout()} milliseconds for a
+ * connection to be released and then fails. Some operations, e.g. moving messages, need more than one connection, so
+ * the limit has to leave room for a few of them running in parallel. Connections that were closed without being
+ * released don't count towards the limit.
+ * <p>
+ * The pool only keeps up to {@link ImapStoreConfig#getMaxPooledConnections()} idle connections and closes connections
+ * that haven't been used for {@link ImapStoreConfig#getPooledConnectionIdleTimeout()} milliseconds. Idle connections
+ * are closed by a background task, so they don't stay open when the pool isn't used anymore.
+ * <p>
+ * Only connections that have been idle for at least {@link ImapStoreConfig#getPooledConnectionCheckInterval()}
+ * milliseconds are checked with a NOOP command before they are handed out.
+ * <p>
+ * When asked for a connection to open a specific folder, a connection that last selected this folder is preferred.
+ * QRESYNC is only enabled on connections used to synchronize a folder, see {@link ImapConnection#enableQresync()}.
+ */
+class ImapConnectionPool {
+    private static final long ACTIVE_CONNECTIONS_CHECK_INTERVAL = 1000L;
+
+    private static ScheduledExecutorService defaultEvictionExecutor;
+
+    private final ImapStoreConfig config;
+    private final ConnectionFactory connectionFactory;
+    private final Clock clock;
+    private final ScheduledExecutorService evictionExecutor;
+    private final LinkedList<IdleConnection> idleConnections = new LinkedList<>();
+    private final Set<ImapConnection> activeConnections = new HashSet<>();
+    private boolean evictionScheduled = false;
+
+    private long hits;
+    private long folderHits;
+    private long misses;
+    private long evictions;
+
+
+    ImapConnectionPool(ImapStoreConfig config, ConnectionFactory connectionFactory) {
+        this(config, connectionFactory, new Clock() {
+            @Override
+            public long currentTimeMillis() {
+                return System.currentTimeMillis();
+            }
+        }, getDefaultEvictionExecutor());
+    }
+
+    ImapConnectionPool(ImapStoreConfig config, ConnectionFactory connectionFactory, Clock clock,
+            ScheduledExecutorService evictionExecutor) {
+        this.config = config;
+        this.connectionFactory = connectionFactory;
+        this.clock = clock;
+        this.evictionExecutor = evictionExecutor;
+    }
+
+    /**
+     * Returns a connection from the pool or a new one.
+     *
+     * @param qresync {@code true} if the connection will be used to open the folder using QRESYNC. QRESYNC can only be
+     *         enabled before a folder is selected, so connections that already have it enabled or don't have a
+     *         selected folder are preferred. If there's no such connection, a new one is created.
+     */
+    ImapConnection acquire(String folderServerId, boolean qresync) throws MessagingException {
+        while (true) {
+            IdleConnection idleConnection;
+            ImapConnection connection;
+            List<ImapConnection> connectionsToClose;
+            synchronized (this) {
+                waitForFreeConnectionSlot();
+
+                connectionsToClose = removeIdleConnections();
+                idleConnection = qresync ? pollForQresync(folderServerId) : poll(folderServerId);
+                if (idleConnection != null) {
+                    connection = idleConnection.connection;
+                } else {
+                    misses++;
+                    connection = connectionFactory.createConnection();
+                }
+
+                activeConnections.add(connection);
+            }
+
+            closeConnections(connectionsToClose);
+
+            if (idleConnection == null) {
+                return connection;
+            }
+
+            if (needsCheck(idleConnection) && !checkConnection(connection)) {
+                synchronized (this) {
+                    activeConnections.remove(connection);
+                    evictions++;
+                    notifyAll();
+                }
+                continue;
+            }
+
+            synchronized (this) {
+                hits++;
+                if (folderServerId != null && folderServerId.equals(connection.getSelectedFolder())) {
+                    folderHits++;
+                }
+            }
+
+            return connection;
+        }
+    }
+
+    void release(ImapConnection connection) {
+        if (connection == null) {
+            return;
+        }
+
+        List<ImapConnection> connectionsToClose;
+        synchronized (this) {
+            activeConnections.remove(connection);
+            notifyAll();
+
+            if (!connection.isConnected()) {
+                return;
+            }
+
+            idleConnections.addFirst(new IdleConnection(connection, clock.currentTimeMillis()));
+            connectionsToClose = removeIdleConnections();
+            scheduleEviction();
+        }
+
+        closeConnections(connectionsToClose);
+    }
+
+    /**
+     * Closes connections that have been idle for too long. Called by a background task scheduled when connections are
+     * released.
+     */
+    void evictIdleConnections() {
+        List<ImapConnection> connectionsToClose;
+        synchronized (this) {
+            evictionScheduled = false;
+            connectionsToClose = removeIdleConnections();
+            scheduleEviction();
+        }
+
+        closeConnections(connectionsToClose);
+    }
+
+    synchronized ImapConnectionPoolStats getStats() {
+        return new ImapConnectionPoolStats(idleConnections.size(), hits, folderHits, misses, evictions);
+    }
+
+    private void waitForFreeConnectionSlot() throws MessagingException {
+        long timeout = config.getConnectionWaitTimeout();
+        long waitUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        while (countActiveConnections() >= config.getMaxConnections()) {
+            long remainingMillis = TimeUnit.NANOSECONDS.toMillis(waitUntil - System.nanoTime());
+            if (remainingMillis <= 0) {
+                throw new MessagingException("Timed out after " + timeout + " ms waiting for an IMAP connection");
+            }
+
+            try {
+                // Closed connections aren't always released, so check again from time to time
+                wait(Math.min(remainingMillis, ACTIVE_CONNECTIONS_CHECK_INTERVAL));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new MessagingException("Interrupted while waiting for an IMAP connection", e);
+            }
+        }
+    }
+
+    private int countActiveConnections() {
+        // Connections closed after an error are often not released
+        Iterator<ImapConnection> iterator = activeConnections.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isClosed()) {
+                iterator.remove();
+            }
+        }
+
+        return activeConnections.size();
+    }
+
+    private boolean checkConnection(ImapConnection connection) {
+        try {
+            List<ImapResponse> responses = connection.executeSimpleCommand(Commands.NOOP);
+
+            // Keep the selected folder, but apply changes the server reported in response to the NOOP
+            SelectedFolderState selectedFolderState = connection.getSelectedFolderState();
+            if (selectedFolderState != null) {
+                connection.setSelectedFolderState(selectedFolderState.withUntaggedResponses(responses));
+            }
+
+            return true;
+        } catch (IOException | MessagingException e) {
+            Timber.v(e, "Closing dead connection taken from the pool");
+            connection.close();
+
+            return false;
+        }
+    }
+
+    private IdleConnection poll(String folderServerId) {
+        if (folderServerId != null) {
+            Iterator<IdleConnection> iterator = idleConnections.iterator();
+            while (iterator.hasNext()) {
+                IdleConnection candidate = iterator.next();
+                if (folderServerId.equals(candidate.connection.getSelectedFolder())) {
+                    iterator.remove();
+                    return candidate;
+                }
+            }
+        }
+
+        // The most recently used connection is the one most likely to still be alive
+        return idleConnections.pollFirst();
+    }
+
+    private IdleConnection pollForQresync(String folderServerId) {
+        IdleConnection enabledConnection = null;
+        IdleConnection unselectedConnection = null;
+        for (IdleConnection candidate : idleConnections) {
+            ImapConnection connection = candidate.connection;
+            if (connection.isQresyncEnabled()) {
+                if (folderServerId != null && folderServerId.equals(connection.getSelectedFolder())) {
+                    enabledConnection = candidate;
+                    break;
+                } else if (enabledConnection == null) {
+                    enabledConnection = candidate;
+                }
+            } else if (unselectedConnection == null && connection.getSelectedFolder() == null) {
+                unselectedConnection = candidate;
+            }
+        }
+
+        IdleConnection idleConnection = enabledConnection != null ? enabledConnection : unselectedConnection;
+        if (idleConnection != null) {
+            idleConnections.remove(idleConnection);
+        }
+
+        return idleConnection;
+    }
+
+    private boolean needsCheck(IdleConnection idleConnection) {
+        long idleTime = clock.currentTimeMillis() - idleConnection.releasedAt;
+        return idleTime >= config.getPooledConnectionCheckInterval();
+    }
+
+    private void scheduleEviction() {
+        if (evictionScheduled || idleConnections.isEmpty()) {
+            return;
+        }
+
+        // The least recently released connection is the first one to time out
+        long oldestReleasedAt = idleConnections.getLast().releasedAt;
+        long evictAt = oldestReleasedAt + config.getPooledConnectionIdleTimeout() + 1;
+        long delay = Math.max(0, evictAt - clock.currentTimeMillis());
+
+        evictionScheduled = true;
+        evictionExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                evictIdleConnections();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private List<ImapConnection> removeIdleConnections() {
+        int maxIdleConnections = config.getMaxPooledConnections();
+        long oldestAllowedTimestamp = clock.currentTimeMillis() - config.getPooledConnectionIdleTimeout();
+
+        List<ImapConnection> connectionsToClose = new ArrayList<>();
+        int index = 0;
+        Iterator<IdleConnection> iterator = idleConnections.iterator();
+        while (iterator.hasNext()) {
+            IdleConnection idleConnection = iterator.next();
+            if (index >= maxIdleConnections || idleConnection.releasedAt < oldestAllowedTimestamp) {
+                iterator.remove();
+                connectionsToClose.add(idleConnection.connection);
+            } else {
+                index++;
+            }
+        }
+
+        evictions += connectionsToClose.size();
+
+        return connectionsToClose;
+    }
+
+    private void closeConnections(List<ImapConnection> connections) {
+        // Don't hold the lock while closing connections
+        for (ImapConnection connection : connections) {
+            connection.close();
+        }
+    }
+
+
+    private static synchronized ScheduledExecutorService getDefaultEvictionExecutor() {
+        if (defaultEvictionExecutor == null) {
+            defaultEvictionExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "ImapConnectionPoolEviction");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        return defaultEvictionExecutor;
+    }
+
+
+    interface ConnectionFactory {
+        ImapConnection createConnection();
+    }
+
+    interface Clock {
+        long currentTimeMillis();
+    }
+
+    private static class IdleConnection {
+        final ImapConnection connection;
+        final long releasedAt;
+
+        IdleConnection(ImapConnection connection, long releasedAt) {
+            this.connection = connection;
+            this.releasedAt = releasedAt;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.fsck.k9.mail.store.imap
+
+/**
+ * Usage statistics of the connection pool of an [ImapStore].
+ *
+ * @param idleConnections Number of connections currently kept open in the pool.
+ * @param hits Number of requests that were served by a pooled connection.
+ * @param folderHits Number of [hits] where the pooled connection had last selected the requested folder.
+ * @param misses Number of requests that required creating a new connection.
+ * @param evictions Number of pooled connections that were closed because they were idle for too long, exceeded the
+ *   pool size, or turned out to be dead.
+ */
+data class ImapConnectionPoolStats(
+    val idleConnections: Int,
+    val hits: Long,
+    val folderHits: Long,
+    val misses: Long,
+    val evictions: Long
+) {
+    val creates: Long
+        get() = misses
+}
@@ -21,12 +21,12 @@ import java.io.IOException
 import java.io.InputStream
 import java.text.SimpleDateFormat
 import java.util.Date
+import java.util.EnumSet
 import java.util.HashMap
 import java.util.LinkedHashSet
 import java.util.Locale
 import java.util.concurrent.ConcurrentHashMap
 import kotlin.math.max
-import kotlin.math.min
 import timber.log.Timber
 
 class ImapFolder internal constructor(
@@ -45,6 +45,8 @@ class ImapFolder internal constructor(
     private var inSearch = false
     private var canCreateKeywords = false
     private var uidValidity: Long? = null
+    private var highestModSeq: Long? = null
+    private var usedQresync = false
 
     @Volatile
     var messageCount = -1
@@ -55,6 +57,9 @@ class ImapFolder internal constructor(
     var mode = 0
         private set
 
+    private var requestedMode = 0
+    private var selected = false
+
     val isOpen: Boolean
         get() = connection != null
 
@@ -65,6 +70,15 @@ class ImapFolder internal constructor(
         return uidValidity
     }
 
+    /**
+     * Returns the HIGHESTMODSEQ value reported when the folder was opened, or `null` if the server doesn't support
+     * CONDSTORE or doesn't store modification sequences for this folder.
+     */
+    fun getHighestModSeq(): Long? {
+        check(isOpen) { "ImapFolder needs to be open" }
+        return highestModSeq
+    }
+
     @get:Throws(MessagingException::class)
     private val prefixedName: String
         get() {
@@ -104,8 +118,44 @@ class ImapFolder internal constructor(
         }
     }
 
+    /**
+     * Opens the folder using the QRESYNC parameter if the QRESYNC extension can be enabled on the connection.
+     *
+     * @return The changes since [QresyncParameters.modificationSequence], or `null` if QRESYNC couldn't be used. In the
+     * latter case the folder is opened as if [open] had been called.
+     */
     @Throws(MessagingException::class)
-    private fun internalOpen(mode: Int): List<ImapResponse> {
+    fun openWithQresync(mode: Int, qresyncParameters: QresyncParameters): QresyncResponse? {
+        // The changes are only reported in response to SELECT/EXAMINE, so we can't reuse an already selected folder
+        close()
+
+        val responses = internalOpen(mode, qresyncParameters)
+
+        if (messageCount == -1) {
+            throw MessagingException("Did not find message count during open")
+        }
+
+        if (!usedQresync) {
+            return null
+        }
+
+        val vanishedUids = mutableSetOf<String>()
+        val modifiedMessages = mutableListOf<ImapMessage>()
+        for (response in responses) {
+            if (response.isTagged || response.size < 2) continue
+
+            if (ImapResponseParser.equalsIgnoreCase(response[0], Responses.VANISHED)) {
+                vanishedUids.addAll(ImapUtility.getImapSequenceValues(response.getString(response.size - 1)))
+            } else {
+                parseFlagsFetchResponse(response)?.let { message -> modifiedMessages.add(message) }
+            }
+        }
+
+        return QresyncResponse(vanishedUids, modifiedMessages)
+    }
+
+    @Throws(MessagingException::class)
+    private fun internalOpen(mode: Int, qresyncParameters: QresyncParameters? = null): List<ImapResponse> {
         if (isOpen && this.mode == mode) {
             // Make sure the connection is valid. If it's not we'll close it down and continue on to get a new one.
             try {
@@ -118,16 +168,41 @@ class ImapFolder internal constructor(
         store.releaseConnection(connection)
 
         synchronized(this) {
-            connection = store.connection
+            connection = if (qresyncParameters != null) {
+                store.getQresyncConnection(serverId)
+            } else {
+                store.getConnection(serverId)
+            }
+        }
+
+        val selectedFolderState = connection!!.selectedFolderState
+        if (qresyncParameters == null && selectedFolderState != null &&
+            selectedFolderState.folderServerId == serverId && selectedFolderState.requestedMode == mode) {
+            return reuseSelectedFolder(selectedFolderState)
         }
 
         try {
+            // This has to happen before the selected folder state is cleared
+            usedQresync = qresyncParameters != null && connection!!.enableQresync()
+
+            // A failed SELECT/EXAMINE leaves the connection without a selected folder
+            connection!!.selectedFolderState = null
+            selected = false
+
             msgSeqUidMap.clear()
+            highestModSeq = null
 
             val openCommand = if (mode == OPEN_MODE_RW) "SELECT" else "EXAMINE"
             val encodedFolderName = folderNameCodec.encode(prefixedName)
             val escapedFolderName = ImapUtility.encodeString(encodedFolderName)
-            val command = String.format("%s %s", openCommand, escapedFolderName)
+            val command = if (usedQresync) {
+                String.format(
+                    Locale.US, "%s %s (QRESYNC (%d %d))", openCommand, escapedFolderName,
+                    qresyncParameters!!.uidValidity, qresyncParameters.modificationSequence
+                )
+            } else {
+                String.format("%s %s", openCommand, escapedFolderName)
+            }
             val responses = executeSimpleCommand(command)
 
             /*
@@ -138,11 +213,14 @@ class ImapFolder internal constructor(
 
             for (response in responses) {
                 extractUidValidity(response)
+                extractHighestModSeq(response)
                 handlePermanentFlags(response)
             }
 
             handleSelectOrExamineOkResponse(ImapUtility.getLastResponse(responses))
 
+            requestedMode = mode
+            selected = true
             exists = true
 
             return responses
@@ -154,6 +232,30 @@ class ImapFolder internal constructor(
         }
     }
 
+    /**
+     * Uses the state saved when the connection was last released instead of selecting the folder again. NOOP makes the
+     * server report changes since then, e.g. new messages.
+     */
+    @Throws(MessagingException::class)
+    private fun reuseSelectedFolder(selectedFolderState: SelectedFolderState): List<ImapResponse> {
+        msgSeqUidMap.clear()
+        usedQresync = false
+        requestedMode = selectedFolderState.requestedMode
+        mode = selectedFolderState.mode
+        messageCount = selectedFolderState.messageCount
+        uidValidity = selectedFolderState.uidValidity
+        highestModSeq = selectedFolderState.highestModSeq
+        canCreateKeywords = selectedFolderState.canCreateKeywords
+        selected = true
+        exists = true
+
+        try {
+            return executeSimpleCommand(Commands.NOOP)
+        } catch (ioe: IOException) {
+            throw ioExceptionHandler(connection, ioe)
+        }
+    }
+
     private fun extractUidValidity(response: ImapResponse) {
         val uidValidityResponse = UidValidityResponse.parse(response)
         if (uidValidityResponse != null) {
@@ -161,6 +263,20 @@ class ImapFolder internal constructor(
         }
     }
 
+    private fun extractHighestModSeq(response: ImapResponse) {
+        if (response.isTagged || !ImapResponseParser.equalsIgnoreCase(response[0], Responses.OK) ||
+            !response.isList(1)) return
+
+        val responseTextList = response.getList(1)
+        if (ImapResponseParser.equalsIgnoreCase(responseTextList[0], Responses.NOMODSEQ)) {
+            highestModSeq = null
+        } else if (responseTextList.size >= 2 &&
+            ImapResponseParser.equalsIgnoreCase(responseTextList[0], Responses.HIGHESTMODSEQ) &&
+            responseTextList.isLong(1)) {
+            highestModSeq = responseTextList.getLong(1)
+        }
+    }
+
     private fun handlePermanentFlags(response: ImapResponse) {
         val permanentFlagsResponse = PermanentFlagsResponse.parse(response) ?: return
 
@@ -177,6 +293,7 @@ class ImapFolder internal constructor(
     }
 
     fun close() {
+        val currentMessageCount = messageCount
         messageCount = -1
 
         if (!isOpen) {
@@ -189,10 +306,17 @@ class ImapFolder internal constructor(
                 Timber.i("IMAP search was aborted, shutting down connection.")
                 connection!!.close()
             } else {
+                if (selected) {
+                    connection?.selectedFolderState = SelectedFolderState(
+                        serverId, requestedMode, mode, currentMessageCount, uidValidity, highestModSeq,
+                        canCreateKeywords
+                    )
+                }
                 store.releaseConnection(connection)
             }
 
             connection = null
+            selected = false
         }
     }
 
@@ -224,7 +348,7 @@ class ImapFolder internal constructor(
          * not calling checkOpen() since we don't care if the folder is open.
          */
         val connection = synchronized(this) {
-            this.connection ?: store.connection
+            this.connection ?: store.getConnection(serverId)
         }
 
         return try {
@@ -254,7 +378,7 @@ class ImapFolder internal constructor(
          * not calling checkOpen() since we don't care if the folder is open.
          */
         val connection = synchronized(this) {
-            this.connection ?: store.connection
+            this.connection ?: store.getConnection(serverId)
         }
 
         return try {
@@ -340,6 +464,11 @@ class ImapFolder internal constructor(
         checkOpen()
 
         try {
+            if (isEsearchCapable) {
+                val command = String.format(Locale.US, "SEARCH RETURN (COUNT) 1:* %s", criteria)
+                return executeSearchCommand(command).count.toInt()
+            }
+
             val command = String.format(Locale.US, "SEARCH 1:* %s", criteria)
             val responses = executeSimpleCommand(command)
 
@@ -366,10 +495,14 @@ class ImapFolder internal constructor(
     @get:Throws(MessagingException::class)
     internal val highestUid: Long
         get() = try {
-            val responses = executeSimpleCommand("UID SEARCH *:*")
-            val searchResponse = SearchResponse.parse(responses)
+            if (isEsearchCapable) {
+                executeSearchCommand("UID SEARCH RETURN (MAX) *:*").max ?: -1L
+            } else {
+                val responses = executeSimpleCommand("UID SEARCH *:*")
+                val searchResponse = SearchResponse.parse(responses)
 
-            extractHighestUid(searchResponse)
+                extractHighestUid(searchResponse)
+            }
         } catch (e: NegativeImapResponseException) {
             -1L
         } catch (ioe: IOException) {
@@ -409,7 +542,8 @@ class ImapFolder internal constructor(
         checkOpen()
 
         val dateSearchString = getDateSearchString(earliestDate)
-        val command = String.format(Locale.US, "UID SEARCH %d:%d%s%s",
+        val command = String.format(Locale.US, "UID SEARCH %s%d:%d%s%s",
+            if (isEsearchCapable) "RETURN (ALL) " else "",
             start,
             end,
             dateSearchString,
@@ -417,6 +551,10 @@ class ImapFolder internal constructor(
         )
 
         try {
+            if (isEsearchCapable) {
+                return getMessages(executeSearchCommand(command).uids, listener)
+            }
+
             val imapResponses = connection!!.executeSimpleCommand(command)
             val searchResponse = SearchResponse.parse(imapResponses)
             return getMessages(searchResponse, listener)
@@ -457,6 +595,14 @@ class ImapFolder internal constructor(
 
     @Throws(MessagingException::class, IOException::class)
     private fun existsNonDeletedMessageInRange(startIndex: Int, endIndex: Int, dateSearchString: String): Boolean {
+        if (isEsearchCapable) {
+            val command = String.format(
+                Locale.US, "SEARCH RETURN (MIN) %d:%d%s NOT DELETED",
+                startIndex, endIndex, dateSearchString
+            )
+            return executeSearchCommand(command).min != null
+        }
+
         val command = String.format(
             Locale.US, "SEARCH %d:%d%s NOT DELETED",
             startIndex, endIndex, dateSearchString
@@ -506,21 +652,28 @@ class ImapFolder internal constructor(
         searchResponse: SearchResponse,
         listener: MessageRetrievalListener<ImapMessage>?
     ): List<ImapMessage> {
-        // Sort the uids in numerically decreasing order
+        val uids = UidSet.Builder().addAll(searchResponse.numbers).build()
+        return getMessages(uids, listener)
+    }
+
+    private fun getMessages(uids: UidSet, listener: MessageRetrievalListener<ImapMessage>?): List<ImapMessage> {
+        // Return the uids in numerically decreasing order
         // By doing it in decreasing order, we ensure newest messages are dealt with first
         // This makes the most sense when a limit is imposed, and also prevents UI from going
         // crazy adding stuff at the top.
-        val uids = searchResponse.numbers.sortedDescending()
-
-        val count = uids.size
-        return uids.mapIndexed { index, uidLong ->
+        val count = uids.count.toInt()
+        val messages = ArrayList<ImapMessage>(count)
+        uids.forEachDescending { uidLong ->
+            val index = messages.size
             val uid = uidLong.toString()
             listener?.messageStarted(uid, index, count)
             val message = ImapMessage(uid)
             listener?.messageFinished(message, index, count)
 
-            message
+            messages.add(message)
         }
+
+        return messages
     }
 
     @Throws(MessagingException::class)
@@ -571,82 +724,316 @@ class ImapFolder internal constructor(
         }
 
         val spaceSeparatedFetchFields = ImapUtility.join(" ", fetchFields)
-        var windowStart = 0
-        while (windowStart < messages.size) {
-            val windowEnd = min(windowStart + FETCH_WINDOW_SIZE, messages.size)
-            val uidWindow = uids.subList(windowStart, windowEnd)
+        val uidWindows = uids.chunked(FETCH_WINDOW_SIZE)
 
-            try {
-                val commaSeparatedUids = ImapUtility.join(",", uidWindow)
-                val command = String.format("UID FETCH %s (%s)", commaSeparatedUids, spaceSeparatedFetchFields)
-                connection!!.sendCommand(command, false)
+        var callback: ImapResponseCallback? = null
+        if (fetchProfile.contains(FetchProfile.Item.BODY) || fetchProfile.contains(FetchProfile.Item.BODY_SANE)) {
+            callback = FetchBodyCallback(messageMap)
+        }
+
+        val fetchState = FetchState(messageMap, listener)
 
-                var messageNumber = 0
-                var callback: ImapResponseCallback? = null
-                if (fetchProfile.contains(FetchProfile.Item.BODY) ||
-                    fetchProfile.contains(FetchProfile.Item.BODY_SANE)) {
-                    callback = FetchBodyCallback(messageMap)
+        // Flags are the only thing fetched when refreshing the flags of all messages. Use the streaming parser to avoid
+        // creating lots of short-lived objects for this potentially large number of responses.
+        val isFlagsOnly = fetchProfile.size == 1 && fetchProfile.contains(FetchProfile.Item.FLAGS)
+        val flagsVisitor = if (isFlagsOnly) createFetchFlagsVisitor(fetchState) else null
+
+        var nextWindow = 0
+        var pendingCommands = 0
+        try {
+            while (nextWindow < uidWindows.size || pendingCommands > 0) {
+                // Keep several FETCH commands in flight so we don't wait for a full round trip after each window.
+                // Untagged FETCH responses contain the UID, so they can be matched up using messageMap regardless
+                // of which command they belong to.
+                while (nextWindow < uidWindows.size && pendingCommands < MAX_PIPELINED_FETCH_COMMANDS) {
+                    val uidSet = createUidSet(uidWindows[nextWindow])
+                    val command = String.format("UID FETCH %s (%s)", uidSet, spaceSeparatedFetchFields)
+                    connection!!.sendCommand(command, false)
+
+                    nextWindow++
+                    pendingCommands++
                 }
 
-                var response: ImapResponse
-                do {
-                    response = connection!!.readResponse(callback)
-                    if (response.tag == null && ImapResponseParser.equalsIgnoreCase(response[1], "FETCH")) {
-                        val fetchList = response.getKeyedValue("FETCH") as ImapList
-                        val uid = fetchList.getKeyedString("UID")
-                        val msgSeq = response.getLong(0)
-                        if (uid != null) {
-                            try {
-                                msgSeqUidMap[msgSeq] = uid
-                                if (K9MailLib.isDebug()) {
-                                    Timber.v("Stored uid '%s' for msgSeq %d into map", uid, msgSeq)
-                                }
-                            } catch (e: Exception) {
-                                Timber.e("Unable to store uid '%s' for msgSeq %d", uid, msgSeq)
-                            }
-                        }
+                val response = if (flagsVisitor != null) {
+                    connection!!.readStreamingResponse(flagsVisitor) ?: continue
+                } else {
+                    connection!!.readResponse(callback)
+                }
 
-                        val message = messageMap[uid]
-                        if (message == null) {
-                            if (K9MailLib.isDebug()) {
-                                Timber.d("Do not have message in messageMap for UID %s for %s", uid, logId)
-                            }
-                            handleUntaggedResponse(response)
-                            continue
-                        }
+                if (response.tag != null) {
+                    pendingCommands--
+                } else if (ImapResponseParser.equalsIgnoreCase(response[1], "FETCH")) {
+                    handleUntaggedFetchResponse(response, fetchState)
+                } else {
+                    handleUntaggedResponse(response)
+                }
+            }
+        } catch (ioe: IOException) {
+            throw ioExceptionHandler(connection, ioe)
+        }
+    }
 
-                        listener?.messageStarted(uid, messageNumber++, messageMap.size)
-
-                        val literal = handleFetchResponse(message, fetchList)
-                        if (literal != null) {
-                            when (literal) {
-                                is String -> {
-                                    val bodyStream: InputStream = ByteArrayInputStream(literal.toByteArray())
-                                    message.parse(bodyStream)
-                                }
-                                is Int -> {
-                                    // All the work was done in FetchBodyCallback.foundLiteral()
-                                }
-                                else -> {
-                                    // This shouldn't happen
-                                    throw MessagingException("Got FETCH response with bogus parameters")
-                                }
-                            }
-                        }
+    private fun handleUntaggedFetchResponse(response: ImapResponse, fetchState: FetchState) {
+        val fetchList = response.getKeyedValue("FETCH") as ImapList
+        val uid = fetchList.getKeyedString("UID")
+        val msgSeq = response.getLong(0)
+        if (uid != null) {
+            try {
+                msgSeqUidMap[msgSeq] = uid
+                if (K9MailLib.isDebug()) {
+                    Timber.v("Stored uid '%s' for msgSeq %d into map", uid, msgSeq)
+                }
+            } catch (e: Exception) {
+                Timber.e("Unable to store uid '%s' for msgSeq %d", uid, msgSeq)
+            }
+        }
 
-                        listener?.messageFinished(message, messageNumber, messageMap.size)
-                    } else {
-                        handleUntaggedResponse(response)
+        val messageMap = fetchState.messageMap
+        val message = messageMap[uid]
+        if (message == null) {
+            if (K9MailLib.isDebug()) {
+                Timber.d("Do not have message in messageMap for UID %s for %s", uid, logId)
+            }
+            handleUntaggedResponse(response)
+            return
+        }
+
+        val listener = fetchState.listener
+        listener?.messageStarted(uid, fetchState.messageNumber++, messageMap.size)
+
+        val literal = handleFetchResponse(message, fetchList)
+        if (literal != null) {
+            when (literal) {
+                is String -> {
+                    val bodyStream: InputStream = ByteArrayInputStream(literal.toByteArray())
+                    message.parse(bodyStream)
+                }
+                is Int -> {
+                    // All the work was done in FetchBodyCallback.foundLiteral()
+                }
+                else -> {
+                    // This shouldn't happen
+                    throw MessagingException("Got FETCH response with bogus parameters")
+                }
+            }
+        }
+
+        listener?.messageFinished(message, fetchState.messageNumber, messageMap.size)
+    }
+
+    private fun createFetchFlagsVisitor(fetchState: FetchState): FlagsFetchVisitor {
+        return object : FlagsFetchVisitor() {
+            override fun onFlagsFetched(uid: String, flags: Set<Flag>) {
+                val messageMap = fetchState.messageMap
+                val message = messageMap[uid]
+                if (message == null) {
+                    if (K9MailLib.isDebug()) {
+                        Timber.d("Do not have message in messageMap for UID %s for %s", uid, logId)
                     }
-                } while (response.tag == null)
-            } catch (ioe: IOException) {
-                throw ioExceptionHandler(connection, ioe)
+                    return
+                }
+
+                val listener = fetchState.listener
+                listener?.messageStarted(uid, fetchState.messageNumber++, messageMap.size)
+
+                setFetchedFlags(message, flags)
+
+                listener?.messageFinished(message, fetchState.messageNumber, messageMap.size)
+            }
+        }
+    }
+
+    /**
+     * Creates a UID set for a FETCH command, using ranges for contiguous UIDs, e.g. "7,10:25".
+     */
+    private fun createUidSet(uids: List<String>): String {
+        val numericUids = uids.mapNotNull { it.toLongOrNull() }.toSet()
+        if (numericUids.size != uids.size) {
+            return ImapUtility.join(",", uids)
+        }
+
+        val groupedIds = IdGrouper.groupIds(numericUids)
+        val uidSetParts = groupedIds.ids.map { it.toString() } + groupedIds.idGroups.map { it.toString() }
+        return uidSetParts.joinToString(",")
+    }
+
+    private class FetchState(
+        val messageMap: Map<String, ImapMessage>,
+        val listener: MessageRetrievalListener<ImapMessage?>?
+    ) {
+        var messageNumber = 0
+    }
+
+    /**
+     * Fetches the flags of all messages that changed since the given modification sequence (RFC 7162, CONDSTORE).
+     *
+     * @return Messages with only the UID and flags populated.
+     */
+    @Throws(MessagingException::class)
+    fun fetchChangedFlags(changedSince: Long): List<ImapMessage> {
+        checkOpen()
+
+        if (messageCount == 0) {
+            return emptyList()
+        }
+
+        try {
+            val command = String.format(Locale.US, "UID FETCH 1:* (UID FLAGS) (CHANGEDSINCE %d)", changedSince)
+
+            val messages = mutableListOf<ImapMessage>()
+            val visitor = object : FlagsFetchVisitor() {
+                override fun onFlagsFetched(uid: String, flags: Set<Flag>) {
+                    val message = ImapMessage(uid)
+                    setFetchedFlags(message, flags)
+                    messages.add(message)
+                }
+            }
+
+            handleUntaggedResponses(connection!!.executeStreamingCommand(command, visitor))
+
+            return messages
+        } catch (ioe: IOException) {
+            throw ioExceptionHandler(connection, ioe)
+        }
+    }
+
+    private fun parseFlagsFetchResponse(response: ImapResponse): ImapMessage? {
+        if (response.isTagged || response.size < 3 || !ImapResponseParser.equalsIgnoreCase(response[1], "FETCH")) {
+            return null
+        }
+
+        val fetchList = response.getKeyedValue("FETCH") as? ImapList ?: return null
+        val uid = fetchList.getKeyedString("UID") ?: return null
+        if (!fetchList.containsKey("FLAGS")) {
+            return null
+        }
+
+        val message = ImapMessage(uid)
+        handleFetchResponse(message, fetchList)
+
+        return message
+    }
+
+    private fun setFetchedFlags(message: ImapMessage, flags: Set<Flag>) {
+        for (flag in flags) {
+            message.setFlag(flag, true)
+        }
+
+        if (Flag.FORWARDED in flags) {
+            // a message contains FORWARDED FLAG -> so we can also create them
+            store.permanentFlagsIndex.add(Flag.FORWARDED)
+        }
+    }
+
+    /**
+     * Handles EXISTS and EXPUNGE responses reported by the streaming response parser like [handleUntaggedResponse]
+     * does.
+     */
+    private abstract inner class FolderResponseVisitor : ImapResponseVisitor() {
+        override fun visitExists(messageCount: Long) {
+            this@ImapFolder.messageCount = messageCount.toInt()
+            if (K9MailLib.isDebug()) {
+                Timber.d("Got untagged EXISTS with value %d for %s", messageCount, logId)
+            }
+        }
+
+        override fun visitExpunge(messageSequenceNumber: Long) {
+            if (messageCount > 0) {
+                messageCount--
+                if (K9MailLib.isDebug()) {
+                    Timber.d("Got untagged EXPUNGE with messageCount %d for %s", messageCount, logId)
+                }
             }
+        }
+    }
+
+    /**
+     * Receives UID and flags of FETCH responses from the streaming response parser.
+     */
+    private abstract inner class FlagsFetchVisitor : FolderResponseVisitor() {
+        private var messageSequenceNumber = 0L
+        private var uid: String? = null
+        private val flags = EnumSet.noneOf(Flag::class.java)
 
-            windowStart += FETCH_WINDOW_SIZE
+        /**
+         * Called for every FETCH response containing a UID. [flags] is only valid for the duration of the call.
+         */
+        abstract fun onFlagsFetched(uid: String, flags: Set<Flag>)
+
+        override fun visitFetchStart(messageSequenceNumber: Long) {
+            this.messageSequenceNumber = messageSequenceNumber
+            uid = null
+            flags.clear()
+        }
+
+        override fun visitFetchUid(uid: Long) {
+            this.uid = uid.toString()
+        }
+
+        override fun visitFetchFlag(flag: String) {
+            parseFlag(flag)?.let { flags.add(it) }
+        }
+
+        override fun visitFetchEnd() {
+            val uid = uid ?: return
+            msgSeqUidMap[messageSequenceNumber] = uid
+
+            onFlagsFetched(uid, flags)
         }
     }
 
+    /**
+     * Collects the result of a SEARCH command. Works with both `SEARCH` and `ESEARCH` (RFC 4731) responses.
+     */
+    private inner class SearchResultVisitor : FolderResponseVisitor() {
+        private val uidSetBuilder = UidSet.Builder()
+        private var esearchCount: Long? = null
+
+        var min: Long? = null
+            private set
+        var max: Long? = null
+            private set
+
+        val uids: UidSet
+            get() = uidSetBuilder.build()
+
+        val count: Long
+            get() = esearchCount ?: uids.count
+
+        override fun visitSearchNumber(number: Long) {
+            uidSetBuilder.add(number)
+            min = min?.coerceAtMost(number) ?: number
+            max = max?.coerceAtLeast(number) ?: number
+        }
+
+        override fun visitEsearchRange(start: Long, end: Long) {
+            uidSetBuilder.addRange(start, end)
+        }
+
+        override fun visitEsearchMin(min: Long) {
+            this.min = min
+        }
+
+        override fun visitEsearchMax(max: Long) {
+            this.max = max
+        }
+
+        override fun visitEsearchCount(count: Long) {
+            esearchCount = count
+        }
+    }
+
+    @Throws(IOException::class, MessagingException::class)
+    private fun executeSearchCommand(command: String): SearchResultVisitor {
+        val visitor = SearchResultVisitor()
+        handleUntaggedResponses(connection!!.executeStreamingCommand(command, visitor))
+
+        return visitor
+    }
+
+    private val isEsearchCapable: Boolean
+        get() = connection!!.isEsearchCapable
+
     @Throws(MessagingException::class)
     fun fetchPart(
         message: ImapMessage,
@@ -721,6 +1108,21 @@ class ImapFolder internal constructor(
         }
     }
 
+    /**
+     * Maps a flag or keyword of a FETCH response to a [Flag]. Returns `null` for keywords that don't have a [Flag].
+     */
+    private fun parseFlag(flag: String): Flag? {
+        return when {
+            flag.equals("\\Deleted", ignoreCase = true) -> Flag.DELETED
+            flag.equals("\\Answered", ignoreCase = true) -> Flag.ANSWERED
+            flag.equals("\\Seen", ignoreCase = true) -> Flag.SEEN
+            flag.equals("\\Flagged", ignoreCase = true) -> Flag.FLAGGED
+            flag.equals("\$Forwarded", ignoreCase = true) -> Flag.FORWARDED
+            flag.equals("\\Draft", ignoreCase = true) -> Flag.DRAFT
+            else -> null
+        }
+    }
+
     // Returns value of body field
     @Throws(MessagingException::class)
     private fun handleFetchResponse(message: ImapMessage, fetchList: ImapList): Any? {
@@ -729,28 +1131,12 @@ class ImapFolder internal constructor(
             val flags = fetchList.getKeyedList("FLAGS")
             if (flags != null) {
                 for (i in flags.indices) {
-                    val flag = flags.getString(i)
-                    when {
-                        flag.equals("\\Deleted", ignoreCase = true) -> {
-                            message.setFlag(Flag.DELETED, true)
-                        }
-                        flag.equals("\\Answered", ignoreCase = true) -> {
-                            message.setFlag(Flag.ANSWERED, true)
-                        }
-                        flag.equals("\\Seen", ignoreCase = true) -> {
-                            message.setFlag(Flag.SEEN, true)
-                        }
-                        flag.equals("\\Flagged", ignoreCase = true) -> {
-                            message.setFlag(Flag.FLAGGED, true)
-                        }
-                        flag.equals("\$Forwarded", ignoreCase = true) -> {
-                            message.setFlag(Flag.FORWARDED, true)
-                            // a message contains FORWARDED FLAG -> so we can also create them
-                            store.permanentFlagsIndex.add(Flag.FORWARDED)
-                        }
-                        flag.equals("\\Draft", ignoreCase = true) -> {
-                            message.setFlag(Flag.DRAFT, true)
-                        }
+                    val flag = parseFlag(flags.getString(i)) ?: continue
+                    message.setFlag(flag, true)
+
+                    if (flag == Flag.FORWARDED) {
+                        // a message contains FORWARDED FLAG -> so we can also create them
+                        store.permanentFlagsIndex.add(Flag.FORWARDED)
                     }
                 }
             }
@@ -837,6 +1223,17 @@ class ImapFolder internal constructor(
                     Timber.d("Got untagged EXPUNGE with messageCount %d for %s", messageCount, logId)
                 }
             }
+
+            // With QRESYNC enabled the server reports expunged messages using VANISHED instead of EXPUNGE.
+            // VANISHED (EARLIER) responses refer to messages that aren't included in the message count.
+            if (ImapResponseParser.equalsIgnoreCase(response[0], Responses.VANISHED) && response[1] is String &&
+                messageCount > 0) {
+                val vanishedCount = ImapUtility.getImapSequenceValues(response.getString(1)).size
+                messageCount = max(0, messageCount - vanishedCount)
+                if (K9MailLib.isDebug()) {
+                    Timber.d("Got untagged VANISHED with messageCount %d for %s", messageCount, logId)
+                }
+            }
         }
     }
 
@@ -1203,9 +1600,14 @@ class ImapFolder internal constructor(
                 .performFullTextSearch(performFullTextSearch)
                 .requiredFlags(requiredFlags)
                 .forbiddenFlags(forbiddenFlags)
+                .returnAll(isEsearchCapable)
                 .build()
 
             try {
+                if (isEsearchCapable) {
+                    return getMessages(executeSearchCommand(searchCommand).uids, null)
+                }
+
                 val imapResponses = executeSimpleCommand(searchCommand)
                 val searchResponse = SearchResponse.parse(imapResponses)
 
@@ -1221,6 +1623,7 @@ class ImapFolder internal constructor(
     companion object {
         private const val MORE_MESSAGES_WINDOW_SIZE = 500
         private const val FETCH_WINDOW_SIZE = 100
+        private const val MAX_PIPELINED_FETCH_COMMANDS = 4
 
         const val OPEN_MODE_RW = 0
         const val OPEN_MODE_RO = 1
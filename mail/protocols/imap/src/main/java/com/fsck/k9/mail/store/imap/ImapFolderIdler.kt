@@ -0,0 +1,295 @@
+package com.fsck.k9.mail.store.imap
+
+import com.fsck.k9.mail.K9MailLib
+import com.fsck.k9.mail.MessagingException
+import com.fsck.k9.mail.power.WakeLock
+import java.io.IOException
+import java.util.Timer
+import java.util.TimerTask
+import timber.log.Timber
+
+/**
+ * Keeps a dedicated [ImapConnection] in the IDLE state (RFC 2177) for a single folder.
+ *
+ * The connection is not taken from the [ImapStore]'s connection pool and is kept open between calls to [idle]. Changes
+ * reported while the client isn't idling are queued by the server and delivered as soon as the next IDLE command is
+ * issued, so no notification is lost between two calls to [idle].
+ *
+ * The wake lock is released while blocking on the socket and held while processing responses.
+ */
+class ImapFolderIdler(
+    private val imapStore: ImapStore,
+    private val wakeLock: WakeLock,
+    private val folderServerId: String,
+    private val idleRefreshTimeoutMs: Long,
+    private val refreshTimer: Timer
+) {
+    private val lock = Any()
+
+    @Volatile
+    private var connection: ImapConnection? = null
+    @Volatile
+    private var stopIdle = false
+
+    // Guarded by lock
+    private var idleInProgress = false
+    private var doneSent = false
+
+    private var messageCount = -1
+    private var uidNext = -1L
+    private var previousUidNext = -1L
+
+    /**
+     * Issues the IDLE command and waits for the server to report a change to the mailbox.
+     *
+     * @return [IdleResult.SYNC] if the folder needs to be synchronized, [IdleResult.STOPPED] if [stop] was called, or
+     * [IdleResult.NOT_SUPPORTED] if the server doesn't support IDLE.
+     */
+    @Throws(MessagingException::class, IOException::class)
+    fun idle(): IdleResult {
+        if (stopIdle) {
+            return IdleResult.STOPPED
+        }
+
+        wakeLock.acquire()
+        try {
+            val connection = connection ?: openConnection()
+            if (connection == null) {
+                return IdleResult.NOT_SUPPORTED
+            }
+
+            if (previousUidNext != -1L && uidNext != -1L && previousUidNext != uidNext) {
+                // Messages arrived while we were (re)connecting
+                previousUidNext = uidNext
+                return IdleResult.SYNC
+            }
+
+            return idleOnConnection(connection)
+        } catch (e: IOException) {
+            closeConnection()
+            throw e
+        } catch (e: MessagingException) {
+            closeConnection()
+            throw e
+        } finally {
+            wakeLock.release()
+        }
+    }
+
+    /**
+     * Stops idling. If a call to [idle] is in progress, it will return [IdleResult.STOPPED].
+     */
+    fun stop() {
+        synchronized(lock) {
+            stopIdle = true
+            if (idleInProgress) {
+                sendDone()
+            } else {
+                closeConnection()
+            }
+        }
+    }
+
+    /**
+     * Terminates the current IDLE command so it will be reissued. This keeps NAT gateways and middle boxes from
+     * dropping the otherwise silent connection.
+     */
+    fun refresh() {
+        synchronized(lock) {
+            if (idleInProgress) {
+                Timber.v("%s: Refreshing IDLE", logId)
+                sendDone()
+            }
+        }
+    }
+
+    private fun openConnection(): ImapConnection? {
+        val connection = imapStore.createImapConnection()
+        this.connection = connection
+
+        connection.open()
+        if (!connection.isIdleCapable) {
+            Timber.w("%s: Server doesn't support IDLE", logId)
+            closeConnection()
+            return null
+        }
+
+        selectFolder(connection)
+
+        return connection
+    }
+
+    private fun selectFolder(connection: ImapConnection) {
+        val prefixedName = if (ImapFolder.INBOX.equals(folderServerId, ignoreCase = true)) {
+            folderServerId
+        } else {
+            imapStore.combinedPrefix + folderServerId
+        }
+        val encodedFolderName = imapStore.folderNameCodec.encode(prefixedName)
+        val escapedFolderName = ImapUtility.encodeString(encodedFolderName)
+
+        val responses = connection.executeSimpleCommand("EXAMINE $escapedFolderName")
+
+        messageCount = -1
+        if (uidNext != -1L) {
+            previousUidNext = uidNext
+        }
+        for (response in responses) {
+            handleSelectResponse(response)
+        }
+        if (previousUidNext == -1L) {
+            previousUidNext = uidNext
+        }
+    }
+
+    private fun handleSelectResponse(response: ImapResponse) {
+        if (response.isTagged || response.size < 2) {
+            return
+        }
+
+        if (ImapResponseParser.equalsIgnoreCase(response[1], Responses.EXISTS)) {
+            messageCount = response.getNumber(0)
+        } else if (ImapResponseParser.equalsIgnoreCase(response[0], Responses.OK)) {
+            val bracketed = response[1] as? ImapList ?: return
+            val key = bracketed.firstOrNull() as? String ?: return
+            if ("UIDNEXT".equals(key, ignoreCase = true) && bracketed.size > 1) {
+                uidNext = bracketed.getLong(1)
+            }
+        }
+    }
+
+    private fun idleOnConnection(connection: ImapConnection): IdleResult {
+        while (true) {
+            val tag = synchronized(lock) {
+                if (stopIdle) {
+                    return IdleResult.STOPPED
+                }
+
+                val tag = connection.sendCommand(Commands.IDLE, false)
+                idleInProgress = true
+                doneSent = false
+
+                tag
+            }
+
+            val refreshTask = scheduleRefresh()
+            var result: IdleResult? = null
+            try {
+                connection.setSocketIdleReadTimeout((idleRefreshTimeoutMs + IDLE_READ_TIMEOUT_INCREMENT).toInt())
+
+                var response: ImapResponse
+                do {
+                    wakeLock.release()
+                    response = try {
+                        connection.readResponse()
+                    } finally {
+                        wakeLock.acquire()
+                    }
+
+                    if (!response.isTagged && requiresSync(response)) {
+                        if (result == null) {
+                            if (K9MailLib.isDebug()) {
+                                Timber.d("%s: Got %s while idling", logId, response)
+                            }
+
+                            result = IdleResult.SYNC
+                            synchronized(lock) {
+                                sendDone()
+                            }
+                        }
+                    }
+                } while (response.tag != tag)
+
+                if (response.size < 1 || !ImapResponseParser.equalsIgnoreCase(response[0], Responses.OK)) {
+                    throw NegativeImapResponseException("IDLE failed", listOf(response))
+                }
+            } finally {
+                refreshTask.cancel()
+                synchronized(lock) {
+                    idleInProgress = false
+                }
+            }
+
+            connection.setSocketDefaultReadTimeout()
+
+            if (stopIdle) {
+                closeConnection()
+                return IdleResult.STOPPED
+            } else if (result != null) {
+                return result
+            }
+
+            // The IDLE command was terminated by refresh(). Reissue it.
+        }
+    }
+
+    private fun requiresSync(response: ImapResponse): Boolean {
+        if (response.isContinuationRequested || response.size < 1) {
+            return false
+        }
+
+        if (ImapResponseParser.equalsIgnoreCase(response[0], Responses.BYE)) {
+            throw IOException("Server closed connection while idling: $response")
+        } else if (ImapResponseParser.equalsIgnoreCase(response[0], Responses.VANISHED)) {
+            return true
+        } else if (response.size < 2) {
+            return false
+        }
+
+        return when {
+            ImapResponseParser.equalsIgnoreCase(response[1], Responses.EXISTS) -> {
+                val newMessageCount = response.getNumber(0)
+                val changed = newMessageCount != messageCount
+                messageCount = newMessageCount
+                changed
+            }
+            ImapResponseParser.equalsIgnoreCase(response[1], Responses.EXPUNGE) -> {
+                if (messageCount > 0) {
+                    messageCount--
+                }
+                true
+            }
+            ImapResponseParser.equalsIgnoreCase(response[1], Responses.FETCH) -> true
+            else -> false
+        }
+    }
+
+    private fun scheduleRefresh(): TimerTask {
+        val refreshTask = object : TimerTask() {
+            override fun run() {
+                refresh()
+            }
+        }
+        refreshTimer.schedule(refreshTask, idleRefreshTimeoutMs)
+
+        return refreshTask
+    }
+
+    // Must be called while holding lock
+    private fun sendDone() {
+        if (doneSent) {
+            return
+        }
+        doneSent = true
+
+        try {
+            connection?.sendContinuation("DONE")
+        } catch (e: IOException) {
+            Timber.v(e, "%s: Error sending DONE", logId)
+            closeConnection()
+        }
+    }
+
+    private fun closeConnection() {
+        connection?.close()
+        connection = null
+    }
+
+    private val logId: String
+        get() = imapStore.logLabel + ":" + folderServerId
+
+    companion object {
+        // Give the server some time to acknowledge the DONE before treating the connection as dead
+        private const val IDLE_READ_TIMEOUT_INCREMENT = 5 * 60 * 1000L
+    }
+}
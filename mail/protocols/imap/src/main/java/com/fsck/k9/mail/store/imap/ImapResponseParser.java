@@ -15,9 +15,18 @@ import static com.fsck.k9.mail.K9MailLib.DEBUG_PROTOCOL_IMAP;
 
 
 class ImapResponseParser {
+    private static final int INITIAL_ATOM_BUFFER_SIZE = 64;
+    private static final int SKIP_BUFFER_SIZE = 1024;
+    private static final String[] KNOWN_FLAGS = {
+            "\\Seen", "\\Answered", "\\Flagged", "\\Deleted", "\\Draft", "$Forwarded"
+    };
+
+
     private PeekableInputStream inputStream;
     private ImapResponse response;
     private Exception exception;
+    private byte[] atomBuffer = new byte[INITIAL_ATOM_BUFFER_SIZE];
+    private byte[] skipBuffer;
 
 
     public ImapResponseParser(PeekableInputStream in) {
@@ -53,6 +62,403 @@ class ImapResponseParser {
         }
     }
 
+    /**
+     * Reads the next response available on the stream like {@link #readResponse()}. But untagged FETCH, SEARCH,
+     * ESEARCH, EXISTS, and EXPUNGE responses are tokenized directly from the stream and reported to {@code visitor}
+     * instead of being turned into an {@code ImapResponse}.
+     * <p>
+     * Numbers and known flags are parsed without creating intermediate {@code String} objects. So this should be used
+     * for commands that can produce a large number of these responses, e.g. {@code UID FETCH 1:* (UID FLAGS)}. FETCH
+     * responses are only expected to contain simple data items; literals are skipped using bulk reads.
+     * </p>
+     *
+     * @return The response, or {@code null} if the response was reported to {@code visitor}.
+     */
+    public ImapResponse readStreamingResponse(ImapResponseVisitor visitor) throws IOException {
+        if (inputStream.peek() != '*') {
+            return readResponse(null);
+        }
+
+        try {
+            parseUntaggedResponse();
+
+            if (isDigit(inputStream.peek())) {
+                long number = readNumber();
+                expect(' ');
+                int length = readAtom(false);
+
+                if (atomEquals(length, Responses.FETCH)) {
+                    readFetchResponse(number, visitor);
+                    return null;
+                } else if (atomEquals(length, Responses.EXISTS)) {
+                    readUntilEndOfLine();
+                    visitor.visitExists(number);
+                    return null;
+                } else if (atomEquals(length, Responses.EXPUNGE)) {
+                    readUntilEndOfLine();
+                    visitor.visitExpunge(number);
+                    return null;
+                }
+
+                response = ImapResponse.newUntaggedResponse(null);
+                response.add(Long.toString(number));
+                response.add(new String(atomBuffer, 0, length, "US-ASCII"));
+                readRemainingTokens(response);
+            } else {
+                int length = readAtom(true);
+                if (length == 0) {
+                    throw new IOException(String.format("readStreamingResponse(): (%04x %c)",
+                            inputStream.peek(), inputStream.peek()));
+                }
+
+                if (atomEquals(length, Responses.SEARCH)) {
+                    readSearchResponse(visitor);
+                    return null;
+                } else if (atomEquals(length, Responses.ESEARCH)) {
+                    readEsearchResponse(visitor);
+                    return null;
+                }
+
+                String symbol = new String(atomBuffer, 0, length, "US-ASCII");
+                response = ImapResponse.newUntaggedResponse(null);
+                response.add(symbol);
+                readTokensAfterSymbol(response, symbol);
+            }
+
+            if (exception != null) {
+                throw new ImapResponseParserException("readStreamingResponse(): Exception in callback method",
+                        exception);
+            }
+
+            return response;
+        } finally {
+            response = null;
+            exception = null;
+        }
+    }
+
+    private void readFetchResponse(long messageSequenceNumber, ImapResponseVisitor visitor) throws IOException {
+        visitor.visitFetchStart(messageSequenceNumber);
+
+        expect(' ');
+        expect('(');
+        while (true) {
+            skipSpaces();
+            if (inputStream.peek() == ')') {
+                expect(')');
+                break;
+            }
+
+            int length = readAtom(true);
+            if (length == 0) {
+                throw new IOException("readFetchResponse(): Expected data item name");
+            }
+
+            if (atomEquals(length, "UID")) {
+                expect(' ');
+                visitor.visitFetchUid(readNumber());
+            } else if (atomEquals(length, "FLAGS")) {
+                expect(' ');
+                readFetchFlags(visitor);
+            } else if (atomEquals(length, "MODSEQ")) {
+                expect(' ');
+                expect('(');
+                visitor.visitFetchModSeq(readNumber());
+                expect(')');
+            } else {
+                skipDataItemSection();
+                expect(' ');
+                skipValue();
+            }
+        }
+        readUntilEndOfLine();
+
+        visitor.visitFetchEnd();
+    }
+
+    private void readFetchFlags(ImapResponseVisitor visitor) throws IOException {
+        expect('(');
+        while (true) {
+            skipSpaces();
+            if (inputStream.peek() == ')') {
+                expect(')');
+                return;
+            }
+
+            int length = readAtom(false);
+            if (length == 0) {
+                throw new IOException("readFetchFlags(): Expected flag");
+            }
+
+            visitor.visitFetchFlag(getFlagName(length));
+        }
+    }
+
+    /**
+     * Returns the flag in {@link #atomBuffer}. Known flags are returned as constants, so no {@code String} is created
+     * for them.
+     */
+    private String getFlagName(int length) throws IOException {
+        for (String flag : KNOWN_FLAGS) {
+            if (atomEquals(length, flag)) {
+                return flag;
+            }
+        }
+
+        return new String(atomBuffer, 0, length, "US-ASCII");
+    }
+
+    /**
+     * Skips the section and partial specifiers of data items like {@code BODY[HEADER.FIELDS (Subject)]<0>}.
+     */
+    private void skipDataItemSection() throws IOException {
+        if (inputStream.peek() == '[') {
+            skipUntil(']');
+        }
+        if (inputStream.peek() == '<') {
+            skipUntil('>');
+        }
+    }
+
+    private void skipUntil(char end) throws IOException {
+        int ch;
+        while ((ch = inputStream.read()) != end) {
+            if (ch == -1) {
+                throw new IOException("skipUntil(): end of stream reached");
+            }
+        }
+    }
+
+    private void skipValue() throws IOException {
+        int ch = inputStream.peek();
+        if (ch == '(') {
+            expect('(');
+            while (true) {
+                skipSpaces();
+                if (inputStream.peek() == ')') {
+                    expect(')');
+                    return;
+                }
+                skipValue();
+            }
+        } else if (ch == '"') {
+            skipQuoted();
+        } else if (ch == '{') {
+            skipLiteral();
+        } else if (readAtom(true) == 0) {
+            throw new IOException(String.format("skipValue(): (%04x %c)", ch, ch));
+        }
+    }
+
+    private void skipQuoted() throws IOException {
+        expect('"');
+
+        int ch;
+        boolean escape = false;
+        while ((ch = inputStream.read()) != -1) {
+            if (!escape && ch == '\\') {
+                escape = true;
+            } else if (!escape && ch == '"') {
+                return;
+            } else {
+                escape = false;
+            }
+        }
+        throw new IOException("skipQuoted(): end of stream reached");
+    }
+
+    private void skipLiteral() throws IOException {
+        expect('{');
+        long size = readNumber();
+        expect('}');
+        expect('\r');
+        expect('\n');
+
+        if (skipBuffer == null) {
+            skipBuffer = new byte[SKIP_BUFFER_SIZE];
+        }
+
+        long remaining = size;
+        while (remaining > 0) {
+            int count = (int) Math.min(remaining, skipBuffer.length);
+            readLiteralData(skipBuffer, count);
+            remaining -= count;
+        }
+    }
+
+    /**
+     * Reads {@code length} bytes of a literal into {@code buffer} using bulk reads.
+     */
+    private void readLiteralData(byte[] buffer, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int count = inputStream.read(buffer, read, length - read);
+            if (count == -1) {
+                throw new IOException("readLiteralData(): end of stream reached");
+            }
+            read += count;
+        }
+    }
+
+    private void readSearchResponse(ImapResponseVisitor visitor) throws IOException {
+        while (skipSpaces()) {
+            if (isDigit(inputStream.peek())) {
+                visitor.visitSearchNumber(readNumber());
+            } else {
+                // e.g. the "(MODSEQ 917162500)" suffix of a CONDSTORE search result
+                skipValue();
+            }
+        }
+    }
+
+    private void readEsearchResponse(ImapResponseVisitor visitor) throws IOException {
+        while (skipSpaces()) {
+            int ch = inputStream.peek();
+            if (ch == '(') {
+                // Search correlator, e.g. (TAG "A282")
+                skipValue();
+                continue;
+            }
+
+            int length = readAtom(true);
+            if (length == 0) {
+                throw new IOException(String.format("readEsearchResponse(): (%04x %c)", ch, ch));
+            }
+
+            if (atomEquals(length, "UID")) {
+                continue;
+            }
+
+            expect(' ');
+            if (atomEquals(length, "MIN")) {
+                visitor.visitEsearchMin(readNumber());
+            } else if (atomEquals(length, "MAX")) {
+                visitor.visitEsearchMax(readNumber());
+            } else if (atomEquals(length, "COUNT")) {
+                visitor.visitEsearchCount(readNumber());
+            } else if (atomEquals(length, "ALL")) {
+                readSequenceSet(visitor);
+            } else {
+                skipValue();
+            }
+        }
+    }
+
+    private void readSequenceSet(ImapResponseVisitor visitor) throws IOException {
+        do {
+            long start = readNumber();
+            long end = start;
+            if (inputStream.peek() == ':') {
+                expect(':');
+                end = readNumber();
+            }
+
+            visitor.visitEsearchRange(Math.min(start, end), Math.max(start, end));
+        } while (skipIfComma());
+    }
+
+    private boolean skipIfComma() throws IOException {
+        if (inputStream.peek() == ',') {
+            expect(',');
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Skips spaces. Consumes the line ending if it's reached.
+     *
+     * @return {@code false} if the end of the line was reached, {@code true} otherwise.
+     */
+    private boolean skipSpaces() throws IOException {
+        while (true) {
+            int ch = inputStream.peek();
+            if (ch == ' ') {
+                expect(' ');
+            } else if (ch == '\r') {
+                expect('\r');
+                expect('\n');
+                return false;
+            } else if (ch == '\n') {
+                expect('\n');
+                return false;
+            } else if (ch == -1) {
+                throw new IOException("skipSpaces(): end of stream reached");
+            } else {
+                return true;
+            }
+        }
+    }
+
+    private void readUntilEndOfLine() throws IOException {
+        skipUntil('\n');
+    }
+
+    private long readNumber() throws IOException {
+        int ch = inputStream.peek();
+        if (!isDigit(ch)) {
+            throw new IOException(String.format("readNumber(): Expected digit but got %04x (%c)", ch, ch));
+        }
+
+        long number = 0;
+        do {
+            number = number * 10 + (inputStream.read() - '0');
+        } while (isDigit(inputStream.peek()));
+
+        return number;
+    }
+
+    private static boolean isDigit(int ch) {
+        return ch >= '0' && ch <= '9';
+    }
+
+    /**
+     * Reads an atom into {@link #atomBuffer} using the same rules as {@link #parseBareString(boolean)}.
+     *
+     * @return The number of bytes read.
+     */
+    private int readAtom(boolean allowBrackets) throws IOException {
+        int length = 0;
+        while (true) {
+            int ch = inputStream.peek();
+            if (ch == -1) {
+                throw new IOException("readAtom(): end of stream reached");
+            }
+
+            if (ch == '(' || ch == ')' || (allowBrackets && (ch == '[' || ch == ']')) ||
+                    ch == '{' || ch == ' ' || ch == '"' ||
+                    (ch >= 0x00 && ch <= 0x1f) || ch == 0x7f) {
+                return length;
+            }
+
+            if (length == atomBuffer.length) {
+                byte[] newBuffer = new byte[atomBuffer.length * 2];
+                System.arraycopy(atomBuffer, 0, newBuffer, 0, length);
+                atomBuffer = newBuffer;
+            }
+
+            atomBuffer[length++] = (byte) inputStream.read();
+        }
+    }
+
+    private boolean atomEquals(int length, String expected) {
+        if (length != expected.length()) {
+            return false;
+        }
+
+        for (int i = 0; i < length; i++) {
+            if (toLowerCase(atomBuffer[i]) != toLowerCase(expected.charAt(i))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static int toLowerCase(int ch) {
+        return (ch >= 'A' && ch <= 'Z') ? ch + ('a' - 'A') : ch;
+    }
+
     private void readContinuationRequest(ImapResponseCallback callback) throws IOException {
         parseCommandContinuationRequest();
         response = ImapResponse.newContinuationRequest(callback);
@@ -78,12 +484,28 @@ class ImapResponseParser {
 
     List<ImapResponse> readStatusResponse(String tag, String commandToLog, String logId,
             UntaggedHandler untaggedHandler) throws IOException, NegativeImapResponseException {
+        return readStatusResponse(tag, commandToLog, logId, untaggedHandler, null);
+    }
+
+    /**
+     * Reads responses until the tagged response for {@code tag} is found.
+     *
+     * @param visitor
+     *         If not {@code null}, untagged responses supported by {@link #readStreamingResponse(ImapResponseVisitor)}
+     *         are reported to this visitor and not included in the returned list.
+     */
+    List<ImapResponse> readStatusResponse(String tag, String commandToLog, String logId,
+            UntaggedHandler untaggedHandler, ImapResponseVisitor visitor)
+            throws IOException, NegativeImapResponseException {
 
         List<ImapResponse> responses = new ArrayList<>();
 
         ImapResponse response;
         do {
-            response = readResponse();
+            response = (visitor != null) ? readStreamingResponse(visitor) : readResponse();
+            if (response == null) {
+                continue;
+            }
 
             if (K9MailLib.isDebug() && DEBUG_PROTOCOL_IMAP) {
                 Timber.v("%s<<<%s", logId, response);
@@ -131,16 +553,24 @@ class ImapResponseParser {
 
         response.add(symbol);
 
+        readTokensAfterSymbol(response, symbol);
+    }
+
+    private void readTokensAfterSymbol(ImapResponse response, String symbol) throws IOException {
         if (isStatusResponse(symbol)) {
             parseResponseText(response);
         } else if (equalsIgnoreCase(symbol, Responses.LIST) || equalsIgnoreCase(symbol, Responses.LSUB)) {
             parseListResponse(response);
         } else {
-            Object token;
-            while ((token = readToken(response)) != null) {
-                if (!(token instanceof ImapList)) {
-                    response.add(token);
-                }
+            readRemainingTokens(response);
+        }
+    }
+
+    private void readRemainingTokens(ImapResponse response) throws IOException {
+        Object token;
+        while ((token = readToken(response)) != null) {
+            if (!(token instanceof ImapList)) {
+                response.add(token);
             }
         }
     }
@@ -381,14 +811,7 @@ class ImapResponseParser {
         }
 
         byte[] data = new byte[size];
-        int read = 0;
-        while (read != size) {
-            int count = inputStream.read(data, read, size - read);
-            if (count == -1) {
-                throw new IOException("parseLiteral(): end of stream reached");
-            }
-            read += count;
-        }
+        readLiteralData(data, size);
 
         return new String(data, "US-ASCII");
     }
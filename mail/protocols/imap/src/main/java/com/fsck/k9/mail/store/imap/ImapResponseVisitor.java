@@ -0,0 +1,58 @@
+package com.fsck.k9.mail.store.imap;
+
+
+/**
+ * Receives the contents of untagged responses that were tokenized by
+ * {@link ImapResponseParser#readStreamingResponse(ImapResponseVisitor)} without building an {@link ImapResponse}.
+ * <p>
+ * Subclasses only need to override the methods for the responses they are interested in.
+ * </p>
+ */
+abstract class ImapResponseVisitor {
+    public void visitExists(long messageCount) {
+    }
+
+    public void visitExpunge(long messageSequenceNumber) {
+    }
+
+    /**
+     * Called for every number of a {@code SEARCH} response.
+     */
+    public void visitSearchNumber(long number) {
+    }
+
+    /**
+     * Called for every element of the {@code ALL} sequence set of an {@code ESEARCH} response. Single numbers are
+     * reported as a range where {@code start} equals {@code end}.
+     */
+    public void visitEsearchRange(long start, long end) {
+    }
+
+    public void visitEsearchMin(long min) {
+    }
+
+    public void visitEsearchMax(long max) {
+    }
+
+    public void visitEsearchCount(long count) {
+    }
+
+    public void visitFetchStart(long messageSequenceNumber) {
+    }
+
+    public void visitFetchUid(long uid) {
+    }
+
+    /**
+     * Called for every flag and keyword of a {@code FETCH} response. Known flags like {@code \Seen} are reported
+     * using the same {@code String} instance every time.
+     */
+    public void visitFetchFlag(String flag) {
+    }
+
+    public void visitFetchModSeq(long modSeq) {
+    }
+
+    public void visitFetchEnd() {
+    }
+}
@@ -4,11 +4,9 @@ package com.fsck.k9.mail.store.imap;
 import java.io.IOException;
 import java.nio.charset.CharacterCodingException;
 import java.util.ArrayList;
-import java.util.Deque;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -49,7 +47,7 @@ public class ImapStore {
     private String pathPrefix;
     private String combinedPrefix = null;
     private String pathDelimiter = null;
-    private final Deque<ImapConnection> connections = new LinkedList<>();
+    private final ImapConnectionPool connectionPool;
     private FolderNameCodec folderNameCodec;
 
     /**
@@ -83,6 +81,13 @@ public class ImapStore {
         pathPrefix = (serverSettings.autoDetectNamespace) ? null : serverSettings.pathPrefix;
 
         folderNameCodec = FolderNameCodec.newInstance();
+
+        connectionPool = new ImapConnectionPool(config, new ImapConnectionPool.ConnectionFactory() {
+            @Override
+            public ImapConnection createConnection() {
+                return createImapConnection();
+            }
+        });
     }
 
     public ImapFolder getFolder(String name) {
@@ -278,35 +283,31 @@ public class ImapStore {
     }
 
     ImapConnection getConnection() throws MessagingException {
-        ImapConnection connection;
-        while ((connection = pollConnection()) != null) {
-            try {
-                connection.executeSimpleCommand(Commands.NOOP);
-                break;
-            } catch (IOException ioe) {
-                connection.close();
-            }
-        }
-
-        if (connection == null) {
-            connection = createImapConnection();
-        }
+        return connectionPool.acquire(null, false);
+    }
 
-        return connection;
+    /**
+     * Returns a connection to the server. Prefers a pooled connection that last selected the folder
+     * {@code folderServerId}.
+     */
+    ImapConnection getConnection(String folderServerId) throws MessagingException {
+        return connectionPool.acquire(folderServerId, false);
     }
 
-    private ImapConnection pollConnection() {
-        synchronized (connections) {
-            return connections.poll();
-        }
+    /**
+     * Returns a connection to the server that is used to synchronize the folder {@code folderServerId} using QRESYNC.
+     * Prefers a pooled connection that already has QRESYNC enabled.
+     */
+    ImapConnection getQresyncConnection(String folderServerId) throws MessagingException {
+        return connectionPool.acquire(folderServerId, true);
     }
 
     void releaseConnection(ImapConnection connection) {
-        if (connection != null && connection.isConnected()) {
-            synchronized (connections) {
-                connections.offer(connection);
-            }
-        }
+        connectionPool.release(connection);
+    }
+
+    public ImapConnectionPoolStats getConnectionPoolStats() {
+        return connectionPool.getStats();
     }
 
     ImapConnection createImapConnection() {
@@ -6,4 +6,30 @@ interface ImapStoreConfig {
     val logLabel: String
     fun isSubscribedFoldersOnly(): Boolean
     fun useCompression(type: NetworkType): Boolean
+
+    /**
+     * Maximum number of idle connections that are kept open for reuse.
+     */
+    val maxPooledConnections: Int
+
+    /**
+     * Maximum number of connections that can be in use at the same time.
+     */
+    val maxConnections: Int
+
+    /**
+     * Time in milliseconds to wait for a connection when [maxConnections] connections are in use.
+     */
+    val connectionWaitTimeout: Long
+
+    /**
+     * Time in milliseconds after which an idle connection is closed.
+     */
+    val pooledConnectionIdleTimeout: Long
+
+    /**
+     * Time in milliseconds a connection has to be idle before it's checked with a NOOP command when it's taken from
+     * the pool.
+     */
+    val pooledConnectionCheckInterval: Long
 }
@@ -0,0 +1,6 @@
+package com.fsck.k9.mail.store.imap
+
+/**
+ * The values a client passes to SELECT/EXAMINE to request a quick resynchronization (RFC 7162, section 3.2.5).
+ */
+data class QresyncParameters(val uidValidity: Long, val modificationSequence: Long)
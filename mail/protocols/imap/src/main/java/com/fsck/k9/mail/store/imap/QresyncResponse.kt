@@ -0,0 +1,13 @@
+package com.fsck.k9.mail.store.imap
+
+/**
+ * Changes reported by the server when opening a folder using [QresyncParameters].
+ *
+ * @property vanishedUids UIDs of messages that were expunged since the given modification sequence.
+ * @property modifiedMessages Messages whose flags changed or that were added since the given modification sequence.
+ * Only the UID and flags of these messages are populated.
+ */
+class QresyncResponse(
+    val vanishedUids: Set<String>,
+    val modifiedMessages: List<ImapMessage>
+)
@@ -0,0 +1,44 @@
+package com.fsck.k9.mail.store.imap
+
+import kotlin.math.max
+
+/**
+ * The state of the folder that is selected on an [ImapConnection].
+ *
+ * [ImapFolder] saves it when it releases the connection, so the next [ImapFolder] instance for the same folder can use
+ * the connection without sending SELECT/EXAMINE again.
+ */
+internal class SelectedFolderState(
+    val folderServerId: String,
+    val requestedMode: Int,
+    val mode: Int,
+    val messageCount: Int,
+    val uidValidity: Long?,
+    val highestModSeq: Long?,
+    val canCreateKeywords: Boolean
+) {
+    /**
+     * Returns the state with the message count updated from the untagged EXISTS, EXPUNGE, and VANISHED [responses] to
+     * a command sent while the folder was selected.
+     */
+    fun withUntaggedResponses(responses: List<ImapResponse>): SelectedFolderState {
+        var messageCount = messageCount
+        for (response in responses) {
+            if (response.tag != null || response.size < 2) continue
+
+            if (ImapResponseParser.equalsIgnoreCase(response[1], Responses.EXISTS)) {
+                messageCount = response.getNumber(0)
+            } else if (ImapResponseParser.equalsIgnoreCase(response[1], Responses.EXPUNGE)) {
+                messageCount = max(0, messageCount - 1)
+            } else if (ImapResponseParser.equalsIgnoreCase(response[0], Responses.VANISHED) && response[1] is String) {
+                // VANISHED (EARLIER) responses refer to messages that aren't included in the message count
+                val vanishedCount = ImapUtility.getImapSequenceValues(response.getString(1)).size
+                messageCount = max(0, messageCount - vanishedCount)
+            }
+        }
+
+        return SelectedFolderState(
+            folderServerId, requestedMode, mode, messageCount, uidValidity, highestModSeq, canCreateKeywords
+        )
+    }
+}
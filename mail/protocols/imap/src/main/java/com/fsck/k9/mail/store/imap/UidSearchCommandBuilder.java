@@ -11,6 +11,7 @@ class UidSearchCommandBuilder {
     private boolean performFullTextSearch;
     private Set<Flag> requiredFlags;
     private Set<Flag> forbiddenFlags;
+    private boolean returnAll;
 
 
     public UidSearchCommandBuilder queryString(String queryString) {
@@ -33,8 +34,19 @@ class UidSearchCommandBuilder {
         return this;
     }
 
+    /**
+     * Request the result as {@code ESEARCH} response (RFC 4731) that uses ranges for consecutive UIDs.
+     */
+    public UidSearchCommandBuilder returnAll(boolean returnAll) {
+        this.returnAll = returnAll;
+        return this;
+    }
+
     public String build() {
         StringBuilder builder = new StringBuilder(Commands.UID_SEARCH);
+        if (returnAll) {
+            builder.append(" RETURN (ALL)");
+        }
         addQueryString(builder);
         addFlags(builder, requiredFlags, false);
         addFlags(builder, forbiddenFlags, true);
@@ -0,0 +1,145 @@
+package com.fsck.k9.mail.store.imap
+
+/**
+ * An immutable set of UIDs stored as sorted, non-overlapping ranges.
+ *
+ * Search results for large mailboxes mostly consist of long runs of consecutive UIDs. Storing them as ranges needs a
+ * lot less memory than a list with one element per UID.
+ */
+class UidSet private constructor(
+    private val starts: LongArray,
+    private val ends: LongArray
+) {
+    val count: Long = starts.indices.fold(0L) { sum, index -> sum + ends[index] - starts[index] + 1 }
+
+    val isEmpty: Boolean
+        get() = starts.isEmpty()
+
+    val min: Long?
+        get() = starts.firstOrNull()
+
+    val max: Long?
+        get() = ends.lastOrNull()
+
+    operator fun contains(uid: Long): Boolean {
+        var low = 0
+        var high = starts.size - 1
+        while (low <= high) {
+            val middle = (low + high) ushr 1
+            when {
+                uid < starts[middle] -> high = middle - 1
+                uid > ends[middle] -> low = middle + 1
+                else -> return true
+            }
+        }
+
+        return false
+    }
+
+    /**
+     * Calls [action] for every UID in this set, starting with the highest one.
+     */
+    inline fun forEachDescending(action: (Long) -> Unit) {
+        for (index in rangeCount - 1 downTo 0) {
+            for (uid in rangeEnd(index) downTo rangeStart(index)) {
+                action(uid)
+            }
+        }
+    }
+
+    @PublishedApi
+    internal val rangeCount: Int
+        get() = starts.size
+
+    @PublishedApi
+    internal fun rangeStart(index: Int) = starts[index]
+
+    @PublishedApi
+    internal fun rangeEnd(index: Int) = ends[index]
+
+    override fun equals(other: Any?): Boolean {
+        return other is UidSet && starts.contentEquals(other.starts) && ends.contentEquals(other.ends)
+    }
+
+    override fun hashCode(): Int {
+        return 31 * starts.contentHashCode() + ends.contentHashCode()
+    }
+
+    /**
+     * Returns the UIDs in IMAP sequence set syntax, e.g. "1:5,7,10:12".
+     */
+    override fun toString(): String {
+        return starts.indices.joinToString(separator = ",") { index ->
+            if (starts[index] == ends[index]) "${starts[index]}" else "${starts[index]}:${ends[index]}"
+        }
+    }
+
+    class Builder {
+        private var starts = LongArray(INITIAL_CAPACITY)
+        private var ends = LongArray(INITIAL_CAPACITY)
+        private var size = 0
+        private var isSorted = true
+
+        fun add(uid: Long) = addRange(uid, uid)
+
+        fun addAll(uids: Iterable<Long>) = apply {
+            for (uid in uids) {
+                add(uid)
+            }
+        }
+
+        fun addRange(start: Long, end: Long) = apply {
+            require(start <= end) { "start > end" }
+
+            // Search results are usually reported in ascending order. Extend the last range when possible.
+            if (size > 0 && start >= starts[size - 1] && start <= ends[size - 1] + 1) {
+                ends[size - 1] = maxOf(ends[size - 1], end)
+                return@apply
+            }
+
+            if (size > 0 && start < starts[size - 1]) {
+                isSorted = false
+            }
+
+            if (size == starts.size) {
+                starts = starts.copyOf(size * 2)
+                ends = ends.copyOf(size * 2)
+            }
+
+            starts[size] = start
+            ends[size] = end
+            size++
+        }
+
+        fun build(): UidSet {
+            if (isSorted) {
+                return UidSet(starts.copyOf(size), ends.copyOf(size))
+            }
+
+            val order = (0 until size).sortedBy { starts[it] }
+            val mergedStarts = LongArray(size)
+            val mergedEnds = LongArray(size)
+            var mergedSize = 0
+            for (index in order) {
+                val start = starts[index]
+                val end = ends[index]
+                if (mergedSize > 0 && start <= mergedEnds[mergedSize - 1] + 1) {
+                    mergedEnds[mergedSize - 1] = maxOf(mergedEnds[mergedSize - 1], end)
+                } else {
+                    mergedStarts[mergedSize] = start
+                    mergedEnds[mergedSize] = end
+                    mergedSize++
+                }
+            }
+
+            return UidSet(mergedStarts.copyOf(mergedSize), mergedEnds.copyOf(mergedSize))
+        }
+    }
+
+    companion object {
+        private const val INITIAL_CAPACITY = 16
+
+        @JvmField
+        val EMPTY = UidSet(LongArray(0), LongArray(0))
+    }
+}
@@ -0,0 +1,356 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.fsck.k9.mail.MessagingException;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import static com.fsck.k9.mail.store.imap.ImapFolder.OPEN_MODE_RW;
+import static com.fsck.k9.mail.store.imap.ImapResponseHelper.createImapResponseList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+
+public class ImapConnectionPoolTest {
+    private static final int MAX_POOLED_CONNECTIONS = 2;
+    private static final int MAX_CONNECTIONS = 3;
+    private static final long CONNECTION_WAIT_TIMEOUT = 10L;
+    private static final long IDLE_TIMEOUT = 60000L;
+    private static final long CHECK_INTERVAL = 10000L;
+
+
+    private final ImapStoreConfig config = mock(ImapStoreConfig.class);
+    private final ScheduledExecutorService evictionExecutor = mock(ScheduledExecutorService.class);
+    private final Deque<ImapConnection> newConnections = new ArrayDeque<>();
+    private long currentTime = 1000L;
+    private ImapConnectionPool pool;
+
+
+    @Before
+    public void setUp() {
+        when(config.getMaxPooledConnections()).thenReturn(MAX_POOLED_CONNECTIONS);
+        when(config.getMaxConnections()).thenReturn(MAX_CONNECTIONS);
+        when(config.getConnectionWaitTimeout()).thenReturn(CONNECTION_WAIT_TIMEOUT);
+        when(config.getPooledConnectionIdleTimeout()).thenReturn(IDLE_TIMEOUT);
+        when(config.getPooledConnectionCheckInterval()).thenReturn(CHECK_INTERVAL);
+
+        pool = new ImapConnectionPool(config, new ImapConnectionPool.ConnectionFactory() {
+            @Override
+            public ImapConnection createConnection() {
+                if (newConnections.isEmpty()) {
+                    throw new AssertionError("Unexpectedly tried to create an ImapConnection instance");
+                }
+                return newConnections.pop();
+            }
+        }, new ImapConnectionPool.Clock() {
+            @Override
+            public long currentTimeMillis() {
+                return currentTime;
+            }
+        }, evictionExecutor);
+    }
+
+    @Test
+    public void acquire_withEmptyPool_shouldCreateConnection() throws Exception {
+        ImapConnection connection = enqueueNewConnection();
+
+        ImapConnection result = pool.acquire(null, false);
+
+        assertSame(connection, result);
+        assertEquals(new ImapConnectionPoolStats(0, 0, 0, 1, 0), pool.getStats());
+    }
+
+    @Test
+    public void acquire_afterRelease_shouldReusePooledConnection() throws Exception {
+        ImapConnection connection = enqueueNewConnection();
+        pool.release(pool.acquire(null, false));
+
+        ImapConnection result = pool.acquire(null, false);
+
+        assertSame(connection, result);
+        assertEquals(new ImapConnectionPoolStats(0, 1, 0, 1, 0), pool.getStats());
+    }
+
+    @Test
+    public void acquire_withFolder_shouldPreferConnectionThatSelectedFolder() throws Exception {
+        ImapConnection connectionOne = enqueueNewConnection();
+        ImapConnection connectionTwo = enqueueNewConnection();
+        pool.acquire(null, false);
+        pool.acquire(null, false);
+        when(connectionOne.getSelectedFolder()).thenReturn("Folder");
+        when(connectionTwo.getSelectedFolder()).thenReturn("Other");
+        pool.release(connectionOne);
+        pool.release(connectionTwo);
+
+        ImapConnection result = pool.acquire("Folder", false);
+
+        assertSame(connectionOne, result);
+        assertEquals(1, pool.getStats().getFolderHits());
+    }
+
+    @Test
+    public void acquire_withoutFolder_shouldReturnMostRecentlyReleasedConnection() throws Exception {
+        ImapConnection connectionOne = enqueueNewConnection();
+        ImapConnection connectionTwo = enqueueNewConnection();
+        pool.acquire(null, false);
+        pool.acquire(null, false);
+        pool.release(connectionOne);
+        pool.release(connectionTwo);
+
+        ImapConnection result = pool.acquire(null, false);
+
+        assertSame(connectionTwo, result);
+    }
+
+    @Test
+    public void acquire_withQresync_shouldPreferConnectionWithQresyncEnabled() throws Exception {
+        ImapConnection connectionOne = enqueueNewConnection();
+        ImapConnection connectionTwo = enqueueNewConnection();
+        pool.acquire(null, false);
+        pool.acquire(null, false);
+        when(connectionOne.isQresyncEnabled()).thenReturn(true);
+        when(connectionOne.getSelectedFolder()).thenReturn("Other");
+        when(connectionTwo.getSelectedFolder()).thenReturn("Folder");
+        pool.release(connectionOne);
+        pool.release(connectionTwo);
+
+        ImapConnection result = pool.acquire("Folder", true);
+
+        assertSame(connectionOne, result);
+    }
+
+    @Test
+    public void acquire_withQresyncAndOnlyConnectionWithSelectedFolder_shouldCreateConnection() throws Exception {
+        ImapConnection connectionOne = enqueueNewConnection();
+        pool.acquire(null, false);
+        when(connectionOne.getSelectedFolder()).thenReturn("Folder");
+        pool.release(connectionOne);
+        ImapConnection connectionTwo = enqueueNewConnection();
+
+        ImapConnection result = pool.acquire("Folder", true);
+
+        assertSame(connectionTwo, result);
+        assertEquals(1, pool.getStats().getIdleConnections());
+    }
+
+    @Test
+    public void acquire_withConnectionIdleForTooLong_shouldCloseConnectionAndCreateNewOne() throws Exception {
+        ImapConnection connectionOne = enqueueNewConnection();
+        ImapConnection connectionTwo = enqueueNewConnection();
+        pool.release(pool.acquire(null, false));
+        currentTime += IDLE_TIMEOUT + 1;
+
+        ImapConnection result = pool.acquire(null, false);
+
+        assertSame(connectionTwo, result);
+        verify(connectionOne).close();
+        verify(connectionOne, never()).executeSimpleCommand(Commands.NOOP);
+        assertEquals(1, pool.getStats().getEvictions());
+    }
+
+    @Test
+    public void acquire_withDeadConnection_shouldCloseConnectionAndCreateNewOne() throws Exception {
+        ImapConnection connectionOne = enqueueNewConnection();
+        ImapConnection connectionTwo = enqueueNewConnection();
+        pool.release(pool.acquire(null, false));
+        currentTime += CHECK_INTERVAL;
+        doThrow(IOException.class).when(connectionOne).executeSimpleCommand(Commands.NOOP);
+
+        ImapConnection result = pool.acquire(null, false);
+
+        assertSame(connectionTwo, result);
+        verify(connectionOne).close();
+        assertEquals(new ImapConnectionPoolStats(0, 0, 0, 2, 1), pool.getStats());
+    }
+
+    @Test
+    public void acquire_withNegativeResponseToCheck_shouldCloseConnectionAndCreateNewOne() throws Exception {
+        ImapConnection connectionOne = enqueueNewConnection();
+        ImapConnection connectionTwo = enqueueNewConnection();
+        pool.release(pool.acquire(null, false));
+        currentTime += CHECK_INTERVAL;
+        doThrow(NegativeImapResponseException.class).when(connectionOne).executeSimpleCommand(Commands.NOOP);
+
+        ImapConnection result = pool.acquire(null, false);
+
+        assertSame(connectionTwo, result);
+        verify(connectionOne).close();
+        assertEquals(new ImapConnectionPoolStats(0, 0, 0, 2, 1), pool.getStats());
+    }
+
+    @Test
+    public void acquire_withFolderAfterCheck_shouldKeepSelectedFolderAndApplyChanges() throws Exception {
+        ImapConnection connection = enqueueNewConnection();
+        pool.acquire(null, false);
+        when(connection.getSelectedFolder()).thenReturn("Folder");
+        SelectedFolderState selectedFolderState =
+                new SelectedFolderState("Folder", OPEN_MODE_RW, OPEN_MODE_RW, 10, 1L, null, true);
+        when(connection.getSelectedFolderState()).thenReturn(selectedFolderState);
+        pool.release(connection);
+        currentTime += CHECK_INTERVAL;
+        when(connection.executeSimpleCommand(Commands.NOOP)).thenReturn(
+                createImapResponseList("* 3 EXPUNGE", "* 12 EXISTS", "* 2 EXPUNGE", "x OK NOOP completed"));
+
+        ImapConnection result = pool.acquire("Folder", false);
+
+        assertSame(connection, result);
+        ArgumentCaptor<SelectedFolderState> captor = ArgumentCaptor.forClass(SelectedFolderState.class);
+        verify(connection).setSelectedFolderState(captor.capture());
+        assertEquals("Folder", captor.getValue().getFolderServerId());
+        assertEquals(11, captor.getValue().getMessageCount());
+        assertEquals(1, pool.getStats().getFolderHits());
+    }
+
+    @Test
+    public void acquire_withMaxConnectionsInUse_shouldFailAfterTimeout() throws Exception {
+        acquireMaxConnections();
+
+        try {
+            pool.acquire(null, false);
+            fail("Expected exception");
+        } catch (MessagingException e) {
+            assertEquals("Timed out after " + CONNECTION_WAIT_TIMEOUT + " ms waiting for an IMAP connection",
+                    e.getMessage());
+        }
+    }
+
+    @Test
+    public void acquire_withMaxConnectionsInUseAndOneReleased_shouldReuseReleasedConnection() throws Exception {
+        ImapConnection connection = acquireMaxConnections();
+        pool.release(connection);
+
+        ImapConnection result = pool.acquire(null, false);
+
+        assertSame(connection, result);
+    }
+
+    @Test
+    public void acquire_withMaxConnectionsInUseAndOneClosed_shouldCreateConnection() throws Exception {
+        ImapConnection closedConnection = acquireMaxConnections();
+        when(closedConnection.isClosed()).thenReturn(true);
+        ImapConnection connection = enqueueNewConnection();
+
+        ImapConnection result = pool.acquire(null, false);
+
+        assertSame(connection, result);
+    }
+
+    @Test
+    public void acquire_withRecentlyReleasedConnection_shouldNotCheckConnection() throws Exception {
+        ImapConnection connection = enqueueNewConnection();
+        pool.release(pool.acquire(null, false));
+        currentTime += CHECK_INTERVAL - 1;
+
+        ImapConnection result = pool.acquire(null, false);
+
+        assertSame(connection, result);
+        verify(connection, never()).executeSimpleCommand(Commands.NOOP);
+    }
+
+    @Test
+    public void acquire_withConnectionIdleForCheckInterval_shouldCheckConnection() throws Exception {
+        ImapConnection connection = enqueueNewConnection();
+        pool.release(pool.acquire(null, false));
+        currentTime += CHECK_INTERVAL;
+
+        ImapConnection result = pool.acquire(null, false);
+
+        assertSame(connection, result);
+        verify(connection).executeSimpleCommand(Commands.NOOP);
+    }
+
+    @Test
+    public void release_shouldScheduleEviction() throws Exception {
+        enqueueNewConnection();
+
+        pool.release(pool.acquire(null, false));
+
+        verify(evictionExecutor).schedule(any(Runnable.class), eq(IDLE_TIMEOUT + 1), eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void evictIdleConnections_withConnectionIdleForTooLong_shouldCloseConnection() throws Exception {
+        ImapConnection connection = enqueueNewConnection();
+        pool.release(pool.acquire(null, false));
+        currentTime += IDLE_TIMEOUT + 1;
+
+        pool.evictIdleConnections();
+
+        verify(connection).close();
+        assertEquals(0, pool.getStats().getIdleConnections());
+        assertEquals(1, pool.getStats().getEvictions());
+    }
+
+    @Test
+    public void evictIdleConnections_withRecentlyReleasedConnection_shouldKeepConnection() throws Exception {
+        ImapConnection connection = enqueueNewConnection();
+        pool.release(pool.acquire(null, false));
+        currentTime += IDLE_TIMEOUT;
+
+        pool.evictIdleConnections();
+
+        verify(connection, never()).close();
+        verify(evictionExecutor).schedule(any(Runnable.class), eq(1L), eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void release_withMoreConnectionsThanPoolSize_shouldCloseLeastRecentlyUsedConnection() throws Exception {
+        ImapConnection connectionOne = enqueueNewConnection();
+        ImapConnection connectionTwo = enqueueNewConnection();
+        ImapConnection connectionThree = enqueueNewConnection();
+        pool.acquire(null, false);
+        pool.acquire(null, false);
+        pool.acquire(null, false);
+
+        pool.release(connectionOne);
+        pool.release(connectionTwo);
+        pool.release(connectionThree);
+
+        verify(connectionOne).close();
+        verify(connectionTwo, never()).close();
+        verify(connectionThree, never()).close();
+        assertEquals(MAX_POOLED_CONNECTIONS, pool.getStats().getIdleConnections());
+    }
+
+    @Test
+    public void release_withClosedConnection_shouldNotPoolConnection() throws Exception {
+        ImapConnection connection = enqueueNewConnection();
+        pool.acquire(null, false);
+        when(connection.isConnected()).thenReturn(false);
+
+        pool.release(connection);
+
+        assertEquals(0, pool.getStats().getIdleConnections());
+    }
+
+    private ImapConnection acquireMaxConnections() throws MessagingException {
+        ImapConnection connection = null;
+        for (int i = 0; i < MAX_CONNECTIONS; i++) {
+            enqueueNewConnection();
+            connection = pool.acquire(null, false);
+        }
+        return connection;
+    }
+
+    private ImapConnection enqueueNewConnection() {
+        ImapConnection connection = mock(ImapConnection.class);
+        when(connection.isConnected()).thenReturn(true);
+        newConnections.add(connection);
+        return connection;
+    }
+}
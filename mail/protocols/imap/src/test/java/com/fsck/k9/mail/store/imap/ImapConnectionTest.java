@@ -615,6 +615,68 @@ public class ImapConnectionTest {
         server.verifyInteractionCompleted();
     }
 
+    @Test
+    public void open_withQresyncCapability_shouldNotEnableQresync() throws Exception {
+        MockImapServer server = new MockImapServer();
+        simpleOpenDialog(server, "CONDSTORE QRESYNC");
+        ImapConnection imapConnection = startServerAndCreateImapConnection(server);
+
+        imapConnection.open();
+
+        server.verifyConnectionStillOpen();
+        server.verifyInteractionCompleted();
+        assertFalse(imapConnection.isQresyncEnabled());
+    }
+
+    @Test
+    public void enableQresync_withQresyncCapability_shouldEnableQresync() throws Exception {
+        MockImapServer server = new MockImapServer();
+        simpleOpenDialog(server, "CONDSTORE QRESYNC");
+        server.expect("4 ENABLE QRESYNC");
+        server.output("* ENABLED QRESYNC");
+        server.output("4 OK Enabled");
+        ImapConnection imapConnection = startServerAndCreateImapConnection(server);
+
+        boolean result = imapConnection.enableQresync();
+
+        server.verifyConnectionStillOpen();
+        server.verifyInteractionCompleted();
+        assertTrue(result);
+        assertTrue(imapConnection.isQresyncEnabled());
+    }
+
+    @Test
+    public void enableQresync_withNegativeEnableResponse_shouldNotEnableQresync() throws Exception {
+        MockImapServer server = new MockImapServer();
+        simpleOpenDialog(server, "CONDSTORE QRESYNC");
+        server.expect("4 ENABLE QRESYNC");
+        server.output("4 NO Not enabled");
+        ImapConnection imapConnection = startServerAndCreateImapConnection(server);
+
+        boolean result = imapConnection.enableQresync();
+
+        server.verifyConnectionStillOpen();
+        server.verifyInteractionCompleted();
+        assertFalse(result);
+        assertFalse(imapConnection.isQresyncEnabled());
+    }
+
+    @Test
+    public void enableQresync_withSelectedFolder_shouldNotSendEnableCommand() throws Exception {
+        MockImapServer server = new MockImapServer();
+        simpleOpenDialog(server, "CONDSTORE QRESYNC");
+        ImapConnection imapConnection = startServerAndCreateImapConnection(server);
+        imapConnection.open();
+        imapConnection.setSelectedFolderState(new SelectedFolderState(
+                "Folder", ImapFolder.OPEN_MODE_RO, ImapFolder.OPEN_MODE_RO, 1, 1L, null, false));
+
+        boolean result = imapConnection.enableQresync();
+
+        server.verifyConnectionStillOpen();
+        server.verifyInteractionCompleted();
+        assertFalse(result);
+    }
+
     @Test
     public void open_withConnectionError_shouldThrow() throws Exception {
         settings.setHost("127.1.2.3");
@@ -0,0 +1,113 @@
+package com.fsck.k9.mail.store.imap
+
+import com.fsck.k9.mail.power.WakeLock
+import com.fsck.k9.mail.store.imap.ImapResponseHelper.createImapResponse
+import com.fsck.k9.mail.store.imap.ImapResponseHelper.createImapResponseList
+import com.nhaarman.mockitokotlin2.doReturn
+import com.nhaarman.mockitokotlin2.mock
+import com.nhaarman.mockitokotlin2.never
+import com.nhaarman.mockitokotlin2.times
+import com.nhaarman.mockitokotlin2.verify
+import com.nhaarman.mockitokotlin2.whenever
+import java.util.Timer
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class ImapFolderIdlerTest {
+    private val imapConnection = mock<ImapConnection> {
+        on { isIdleCapable } doReturn true
+    }
+    private val imapStore = mock<ImapStore> {
+        on { combinedPrefix } doReturn ""
+        on { logLabel } doReturn "Account"
+        on { folderNameCodec } doReturn FolderNameCodec.newInstance()
+        on { createImapConnection() } doReturn imapConnection
+    }
+    private val wakeLock = mock<WakeLock>()
+    private val refreshTimer = Timer(true)
+    private val idler = ImapFolderIdler(imapStore, wakeLock, "Folder", 60 * 1000L, refreshTimer)
+
+    @After
+    fun tearDown() {
+        refreshTimer.cancel()
+    }
+
+    @Test
+    fun idle_withoutIdleCapability_shouldReturnNotSupported() {
+        whenever(imapConnection.isIdleCapable).thenReturn(false)
+
+        val result = idler.idle()
+
+        assertEquals(IdleResult.NOT_SUPPORTED, result)
+        verify(imapConnection).close()
+    }
+
+    @Test
+    fun idle_withExistsResponse_shouldSendDoneAndReturnSync() {
+        prepareExamineResponses()
+        whenever(imapConnection.sendCommand("IDLE", false)).thenReturn("2")
+        whenever(imapConnection.readResponse()).thenReturn(
+            createImapResponse("+ idling"),
+            createImapResponse("* 24 EXISTS"),
+            createImapResponse("2 OK IDLE terminated")
+        )
+
+        val result = idler.idle()
+
+        assertEquals(IdleResult.SYNC, result)
+        verify(imapConnection).sendContinuation("DONE")
+    }
+
+    @Test
+    fun idle_withUnchangedExistsFollowedByExpunge_shouldReturnSync() {
+        prepareExamineResponses()
+        whenever(imapConnection.sendCommand("IDLE", false)).thenReturn("2")
+        whenever(imapConnection.readResponse()).thenReturn(
+            createImapResponse("+ idling"),
+            createImapResponse("* 23 EXISTS"),
+            createImapResponse("* 1 EXPUNGE"),
+            createImapResponse("2 OK IDLE terminated")
+        )
+
+        val result = idler.idle()
+
+        assertEquals(IdleResult.SYNC, result)
+        verify(imapConnection).sendContinuation("DONE")
+    }
+
+    @Test
+    fun idle_afterStop_shouldReturnStopped() {
+        idler.stop()
+
+        val result = idler.idle()
+
+        assertEquals(IdleResult.STOPPED, result)
+        verify(imapStore, never()).createImapConnection()
+    }
+
+    @Test
+    fun idle_shouldAcquireAndReleaseWakeLock() {
+        prepareExamineResponses()
+        whenever(imapConnection.sendCommand("IDLE", false)).thenReturn("2")
+        whenever(imapConnection.readResponse()).thenReturn(
+            createImapResponse("+ idling"),
+            createImapResponse("* 5 FETCH (FLAGS (\\Seen))"),
+            createImapResponse("2 OK IDLE terminated")
+        )
+
+        idler.idle()
+
+        verify(wakeLock, times(4)).acquire()
+        verify(wakeLock, times(4)).release()
+    }
+
+    private fun prepareExamineResponses() {
+        val responses = createImapResponseList(
+            "* 23 EXISTS",
+            "* OK [UIDNEXT 42] Predicted next UID",
+            "1 OK [READ-ONLY] EXAMINE completed"
+        )
+        whenever(imapConnection.executeSimpleCommand("EXAMINE \"Folder\"")).thenReturn(responses)
+    }
+}
@@ -8,15 +8,21 @@ import com.fsck.k9.mail.K9LibRobolectricTestRunner
 import com.fsck.k9.mail.MessageRetrievalListener
 import com.fsck.k9.mail.MessagingException
 import com.fsck.k9.mail.Part
+import com.fsck.k9.mail.filter.PeekableInputStream
 import com.fsck.k9.mail.internet.BinaryTempFileBody
 import com.fsck.k9.mail.internet.MimeHeader
 import com.fsck.k9.mail.store.imap.ImapResponseHelper.createImapResponse
+import com.fsck.k9.mail.store.imap.ImapResponseHelper.createImapResponseList
+import com.nhaarman.mockitokotlin2.any
 import com.nhaarman.mockitokotlin2.anyOrNull
 import com.nhaarman.mockitokotlin2.argumentCaptor
 import com.nhaarman.mockitokotlin2.doReturn
 import com.nhaarman.mockitokotlin2.doThrow
+import com.nhaarman.mockitokotlin2.inOrder
 import com.nhaarman.mockitokotlin2.mock
+import com.nhaarman.mockitokotlin2.never
 import com.nhaarman.mockitokotlin2.whenever
+import java.io.ByteArrayInputStream
 import java.io.IOException
 import java.util.Date
 import java.util.TimeZone
@@ -84,6 +90,135 @@ class ImapFolderTest {
         assertEquals(23, imapFolder.messageCount)
     }
 
+    @Test
+    fun open_withHighestModSeqResponse_shouldReturnHighestModSeq() {
+        val imapFolder = createFolder("Folder")
+        prepareImapStoreConnection()
+        whenever(imapConnection.executeSimpleCommand("EXAMINE \"Folder\"")).thenReturn(
+            createImapResponseList(
+                "* 23 EXISTS",
+                "* OK [HIGHESTMODSEQ 715194045007] Highest",
+                "2 OK [READ-ONLY] Examine completed."
+            )
+        )
+
+        imapFolder.open(ImapFolder.OPEN_MODE_RO)
+
+        assertEquals(715194045007L, imapFolder.getHighestModSeq())
+    }
+
+    @Test
+    fun open_withoutHighestModSeqResponse_shouldReturnNullHighestModSeq() {
+        val imapFolder = createFolder("Folder")
+        prepareImapFolderForOpen(ImapFolder.OPEN_MODE_RO)
+
+        imapFolder.open(ImapFolder.OPEN_MODE_RO)
+
+        assertNull(imapFolder.getHighestModSeq())
+    }
+
+    @Test
+    fun openWithQresync_withQresyncEnabled_shouldReturnChanges() {
+        val imapFolder = createFolder("Folder")
+        prepareImapStoreConnection()
+        whenever(imapConnection.enableQresync()).thenReturn(true)
+        whenever(imapConnection.executeSimpleCommand("EXAMINE \"Folder\" (QRESYNC (67890007 20050715194045000))"))
+            .thenReturn(
+                createImapResponseList(
+                    "* 20 EXISTS",
+                    "* OK [UIDVALIDITY 67890007] UIDVALIDITY",
+                    "* OK [HIGHESTMODSEQ 20050715194045319] Highest",
+                    "* VANISHED (EARLIER) 41,43:45",
+                    "* 19 FETCH (UID 68 FLAGS (\\Seen \\Flagged) MODSEQ (20050715194045317))",
+                    "2 OK [READ-ONLY] Examine completed."
+                )
+            )
+
+        val qresyncResponse = imapFolder.openWithQresync(
+            ImapFolder.OPEN_MODE_RO,
+            QresyncParameters(uidValidity = 67890007L, modificationSequence = 20050715194045000L)
+        )
+
+        assertNotNull(qresyncResponse)
+        assertEquals(setOf("41", "43", "44", "45"), qresyncResponse!!.vanishedUids)
+        assertEquals(1, qresyncResponse.modifiedMessages.size)
+        val message = qresyncResponse.modifiedMessages.first()
+        assertEquals("68", message.uid)
+        assertTrue(message.isSet(Flag.SEEN))
+        assertTrue(message.isSet(Flag.FLAGGED))
+        assertFalse(message.isSet(Flag.ANSWERED))
+        assertEquals(20, imapFolder.messageCount)
+        assertEquals(20050715194045319L, imapFolder.getHighestModSeq())
+    }
+
+    @Test
+    fun openWithQresync_withoutQresyncEnabled_shouldOpenFolderAndReturnNull() {
+        val imapFolder = createFolder("Folder")
+        prepareImapFolderForOpen(ImapFolder.OPEN_MODE_RO)
+
+        val qresyncResponse = imapFolder.openWithQresync(
+            ImapFolder.OPEN_MODE_RO,
+            QresyncParameters(uidValidity = 1125022061L, modificationSequence = 1L)
+        )
+
+        assertNull(qresyncResponse)
+        assertTrue(imapFolder.isOpen)
+    }
+
+    @Test
+    fun fetchChangedFlags_shouldReturnMessagesWithFlags() {
+        val folder = createFolder("Folder")
+        prepareImapFolderForOpen(ImapFolder.OPEN_MODE_RO)
+        folder.open(ImapFolder.OPEN_MODE_RO)
+        setupStreamingCommand(
+            "UID FETCH 1:* (UID FLAGS) (CHANGEDSINCE 12345)",
+            "* 1 FETCH (UID 3 FLAGS (\\Answered) MODSEQ (12346))",
+            "* 7 FETCH (UID 11 FLAGS () MODSEQ (12350))",
+            "3 OK Fetch completed"
+        )
+
+        val messages = folder.fetchChangedFlags(12345L)
+
+        assertEquals(listOf("3", "11"), messages.map { it.uid })
+        assertTrue(messages[0].isSet(Flag.ANSWERED))
+        assertFalse(messages[1].isSet(Flag.ANSWERED))
+    }
+
+    @Test
+    fun fetchChangedFlags_withKeywords_shouldMapKeywordsLikeNonStreamingFetch() {
+        val folder = createFolder("Folder")
+        prepareImapFolderForOpen(ImapFolder.OPEN_MODE_RO)
+        folder.open(ImapFolder.OPEN_MODE_RO)
+        setupStreamingCommand(
+            "UID FETCH 1:* (UID FLAGS) (CHANGEDSINCE 12345)",
+            "* 1 FETCH (UID 3 FLAGS (\$forwarded NonJunk \\SEEN) MODSEQ (12346))",
+            "3 OK Fetch completed"
+        )
+
+        val messages = folder.fetchChangedFlags(12345L)
+
+        assertEquals(1, messages.size)
+        assertTrue(messages[0].isSet(Flag.FORWARDED))
+        assertTrue(messages[0].isSet(Flag.SEEN))
+    }
+
+    @Test
+    fun handleUntaggedVanishedResponse_shouldDecrementMessageCount() {
+        val folder = createFolder("Folder")
+        prepareImapFolderForOpen(ImapFolder.OPEN_MODE_RO)
+        folder.open(ImapFolder.OPEN_MODE_RO)
+        whenever(imapConnection.executeSimpleCommand("NOOP")).thenReturn(
+            createImapResponseList(
+                "* VANISHED 1:2,5",
+                "3 OK NOOP completed"
+            )
+        )
+
+        folder.open(ImapFolder.OPEN_MODE_RO)
+
+        assertEquals(20, folder.messageCount)
+    }
+
     @Test
     fun open_readWrite_shouldMakeGetModeReturnReadWrite() {
         val imapFolder = createFolder("Folder")
@@ -123,7 +258,7 @@ class ImapFolderTest {
 
         imapFolder.open(ImapFolder.OPEN_MODE_RW)
 
-        verify(imapStore, times(1)).connection
+        verify(imapStore, times(1)).getConnection("Folder")
     }
 
     @Test
@@ -135,13 +270,65 @@ class ImapFolderTest {
         doThrow(IOException::class).whenever(imapConnection).executeSimpleCommand(Commands.NOOP)
         imapFolder.open(ImapFolder.OPEN_MODE_RW)
 
-        verify(imapStore, times(2)).connection
+        verify(imapStore, times(2)).getConnection("Folder")
+    }
+
+    @Test
+    fun open_withConnectionThatSelectedFolder_shouldNotSelectFolderAgain() {
+        val imapFolder = createFolder("Folder")
+        prepareImapStoreConnection()
+        whenever(imapConnection.selectedFolderState).thenReturn(
+            SelectedFolderState(
+                "Folder", ImapFolder.OPEN_MODE_RW, ImapFolder.OPEN_MODE_RW, 23, 1125022061L, 42L, false
+            )
+        )
+        whenever(imapConnection.executeSimpleCommand(Commands.NOOP)).thenReturn(
+            createImapResponseList("* 24 EXISTS", "3 OK NOOP completed")
+        )
+
+        imapFolder.open(ImapFolder.OPEN_MODE_RW)
+
+        verify(imapConnection, never()).executeSimpleCommand("SELECT \"Folder\"")
+        assertEquals(24, imapFolder.messageCount)
+        assertEquals(1125022061L, imapFolder.getUidValidity())
+        assertEquals(42L, imapFolder.getHighestModSeq())
+    }
+
+    @Test
+    fun open_withConnectionThatSelectedFolderInOtherMode_shouldSelectFolder() {
+        val imapFolder = createFolder("Folder")
+        prepareImapFolderForOpen(ImapFolder.OPEN_MODE_RW)
+        whenever(imapConnection.selectedFolderState).thenReturn(
+            SelectedFolderState(
+                "Folder", ImapFolder.OPEN_MODE_RO, ImapFolder.OPEN_MODE_RO, 23, 1125022061L, null, false
+            )
+        )
+
+        imapFolder.open(ImapFolder.OPEN_MODE_RW)
+
+        verify(imapConnection).executeSimpleCommand("SELECT \"Folder\"")
+    }
+
+    @Test
+    fun close_shouldSaveSelectedFolderStateOnConnection() {
+        val imapFolder = createFolder("Folder")
+        prepareImapFolderForOpen(ImapFolder.OPEN_MODE_RW)
+        imapFolder.open(ImapFolder.OPEN_MODE_RW)
+
+        imapFolder.close()
+
+        val stateCaptor = argumentCaptor<SelectedFolderState>()
+        verify(imapConnection, atLeastOnce()).selectedFolderState = stateCaptor.capture()
+        assertEquals("Folder", stateCaptor.lastValue.folderServerId)
+        assertEquals(ImapFolder.OPEN_MODE_RW, stateCaptor.lastValue.requestedMode)
+        assertEquals(23, stateCaptor.lastValue.messageCount)
+        assertEquals(1125022061L, stateCaptor.lastValue.uidValidity)
     }
 
     @Test
     fun open_withIoException_shouldThrowMessagingException() {
         val imapFolder = createFolder("Folder")
-        whenever(imapStore.connection).thenReturn(imapConnection)
+        prepareImapStoreConnection()
         doThrow(IOException::class).whenever(imapConnection).executeSimpleCommand("SELECT \"Folder\"")
 
         try {
@@ -156,7 +343,7 @@ class ImapFolderTest {
     @Test
     fun open_withMessagingException_shouldThrowMessagingException() {
         val imapFolder = createFolder("Folder")
-        whenever(imapStore.connection).thenReturn(imapConnection)
+        prepareImapStoreConnection()
         doThrow(MessagingException::class).whenever(imapConnection).executeSimpleCommand("SELECT \"Folder\"")
 
         try {
@@ -169,7 +356,7 @@ class ImapFolderTest {
     @Test
     fun open_withoutExistsResponse_shouldThrowMessagingException() {
         val imapFolder = createFolder("Folder")
-        whenever(imapStore.connection).thenReturn(imapConnection)
+        prepareImapStoreConnection()
         val selectResponses = listOf(
             createImapResponse("* OK [UIDNEXT 57576] Predicted next UID"),
             createImapResponse("2 OK [READ-WRITE] Select completed.")
@@ -198,7 +385,7 @@ class ImapFolderTest {
     @Test
     fun exists_withClosedFolder_shouldOpenConnectionAndIssueStatusCommand() {
         val imapFolder = createFolder("Folder")
-        whenever(imapStore.connection).thenReturn(imapConnection)
+        prepareImapStoreConnection()
 
         imapFolder.exists()
 
@@ -208,7 +395,7 @@ class ImapFolderTest {
     @Test
     fun exists_withoutNegativeImapResponse_shouldReturnTrue() {
         val imapFolder = createFolder("Folder")
-        whenever(imapStore.connection).thenReturn(imapConnection)
+        prepareImapStoreConnection()
 
         val folderExists = imapFolder.exists()
 
@@ -218,7 +405,7 @@ class ImapFolderTest {
     @Test
     fun exists_withNegativeImapResponse_shouldReturnFalse() {
         val imapFolder = createFolder("Folder")
-        whenever(imapStore.connection).thenReturn(imapConnection)
+        prepareImapStoreConnection()
         doThrow(NegativeImapResponseException::class)
             .whenever(imapConnection).executeSimpleCommand("STATUS \"Folder\" (UIDVALIDITY)")
 
@@ -230,7 +417,7 @@ class ImapFolderTest {
     @Test
     fun create_withClosedFolder_shouldOpenConnectionAndIssueCreateCommand() {
         val imapFolder = createFolder("Folder")
-        whenever(imapStore.connection).thenReturn(imapConnection)
+        prepareImapStoreConnection()
 
         imapFolder.create()
 
@@ -240,7 +427,7 @@ class ImapFolderTest {
     @Test
     fun create_withoutNegativeImapResponse_shouldReturnTrue() {
         val imapFolder = createFolder("Folder")
-        whenever(imapStore.connection).thenReturn(imapConnection)
+        prepareImapStoreConnection()
 
         val success = imapFolder.create()
 
@@ -250,7 +437,7 @@ class ImapFolderTest {
     @Test
     fun create_withNegativeImapResponse_shouldReturnFalse() {
         val imapFolder = createFolder("Folder")
-        whenever(imapStore.connection).thenReturn(imapConnection)
+        prepareImapStoreConnection()
         doThrow(NegativeImapResponseException::class).whenever(imapConnection).executeSimpleCommand("CREATE \"Folder\"")
 
         val success = imapFolder.create()
@@ -273,7 +460,7 @@ class ImapFolderTest {
     fun copyMessages_withClosedFolder_shouldThrow() {
         val sourceFolder = createFolder("Source")
         val destinationFolder = createFolder("Destination")
-        whenever(imapStore.connection).thenReturn(imapConnection)
+        prepareImapStoreConnection()
         whenever(imapStore.combinedPrefix).thenReturn("")
         val messages = listOf(mock<ImapMessage>())
 
@@ -342,7 +529,7 @@ class ImapFolderTest {
     @Test
     fun getUnreadMessageCount_withClosedFolder_shouldThrow() {
         val folder = createFolder("Folder")
-        whenever(imapStore.connection).thenReturn(imapConnection)
+        prepareImapStoreConnection()
         try {
             folder.unreadMessageCount
             fail("Expected exception")
@@ -379,10 +566,27 @@ class ImapFolderTest {
         assertEquals(3, unreadMessageCount)
     }
 
+    @Test
+    fun getUnreadMessageCount_withEsearchCapableServer_shouldRequestCount() {
+        val folder = createFolder("Folder")
+        prepareImapFolderForOpen(ImapFolder.OPEN_MODE_RW)
+        whenever(imapConnection.isEsearchCapable).thenReturn(true)
+        setupStreamingCommand(
+            "SEARCH RETURN (COUNT) 1:* UNSEEN NOT DELETED",
+            "* ESEARCH (TAG \"1\") COUNT 1234",
+            "1 OK SEARCH completed"
+        )
+        folder.open(ImapFolder.OPEN_MODE_RW)
+
+        val unreadMessageCount = folder.unreadMessageCount
+
+        assertEquals(1234, unreadMessageCount)
+    }
+
     @Test
     fun getFlaggedMessageCount_withClosedFolder_shouldThrow() {
         val folder = createFolder("Folder")
-        whenever(imapStore.connection).thenReturn(imapConnection)
+        prepareImapStoreConnection()
 
         try {
             folder.flaggedMessageCount
@@ -460,6 +664,23 @@ class ImapFolderTest {
         assertEquals(setOf("3", "5", "6"), extractMessageUids(messages))
     }
 
+    @Test
+    fun getMessages_withEsearchCapableServer_shouldReturnMessagesFromUidRanges() {
+        val folder = createFolder("Folder")
+        prepareImapFolderForOpen(ImapFolder.OPEN_MODE_RW)
+        whenever(imapConnection.isEsearchCapable).thenReturn(true)
+        setupStreamingCommand(
+            "UID SEARCH RETURN (ALL) 1:10 NOT DELETED",
+            "* ESEARCH (TAG \"1\") UID ALL 3,5:6",
+            "1 OK SEARCH completed"
+        )
+        folder.open(ImapFolder.OPEN_MODE_RW)
+
+        val messages = folder.getMessages(1, 10, null, null)
+
+        assertEquals(listOf("6", "5", "3"), messages.map { it.uid })
+    }
+
     @Test
     fun getMessages_withDateConstraint() {
         TimeZone.setDefault(TimeZone.getTimeZone("UTC"))
@@ -528,7 +749,7 @@ class ImapFolderTest {
     @Test
     fun getMessages_withClosedFolder_shouldThrow() {
         val folder = createFolder("Folder")
-        whenever(imapStore.connection).thenReturn(imapConnection)
+        prepareImapStoreConnection()
 
         try {
             folder.getMessages(1, 5, null, null)
@@ -541,7 +762,7 @@ class ImapFolderTest {
     @Test
     fun getMessages_sequenceNumbers_withClosedFolder_shouldThrow() {
         val folder = createFolder("Folder")
-        whenever(imapStore.connection).thenReturn(imapConnection)
+        prepareImapStoreConnection()
 
         try {
             folder.getMessages(setOf(1L, 2L, 5L), false, null)
@@ -582,7 +803,7 @@ class ImapFolderTest {
     @Test
     fun getMessagesFromUids_withClosedFolder_shouldThrow() {
         val folder = createFolder("Folder")
-        whenever(imapStore.connection).thenReturn(imapConnection)
+        prepareImapStoreConnection()
 
         try {
             folder.getMessagesFromUids(listOf("11", "22", "25"))
@@ -608,7 +829,7 @@ class ImapFolderTest {
     @Test
     fun areMoreMessagesAvailable_withClosedFolder_shouldThrow() {
         val folder = createFolder("Folder")
-        whenever(imapStore.connection).thenReturn(imapConnection)
+        prepareImapStoreConnection()
 
         try {
             folder.areMoreMessagesAvailable(10, Date())
@@ -693,7 +914,7 @@ class ImapFolderTest {
         val folder = createFolder("Folder")
         prepareImapFolderForOpen(ImapFolder.OPEN_MODE_RO)
         folder.open(ImapFolder.OPEN_MODE_RO)
-        whenever(imapConnection.readResponse(anyOrNull())).thenReturn(createImapResponse("x OK"))
+        setupStreamingResponses("x OK")
         val messages = createImapMessages("1")
         val fetchProfile = createFetchProfile(FetchProfile.Item.FLAGS)
 
@@ -702,6 +923,62 @@ class ImapFolderTest {
         verify(imapConnection).sendCommand("UID FETCH 1 (UID FLAGS)", false)
     }
 
+    @Test
+    fun fetch_withContiguousUids_shouldUseUidRanges() {
+        val folder = createFolder("Folder")
+        prepareImapFolderForOpen(ImapFolder.OPEN_MODE_RO)
+        folder.open(ImapFolder.OPEN_MODE_RO)
+        setupStreamingResponses("x OK")
+        val messages = createImapMessages("1", "2", "3", "7")
+        val fetchProfile = createFetchProfile(FetchProfile.Item.FLAGS)
+
+        folder.fetch(messages, fetchProfile, null, MAX_DOWNLOAD_SIZE)
+
+        verify(imapConnection).sendCommand("UID FETCH 7,1:3 (UID FLAGS)", false)
+    }
+
+    @Test
+    fun fetch_withMultipleWindows_shouldPipelineFetchCommands() {
+        val folder = createFolder("Folder")
+        prepareImapFolderForOpen(ImapFolder.OPEN_MODE_RO)
+        folder.open(ImapFolder.OPEN_MODE_RO)
+        setupStreamingResponses("x OK", "x OK", "x OK", "x OK", "x OK")
+        val messages = createImapMessages(*(1..500).map { it.toString() }.toTypedArray())
+        val fetchProfile = createFetchProfile(FetchProfile.Item.FLAGS)
+
+        folder.fetch(messages, fetchProfile, null, MAX_DOWNLOAD_SIZE)
+
+        inOrder(imapConnection) {
+            verify(imapConnection).sendCommand("UID FETCH 1:100 (UID FLAGS)", false)
+            verify(imapConnection).sendCommand("UID FETCH 101:200 (UID FLAGS)", false)
+            verify(imapConnection).sendCommand("UID FETCH 201:300 (UID FLAGS)", false)
+            verify(imapConnection).sendCommand("UID FETCH 301:400 (UID FLAGS)", false)
+            verify(imapConnection).readStreamingResponse(any())
+            verify(imapConnection).sendCommand("UID FETCH 401:500 (UID FLAGS)", false)
+        }
+        verify(imapConnection, times(5)).readStreamingResponse(any())
+    }
+
+    @Test
+    fun fetch_withPipelinedFetchCommands_shouldRouteResponsesByUid() {
+        val folder = createFolder("Folder")
+        prepareImapFolderForOpen(ImapFolder.OPEN_MODE_RO)
+        folder.open(ImapFolder.OPEN_MODE_RO)
+        setupStreamingResponses(
+            "* 150 FETCH (UID 150 FLAGS (\\Seen))",
+            "* 1 FETCH (UID 1 FLAGS ())",
+            "x OK",
+            "x OK"
+        )
+        val messages = createImapMessages(*(1..150).map { it.toString() }.toTypedArray())
+        val fetchProfile = createFetchProfile(FetchProfile.Item.FLAGS)
+
+        folder.fetch(messages, fetchProfile, null, MAX_DOWNLOAD_SIZE)
+
+        verify(messages[149]).setFlag(Flag.SEEN, true)
+        verify(messages[0], never()).setFlag(Flag.SEEN, true)
+    }
+
     @Test
     fun fetch_withEnvelopeFetchProfile_shouldIssueRespectiveCommand() {
         val folder = createFolder("Folder")
@@ -800,9 +1077,7 @@ class ImapFolderTest {
         folder.open(ImapFolder.OPEN_MODE_RO)
         val messages = createImapMessages("1")
         val fetchProfile = createFetchProfile(FetchProfile.Item.FLAGS)
-        whenever(imapConnection.readResponse(anyOrNull()))
-            .thenReturn(createImapResponse("* 1 FETCH (FLAGS (\\Seen) UID 1)"))
-            .thenReturn(createImapResponse("x OK"))
+        setupStreamingResponses("* 1 FETCH (FLAGS (\\Seen) UID 1)", "x OK")
 
         folder.fetch(messages, fetchProfile, null, MAX_DOWNLOAD_SIZE)
 
@@ -915,6 +1190,40 @@ class ImapFolderTest {
         assertCommandIssued("UID SEARCH HEADER MESSAGE-ID \"<00000000.0000000@example.org>\"")
     }
 
+    @Test
+    fun getHighestUid_withEsearchCapableServer_shouldRequestMax() {
+        val folder = createFolder("Folder")
+        prepareImapFolderForOpen(ImapFolder.OPEN_MODE_RW)
+        whenever(imapConnection.isEsearchCapable).thenReturn(true)
+        setupStreamingCommand(
+            "UID SEARCH RETURN (MAX) *:*",
+            "* ESEARCH (TAG \"1\") UID MAX 42",
+            "1 OK SEARCH completed"
+        )
+        folder.open(ImapFolder.OPEN_MODE_RW)
+
+        val highestUid = folder.highestUid
+
+        assertEquals(42L, highestUid)
+    }
+
+    @Test
+    fun getHighestUid_withEsearchCapableServerAndEmptyFolder_shouldReturnMinusOne() {
+        val folder = createFolder("Folder")
+        prepareImapFolderForOpen(ImapFolder.OPEN_MODE_RW)
+        whenever(imapConnection.isEsearchCapable).thenReturn(true)
+        setupStreamingCommand(
+            "UID SEARCH RETURN (MAX) *:*",
+            "* ESEARCH (TAG \"1\") UID",
+            "1 OK SEARCH completed"
+        )
+        folder.open(ImapFolder.OPEN_MODE_RW)
+
+        val highestUid = folder.highestUid
+
+        assertEquals(-1L, highestUid)
+    }
+
     @Test
     fun getUidFromMessageId() {
         val folder = createFolder("Folder")
@@ -980,6 +1289,22 @@ class ImapFolderTest {
         assertCommandIssued("UID SEARCH TEXT \"query\" SEEN")
     }
 
+    @Test
+    fun search_withEsearchCapableServer_shouldRequestUidRanges() {
+        val folder = createFolder("Folder")
+        prepareImapFolderForOpen(ImapFolder.OPEN_MODE_RO)
+        whenever(imapConnection.isEsearchCapable).thenReturn(true)
+        setupStreamingCommand(
+            "UID SEARCH RETURN (ALL) TEXT \"query\" SEEN",
+            "* ESEARCH (TAG \"1\") UID ALL 7:8",
+            "1 OK SEARCH completed"
+        )
+
+        val messages = folder.search("query", setOf(Flag.SEEN), emptySet(), true)
+
+        assertEquals(listOf("8", "7"), messages.map { it.uid })
+    }
+
     @Test
     fun search_withFullTextSearchDisabled_shouldIssueRespectiveCommand() {
         val folder = createFolder("Folder")
@@ -1020,6 +1345,26 @@ class ImapFolderTest {
             }
     }
 
+    private fun setupStreamingResponses(vararg responses: String) {
+        val parser = createResponseParser(*responses)
+        whenever(imapConnection.readStreamingResponse(any())).thenAnswer { invocation ->
+            parser.readStreamingResponse(invocation.getArgument(0))
+        }
+    }
+
+    private fun setupStreamingCommand(command: String, vararg responses: String) {
+        val parser = createResponseParser(*responses)
+        whenever(imapConnection.executeStreamingCommand(eq(command), any())).thenAnswer { invocation ->
+            val tag = responses.last().substringBefore(' ')
+            parser.readStatusResponse(tag, command, "log", null, invocation.getArgument(1))
+        }
+    }
+
+    private fun createResponseParser(vararg responses: String): ImapResponseParser {
+        val input = responses.joinToString(separator = "") { "$it\r\n" }
+        return ImapResponseParser(PeekableInputStream(ByteArrayInputStream(input.toByteArray())))
+    }
+
     private fun buildImapFetchResponse(callback: ImapResponseCallback): ImapResponse {
         val response = ImapResponse.newContinuationRequest(callback)
         response.add("1")
@@ -1058,8 +1403,14 @@ class ImapFolderTest {
 
     private fun createMessageRetrievalListener() = mock<MessageRetrievalListener<ImapMessage>>()
 
-    private fun prepareImapFolderForOpen(openMode: Int) {
+    private fun prepareImapStoreConnection() {
         whenever(imapStore.connection).thenReturn(imapConnection)
+        whenever(imapStore.getConnection(anyString())).thenReturn(imapConnection)
+        whenever(imapStore.getQresyncConnection(anyString())).thenReturn(imapConnection)
+    }
+
+    private fun prepareImapFolderForOpen(openMode: Int) {
+        prepareImapStoreConnection()
         val imapResponses = listOf(
             createImapResponse("* FLAGS (\\Answered \\Flagged \\Deleted \\Seen \\Draft NonJunk \$MDNSent)"),
             createImapResponse(
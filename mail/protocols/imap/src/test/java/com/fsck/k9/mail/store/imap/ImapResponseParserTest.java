@@ -13,6 +13,8 @@ import org.junit.Test;
 import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -459,6 +461,129 @@ public class ImapResponseParserTest {
         assertEquals("\\Seen", response.getList(2).getList(10).getString(0));
     }
 
+    @Test
+    public void readStreamingResponse_withFetchResponse_shouldReportUidFlagsAndModSeq() throws Exception {
+        ImapResponseParser parser = createParser(
+                "* 1 FETCH (UID 23 FLAGS (\\Seen \\Flagged $Forwarded custom) MODSEQ (12345))\r\n");
+        RecordingVisitor visitor = new RecordingVisitor();
+
+        ImapResponse response = parser.readStreamingResponse(visitor);
+
+        assertNull(response);
+        assertEquals(asList("FETCH 1", "UID 23", "FLAG \\Seen", "FLAG \\Flagged", "FLAG $Forwarded", "FLAG custom",
+                "MODSEQ 12345", "END"), visitor.events);
+        assertAllInputConsumed();
+    }
+
+    @Test
+    public void readStreamingResponse_withFetchResponseContainingOtherDataItems_shouldSkipThem() throws Exception {
+        ImapResponseParser parser = createParser("* 1 FETCH (UID 23 INTERNALDATE \"01-Jul-2015 12:34:56 +0200\" " +
+                "BODY[HEADER.FIELDS (date subject)]<0> {9}\r\n(a) \"b\"\r\n BODYSTRUCTURE (\"TEXT\" NIL) " +
+                "FLAGS (\\Answered))\r\n");
+        RecordingVisitor visitor = new RecordingVisitor();
+
+        ImapResponse response = parser.readStreamingResponse(visitor);
+
+        assertNull(response);
+        assertEquals(asList("FETCH 1", "UID 23", "FLAG \\Answered", "END"), visitor.events);
+        assertAllInputConsumed();
+    }
+
+    @Test
+    public void readStreamingResponse_withFetchResponseContainingLargeLiteral_shouldSkipLiteral() throws Exception {
+        StringBuilder literal = new StringBuilder();
+        for (int i = 0; i < 3000; i++) {
+            literal.append((char) ('a' + i % 26));
+        }
+        ImapResponseParser parser = createParser("* 1 FETCH (UID 23 BODY[] {3000}\r\n" + literal +
+                " FLAGS (\\Seen))\r\n");
+        RecordingVisitor visitor = new RecordingVisitor();
+
+        ImapResponse response = parser.readStreamingResponse(visitor);
+
+        assertNull(response);
+        assertEquals(asList("FETCH 1", "UID 23", "FLAG \\Seen", "END"), visitor.events);
+        assertAllInputConsumed();
+    }
+
+    @Test
+    public void readStreamingResponse_withKnownFlag_shouldReportConstant() throws Exception {
+        ImapResponseParser parser = createParser("* 1 FETCH (FLAGS (\\SEEN))\r\n* 2 FETCH (FLAGS (\\Seen))\r\n");
+        RecordingVisitor visitor = new RecordingVisitor();
+
+        parser.readStreamingResponse(visitor);
+        parser.readStreamingResponse(visitor);
+
+        assertSame(visitor.flags.get(0), visitor.flags.get(1));
+    }
+
+    @Test
+    public void readStreamingResponse_withSearchResponse_shouldReportNumbers() throws Exception {
+        ImapResponseParser parser = createParser("* SEARCH 2 84 882 (MODSEQ 917162500)\r\n");
+        RecordingVisitor visitor = new RecordingVisitor();
+
+        ImapResponse response = parser.readStreamingResponse(visitor);
+
+        assertNull(response);
+        assertEquals(asList("SEARCH 2", "SEARCH 84", "SEARCH 882"), visitor.events);
+        assertAllInputConsumed();
+    }
+
+    @Test
+    public void readStreamingResponse_withEsearchResponse_shouldReportResults() throws Exception {
+        ImapResponseParser parser = createParser("* ESEARCH (TAG \"A282\") UID MIN 2 COUNT 5 ALL 2,10:12,20:19\r\n");
+        RecordingVisitor visitor = new RecordingVisitor();
+
+        ImapResponse response = parser.readStreamingResponse(visitor);
+
+        assertNull(response);
+        assertEquals(asList("MIN 2", "COUNT 5", "RANGE 2:2", "RANGE 10:12", "RANGE 19:20"), visitor.events);
+        assertAllInputConsumed();
+    }
+
+    @Test
+    public void readStreamingResponse_withExistsAndExpungeResponses_shouldReportNumbers() throws Exception {
+        ImapResponseParser parser = createParser("* 23 EXISTS\r\n* 7 EXPUNGE\r\n");
+        RecordingVisitor visitor = new RecordingVisitor();
+
+        assertNull(parser.readStreamingResponse(visitor));
+        assertNull(parser.readStreamingResponse(visitor));
+
+        assertEquals(asList("EXISTS 23", "EXPUNGE 7"), visitor.events);
+        assertAllInputConsumed();
+    }
+
+    @Test
+    public void readStreamingResponse_withOtherResponses_shouldReturnImapResponses() throws Exception {
+        ImapResponseParser parser = createParser("* 5 RECENT\r\n* OK [UIDNEXT 4392] Predicted next UID\r\n" +
+                "1 OK done\r\n");
+        RecordingVisitor visitor = new RecordingVisitor();
+
+        ImapResponse recentResponse = parser.readStreamingResponse(visitor);
+        ImapResponse okResponse = parser.readStreamingResponse(visitor);
+        ImapResponse taggedResponse = parser.readStreamingResponse(visitor);
+
+        assertEquals(asList("5", "RECENT"), recentResponse);
+        assertEquals("OK", okResponse.getString(0));
+        assertEquals(asList("UIDNEXT", "4392"), okResponse.getList(1));
+        assertEquals("Predicted next UID", okResponse.getString(2));
+        assertEquals("1", taggedResponse.getTag());
+        assertTrue(visitor.events.isEmpty());
+        assertAllInputConsumed();
+    }
+
+    @Test
+    public void readStatusResponse_withVisitor_shouldOnlyReturnResponsesNotReportedToVisitor() throws Exception {
+        ImapResponseParser parser = createParser("* 1 FETCH (UID 23 FLAGS ())\r\n* 1 RECENT\r\n1 OK done\r\n");
+        RecordingVisitor visitor = new RecordingVisitor();
+
+        List<ImapResponse> responses = parser.readStatusResponse("1", "COMMAND", "[logId]", null, visitor);
+
+        assertEquals(2, responses.size());
+        assertEquals(asList("1", "RECENT"), responses.get(0));
+        assertEquals(asList("FETCH 1", "UID 23", "END"), visitor.events);
+    }
+
     @Test
     public void readStatusResponse_withNoResponse_shouldThrow() throws Exception {
         ImapResponseParser parser = createParser("1 NO\r\n");
@@ -489,6 +614,72 @@ public class ImapResponseParserTest {
         return new ImapResponseParser(peekableInputStream);
     }
 
+    private static class RecordingVisitor extends ImapResponseVisitor {
+        final List<String> events = new ArrayList<>();
+        final List<String> flags = new ArrayList<>();
+
+        @Override
+        public void visitExists(long messageCount) {
+            events.add("EXISTS " + messageCount);
+        }
+
+        @Override
+        public void visitExpunge(long messageSequenceNumber) {
+            events.add("EXPUNGE " + messageSequenceNumber);
+        }
+
+        @Override
+        public void visitSearchNumber(long number) {
+            events.add("SEARCH " + number);
+        }
+
+        @Override
+        public void visitEsearchRange(long start, long end) {
+            events.add("RANGE " + start + ":" + end);
+        }
+
+        @Override
+        public void visitEsearchMin(long min) {
+            events.add("MIN " + min);
+        }
+
+        @Override
+        public void visitEsearchMax(long max) {
+            events.add("MAX " + max);
+        }
+
+        @Override
+        public void visitEsearchCount(long count) {
+            events.add("COUNT " + count);
+        }
+
+        @Override
+        public void visitFetchStart(long messageSequenceNumber) {
+            events.add("FETCH " + messageSequenceNumber);
+        }
+
+        @Override
+        public void visitFetchUid(long uid) {
+            events.add("UID " + uid);
+        }
+
+        @Override
+        public void visitFetchFlag(String flag) {
+            events.add("FLAG " + flag);
+            flags.add(flag);
+        }
+
+        @Override
+        public void visitFetchModSeq(long modSeq) {
+            events.add("MODSEQ " + modSeq);
+        }
+
+        @Override
+        public void visitFetchEnd() {
+            events.add("END");
+        }
+    }
+
     private void assertAllInputConsumed() throws IOException {
         assertEquals(0, peekableInputStream.available());
     }
@@ -47,6 +47,10 @@ public class ImapStoreTest {
         TrustedSocketFactory trustedSocketFactory = mock(TrustedSocketFactory.class);
         ConnectivityManager connectivityManager = mock(ConnectivityManager.class);
         OAuth2TokenProvider oauth2TokenProvider = mock(OAuth2TokenProvider.class);
+        when(config.getMaxPooledConnections()).thenReturn(3);
+        when(config.getPooledConnectionIdleTimeout()).thenReturn(60000L);
+        when(config.getMaxConnections()).thenReturn(10);
+        when(config.getConnectionWaitTimeout()).thenReturn(60000L);
 
         imapStore = new TestImapStore(serverSettings, config, trustedSocketFactory, connectivityManager,
                 oauth2TokenProvider);
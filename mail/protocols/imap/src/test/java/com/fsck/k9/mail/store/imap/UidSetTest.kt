@@ -0,0 +1,61 @@
+package com.fsck.k9.mail.store.imap
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+
+class UidSetTest {
+    @Test
+    fun build_withAscendingUids_shouldMergeConsecutiveUids() {
+        val uidSet = UidSet.Builder().addAll(listOf(1L, 2L, 3L, 5L, 7L, 8L)).build()
+
+        assertThat(uidSet.toString()).isEqualTo("1:3,5,7:8")
+        assertThat(uidSet.count).isEqualTo(6L)
+    }
+
+    @Test
+    fun build_withUnorderedOverlappingRanges_shouldMergeRanges() {
+        val uidSet = UidSet.Builder()
+            .addRange(10, 20)
+            .addRange(1, 3)
+            .addRange(15, 25)
+            .add(4)
+            .build()
+
+        assertThat(uidSet.toString()).isEqualTo("1:4,10:25")
+        assertThat(uidSet.count).isEqualTo(20L)
+        assertThat(uidSet.min).isEqualTo(1L)
+        assertThat(uidSet.max).isEqualTo(25L)
+    }
+
+    @Test
+    fun contains() {
+        val uidSet = UidSet.Builder().addRange(1, 3).addRange(10, 20).build()
+
+        assertThat(2L in uidSet).isTrue()
+        assertThat(10L in uidSet).isTrue()
+        assertThat(20L in uidSet).isTrue()
+        assertThat(5L in uidSet).isFalse()
+        assertThat(21L in uidSet).isFalse()
+    }
+
+    @Test
+    fun forEachDescending_shouldReturnUidsStartingWithHighest() {
+        val uidSet = UidSet.Builder().addRange(1, 2).addRange(5, 6).build()
+        val uids = mutableListOf<Long>()
+
+        uidSet.forEachDescending { uids.add(it) }
+
+        assertThat(uids).containsExactly(6L, 5L, 2L, 1L).inOrder()
+    }
+
+    @Test
+    fun emptySet() {
+        val uidSet = UidSet.Builder().build()
+
+        assertThat(uidSet.isEmpty).isTrue()
+        assertThat(uidSet.count).isEqualTo(0L)
+        assertThat(uidSet.min).isNull()
+        assertThat(uidSet.max).isNull()
+        assertThat(uidSet).isEqualTo(UidSet.EMPTY)
+    }
+}
@@ -223,6 +223,8 @@ class Pop3Connection {
                     capabilities.uidl = true;
                 } else if (response.equals(TOP_CAPABILITY)) {
                     capabilities.top = true;
+                } else if (response.equals(PIPELINING_CAPABILITY)) {
+                    capabilities.pipelining = true;
                 } else if (response.startsWith(SASL_CAPABILITY)) {
                     List<String> saslAuthMechanisms = Arrays.asList(response.split(" "));
                     if (saslAuthMechanisms.contains(AUTH_PLAIN_CAPABILITY)) {
@@ -333,7 +335,6 @@ class Pop3Connection {
         out.write(s.getBytes());
         out.write('\r');
         out.write('\n');
-        out.flush();
     }
 
     String executeSimpleCommand(String command) throws MessagingException {
@@ -341,19 +342,59 @@ class Pop3Connection {
     }
 
     private String executeSimpleCommand(String command, boolean sensitive) throws MessagingException {
+        if (command != null) {
+            sendCommand(command, sensitive);
+            flushCommands();
+        }
+
+        return readCommandResponse();
+    }
+
+    /**
+     * Sends a command without waiting for the response.
+     * <p>
+     * If the server supports pipelining (RFC 2449) multiple commands can be sent before reading the responses. The
+     * commands are buffered until {@link #flushCommands()} is called. The status line of every response has to be
+     * read in order using {@link #readCommandResponse()}.
+     * </p>
+     */
+    void sendCommand(String command) throws MessagingException {
+        sendCommand(command, false);
+    }
+
+    private void sendCommand(String command, boolean sensitive) throws MessagingException {
         try {
-            if (command != null) {
-                if (K9MailLib.isDebug() && DEBUG_PROTOCOL_POP3) {
-                    if (sensitive && !K9MailLib.isDebugSensitive()) {
-                        Timber.d(">>> [Command Hidden, Enable Sensitive Debug Logging To Show]");
-                    } else {
-                        Timber.d(">>> %s", command);
-                    }
+            if (K9MailLib.isDebug() && DEBUG_PROTOCOL_POP3) {
+                if (sensitive && !K9MailLib.isDebugSensitive()) {
+                    Timber.d(">>> [Command Hidden, Enable Sensitive Debug Logging To Show]");
+                } else {
+                    Timber.d(">>> %s", command);
                 }
-
-                writeLine(command);
             }
 
+            writeLine(command);
+        } catch (Exception e) {
+            close();
+            throw new MessagingException("Unable to execute POP3 command", e);
+        }
+    }
+
+    void flushCommands() throws MessagingException {
+        try {
+            out.flush();
+        } catch (Exception e) {
+            close();
+            throw new MessagingException("Unable to execute POP3 command", e);
+        }
+    }
+
+    /**
+     * Reads the status line of the response to the oldest command that hasn't been answered yet.
+     *
+     * @throws Pop3ErrorResponse if the server returned a negative status indicator.
+     */
+    String readCommandResponse() throws MessagingException {
+        try {
             String response = readLine();
             if (response.length() == 0 || response.charAt(0) != '+') {
                 throw new Pop3ErrorResponse(response);
@@ -438,6 +479,10 @@ class Pop3Connection {
         return this.capabilities.uidl;
     }
 
+    boolean supportsPipelining() {
+        return capabilities.pipelining;
+    }
+
     InputStream getInputStream() {
         return in;
     }
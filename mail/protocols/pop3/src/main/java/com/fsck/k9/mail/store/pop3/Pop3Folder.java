@@ -2,6 +2,7 @@ package com.fsck.k9.mail.store.pop3;
 
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -29,6 +30,12 @@ import static com.fsck.k9.mail.store.pop3.Pop3Commands.*;
 public class Pop3Folder {
     public static final String INBOX = "INBOX";
 
+    /**
+     * Maximum number of commands sent ahead of the response currently being read when the server supports
+     * pipelining.
+     */
+    private static final int PIPELINE_WINDOW_SIZE = 10;
+
 
     private Pop3Store pop3Store;
     private Map<String, Pop3Message> uidToMsgMap = new HashMap<>();
@@ -317,6 +324,19 @@ public class Pop3Folder {
         } catch (IOException ioe) {
             throw new MessagingException("fetch", ioe);
         }
+        if (connection.supportsPipelining() &&
+                (fp.contains(FetchProfile.Item.BODY) || fp.contains(FetchProfile.Item.BODY_SANE))) {
+            int lines = (fp.contains(FetchProfile.Item.BODY) || maxDownloadSize <= 0) ? -1 : maxDownloadSize / 76;
+            // Without TOP support we need the fallback logic of fetchBody() that has to wait for each response
+            if (lines == -1 || connection.supportsTop()) {
+                try {
+                    fetchBodiesPipelined(messages, fp, listener, lines);
+                } catch (IOException ioe) {
+                    throw new MessagingException("Unable to fetch message", ioe);
+                }
+                return;
+            }
+        }
         for (int i = 0, count = messages.size(); i < count; i++) {
             Pop3Message pop3Message = messages.get(i);
             try {
@@ -367,14 +387,28 @@ public class Pop3Folder {
              * In extreme cases we'll do a command per message instead of a bulk request
              * to hopefully save some time and bandwidth.
              */
+            int windowSize = connection.supportsPipelining() ? PIPELINE_WINDOW_SIZE : 1;
+            int commandsSent = 0;
             for (int i = 0, count = messages.size(); i < count; i++) {
                 Pop3Message message = messages.get(i);
                 if (listener != null) {
                     listener.messageStarted(message.getUid(), i, count);
                 }
-                String response = connection.executeSimpleCommand(
-                        String.format(Locale.US, LIST_COMMAND + " %d",
-                                uidToMsgNumMap.get(message.getUid())));
+                if (commandsSent < count) {
+                    while (commandsSent < count && commandsSent - i < windowSize) {
+                        connection.sendCommand(String.format(Locale.US, LIST_COMMAND + " %d",
+                                uidToMsgNumMap.get(messages.get(commandsSent).getUid())));
+                        commandsSent++;
+                    }
+                    connection.flushCommands();
+                }
+                String response;
+                try {
+                    response = connection.readCommandResponse();
+                } catch (Pop3ErrorResponse e) {
+                    skipCommandResponses(commandsSent - i - 1);
+                    throw e;
+                }
                 String[] listParts = response.split(" ");
                 //int msgNum = Integer.parseInt(listParts[1]);
                 int msgSize = Integer.parseInt(listParts[2]);
@@ -459,8 +493,102 @@ public class Pop3Folder {
                                  uidToMsgNumMap.get(message.getUid())));
         }
 
+        parseBody(message, lines, new Pop3ResponseInputStream(connection.getInputStream()));
+    }
+
+    /**
+     * Fetches the bodies of the given messages using pipelining (RFC 2449).
+     *
+     * Up to {@link #PIPELINE_WINDOW_SIZE} RETR or TOP commands are sent before the first response is read. The
+     * responses arrive in the order of the commands and are parsed straight from the connection. A new command is
+     * sent whenever a response has been read completely, so the server never has to wait for the next request.
+     *
+     * If a command fails no further commands are sent. The responses to the commands that are already on their way
+     * are read and discarded before the error is reported, so the connection can still be used afterwards.
+     */
+    private void fetchBodiesPipelined(List<Pop3Message> messages, FetchProfile fp,
+            MessageRetrievalListener<Pop3Message> listener, int lines) throws IOException, MessagingException {
+        MessagingException failure = null;
+        int commandsSent = 0;
+        for (int i = 0, count = messages.size(); i < count; i++) {
+            if (failure == null && commandsSent < count) {
+                while (commandsSent < count && commandsSent - i < PIPELINE_WINDOW_SIZE) {
+                    connection.sendCommand(getBodyCommand(messages.get(commandsSent), lines));
+                    commandsSent++;
+                }
+                connection.flushCommands();
+            } else if (i >= commandsSent) {
+                break;
+            }
+
+            try {
+                connection.readCommandResponse();
+            } catch (Pop3ErrorResponse e) {
+                if (failure == null) {
+                    failure = e;
+                }
+                continue;
+            }
+
+            InputStream responseStream = new Pop3ResponseInputStream(connection.getInputStream());
+            Pop3Message pop3Message = messages.get(i);
+            if (failure == null) {
+                try {
+                    if (listener != null && !fp.contains(FetchProfile.Item.ENVELOPE)) {
+                        listener.messageStarted(pop3Message.getUid(), i, count);
+                    }
+                    parseBody(pop3Message, lines, responseStream);
+                } catch (MessagingException me) {
+                    failure = me;
+                }
+            }
+
+            // The parser might stop before the end of the response. Skip the rest to get to the next response.
+            skipResponse(responseStream);
+
+            if (failure == null && listener != null) {
+                listener.messageFinished(pop3Message, i, count);
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private String getBodyCommand(Pop3Message message, int lines) {
+        int msgNum = uidToMsgNumMap.get(message.getUid());
+        if (lines == -1) {
+            return String.format(Locale.US, RETR_COMMAND + " %d", msgNum);
+        } else {
+            return String.format(Locale.US, TOP_COMMAND + " %d %d", msgNum, lines);
+        }
+    }
+
+    private void skipResponse(InputStream responseStream) throws IOException {
+        byte[] buffer = new byte[4096];
+        //noinspection StatementWithEmptyBody
+        while (responseStream.read(buffer) != -1) {
+        }
+    }
+
+    /**
+     * Reads and discards the status lines of responses to commands that have already been sent.
+     */
+    private void skipCommandResponses(int responseCount) throws MessagingException {
+        for (int i = 0; i < responseCount; i++) {
+            try {
+                connection.readCommandResponse();
+            } catch (Pop3ErrorResponse e) {
+                // We're only interested in the first error
+            }
+        }
+    }
+
+    private void parseBody(Pop3Message message, int lines, InputStream responseStream)
+            throws IOException, MessagingException {
         try {
-            message.parse(new Pop3ResponseInputStream(connection.getInputStream()));
+            message.parse(responseStream);
 
             // TODO: if we've received fewer lines than requested we also have the complete message.
             if (lines == -1 || !connection.supportsTop()) {
@@ -9,6 +9,7 @@ import com.fsck.k9.mail.internet.BinaryTempFileBody;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.InOrder;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -20,7 +21,12 @@ import java.util.List;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
@@ -253,6 +259,70 @@ public class Pop3FolderTest {
         assertEquals("this is some test text.", new String(bodyData.toByteArray(), "UTF-8"));
     }
 
+    @Test
+    public void fetch_withBodyProfileAndPipelining_shouldSendAllCommandsBeforeReadingResponses() throws Exception {
+        InputStream messageInputStream = new ByteArrayInputStream((
+                "Subject: First\r\n" +
+                "\r\n" +
+                "first body\r\n" +
+                ".\r\n" +
+                "Subject: Second\r\n" +
+                "\r\n" +
+                "second body\r\n" +
+                ".\r\n").getBytes());
+        folder.open();
+        List<Pop3Message> messageList = setupTwoMessagesFromServer();
+        FetchProfile fetchProfile = new FetchProfile();
+        fetchProfile.add(Item.BODY);
+        when(mockConnection.supportsPipelining()).thenReturn(true);
+        when(mockConnection.readCommandResponse()).thenReturn("+OK");
+        when(mockConnection.getInputStream()).thenReturn(messageInputStream);
+
+        folder.fetch(messageList, fetchProfile, mockListener, MAX_DOWNLOAD_SIZE);
+
+        InOrder inOrder = inOrder(mockConnection);
+        inOrder.verify(mockConnection).sendCommand("RETR 1");
+        inOrder.verify(mockConnection).sendCommand("RETR 2");
+        inOrder.verify(mockConnection).flushCommands();
+        inOrder.verify(mockConnection, atLeastOnce()).readCommandResponse();
+        assertEquals("First", messageList.get(0).getSubject());
+        assertEquals("Second", messageList.get(1).getSubject());
+        verify(mockListener).messageFinished(messageList.get(0), 0, 2);
+        verify(mockListener).messageFinished(messageList.get(1), 1, 2);
+    }
+
+    @Test
+    public void fetch_withPipeliningAndErrorResponse_shouldReadAllResponsesBeforeThrowing() throws Exception {
+        InputStream messageInputStream = new ByteArrayInputStream((
+                "Subject: Second\r\n" +
+                "\r\n" +
+                "second body\r\n" +
+                ".\r\n").getBytes());
+        folder.open();
+        List<Pop3Message> messageList = setupTwoMessagesFromServer();
+        FetchProfile fetchProfile = new FetchProfile();
+        fetchProfile.add(Item.BODY);
+        when(mockConnection.supportsPipelining()).thenReturn(true);
+        when(mockConnection.readCommandResponse())
+                .thenThrow(new Pop3ErrorResponse("-ERR no such message"))
+                .thenReturn("+OK");
+        when(mockConnection.getInputStream()).thenReturn(messageInputStream);
+        MessageRetrievalListener<Pop3Message> fetchListener = mock(MessageRetrievalListener.class);
+
+        try {
+            folder.fetch(messageList, fetchProfile, fetchListener, MAX_DOWNLOAD_SIZE);
+            fail("Expected exception");
+        } catch (Pop3ErrorResponse e) {
+            assertEquals(-1, messageInputStream.read());
+            verify(fetchListener, never()).messageFinished(any(Pop3Message.class), anyInt(), anyInt());
+        }
+    }
+
+    private List<Pop3Message> setupTwoMessagesFromServer() throws IOException, MessagingException {
+        when(mockConnection.readLine()).thenReturn("1 abcd").thenReturn("2 efgh").thenReturn(".");
+        return folder.getMessages(1, 2, mockListener);
+    }
+
     private List<Pop3Message> setupMessageFromServer() throws IOException, MessagingException {
         when(mockConnection.readLine()).thenReturn("1 abcd").thenReturn(".");
         return folder.getMessages(1, 1, mockListener);
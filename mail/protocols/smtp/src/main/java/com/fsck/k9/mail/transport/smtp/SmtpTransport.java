@@ -56,10 +56,13 @@ import static com.fsck.k9.mail.K9MailLib.DEBUG_PROTOCOL_SMTP;
 public class SmtpTransport extends Transport {
     private static final int SMTP_CONTINUE_REQUEST = 334;
     private static final int SMTP_AUTHENTICATION_FAILURE_ERROR_CODE = 535;
+    private static final int BDAT_CHUNK_SIZE = 64 * 1024;
+    private static final long IDLE_CONNECTION_CHECK_INTERVAL = 30 * 1000L;
 
 
     private final TrustedSocketFactory trustedSocketFactory;
     private final OAuth2TokenProvider oauthTokenProvider;
+    private final Clock clock;
 
     private final String host;
     private final int port;
@@ -78,10 +81,24 @@ public class SmtpTransport extends Transport {
     private int largestAcceptableMessage;
     private boolean retryXoauthWithNewToken;
     private boolean isPipeliningSupported;
+    private boolean isChunkingSupported;
+    private boolean isSessionActive;
+    private boolean isTransactionIncomplete;
+    private long lastTransactionEndedAt;
 
 
     public SmtpTransport(ServerSettings serverSettings,
             TrustedSocketFactory trustedSocketFactory, OAuth2TokenProvider oauthTokenProvider) {
+        this(serverSettings, trustedSocketFactory, oauthTokenProvider, new Clock() {
+            @Override
+            public long currentTimeMillis() {
+                return System.currentTimeMillis();
+            }
+        });
+    }
+
+    SmtpTransport(ServerSettings serverSettings, TrustedSocketFactory trustedSocketFactory,
+            OAuth2TokenProvider oauthTokenProvider, Clock clock) {
         if (!serverSettings.type.equals("smtp")) {
             throw new IllegalArgumentException("Expected SMTP StoreConfig!");
         }
@@ -98,6 +115,7 @@ public class SmtpTransport extends Transport {
 
         this.trustedSocketFactory = trustedSocketFactory;
         this.oauthTokenProvider = oauthTokenProvider;
+        this.clock = clock;
     }
 
     @Override
@@ -142,6 +160,7 @@ public class SmtpTransport extends Transport {
             is8bitEncodingAllowed = extensions.containsKey("8BITMIME");
             isEnhancedStatusCodesProvided = extensions.containsKey("ENHANCEDSTATUSCODES");
             isPipeliningSupported = extensions.containsKey("PIPELINING");
+            isChunkingSupported = extensions.containsKey("CHUNKING");
 
             if (connectionSecurity == ConnectionSecurity.STARTTLS_REQUIRED) {
                 if (extensions.containsKey("STARTTLS")) {
@@ -389,21 +408,24 @@ public class SmtpTransport extends Transport {
             return;
         }
 
-        close();
-        open();
+        prepareConnection();
 
         // If the message has attachments and our server has told us about a limit on
-        // the size of messages, count the message's size before sending it
-        if (largestAcceptableMessage > 0 && message.hasAttachments()) {
+        // the size of messages, count the message's size before sending it.
+        // With BDAT the size is counted while the message is being sent.
+        if (!isChunkingSupported && largestAcceptableMessage > 0 && message.hasAttachments()) {
             if (message.calculateSize() > largestAcceptableMessage) {
+                closeUnlessSessionActive();
                 throw new MessagingException("Message too large for server", true);
             }
         }
 
         boolean entireMessageSent = false;
+        boolean keepConnection = false;
 
         try {
             String mailFrom = constructSmtpMailFromCommand(message.getFrom(), is8bitEncodingAllowed);
+            isTransactionIncomplete = true;
 
             if (isPipeliningSupported) {
                 Queue<String> pipelinedCommands = new LinkedList<>();
@@ -413,7 +435,9 @@ public class SmtpTransport extends Transport {
                     pipelinedCommands.add(String.format("RCPT TO:<%s>", address));
                 }
 
-                pipelinedCommands.add("DATA");
+                if (!isChunkingSupported) {
+                    pipelinedCommands.add("DATA");
+                }
                 executePipelinedCommands(pipelinedCommands);
                 readPipelinedResponse(pipelinedCommands);
             } else {
@@ -423,25 +447,118 @@ public class SmtpTransport extends Transport {
                     executeCommand("RCPT TO:<%s>", address);
                 }
 
-                executeCommand("DATA");
+                if (!isChunkingSupported) {
+                    executeCommand("DATA");
+                }
             }
 
-            EOLConvertingOutputStream msgOut = new EOLConvertingOutputStream(
-                    new LineWrapOutputStream(new SmtpDataStuffing(outputStream), 1000));
+            if (isChunkingSupported) {
+                BdatOutputStream bdatOut = new BdatOutputStream();
+                writeMessageWithBdat(message, bdatOut);
 
-            message.writeTo(msgOut);
-            msgOut.endWithCrLfAndFlush();
+                entireMessageSent = true; // After the last chunk is attempted, we may have sent the message
+                bdatOut.sendLastChunk();
+            } else {
+                EOLConvertingOutputStream msgOut = new EOLConvertingOutputStream(
+                        new LineWrapOutputStream(new SmtpDataStuffing(outputStream), 1000));
+
+                message.writeTo(msgOut);
+                msgOut.endWithCrLfAndFlush();
 
-            entireMessageSent = true; // After the "\r\n." is attempted, we may have sent the message
-            executeCommand(".");
+                entireMessageSent = true; // After the "\r\n." is attempted, we may have sent the message
+                executeCommand(".");
+            }
+
+            isTransactionIncomplete = false;
+            keepConnection = true;
         } catch (NegativeSmtpReplyException e) {
+            // The server rejected the transaction but the connection can still be used for the next message
+            keepConnection = true;
             throw e;
+        } catch (MessageTooLargeException e) {
+            keepConnection = resetTransaction();
+            throw new MessagingException("Message too large for server", true);
         } catch (Exception e) {
             throw new MessagingException("Unable to send message", entireMessageSent, e);
         } finally {
+            if (!keepConnection) {
+                close();
+            } else {
+                lastTransactionEndedAt = clock.currentTimeMillis();
+                closeUnlessSessionActive();
+            }
+        }
+    }
+
+    @Override
+    public void beginSession() {
+        isSessionActive = true;
+    }
+
+    @Override
+    public void endSession() {
+        isSessionActive = false;
+        close();
+    }
+
+    /**
+     * Makes sure there's an authenticated connection ready for a new mail transaction.
+     * <p>
+     * Inside a session the connection used for the previous message is reused. {@code RSET} is only sent if the
+     * previous transaction failed after {@code MAIL FROM}. A connection that has been idle for a while is checked with
+     * {@code NOOP} because the server might have closed it. If either command fails a new connection is established.
+     * </p>
+     */
+    private void prepareConnection() throws MessagingException {
+        if (isSessionActive && socket != null) {
+            try {
+                if (isTransactionIncomplete) {
+                    executeCommand("RSET");
+                    isTransactionIncomplete = false;
+                } else if (clock.currentTimeMillis() - lastTransactionEndedAt >= IDLE_CONNECTION_CHECK_INTERVAL) {
+                    executeCommand("NOOP");
+                }
+                return;
+            } catch (Exception e) {
+                Timber.d(e, "Unable to reuse SMTP connection. Reconnecting...");
+            }
+        }
+
+        close();
+        open();
+    }
+
+    private void closeUnlessSessionActive() {
+        if (!isSessionActive) {
             close();
         }
+    }
 
+    /**
+     * Aborts the current mail transaction.
+     *
+     * @return {@code true} if the connection can be used for the next mail transaction
+     */
+    private boolean resetTransaction() {
+        try {
+            executeCommand("RSET");
+            isTransactionIncomplete = false;
+            return true;
+        } catch (Exception e) {
+            Timber.d(e, "RSET failed");
+            return false;
+        }
+    }
+
+    private void writeMessageWithBdat(Message message, BdatOutputStream bdatOut)
+            throws IOException, MessagingException {
+        EOLConvertingOutputStream msgOut = new EOLConvertingOutputStream(new LineWrapOutputStream(bdatOut, 1000));
+        try {
+            message.writeTo(msgOut);
+            msgOut.endWithCrLfAndFlush();
+        } catch (BdatChunkRejectedException e) {
+            throw e.getReply();
+        }
     }
 
     private static String constructSmtpMailFromCommand(Address[] from, boolean is8bitEncodingAllowed) {
@@ -467,6 +584,7 @@ public class SmtpTransport extends Transport {
         inputStream = null;
         outputStream = null;
         socket = null;
+        isTransactionIncomplete = false;
     }
 
     private String readLine() throws IOException {
@@ -619,7 +737,7 @@ public class SmtpTransport extends Transport {
         String responseLine;
         List<String> results = new ArrayList<>();
         NegativeSmtpReplyException firstNegativeResponse = null;
-        boolean dataCommandOk = true;
+        boolean dataCommandOk = pipelinedCommands.contains("DATA");
         for (String command : pipelinedCommands) {
             results.clear();
             responseLine = readCommandResponseLine(results);
@@ -801,4 +919,94 @@ public class SmtpTransport extends Transport {
             close();
         }
     }
+
+    /**
+     * Sends everything written to it as {@code BDAT} chunks (RFC 3030).
+     * <p>
+     * No dot-stuffing is necessary and the number of bytes is counted while the message is being written. So the
+     * message only needs to be serialized once, even when the server has a limit on the size of messages.
+     * </p>
+     */
+    private class BdatOutputStream extends OutputStream {
+        private final byte[] buffer = new byte[BDAT_CHUNK_SIZE];
+        private int count;
+        private long totalSize;
+
+        @Override
+        public void write(int oneByte) throws IOException {
+            if (count == buffer.length) {
+                sendChunk();
+            }
+
+            buffer[count++] = (byte) oneByte;
+            addToTotalSize(1);
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (count == buffer.length) {
+                    sendChunk();
+                }
+
+                int bytesToCopy = Math.min(length, buffer.length - count);
+                System.arraycopy(data, offset, buffer, count, bytesToCopy);
+                count += bytesToCopy;
+                offset += bytesToCopy;
+                length -= bytesToCopy;
+                addToTotalSize(bytesToCopy);
+            }
+        }
+
+        // flush() is a no-op on purpose. Chunks are only sent when the buffer is full or by sendLastChunk().
+
+        void sendLastChunk() throws IOException, MessagingException {
+            writeLine("BDAT " + count + " LAST", false);
+            writeBuffer();
+            executeCommand(null);
+        }
+
+        private void sendChunk() throws IOException {
+            writeLine("BDAT " + count, false);
+            writeBuffer();
+            try {
+                executeCommand(null);
+            } catch (MessagingException e) {
+                throw new BdatChunkRejectedException(e);
+            }
+        }
+
+        private void writeBuffer() throws IOException {
+            outputStream.write(buffer, 0, count);
+            outputStream.flush();
+            count = 0;
+        }
+
+        private void addToTotalSize(int byteCount) throws MessageTooLargeException {
+            totalSize += byteCount;
+            if (largestAcceptableMessage > 0 && totalSize > largestAcceptableMessage) {
+                throw new MessageTooLargeException();
+            }
+        }
+    }
+
+    private static class MessageTooLargeException extends IOException {
+    }
+
+    private static class BdatChunkRejectedException extends IOException {
+        private final MessagingException reply;
+
+        BdatChunkRejectedException(MessagingException reply) {
+            super(reply);
+            this.reply = reply;
+        }
+
+        MessagingException getReply() {
+            return reply;
+        }
+    }
+
+    interface Clock {
+        long currentTimeMillis();
+    }
 }
@@ -42,6 +42,7 @@ public class SmtpTransportTest {
     
     private TrustedSocketFactory socketFactory;
     private OAuth2TokenProvider oAuth2TokenProvider;
+    private long currentTime = 1000L;
 
 
     @Before
@@ -642,6 +643,9 @@ public class SmtpTransportTest {
                 .messageSize(1234L)
                 .build();
         MockSmtpServer server = createServerAndSetupForPlainAuthentication("SIZE 1000");
+        server.expect("QUIT");
+        server.output("221 BYE");
+        server.closeConnection();
         SmtpTransport transport = startServerAndCreateSmtpTransport(server);
 
         try {
@@ -651,9 +655,172 @@ public class SmtpTransportTest {
             assertTrue(e.isPermanentFailure());
             assertEquals("Message too large for server", e.getMessage());
         }
-        
-        //FIXME: Make sure connection was closed 
-        //server.verifyConnectionClosed();
+
+        server.verifyConnectionClosed();
+        server.verifyInteractionCompleted();
+    }
+
+    @Test
+    public void sendMessage_withChunking_shouldUseBdat() throws Exception {
+        Message message = getDefaultMessage();
+        MockSmtpServer server = createServerAndSetupForPlainAuthentication("CHUNKING");
+        server.expect("MAIL FROM:<user@localhost>");
+        server.output("250 OK");
+        server.expect("RCPT TO:<user2@localhost>");
+        server.output("250 OK");
+        server.expect("BDAT 16 LAST");
+        server.expect("[message data]");
+        server.output("250 OK: queued as 12345");
+        server.expect("QUIT");
+        server.output("221 BYE");
+        server.closeConnection();
+        SmtpTransport transport = startServerAndCreateSmtpTransport(server);
+
+        transport.sendMessage(message);
+
+        server.verifyConnectionClosed();
+        server.verifyInteractionCompleted();
+    }
+
+    @Test
+    public void sendMessage_withChunkingAndMessageTooLarge_shouldResetTransactionAndThrow() throws Exception {
+        Message message = getDefaultMessage();
+        MockSmtpServer server = createServerAndSetupForPlainAuthentication("CHUNKING", "SIZE 10");
+        server.expect("MAIL FROM:<user@localhost>");
+        server.output("250 OK");
+        server.expect("RCPT TO:<user2@localhost>");
+        server.output("250 OK");
+        server.expect("RSET");
+        server.output("250 OK");
+        server.expect("QUIT");
+        server.output("221 BYE");
+        server.closeConnection();
+        SmtpTransport transport = startServerAndCreateSmtpTransport(server);
+
+        try {
+            transport.sendMessage(message);
+            fail("Expected message too large error");
+        } catch (MessagingException e) {
+            assertTrue(e.isPermanentFailure());
+            assertEquals("Message too large for server", e.getMessage());
+        }
+
+        server.verifyConnectionClosed();
+        server.verifyInteractionCompleted();
+    }
+
+    @Test
+    public void sendMessage_withSession_shouldReuseConnection() throws Exception {
+        Message message = getDefaultMessage();
+        MockSmtpServer server = createServerAndSetupForPlainAuthentication();
+        server.expect("MAIL FROM:<user@localhost>");
+        server.output("250 OK");
+        server.expect("RCPT TO:<user2@localhost>");
+        server.output("250 OK");
+        server.expect("DATA");
+        server.output("354 End data with <CR><LF>.<CR><LF>");
+        server.expect("[message data]");
+        server.expect(".");
+        server.output("250 OK: queued as 12345");
+        server.expect("MAIL FROM:<user@localhost>");
+        server.output("250 OK");
+        server.expect("RCPT TO:<user2@localhost>");
+        server.output("250 OK");
+        server.expect("DATA");
+        server.output("354 End data with <CR><LF>.<CR><LF>");
+        server.expect("[message data]");
+        server.expect(".");
+        server.output("250 OK: queued as 12346");
+        server.expect("QUIT");
+        server.output("221 BYE");
+        server.closeConnection();
+        SmtpTransport transport = startServerAndCreateSmtpTransport(server);
+
+        transport.beginSession();
+        transport.sendMessage(message);
+        transport.sendMessage(message);
+        server.verifyConnectionStillOpen();
+        transport.endSession();
+
+        server.verifyConnectionClosed();
+        server.verifyInteractionCompleted();
+    }
+
+    @Test
+    public void sendMessage_withSessionAfterRejectedRecipient_shouldResetTransaction() throws Exception {
+        Message message = getDefaultMessage();
+        MockSmtpServer server = createServerAndSetupForPlainAuthentication();
+        server.expect("MAIL FROM:<user@localhost>");
+        server.output("250 OK");
+        server.expect("RCPT TO:<user2@localhost>");
+        server.output("550 remote mail to <user2@localhost> not allowed");
+        server.expect("RSET");
+        server.output("250 OK");
+        server.expect("MAIL FROM:<user@localhost>");
+        server.output("250 OK");
+        server.expect("RCPT TO:<user2@localhost>");
+        server.output("250 OK");
+        server.expect("DATA");
+        server.output("354 End data with <CR><LF>.<CR><LF>");
+        server.expect("[message data]");
+        server.expect(".");
+        server.output("250 OK: queued as 12345");
+        server.expect("QUIT");
+        server.output("221 BYE");
+        server.closeConnection();
+        SmtpTransport transport = startServerAndCreateSmtpTransport(server);
+
+        transport.beginSession();
+        try {
+            transport.sendMessage(message);
+            fail("Expected exception");
+        } catch (NegativeSmtpReplyException e) {
+            assertEquals(550, e.getReplyCode());
+        }
+        transport.sendMessage(message);
+        transport.endSession();
+
+        server.verifyConnectionClosed();
+        server.verifyInteractionCompleted();
+    }
+
+    @Test
+    public void sendMessage_withSessionIdleForLongTime_shouldCheckConnection() throws Exception {
+        Message message = getDefaultMessage();
+        MockSmtpServer server = createServerAndSetupForPlainAuthentication();
+        server.expect("MAIL FROM:<user@localhost>");
+        server.output("250 OK");
+        server.expect("RCPT TO:<user2@localhost>");
+        server.output("250 OK");
+        server.expect("DATA");
+        server.output("354 End data with <CR><LF>.<CR><LF>");
+        server.expect("[message data]");
+        server.expect(".");
+        server.output("250 OK: queued as 12345");
+        server.expect("NOOP");
+        server.output("250 OK");
+        server.expect("MAIL FROM:<user@localhost>");
+        server.output("250 OK");
+        server.expect("RCPT TO:<user2@localhost>");
+        server.output("250 OK");
+        server.expect("DATA");
+        server.output("354 End data with <CR><LF>.<CR><LF>");
+        server.expect("[message data]");
+        server.expect(".");
+        server.output("250 OK: queued as 12346");
+        server.expect("QUIT");
+        server.output("221 BYE");
+        server.closeConnection();
+        SmtpTransport transport = startServerAndCreateSmtpTransport(server);
+
+        transport.beginSession();
+        transport.sendMessage(message);
+        currentTime += 60 * 1000L;
+        transport.sendMessage(message);
+        transport.endSession();
+
+        server.verifyConnectionClosed();
+        server.verifyInteractionCompleted();
     }
 
     @Test
@@ -884,7 +1051,12 @@ public class SmtpTransportTest {
                 password,
                 CLIENT_CERTIFICATE_ALIAS);
 
-        return new SmtpTransport(serverSettings, socketFactory, oAuth2TokenProvider);
+        return new SmtpTransport(serverSettings, socketFactory, oAuth2TokenProvider, new SmtpTransport.Clock() {
+            @Override
+            public long currentTimeMillis() {
+                return currentTime;
+            }
+        });
     }
 
     private TestMessageBuilder getDefaultMessageBuilder() {
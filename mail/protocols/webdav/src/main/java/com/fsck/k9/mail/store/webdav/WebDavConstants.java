@@ -12,6 +12,12 @@ class WebDavConstants {
 
     static final String[] EMPTY_STRING_ARRAY = new String[0];
 
+    // Maximum number of messages downloaded at the same time per account
+    static final int MAX_PARALLEL_FETCHES = 4;
+
+    // Maximum time in milliseconds to wait for a free connection of the connection manager
+    static final long CONNECTION_REQUEST_TIMEOUT = 60 * 1000;
+
     // These are the ids used from Exchange server to identify the special folders
     // http://social.technet.microsoft.com/Forums/en/exchangesvrdevelopment/thread/1cd2e98c-8a12-44bd-a3e3-9c5ee9e4e14d
     static final String DAV_MAIL_INBOX_FOLDER = "inbox";
@@ -8,21 +8,22 @@ import com.fsck.k9.mail.Message;
 import com.fsck.k9.mail.MessageRetrievalListener;
 import com.fsck.k9.mail.MessagingException;
 import com.fsck.k9.mail.filter.EOLConvertingOutputStream;
+import com.fsck.k9.mail.filter.LineLimitingInputStream;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.entity.StringEntity;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.DefaultedHttpContext;
+import org.apache.http.protocol.HttpContext;
 import timber.log.Timber;
 
 import java.io.BufferedOutputStream;
-import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
@@ -32,9 +33,14 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import static com.fsck.k9.mail.K9MailLib.DEBUG_PROTOCOL_WEBDAV;
 import static com.fsck.k9.mail.helper.UrlEncodingHelper.encodeUtf8;
+import static com.fsck.k9.mail.store.webdav.WebDavConstants.MAX_PARALLEL_FETCHES;
 
 /**
  * A WebDav Folder
@@ -300,113 +306,168 @@ public class WebDavFolder {
 
     /**
      * Fetches the full messages or up to {@param lines} lines and passes them to the message parser.
+     *
+     * Up to {@link WebDavConstants#MAX_PARALLEL_FETCHES} messages are downloaded at the same time using the store's
+     * fetch executor. The listener is only called from the calling thread, in the order of {@param messages}.
      */
     private void fetchMessages(List<WebDavMessage> messages, MessageRetrievalListener<WebDavMessage> listener, int lines)
             throws MessagingException {
-        WebDavHttpClient httpclient;
-        httpclient = store.getHttpClient();
+        final WebDavHttpClient httpclient = store.getHttpClient();
 
         /**
-         * We can't hand off to processRequest() since we need the stream to parse.
+         * If fetch is called outside of the initial list (ie, a locally stored message), it may not have a URL
+         * associated. Verify and fix that
          */
-        for (int i = 0, count = messages.size(); i < count; i++) {
-            WebDavMessage wdMessage = messages.get(i);
-            int statusCode = 0;
+        fixMissingMessageUrls(messages);
+
+        ExecutorService executor = store.getFetchExecutor();
+        List<Future<Void>> fetches = new ArrayList<>(messages.size());
+        try {
+            int count = messages.size();
+            for (int i = 0; i < count; i++) {
+                while (fetches.size() < count && fetches.size() - i < MAX_PARALLEL_FETCHES) {
+                    final WebDavMessage messageToFetch = messages.get(fetches.size());
+                    fetches.add(executor.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws MessagingException {
+                            fetchMessage(httpclient, messageToFetch, lines);
+                            return null;
+                        }
+                    }));
+                }
 
-            if (listener != null) {
-                listener.messageStarted(wdMessage.getUid(), i, count);
+                WebDavMessage wdMessage = messages.get(i);
+                if (listener != null) {
+                    listener.messageStarted(wdMessage.getUid(), i, count);
+                }
+
+                waitForFetch(fetches.get(i));
+
+                if (listener != null) {
+                    listener.messageFinished(wdMessage, i, count);
+                }
+            }
+        } finally {
+            for (Future<Void> fetch : fetches) {
+                fetch.cancel(true);
+            }
+        }
+    }
+
+    private void fixMissingMessageUrls(List<WebDavMessage> messages) throws MessagingException {
+        List<String> uids = new ArrayList<>();
+        for (WebDavMessage wdMessage : messages) {
+            if (wdMessage.getUrl().equals("")) {
+                uids.add(wdMessage.getUid());
             }
+        }
+        if (uids.isEmpty()) {
+            return;
+        }
 
-            /**
-             * If fetch is called outside of the initial list (ie, a locally stored message), it may not have a URL
-             * associated. Verify and fix that
-             */
+        Map<String, String> uidToUrl = getMessageUrls(uids.toArray(WebDavConstants.EMPTY_STRING_ARRAY));
+        for (WebDavMessage wdMessage : messages) {
             if (wdMessage.getUrl().equals("")) {
-                wdMessage.setUrl(getMessageUrls(new String[]{wdMessage.getUid()}).get(wdMessage.getUid()));
+                String url = uidToUrl.get(wdMessage.getUid());
+                if (url == null) {
+                    throw new MessagingException("Unable to get URL for message");
+                }
+                wdMessage.setUrl(url);
                 Timber.i("Fetching messages with UID = '%s', URL = '%s'", wdMessage.getUid(), wdMessage.getUrl());
                 if (wdMessage.getUrl().equals("")) {
                     throw new MessagingException("Unable to get URL for message");
                 }
             }
+        }
+    }
 
-            try {
-                Timber.i("Fetching message with UID = '%s', URL = '%s'", wdMessage.getUid(), wdMessage.getUrl());
-                HttpGet httpget = new HttpGet(new URI(wdMessage.getUrl()));
-                HttpResponse response;
-                HttpEntity entity;
-
-                httpget.setHeader("translate", "f");
-                if (store.getAuthentication() == WebDavConstants.AUTH_TYPE_BASIC) {
-                    httpget.setHeader("Authorization", store.getAuthString());
-                }
-                response = httpclient.executeOverride(httpget, store.getHttpContext());
+    private void waitForFetch(Future<Void> fetch) throws MessagingException {
+        try {
+            fetch.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MessagingException("Interrupted while fetching message", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof MessagingException) {
+                throw (MessagingException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else {
+                throw new MessagingException("Error fetching message", cause);
+            }
+        }
+    }
 
-                statusCode = response.getStatusLine().getStatusCode();
+    /**
+     * Downloads a single message. This is called on one of the threads of the store's fetch executor.
+     */
+    private void fetchMessage(WebDavHttpClient httpclient, WebDavMessage wdMessage, int lines)
+            throws MessagingException {
+        int statusCode = 0;
 
-                entity = response.getEntity();
+        /**
+         * We can't hand off to processRequest() since we need the stream to parse.
+         */
+        try {
+            Timber.i("Fetching message with UID = '%s', URL = '%s'", wdMessage.getUid(), wdMessage.getUrl());
+            HttpGet httpget = new HttpGet(new URI(wdMessage.getUrl()));
+            HttpResponse response;
+            HttpEntity entity;
 
-                if (statusCode < 200 ||
-                        statusCode > 300) {
-                    throw new IOException("Error during with code " + statusCode + " during fetch: "
-                            + response.getStatusLine().toString());
-                }
+            httpget.setHeader("translate", "f");
+            if (store.getAuthentication() == WebDavConstants.AUTH_TYPE_BASIC) {
+                httpget.setHeader("Authorization", store.getAuthString());
+            }
 
-                if (entity != null) {
-                    InputStream istream = null;
-                    StringBuilder buffer = new StringBuilder();
-                    String tempText;
-                    String resultText;
-                    BufferedReader reader = null;
-                    int currentLines = 0;
+            // The shared context holds the cookies. Request specific state has to go into a context of its own.
+            HttpContext requestContext = new DefaultedHttpContext(new BasicHttpContext(), store.getHttpContext());
+            response = httpclient.executeOverride(httpget, requestContext);
 
-                    try {
-                        istream = WebDavHttpClient.getUngzippedContent(entity);
+            statusCode = response.getStatusLine().getStatusCode();
 
-                        if (lines != -1) {
-                            //Convert the ungzipped input stream into a StringBuilder
-                            //containing the given line count
-                            reader = new BufferedReader(new InputStreamReader(istream), 8192);
+            entity = response.getEntity();
 
-                            while ((tempText = reader.readLine()) != null &&
-                                    (currentLines < lines)) {
-                                buffer.append(tempText).append("\r\n");
-                                currentLines++;
-                            }
+            if (statusCode < 200 ||
+                    statusCode > 300) {
+                WebDavHttpClient.consumeQuietly(entity);
+                throw new IOException("Error during with code " + statusCode + " during fetch: "
+                        + response.getStatusLine().toString());
+            }
 
-                            IOUtils.closeQuietly(istream);
+            if (entity != null) {
+                InputStream istream = null;
 
-                            resultText = buffer.toString();
-                            istream = new ByteArrayInputStream(resultText.getBytes("UTF-8"));
-                        }
-                        //Parse either the entire message stream, or a stream of the given lines
-                        wdMessage.parse(istream);
-
-                    } catch (IOException ioe) {
-                        Timber.e(ioe, "IOException during message parsing");
-                        throw new MessagingException("I/O Error", ioe);
-                    } finally {
-                        IOUtils.closeQuietly(reader);
-                        IOUtils.closeQuietly(istream);
+                try {
+                    istream = WebDavHttpClient.getUngzippedContent(entity);
+
+                    if (lines != -1) {
+                        // Stop reading after the given line count without decoding the bytes of the message
+                        istream = new LineLimitingInputStream(istream, lines);
                     }
-                } else {
-                    Timber.v("Empty response");
+                    //Parse either the entire message stream, or a stream of the given lines
+                    wdMessage.parse(istream);
+
+                } catch (IOException ioe) {
+                    Timber.e(ioe, "IOException during message parsing");
+                    throw new MessagingException("I/O Error", ioe);
+                } finally {
+                    IOUtils.closeQuietly(istream);
                 }
-
-            } catch (IllegalArgumentException iae) {
-                Timber.e(iae, "IllegalArgumentException caught");
-                throw new MessagingException("IllegalArgumentException caught", iae);
-            } catch (URISyntaxException use) {
-                Timber.e(use, "URISyntaxException caught");
-                throw new MessagingException("URISyntaxException caught", use);
-            } catch (IOException ioe) {
-                Timber.e(ioe, "Non-success response code loading message, response code was %d, URL: %s",
-                        statusCode, wdMessage.getUrl());
-                throw new MessagingException("Failure code " + statusCode, ioe);
+            } else {
+                Timber.v("Empty response");
             }
 
-            if (listener != null) {
-                listener.messageFinished(wdMessage, i, count);
-            }
+        } catch (IllegalArgumentException iae) {
+            Timber.e(iae, "IllegalArgumentException caught");
+            throw new MessagingException("IllegalArgumentException caught", iae);
+        } catch (URISyntaxException use) {
+            Timber.e(use, "URISyntaxException caught");
+            throw new MessagingException("URISyntaxException caught", use);
+        } catch (IOException ioe) {
+            Timber.e(ioe, "Non-success response code loading message, response code was %d, URL: %s",
+                    statusCode, wdMessage.getUrl());
+            throw new MessagingException("Failure code " + statusCode, ioe);
         }
     }
 
@@ -637,7 +698,9 @@ public class WebDavFolder {
 
                 Timber.i("Uploading message as %s", messageURL);
 
-                store.sendRequest(messageURL, "PUT", bodyEntity, null, true);
+                InputStream response = store.sendRequest(messageURL, "PUT", bodyEntity, null, true);
+                // The response isn't used, but it has to be closed to release the connection
+                IOUtils.closeQuietly(response);
 
                 WebDavMessage retMessage = new WebDavMessage(message.getUid(), this);
 
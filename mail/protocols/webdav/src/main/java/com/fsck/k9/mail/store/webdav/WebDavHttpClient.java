@@ -5,7 +5,16 @@ import org.apache.http.HttpEntity;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.HttpParams;
 import org.apache.http.protocol.HttpContext;
 import timber.log.Timber;
 
@@ -16,6 +25,7 @@ import java.util.zip.GZIPInputStream;
 /**
  * HTTP client for WebDAV communication
  */
+@SuppressWarnings("deprecation")
 public class WebDavHttpClient extends DefaultHttpClient {
     /*
      * Copyright (C) 2007 The Android Open Source Project
@@ -60,6 +70,43 @@ public class WebDavHttpClient extends DefaultHttpClient {
         return responseStream;
     }
 
+    /**
+     * Reads the rest of the entity so the connection is returned to the connection manager.
+     */
+    public static void consumeQuietly(HttpEntity entity) {
+        if (entity == null) {
+            return;
+        }
+
+        try {
+            entity.consumeContent();
+        } catch (IOException e) {
+            Timber.w(e, "Error consuming response");
+        }
+    }
+
+    /**
+     * Uses a connection manager that allows {@link WebDavConstants#MAX_PARALLEL_FETCHES} requests at the same time.
+     * The default one only manages a single connection.
+     * <p>
+     * Waiting for a free connection times out after {@link WebDavConstants#CONNECTION_REQUEST_TIMEOUT}. A response
+     * that is never consumed then fails later requests instead of blocking them forever.
+     */
+    @Override
+    protected ClientConnectionManager createClientConnectionManager() {
+        SchemeRegistry registry = new SchemeRegistry();
+        registry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+        registry.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
+
+        HttpParams params = getParams();
+        ConnManagerParams.setMaxTotalConnections(params, WebDavConstants.MAX_PARALLEL_FETCHES);
+        ConnManagerParams.setMaxConnectionsPerRoute(params,
+                new ConnPerRouteBean(WebDavConstants.MAX_PARALLEL_FETCHES));
+        ConnManagerParams.setTimeout(params, WebDavConstants.CONNECTION_REQUEST_TIMEOUT);
+
+        return new ThreadSafeClientConnManager(params, registry);
+    }
+
     public HttpResponse executeOverride(HttpUriRequest request, HttpContext context)
             throws IOException {
         modifyRequestToAcceptGzipResponse(request);
@@ -15,6 +15,10 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import com.fsck.k9.mail.CertificateValidationException;
 import com.fsck.k9.mail.ConnectionSecurity;
@@ -29,6 +33,7 @@ import javax.net.ssl.SSLException;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
+import org.apache.commons.io.IOUtils;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
@@ -49,6 +54,7 @@ import timber.log.Timber;
 
 import static com.fsck.k9.mail.K9MailLib.DEBUG_PROTOCOL_WEBDAV;
 import static com.fsck.k9.mail.helper.UrlEncodingHelper.decodeUtf8;
+import static com.fsck.k9.mail.store.webdav.WebDavConstants.MAX_PARALLEL_FETCHES;
 
 
 /**
@@ -59,6 +65,8 @@ import static com.fsck.k9.mail.helper.UrlEncodingHelper.decodeUtf8;
  */
 @SuppressWarnings("deprecation")
 public class WebDavStore {
+    private static final int FETCH_THREAD_KEEP_ALIVE_SECONDS = 30;
+
     private final DraftsFolderProvider draftsFolderProvider;
     private ConnectionSecurity mConnectionSecurity;
     private String username;
@@ -79,6 +87,7 @@ public class WebDavStore {
     private CookieStore authCookies = null;
     private short authenticationType = WebDavConstants.AUTH_TYPE_NONE;
     private String cachedLoginUrl;
+    private ExecutorService fetchExecutor = null;
 
     private WebDavFolder sendFolder = null;
     private Map<String, WebDavFolder> folderList = new HashMap<>();
@@ -152,6 +161,20 @@ public class WebDavStore {
         return authenticationType;
     }
 
+    /**
+     * Returns the executor used to download messages in parallel. Its threads terminate when they have been idle for
+     * a while, so there's no need to shut it down.
+     */
+    synchronized ExecutorService getFetchExecutor() {
+        if (fetchExecutor == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_PARALLEL_FETCHES, MAX_PARALLEL_FETCHES,
+                    FETCH_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+            executor.allowCoreThreadTimeOut(true);
+            fetchExecutor = executor;
+        }
+        return fetchExecutor;
+    }
+
     public void checkSettings() throws MessagingException {
         authenticate();
     }
@@ -456,6 +479,7 @@ public class WebDavStore {
 
                     WebDavHttpClient httpClient = getHttpClient();
                     HttpResponse response = httpClient.executeOverride(request, httpContext);
+                    WebDavHttpClient.consumeQuietly(response.getEntity());
 
                     int statusCode = response.getStatusLine().getStatusCode();
                     if (statusCode >= 200 && statusCode < 300) {
@@ -505,6 +529,8 @@ public class WebDavStore {
 
         try {
             HttpResponse response = httpClient.executeOverride(request, httpContext);
+            // Only the status line and headers are used
+            WebDavHttpClient.consumeQuietly(response.getEntity());
             info.statusCode = response.getStatusLine().getStatusCode();
 
             if (info.statusCode == 401) {
@@ -583,10 +609,19 @@ public class WebDavStore {
         request.setEntity(formEntity);
 
         HttpResponse response = httpClient.executeOverride(request, httpContext);
-        boolean authenticated = testAuthenticationResponse(response);
+        boolean authenticated;
+        String formAction = null;
+        try {
+            authenticated = testAuthenticationResponse(response);
+            if (!authenticated) {
+                // Check the response from the authentication request above for a form action.
+                formAction = findFormAction(WebDavHttpClient.getUngzippedContent(response.getEntity()));
+            }
+        } finally {
+            WebDavHttpClient.consumeQuietly(response.getEntity());
+        }
+
         if (!authenticated) {
-            // Check the response from the authentication request above for a form action.
-            String formAction = findFormAction(WebDavHttpClient.getUngzippedContent(response.getEntity()));
             if (formAction == null) {
                 // If there is no form action, try using our redirect URL from the initial connection.
                 if (info != null && info.redirectUrl != null && !info.redirectUrl.equals("")) {
@@ -596,7 +631,11 @@ public class WebDavStore {
                     request.setMethod("GET");
 
                     response = httpClient.executeOverride(request, httpContext);
-                    formAction = findFormAction(WebDavHttpClient.getUngzippedContent(response.getEntity()));
+                    try {
+                        formAction = findFormAction(WebDavHttpClient.getUngzippedContent(response.getEntity()));
+                    } finally {
+                        WebDavHttpClient.consumeQuietly(response.getEntity());
+                    }
                 }
             }
             if (formAction != null) {
@@ -638,6 +677,7 @@ public class WebDavStore {
                     request.setEntity(formEntity);
 
                     response = httpClient.executeOverride(request, httpContext);
+                    WebDavHttpClient.consumeQuietly(response.getEntity());
                     authenticated = testAuthenticationResponse(response);
                 } catch (URISyntaxException e) {
                     Timber.e(e, "URISyntaxException caught");
@@ -816,13 +856,18 @@ public class WebDavStore {
 
             entity = response.getEntity();
 
+            if (statusCode < 200 || statusCode >= 300) {
+                // The body of an error response isn't used. Release the connection before retrying or throwing.
+                WebDavHttpClient.consumeQuietly(entity);
+            }
+
             if (statusCode == 401) {
                 throw new MessagingException("Invalid username or password for Basic authentication.");
             } else if (statusCode == 440) {
                 if (tryAuth && authenticationType == WebDavConstants.AUTH_TYPE_FORM_BASED) {
                     // Our cookie expired, re-authenticate.
                     performFormBasedAuthentication(null);
-                    sendRequest(url, method, messageBody, headers, false);
+                    return sendRequest(url, method, messageBody, headers, false);
                 } else {
                     throw new MessagingException("Authentication failure in sendRequest().");
                 }
@@ -895,29 +940,32 @@ public class WebDavStore {
                 messageEntity.setContentType("text/xml");
             }
             InputStream istream = sendRequest(url, method, messageEntity, headers, true);
-            if (istream != null &&
-                    needsParsing) {
+            if (istream != null) {
+                // The stream is closed even if the response isn't parsed. Otherwise the connection is never returned
+                // to the connection manager.
                 try {
-                    SAXParserFactory spf = SAXParserFactory.newInstance();
-                    spf.setNamespaceAware(true); //This should be a no-op on Android, but makes the tests work
-                    SAXParser sp = spf.newSAXParser();
-                    XMLReader xr = sp.getXMLReader();
-                    WebDavHandler myHandler = new WebDavHandler();
+                    if (needsParsing) {
+                        SAXParserFactory spf = SAXParserFactory.newInstance();
+                        spf.setNamespaceAware(true); //This should be a no-op on Android, but makes the tests work
+                        SAXParser sp = spf.newSAXParser();
+                        XMLReader xr = sp.getXMLReader();
+                        WebDavHandler myHandler = new WebDavHandler();
 
-                    xr.setContentHandler(myHandler);
+                        xr.setContentHandler(myHandler);
 
-                    xr.parse(new InputSource(istream));
+                        xr.parse(new InputSource(istream));
 
-                    dataset = myHandler.getDataSet();
+                        dataset = myHandler.getDataSet();
+                    }
                 } catch (SAXException se) {
                     Timber.e(se, "SAXException in processRequest()");
                     throw new MessagingException("SAXException in processRequest() ", se);
                 } catch (ParserConfigurationException pce) {
                     Timber.e(pce, "ParserConfigurationException in processRequest()");
                     throw new MessagingException("ParserConfigurationException in processRequest() ", pce);
+                } finally {
+                    IOUtils.closeQuietly(istream);
                 }
-
-                istream.close();
             }
         } catch (UnsupportedEncodingException uee) {
             Timber.e(uee, "UnsupportedEncodingException: ");
@@ -2,6 +2,7 @@ package com.fsck.k9.mail.store.webdav;
 
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -10,6 +11,10 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import com.fsck.k9.mail.FetchProfile;
 import com.fsck.k9.mail.Message;
@@ -22,10 +27,12 @@ import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.entity.BasicHttpEntity;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.protocol.HttpContext;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
+import org.mockito.InOrder;
 import org.mockito.Matchers;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
@@ -33,6 +40,7 @@ import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
 import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -44,6 +52,7 @@ import static org.mockito.Matchers.anyMapOf;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -68,6 +77,7 @@ public class WebDavFolderTest {
     @Captor
     private ArgumentCaptor<StringEntity> entityCaptor;
 
+    private ExecutorService fetchExecutor = Executors.newFixedThreadPool(WebDavConstants.MAX_PARALLEL_FETCHES);
     private WebDavFolder folder;
 
     private WebDavFolder destinationFolder;
@@ -84,11 +94,17 @@ public class WebDavFolderTest {
         when(mockStore.getHttpClient()).thenReturn(mockHttpClient);
         when(mockStore.getMessageEnvelopeXml(any(String[].class))).thenReturn("mockEnvelopeXml");
         when(mockStore.getMessageFlagsXml(any(String[].class))).thenReturn("mockFlagsXml");
+        when(mockStore.getFetchExecutor()).thenReturn(fetchExecutor);
         folder = new WebDavFolder(mockStore, folderName);
 
         setupTempDirectory();
     }
 
+    @After
+    public void after() {
+        fetchExecutor.shutdownNow();
+    }
+
     private void setupTempDirectory() {
         File tempDirectory = new File("temp");
         if (!tempDirectory.exists()) {
@@ -337,6 +353,85 @@ public class WebDavFolderTest {
         verify(listener, times(25)).messageFinished(any(WebDavMessage.class), anyInt(), eq(25));
     }
 
+    @Test
+    public void folder_fetches_message_bodies_in_parallel() throws MessagingException, IOException {
+        setupStoreForMessageFetching();
+        final int messageCount = 2 * WebDavConstants.MAX_PARALLEL_FETCHES;
+        List<WebDavMessage> messages = new ArrayList<>();
+        for (int i = 0; i < messageCount; i++) {
+            WebDavMessage message = new WebDavMessage("message" + i, folder);
+            message.setUrl("http://example.org/Exchange/user/Inbox/message" + i + ".EML");
+            messages.add(message);
+        }
+        final CyclicBarrier barrier = new CyclicBarrier(WebDavConstants.MAX_PARALLEL_FETCHES);
+
+        when(mockHttpClient.executeOverride(any(HttpUriRequest.class), nullable(HttpContext.class))).thenAnswer(
+                new Answer<HttpResponse>() {
+                    @Override
+                    public HttpResponse answer(InvocationOnMock invocation) throws Throwable {
+                        // Only returns if the maximum number of requests is in flight at the same time
+                        barrier.await(5, TimeUnit.SECONDS);
+                        HttpResponse httpResponse = mock(HttpResponse.class);
+                        StatusLine statusLine = mock(StatusLine.class);
+                        when(httpResponse.getStatusLine()).thenReturn(statusLine);
+                        when(statusLine.getStatusCode()).thenReturn(200);
+                        return httpResponse;
+                    }
+                });
+
+        FetchProfile profile = new FetchProfile();
+        profile.add(FetchProfile.Item.BODY);
+        folder.fetch(messages, profile, listener, MAX_DOWNLOAD_SIZE);
+
+        InOrder inOrder = inOrder(listener);
+        for (int i = 0; i < messageCount; i++) {
+            inOrder.verify(listener).messageFinished(messages.get(i), i, messageCount);
+        }
+    }
+
+    @Test
+    public void folder_truncates_partial_body_without_decoding_it() throws Exception {
+        setupStoreForMessageFetching();
+        List<WebDavMessage> messages = singletonList(new WebDavMessage("message", folder));
+        messages.get(0).setUrl("http://example.org/Exchange/user/Inbox/message.EML");
+        ByteArrayOutputStream messageData = new ByteArrayOutputStream();
+        ByteArrayOutputStream expectedBody = new ByteArrayOutputStream();
+        messageData.write("Subject: Test\r\nContent-Type: text/plain; charset=ISO-8859-1\r\n\r\n".getBytes("US-ASCII"));
+        for (int i = 1; i <= 30; i++) {
+            byte[] line = ("l\u00E4ne " + i + "\r\n").getBytes("ISO-8859-1");
+            messageData.write(line);
+            // 25 lines are requested. 3 of them are used by the header.
+            if (i <= 22) {
+                expectedBody.write(line);
+            }
+        }
+        final byte[] messageBytes = messageData.toByteArray();
+
+        when(mockHttpClient.executeOverride(any(HttpUriRequest.class), nullable(HttpContext.class))).thenAnswer(
+                new Answer<HttpResponse>() {
+                    @Override
+                    public HttpResponse answer(InvocationOnMock invocation) throws Throwable {
+                        HttpResponse httpResponse = mock(HttpResponse.class);
+                        StatusLine statusLine = mock(StatusLine.class);
+                        when(httpResponse.getStatusLine()).thenReturn(statusLine);
+                        when(statusLine.getStatusCode()).thenReturn(200);
+
+                        BasicHttpEntity httpEntity = new BasicHttpEntity();
+                        httpEntity.setContent(new ByteArrayInputStream(messageBytes));
+                        when(httpResponse.getEntity()).thenReturn(httpEntity);
+                        return httpResponse;
+                    }
+                });
+
+        FetchProfile profile = new FetchProfile();
+        profile.add(FetchProfile.Item.BODY_SANE);
+        folder.fetch(messages, profile, listener, MAX_DOWNLOAD_SIZE);
+
+        ByteArrayOutputStream bodyData = new ByteArrayOutputStream();
+        messages.get(0).getBody().writeTo(bodyData);
+        assertArrayEquals(expectedBody.toByteArray(), bodyData.toByteArray());
+    }
+
     @Test
     public void folder_does_not_start_open() throws MessagingException {
         assertFalse(folder.isOpen());
@@ -3,6 +3,7 @@ package com.fsck.k9.mail.store.webdav;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.util.HashMap;
 import java.util.List;
@@ -18,6 +19,7 @@ import com.fsck.k9.mail.filter.Base64;
 import com.fsck.k9.mail.ssl.TrustManagerFactory;
 
 import javax.net.ssl.SSLException;
+import org.apache.commons.io.IOUtils;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpVersion;
@@ -46,6 +48,7 @@ import org.mockito.stubbing.OngoingStubbing;
 
 import static junit.framework.Assert.assertSame;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -261,10 +264,49 @@ public class WebDavStoreTest {
         assertEquals(3, folders.size());
     }
 
+    @Test
+    public void processRequest_withoutParsing_shouldCloseResponseStream() throws Exception {
+        CloseTrackingInputStream content = new CloseTrackingInputStream("");
+        configureHttpResponses(UNAUTHORIZED_401_RESPONSE, OK_200_RESPONSE, createResponse(200, content));
+
+        webDavStore.processRequest("https://webdav.example.org/Exchange/user/Inbox/1.eml", "DELETE", null, null,
+                false);
+
+        assertTrue(content.closed);
+    }
+
+    @Test
+    public void sendRequest_withLoginTimeoutResponse_shouldReturnResponseOfRetriedRequest() throws Exception {
+        CloseTrackingInputStream loginTimeoutContent = new CloseTrackingInputStream("Login Timeout");
+        CloseTrackingInputStream retryContent = new CloseTrackingInputStream("Retried");
+        when(mockHttpClient.executeOverride(any(HttpGeneric.class), any(HttpContext.class)))
+                .thenReturn(OK_200_RESPONSE)
+                .thenAnswer(createOkResponseWithCookie())
+                .thenReturn(OK_200_RESPONSE)
+                .thenReturn(createResponse(440, loginTimeoutContent))
+                .thenAnswer(createOkResponseWithCookie())
+                .thenReturn(OK_200_RESPONSE)
+                .thenReturn(createResponse(200, retryContent));
+
+        InputStream response = webDavStore.sendRequest("https://webdav.example.org/Exchange/user/Inbox/1.eml",
+                "GET", null, null, true);
+
+        assertTrue(loginTimeoutContent.closed);
+        assertEquals("Retried", IOUtils.toString(response, "UTF-8"));
+    }
+
     private static BasicHttpResponse createResponse(int statusCode) {
         return new BasicHttpResponse(new BasicStatusLine(HttpVersion.HTTP_1_1, statusCode, null));
     }
 
+    private static BasicHttpResponse createResponse(int statusCode, InputStream content) {
+        BasicHttpResponse response = createResponse(statusCode);
+        BasicHttpEntity entity = new BasicHttpEntity();
+        entity.setContent(content);
+        response.setEntity(entity);
+        return response;
+    }
+
     private static BasicHttpResponse createOkResponse() {
         return createResponse(200);
     }
@@ -373,4 +415,19 @@ public class WebDavStoreTest {
     private void assertHttpClientUsesHttps(boolean expected) {
         assertEquals(expected, requestCaptor.getValue().getURI().getScheme().startsWith("https"));
     }
+
+
+    static class CloseTrackingInputStream extends ByteArrayInputStream {
+        boolean closed = false;
+
+        CloseTrackingInputStream(String content) {
+            super(content.getBytes());
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            super.close();
+        }
+    }
 }